@@ -1,13 +1,86 @@
 #define SERIAL_INPUT_BUFFER_LEN 150
 #define CMD_START_CHAR '*'
 #define CMD_TOKEN_DELIMITER ","
+#define BATCH_DELIMITER ';'
+
+// Binary protocol mode, see BinaryFrameCodec.java / BinaryProtocol.java
+#define OP_PING 0x01
+#define OP_BLINK_LED 0x02
+#define OP_TEXT 0x7F
+#define OP_PONG 0x81
+#define OP_BLINK_LED_STATUS 0x82
+#define OP_ERROR 0xFE
+#define OP_TEXT_REPLY 0xFF
+
+#define BLINK_START 1
+#define BLINK_FINISH 2
+#define BLINK_ERROR 3
+#define BLINK_CANCELLED 4
+#define BLINK_BUSY 5
+
+#define ERROR_CRC 1
+#define ERROR_INVALID_OPCODE 2
+
+#define FRAME_BUFFER_LEN (SERIAL_INPUT_BUFFER_LEN + 8)
+
+#define MAX_STREAM_RATE 5000
+#define STREAM_ANALOG_PIN A0
+
+// Baud rate negotiation, see BaudNegotiator.java
+#define BOOT_BAUD_RATE 9600
+#define BAUD_CONFIRM_MS 1000
+
+// Blinks run from loop(), so serial input is still read while the LED is on
+#define BLINK_DELAY_MS 250
+#define BLINK_QUEUE_LEN 8
+
+const unsigned long BAUD_RATES[] = {9600, 19200, 38400, 57600, 115200, 230400, 250000, 500000, 1000000};
+
+bool binaryMode = false;
+unsigned long streamIntervalMicros = 0;
+unsigned long lastSampleMicros = 0;
+unsigned long baudRate = BOOT_BAUD_RATE;
+unsigned long previousBaudRate = BOOT_BAUD_RATE;
+unsigned long baudSwitchMillis = 0;
+bool baudPending = false;
+bool blinkActive = false;
+long blinkStepsLeft = 0;
+unsigned long blinkStepMillis = 0;
+int blinkQueue[BLINK_QUEUE_LEN];
+uint8_t blinkQueueHead = 0;
+uint8_t blinkQueueCount = 0;
+bool batchActive = false;
+int batchReplies = 0;
+
+// Declared up front so the sketch also builds as plain C++, see native/Makefile
+void loopSerialIO(void);
+void loopStream(void);
+void loopBaud(void);
+void loopBlink(void);
+void handleCommand(char *buffer);
+void commandPing(void);
+void commandBlinkLED(int numBlinks);
+void commandCancel(void);
+void commandStream(int samplesPerSecond);
+void commandBaud(long rate);
+void commandBaudConfirm(void);
+void commandBatch(char *commands);
+void startBlink(int numBlinks);
+void replyBlinkStatus(uint8_t status);
+void replyInvalidCommand(const char *command);
+void replyText(const char *prefix, const char *value);
+void handleFrame(uint8_t *frame, int encodedLength);
+void sendFrame(uint8_t opcode, const uint8_t *payload, int payloadLength);
+uint16_t crc16(const uint8_t *data, int length);
+int cobsEncode(const uint8_t *in, int length, uint8_t *out);
+int cobsDecode(uint8_t *buffer, int length);
 
 void setup()
 {
   pinMode(LED_BUILTIN, OUTPUT);
   digitalWrite(LED_BUILTIN, LOW);
 
-  Serial.begin(9600);
+  Serial.begin(BOOT_BAUD_RATE);
 
   Serial.println("@STARTED");
 }
@@ -15,16 +88,44 @@ void setup()
 void loop()
 {
   loopSerialIO();
+  loopStream();
+  loopBaud();
+  loopBlink();
 }
 
 void loopSerialIO(void)
 {
   static char serialBuffer[SERIAL_INPUT_BUFFER_LEN];
   static int serialBufferOffset = 0;
+  static bool frameOverflow = false;
 
   while (Serial.available())
   {
-    serialBuffer[serialBufferOffset] = Serial.read();
+    char c = Serial.read();
+
+    if (binaryMode)
+    {
+      if (c == 0)
+      {
+        if (serialBufferOffset > 0 && !frameOverflow)
+        {
+          handleFrame((uint8_t *)serialBuffer, serialBufferOffset);
+        }
+        serialBufferOffset = 0;
+        frameOverflow = false;
+      }
+      else if (serialBufferOffset < SERIAL_INPUT_BUFFER_LEN)
+      {
+        serialBuffer[serialBufferOffset++] = c;
+      }
+      else
+      {
+        frameOverflow = true;
+      }
+      continue;
+    }
+
+    serialBuffer[serialBufferOffset] = c;
     if (serialBuffer[serialBufferOffset] == '\n')
     {
       serialBuffer[serialBufferOffset] = '\0';
@@ -43,10 +144,14 @@ void loopSerialIO(void)
 
 void handleCommand(char *buffer)
 {
+  if (buffer[0] == '\0')
+  {
+    return;
+  }
+
   if (buffer[0] != CMD_START_CHAR)
   {
-    Serial.print("@ERROR,INVALID_COMMAND,");
-    Serial.println(buffer);
+    replyInvalidCommand(buffer);
     return;
   }
 
@@ -54,40 +159,502 @@ void handleCommand(char *buffer)
 
   if (strcmp(command, "*PING") == 0)
   {
-    Serial.println("@PONG");
+    commandPing();
   }
   else if (strcmp(command, "*BLINK_LED") == 0)
   {
     char *valueStr = strtok(NULL, CMD_TOKEN_DELIMITER);
     if (valueStr != NULL)
     {
-      int numBlinks = atoi(valueStr);
-      Serial.println("@BLINK_LED,START");
-      blinkLED(numBlinks);
-      Serial.println("@BLINK_LED,FINISH");
+      commandBlinkLED(atoi(valueStr));
+    }
+    else
+    {
+      replyBlinkStatus(BLINK_ERROR);
+    }
+  }
+  else if (strcmp(command, "*CANCEL") == 0)
+  {
+    commandCancel();
+  }
+  else if (strcmp(command, "*STREAM") == 0)
+  {
+    char *valueStr = strtok(NULL, CMD_TOKEN_DELIMITER);
+    commandStream(valueStr != NULL ? atoi(valueStr) : -1);
+  }
+  else if (strcmp(command, "*BAUD") == 0 && !batchActive)
+  {
+    char *valueStr = strtok(NULL, CMD_TOKEN_DELIMITER);
+    if (valueStr != NULL && strcmp(valueStr, "CONFIRM") == 0)
+    {
+      commandBaudConfirm();
     }
     else
     {
-      Serial.println("@BLINK_LED,ERROR,INVALID_NUM_BLINKS");
+      commandBaud(valueStr != NULL ? atol(valueStr) : -1);
     }
   }
+  else if (strcmp(command, "*BINARY") == 0 && !binaryMode && !batchActive)
+  {
+    // Acknowledge in ASCII, then everything after this line is framed
+    Serial.println("@BINARY,OK");
+    binaryMode = true;
+  }
+  else if (strcmp(command, "*BATCH") == 0 && !batchActive)
+  {
+    // The rest of the line, commas included
+    char *commands = strtok(NULL, "");
+    commandBatch(commands != NULL ? commands : command + strlen(command));
+  }
   else
   {
-    Serial.print("@ERROR,INVALID_COMMAND,");
-    Serial.println(command);
+    replyInvalidCommand(command);
   }
 }
 
-void blinkLED(int numBlinks)
+void commandPing(void)
 {
-  for (int i = 0; i < numBlinks; i++)
+  if (binaryMode)
+  {
+    sendFrame(OP_PONG, NULL, 0);
+  }
+  else
+  {
+    replyText("@PONG", "");
+  }
+}
+
+// Blinks requested while one is running wait their turn, as they did when blinking blocked
+void commandBlinkLED(int numBlinks)
+{
+  if (!blinkActive)
+  {
+    startBlink(numBlinks);
+  }
+  else if (blinkQueueCount < BLINK_QUEUE_LEN)
+  {
+    blinkQueue[(blinkQueueHead + blinkQueueCount) % BLINK_QUEUE_LEN] = numBlinks;
+    blinkQueueCount++;
+  }
+  else
+  {
+    replyBlinkStatus(BLINK_BUSY);
+  }
+}
+
+// Stops the running blink and drops the queued ones, each of which is answered as cancelled
+void commandCancel(void)
+{
+  int cancelled = 0;
+  if (blinkActive)
   {
-    digitalWrite(LED_BUILTIN, HIGH);
-    delay(250);
     digitalWrite(LED_BUILTIN, LOW);
-    if (i < numBlinks - 1)
+    blinkActive = false;
+    replyBlinkStatus(BLINK_CANCELLED);
+    cancelled++;
+  }
+  while (blinkQueueCount > 0)
+  {
+    blinkQueueCount--;
+    replyBlinkStatus(BLINK_CANCELLED);
+    cancelled++;
+  }
+  blinkQueueHead = 0;
+
+  char value[12];
+  snprintf(value, sizeof(value), "%d", cancelled);
+  replyText("@CANCEL,OK,", value);
+}
+
+void startBlink(int numBlinks)
+{
+  replyBlinkStatus(BLINK_START);
+  if (numBlinks <= 0)
+  {
+    replyBlinkStatus(BLINK_FINISH);
+    return;
+  }
+
+  // numBlinks on phases with an off phase between each, BLINK_DELAY_MS apiece
+  digitalWrite(LED_BUILTIN, HIGH);
+  blinkStepsLeft = 2L * numBlinks - 1;
+  blinkStepMillis = millis();
+  blinkActive = true;
+}
+
+void loopBlink(void)
+{
+  if (!blinkActive || millis() - blinkStepMillis < BLINK_DELAY_MS)
+  {
+    return;
+  }
+
+  blinkStepMillis += BLINK_DELAY_MS;
+  if (--blinkStepsLeft > 0)
+  {
+    digitalWrite(LED_BUILTIN, blinkStepsLeft % 2 == 0 ? LOW : HIGH);
+    return;
+  }
+
+  digitalWrite(LED_BUILTIN, LOW);
+  blinkActive = false;
+  replyBlinkStatus(BLINK_FINISH);
+
+  // Back to back, like the next command waiting in the receive buffer used to be
+  while (!blinkActive && blinkQueueCount > 0)
+  {
+    int numBlinks = blinkQueue[blinkQueueHead];
+    blinkQueueHead = (blinkQueueHead + 1) % BLINK_QUEUE_LEN;
+    blinkQueueCount--;
+    startBlink(numBlinks);
+  }
+}
+
+void commandStream(int samplesPerSecond)
+{
+  if (samplesPerSecond < 0 || samplesPerSecond > MAX_STREAM_RATE)
+  {
+    replyText("@STREAM,ERROR,INVALID_RATE", "");
+    return;
+  }
+
+  streamIntervalMicros = samplesPerSecond == 0 ? 0 : 1000000UL / samplesPerSecond;
+  lastSampleMicros = micros();
+  replyText("@STREAM,OK", "");
+}
+
+void commandBaud(long rate)
+{
+  bool supported = false;
+  for (unsigned int i = 0; i < sizeof(BAUD_RATES) / sizeof(BAUD_RATES[0]); i++)
+  {
+    if (rate >= 0 && (unsigned long)rate == BAUD_RATES[i])
+    {
+      supported = true;
+    }
+  }
+
+  if (!supported)
+  {
+    replyText("@BAUD,ERROR,INVALID_RATE", "");
+    return;
+  }
+
+  char value[12];
+  snprintf(value, sizeof(value), "%lu", (unsigned long)rate);
+  replyText("@BAUD,OK,", value);
+
+  // Acknowledge at the old rate, then switch; loopBaud() switches back unless the host confirms
+  Serial.flush();
+  Serial.end();
+  Serial.begin(rate);
+
+  if (!baudPending)
+  {
+    previousBaudRate = baudRate;
+  }
+  baudRate = rate;
+  baudPending = true;
+  baudSwitchMillis = millis();
+}
+
+void commandBaudConfirm(void)
+{
+  baudPending = false;
+
+  char value[12];
+  snprintf(value, sizeof(value), "%lu", baudRate);
+  replyText("@BAUD,CONFIRMED,", value);
+}
+
+void loopBaud(void)
+{
+  if (!baudPending || millis() - baudSwitchMillis < BAUD_CONFIRM_MS)
+  {
+    return;
+  }
+
+  // The host never confirmed, so it cannot hear us at this rate
+  Serial.end();
+  Serial.begin(previousBaudRate);
+  baudRate = previousBaudRate;
+  baudPending = false;
+}
+
+/*
+ * *BATCH,<command>;<command>;... runs the commands in order, as if each had
+ * come on its own line. In ASCII mode their replies are folded into one,
+ * "@BATCH,<count>,<reply>;<reply>;...", written as they happen so the
+ * batch needs no buffer of its own; in binary mode they go in their own
+ * frames, followed by "@BATCH,<count>". Replies that come later, such as
+ * a blink finishing, are sent on their own as usual. *BAUD, *BINARY and
+ * *BATCH itself are refused inside a batch.
+ */
+void commandBatch(char *commands)
+{
+  // Counted first, since the count leads the reply
+  int count = 0;
+  bool inCommand = false;
+  for (char *c = commands; *c != '\0'; c++)
+  {
+    if (*c == BATCH_DELIMITER)
+    {
+      inCommand = false;
+    }
+    else if (!inCommand)
+    {
+      inCommand = true;
+      count++;
+    }
+  }
+
+  char value[12];
+  snprintf(value, sizeof(value), "%d", count);
+  if (!binaryMode)
+  {
+    Serial.print("@BATCH,");
+    Serial.print(value);
+  }
+
+  // Not strtok(), which the commands use themselves
+  batchActive = true;
+  batchReplies = 0;
+  char *next = commands;
+  while (next != NULL)
+  {
+    char *end = strchr(next, BATCH_DELIMITER);
+    if (end != NULL)
+    {
+      *end = '\0';
+    }
+    handleCommand(next);
+    next = end != NULL ? end + 1 : NULL;
+  }
+  batchActive = false;
+
+  if (!binaryMode)
+  {
+    Serial.println("");
+  }
+  else
+  {
+    replyText("@BATCH,", value);
+  }
+}
+
+void loopStream(void)
+{
+  if (streamIntervalMicros == 0)
+  {
+    return;
+  }
+
+  unsigned long now = micros();
+  if (now - lastSampleMicros < streamIntervalMicros)
+  {
+    return;
+  }
+
+  lastSampleMicros += streamIntervalMicros;
+  if (now - lastSampleMicros > streamIntervalMicros)
+  {
+    // Fell behind; skip samples rather than sending a burst
+    lastSampleMicros = now;
+  }
+
+  char line[32];
+  snprintf(line, sizeof(line), "@SAMPLE,%lu,%d", now, analogRead(STREAM_ANALOG_PIN));
+  replyText(line, "");
+}
+
+void replyBlinkStatus(uint8_t status)
+{
+  if (binaryMode)
+  {
+    sendFrame(OP_BLINK_LED_STATUS, &status, 1);
+  }
+  else if (status == BLINK_START)
+  {
+    replyText("@BLINK_LED,START", "");
+  }
+  else if (status == BLINK_FINISH)
+  {
+    replyText("@BLINK_LED,FINISH", "");
+  }
+  else if (status == BLINK_CANCELLED)
+  {
+    replyText("@BLINK_LED,CANCELLED", "");
+  }
+  else if (status == BLINK_BUSY)
+  {
+    replyText("@BLINK_LED,ERROR,BUSY", "");
+  }
+  else
+  {
+    replyText("@BLINK_LED,ERROR,INVALID_NUM_BLINKS", "");
+  }
+}
+
+void replyInvalidCommand(const char *command)
+{
+  replyText("@ERROR,INVALID_COMMAND,", command);
+}
+
+// Prints prefix + value as one line; in binary mode the line travels in a text frame
+void replyText(const char *prefix, const char *value)
+{
+  if (!binaryMode && batchActive)
+  {
+    // One more reply on the line commandBatch() started
+    Serial.print(batchReplies++ == 0 ? "," : ";");
+    Serial.print(prefix);
+    Serial.print(value);
+    return;
+  }
+
+  if (!binaryMode)
+  {
+    Serial.print(prefix);
+    Serial.println(value);
+    return;
+  }
+
+  static uint8_t text[SERIAL_INPUT_BUFFER_LEN];
+  size_t length = strlen(prefix);
+  memcpy(text, prefix, length);
+  size_t valueLength = strlen(value);
+  if (valueLength > sizeof(text) - length)
+  {
+    valueLength = sizeof(text) - length;
+  }
+  memcpy(text + length, value, valueLength);
+  sendFrame(OP_TEXT_REPLY, text, length + valueLength);
+}
+
+void handleFrame(uint8_t *frame, int encodedLength)
+{
+  int length = cobsDecode(frame, encodedLength);
+  if (length < 3 || crc16(frame, length - 2) != (uint16_t)((frame[length - 2] << 8) | frame[length - 1]))
+  {
+    uint8_t error = ERROR_CRC;
+    sendFrame(OP_ERROR, &error, 1);
+    return;
+  }
+
+  uint8_t opcode = frame[0];
+  uint8_t *payload = frame + 1;
+  int payloadLength = length - 3;
+
+  if (opcode == OP_PING)
+  {
+    commandPing();
+  }
+  else if (opcode == OP_BLINK_LED && payloadLength == 2)
+  {
+    commandBlinkLED((int16_t)((payload[0] << 8) | payload[1]));
+  }
+  else if (opcode == OP_TEXT && payloadLength < SERIAL_INPUT_BUFFER_LEN)
+  {
+    // Commands without an opcode of their own run through the ASCII parser
+    payload[payloadLength] = '\0';
+    handleCommand((char *)payload);
+  }
+  else
+  {
+    uint8_t error[] = {ERROR_INVALID_OPCODE, opcode};
+    sendFrame(OP_ERROR, error, sizeof(error));
+  }
+}
+
+void sendFrame(uint8_t opcode, const uint8_t *payload, int payloadLength)
+{
+  static uint8_t raw[FRAME_BUFFER_LEN];
+  static uint8_t encoded[FRAME_BUFFER_LEN + 2];
+
+  if (payloadLength > FRAME_BUFFER_LEN - 3)
+  {
+    payloadLength = FRAME_BUFFER_LEN - 3;
+  }
+
+  raw[0] = opcode;
+  memcpy(raw + 1, payload, payloadLength);
+  uint16_t crc = crc16(raw, payloadLength + 1);
+  raw[payloadLength + 1] = crc >> 8;
+  raw[payloadLength + 2] = crc & 0xFF;
+
+  int length = cobsEncode(raw, payloadLength + 3, encoded);
+  encoded[length++] = 0;
+  Serial.write(encoded, length);
+}
+
+// CRC-16/CCITT-FALSE
+uint16_t crc16(const uint8_t *data, int length)
+{
+  uint16_t crc = 0xFFFF;
+  for (int i = 0; i < length; i++)
+  {
+    crc ^= (uint16_t)data[i] << 8;
+    for (int bit = 0; bit < 8; bit++)
+    {
+      crc = (crc & 0x8000) ? (crc << 1) ^ 0x1021 : crc << 1;
+    }
+  }
+  return crc;
+}
+
+int cobsEncode(const uint8_t *in, int length, uint8_t *out)
+{
+  int codeIndex = 0;
+  int writeIndex = 1;
+  uint8_t code = 1;
+
+  for (int i = 0; i < length; i++)
+  {
+    if (in[i] == 0)
+    {
+      out[codeIndex] = code;
+      codeIndex = writeIndex++;
+      code = 1;
+    }
+    else
+    {
+      out[writeIndex++] = in[i];
+      if (++code == 0xFF)
+      {
+        out[codeIndex] = code;
+        codeIndex = writeIndex++;
+        code = 1;
+      }
+    }
+  }
+
+  out[codeIndex] = code;
+  return writeIndex;
+}
+
+// Decodes in place, returns -1 for a malformed frame
+int cobsDecode(uint8_t *buffer, int length)
+{
+  int readIndex = 0;
+  int writeIndex = 0;
+
+  while (readIndex < length)
+  {
+    uint8_t code = buffer[readIndex++];
+    if (code == 0 || readIndex + code - 1 > length)
+    {
+      return -1;
+    }
+
+    for (uint8_t i = 1; i < code; i++)
+    {
+      buffer[writeIndex++] = buffer[readIndex++];
+    }
+
+    if (code != 0xFF && readIndex < length)
     {
-      delay(250);
+      buffer[writeIndex++] = 0;
     }
   }
+  return writeIndex;
 }
@@ -0,0 +1,152 @@
+#include "Arduino.h"
+
+#include <errno.h>
+#include <math.h>
+#include <poll.h>
+#include <time.h>
+#include <unistd.h>
+
+HardwareSerial Serial;
+
+bool arduinoTracePins = false;
+
+static uint64_t bootNanos = 0;
+
+static uint64_t nowNanos(void)
+{
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC, &ts);
+  return (uint64_t)ts.tv_sec * 1000000000ULL + ts.tv_nsec;
+}
+
+static uint64_t elapsedNanos(void)
+{
+  if (bootNanos == 0)
+  {
+    bootNanos = nowNanos();
+  }
+  return nowNanos() - bootNanos;
+}
+
+// Like the AVR counters, both wrap around at 32 bits
+unsigned long millis(void)
+{
+  return (uint32_t)(elapsedNanos() / 1000000ULL);
+}
+
+unsigned long micros(void)
+{
+  return (uint32_t)(elapsedNanos() / 1000ULL);
+}
+
+void delay(unsigned long ms)
+{
+  struct timespec ts = {(time_t)(ms / 1000), (long)(ms % 1000) * 1000000L};
+  while (nanosleep(&ts, &ts) != 0 && errno == EINTR)
+  {
+  }
+}
+
+void pinMode(uint8_t pin, uint8_t mode)
+{
+  (void)pin;
+  (void)mode;
+}
+
+void digitalWrite(uint8_t pin, uint8_t value)
+{
+  if (arduinoTracePins)
+  {
+    fprintf(stderr, "%lu pin %d %s\n", millis(), pin, value == LOW ? "LOW" : "HIGH");
+  }
+}
+
+// The same 1 Hz sine the Java emulator streams
+int analogRead(uint8_t pin)
+{
+  (void)pin;
+  double seconds = elapsedNanos() / 1e9;
+  int value = (int)(512 + 400 * sin(2 * M_PI * seconds)) + rand() % 17 - 8;
+  return value < 0 ? 0 : (value > 1023 ? 1023 : value);
+}
+
+// There is no line to clock, so the baud rate is only accepted
+void HardwareSerial::begin(unsigned long baud)
+{
+  (void)baud;
+}
+
+void HardwareSerial::end(void)
+{
+}
+
+int HardwareSerial::available(void)
+{
+  if (rxCount == 0)
+  {
+    ssize_t count = ::read(STDIN_FILENO, rxBuffer, sizeof(rxBuffer));
+    if (count == 0)
+    {
+      // The host closed the port
+      exit(0);
+    }
+    if (count > 0)
+    {
+      rxHead = 0;
+      rxCount = count;
+    }
+  }
+  return rxCount;
+}
+
+int HardwareSerial::read(void)
+{
+  if (available() == 0)
+  {
+    return -1;
+  }
+  rxCount--;
+  return rxBuffer[rxHead++];
+}
+
+void HardwareSerial::flush(void)
+{
+}
+
+size_t HardwareSerial::print(const char *str)
+{
+  return write((const uint8_t *)str, strlen(str));
+}
+
+size_t HardwareSerial::println(const char *str)
+{
+  size_t length = print(str);
+  return length + write((const uint8_t *)"\r\n", 2);
+}
+
+size_t HardwareSerial::write(const uint8_t *buffer, size_t size)
+{
+  size_t written = 0;
+  while (written < size)
+  {
+    ssize_t count = ::write(STDOUT_FILENO, buffer + written, size - written);
+    if (count < 0 && errno == EINTR)
+    {
+      continue;
+    }
+    if (count < 0 && errno == EAGAIN)
+    {
+      // A pseudo-terminal shares stdin's O_NONBLOCK; block like a full TX buffer would
+      struct pollfd fd = {STDOUT_FILENO, POLLOUT, 0};
+      poll(&fd, 1, -1);
+      continue;
+    }
+    if (count < 0)
+    {
+      // Nobody is listening any more
+      exit(0);
+    }
+    written += count;
+  }
+  return written;
+}
@@ -0,0 +1,53 @@
+// The part of the Arduino core ArduinoGUIDemo.ino uses, implemented on top
+// of POSIX so the sketch runs as an ordinary process. Serial is stdin and
+// stdout, the LED and analog input are simulated.
+#ifndef ARDUINO_H
+#define ARDUINO_H
+
+#include <stddef.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#define HIGH 1
+#define LOW 0
+#define INPUT 0
+#define OUTPUT 1
+
+#define LED_BUILTIN 13
+#define A0 14
+
+void pinMode(uint8_t pin, uint8_t mode);
+void digitalWrite(uint8_t pin, uint8_t value);
+int analogRead(uint8_t pin);
+
+unsigned long millis(void);
+unsigned long micros(void);
+void delay(unsigned long ms);
+
+class HardwareSerial
+{
+public:
+  void begin(unsigned long baud);
+  void end(void);
+  int available(void);
+  int read(void);
+  void flush(void);
+  size_t print(const char *str);
+  size_t println(const char *str);
+  size_t write(const uint8_t *buffer, size_t size);
+
+private:
+  uint8_t rxBuffer[64];
+  size_t rxHead = 0;
+  size_t rxCount = 0;
+};
+
+extern HardwareSerial Serial;
+
+// Provided by the sketch
+void setup(void);
+void loop(void);
+
+#endif
@@ -0,0 +1,85 @@
+// Runs the sketch as a process, e.g. for ProcessTransport:
+//   arduinoguidemo [-v] [-p]
+// -v traces pin changes on stderr.
+// -p serves Serial on a new pseudo-terminal instead of stdin and stdout and
+//    prints its name, e.g. /dev/pts/3, which then opens like a real port.
+//    Unlike a board it does not reset when the port is opened.
+#include "Arduino.h"
+
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <termios.h>
+#include <unistd.h>
+
+extern bool arduinoTracePins;
+
+static bool openPseudoTerminal(void)
+{
+  int master = posix_openpt(O_RDWR | O_NOCTTY);
+  if (master < 0 || grantpt(master) != 0 || unlockpt(master) != 0)
+  {
+    perror("posix_openpt");
+    return false;
+  }
+  const char *name = ptsname(master);
+
+  // Kept open so the master does not read a hangup between clients, and raw
+  // so the line discipline neither echoes our replies back nor rewrites them
+  int slave = open(name, O_RDWR | O_NOCTTY);
+  struct termios raw;
+  if (slave < 0 || tcgetattr(slave, &raw) != 0)
+  {
+    perror(name);
+    return false;
+  }
+  cfmakeraw(&raw);
+  tcsetattr(slave, TCSANOW, &raw);
+
+  printf("%s\n", name);
+  fflush(stdout);
+  dup2(master, STDIN_FILENO);
+  dup2(master, STDOUT_FILENO);
+  close(master);
+  return true;
+}
+
+int main(int argc, char **argv)
+{
+  bool pseudoTerminal = false;
+  for (int i = 1; i < argc; i++)
+  {
+    if (strcmp(argv[i], "-v") == 0)
+    {
+      arduinoTracePins = true;
+    }
+    else if (strcmp(argv[i], "-p") == 0)
+    {
+      pseudoTerminal = true;
+    }
+  }
+
+  if (pseudoTerminal && !openPseudoTerminal())
+  {
+    return 1;
+  }
+
+  // Serial.available() must not block, and a vanished host must not kill us with SIGPIPE
+  fcntl(STDIN_FILENO, F_SETFL, fcntl(STDIN_FILENO, F_GETFL) | O_NONBLOCK);
+  signal(SIGPIPE, SIG_IGN);
+
+  millis();
+  setup();
+  for (;;)
+  {
+    loop();
+
+    // Instead of spinning, wait up to 100 us for input; still fast enough for a 5 kHz stream
+    if (Serial.available() == 0)
+    {
+      struct pollfd fd = {STDIN_FILENO, POLLIN, 0};
+      struct timespec timeout = {0, 100000};
+      ppoll(&fd, 1, &timeout, NULL);
+    }
+  }
+}
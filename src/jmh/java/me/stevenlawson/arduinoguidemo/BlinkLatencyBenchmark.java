@@ -0,0 +1,53 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Round trip of a *PING sent while the board is in the middle of a long
+ * blink. Before loopBlink() the ping waited for the blink to finish, up to
+ * blinkDurationMS() of it; now it only waits for the wire.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class BlinkLatencyBenchmark
+{
+    // About 80 minutes of blinking, far longer than the run
+    private static final int NUM_BLINKS = 10_000;
+
+    @Param(
+            {
+                "9600", "115200"
+            })
+    public int baudRate;
+
+    private JSCSerialSession session;
+    private CompletableFuture<String> blink;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        session = new JSCSerialSession(new ArduinoEmulator("EMU").setBaudRate(baudRate));
+        session.getStarted().get();
+        blink = session.blinkLEDAsync(NUM_BLINKS, TimeUnit.HOURS.toMillis(2));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        session.cancelAsync(1_000).get();
+        System.out.printf("%nBlink %s%n", blink.isCompletedExceptionally() ? "cancelled" : "still running");
+        session.terminate();
+    }
+
+    @Benchmark
+    public String pingDuringBlink() throws Exception
+    {
+        return session.pingAsync(1_000).get();
+    }
+}
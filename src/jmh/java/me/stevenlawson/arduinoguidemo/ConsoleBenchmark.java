@@ -0,0 +1,117 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * append: one line into a TrafficLog. refreshAndPaint: LINES_PER_FRAME new
+ * lines arrive, then the console catches up and paints itself into an
+ * 800x400 image, on a log that has already wrapped; the cost should not
+ * depend on the capacity. post: a UIUpdateBatcher flooded with updates to
+ * KEYS keys from the benchmark thread; the EDT passes are printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsoleBenchmark
+{
+    private static final int LINES_PER_FRAME = 250;
+    private static final int KEYS = 4;
+
+    @Param(
+            {
+                "4096", "65536", "1048576"
+            })
+    public int capacity;
+
+    private TrafficLog log;
+    private TrafficConsole console;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private UIUpdateBatcher batcher;
+    private long sequence = 0;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        log = new TrafficLog(capacity);
+        for (int i = 0; i < capacity * 2; i++)
+        {
+            log.append((i & 1) == 0 ? TrafficLog.Direction.SENT : TrafficLog.Direction.RECEIVED, line(i));
+        }
+        SwingUtilities.invokeAndWait(() ->
+        {
+            console = new TrafficConsole(log, new Font("Tahoma", Font.PLAIN, 18));
+            console.setSize(800, 400);
+            layout(console);
+            console.refresh();
+            layout(console);
+        });
+        image = new BufferedImage(800, 400, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        batcher = new UIUpdateBatcher();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        graphics.dispose();
+        System.out.printf("%nBatcher: %d posted, %d coalesced, %d EDT passes%n", batcher.getPosted(), batcher.getCoalesced(), batcher.getPasses());
+    }
+
+    private static String line(final long i)
+    {
+        return (i & 1) == 0 ? "*PING" : "@SAMPLE," + i + ",512";
+    }
+
+    // Without a window there is nobody to validate the tree
+    private static void layout(final Component component)
+    {
+        if (component instanceof Container)
+        {
+            ((Container) component).doLayout();
+            for (Component child : ((Container) component).getComponents())
+            {
+                layout(child);
+            }
+        }
+    }
+
+    @Benchmark
+    public void append()
+    {
+        log.append(TrafficLog.Direction.RECEIVED, "@PONG");
+    }
+
+    @Benchmark
+    public void refreshAndPaint() throws Exception
+    {
+        for (int i = 0; i < LINES_PER_FRAME; i++)
+        {
+            log.append(TrafficLog.Direction.RECEIVED, "@SAMPLE,123456,512");
+        }
+        SwingUtilities.invokeAndWait(() ->
+        {
+            console.refresh();
+            layout(console);
+            console.paint(graphics);
+        });
+    }
+
+    @Benchmark
+    public void post()
+    {
+        batcher.post(sequence++ % KEYS, () ->
+        {
+        });
+    }
+}
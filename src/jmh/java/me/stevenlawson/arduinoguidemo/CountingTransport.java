@@ -0,0 +1,67 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CountingTransport implements SerialTransport
+{
+    private final SerialTransport transport;
+    private final AtomicLong bytesOut = new AtomicLong(0);
+    private final AtomicLong bytesIn = new AtomicLong(0);
+    private final AtomicLong writes = new AtomicLong(0);
+
+    public CountingTransport(final SerialTransport transport)
+    {
+        this.transport = transport;
+    }
+
+    @Override
+    public String getPortName()
+    {
+        return transport.getPortName();
+    }
+
+    @Override
+    public boolean setEnabled(final boolean enabled)
+    {
+        return transport.setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return transport.isConnected();
+    }
+
+    @Override
+    public int writeBytes(final byte[] data, final int length)
+    {
+        writes.incrementAndGet();
+        bytesOut.addAndGet(length);
+        return transport.writeBytes(data, length);
+    }
+
+    @Override
+    public void setDataListener(final DataListener listener)
+    {
+        transport.setDataListener(listener == null ? null : (data, length) ->
+        {
+            bytesIn.addAndGet(length);
+            listener.dataReceived(data, length);
+        });
+    }
+
+    public long getBytesOut()
+    {
+        return bytesOut.get();
+    }
+
+    public long getBytesIn()
+    {
+        return bytesIn.get();
+    }
+
+    public long getWrites()
+    {
+        return writes.get();
+    }
+}
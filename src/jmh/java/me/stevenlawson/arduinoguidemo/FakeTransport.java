@@ -0,0 +1,50 @@
+package me.stevenlawson.arduinoguidemo;
+
+public class FakeTransport implements SerialTransport
+{
+    private volatile boolean open = false;
+    private volatile DataListener listener = null;
+    private long bytesWritten = 0;
+
+    @Override
+    public String getPortName()
+    {
+        return "FAKE";
+    }
+
+    @Override
+    public boolean setEnabled(final boolean enabled)
+    {
+        open = enabled;
+        return true;
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return open;
+    }
+
+    @Override
+    public int writeBytes(final byte[] data, final int length)
+    {
+        bytesWritten += length;
+        return length;
+    }
+
+    @Override
+    public void setDataListener(final DataListener listener)
+    {
+        this.listener = listener;
+    }
+
+    public void inject(final byte[] data, final int length)
+    {
+        listener.dataReceived(data, length);
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten;
+    }
+}
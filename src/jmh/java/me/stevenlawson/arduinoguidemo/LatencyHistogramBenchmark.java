@@ -0,0 +1,30 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LatencyHistogramBenchmark
+{
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private long value = 1;
+
+    @Benchmark
+    public void record()
+    {
+        value = value * 6364136223846793005L + 1442695040888963407L;
+        histogram.record((value >>> 40) & 0xFFFFFFF);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended()
+    {
+        histogram.record(System.nanoTime() & 0xFFFFFF);
+    }
+}
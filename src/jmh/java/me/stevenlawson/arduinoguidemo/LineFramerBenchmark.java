@@ -0,0 +1,87 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineFramerBenchmark
+{
+    private static final String STREAM = "@STARTED\r\n@PONG\r\n@BLINK_LED,START\r\n@BLINK_LED,FINISH\r\n@ERROR,INVALID_COMMAND,*FOO\r\n";
+
+    @Param(
+            {
+                "8", "64"
+            })
+    public int chunkSize;
+
+    private byte[] stream;
+    private LineFramer framer;
+    private String legacyCarry;
+
+    @Setup
+    public void setup()
+    {
+        stream = STREAM.getBytes(StandardCharsets.UTF_8);
+        framer = new LineFramer(StandardCharsets.UTF_8);
+        legacyCarry = "";
+    }
+
+    @Benchmark
+    public void lineFramer(final Blackhole blackhole)
+    {
+        for (int offset = 0; offset < stream.length; offset += chunkSize)
+        {
+            framer.feed(stream, offset, Math.min(chunkSize, stream.length - offset), blackhole::consume);
+        }
+    }
+
+    // The split/trim framing JSCSerialSession used before LineFramer, kept for comparison
+    @Benchmark
+    public void legacySplit(final Blackhole blackhole)
+    {
+        for (int offset = 0; offset < stream.length; offset += chunkSize)
+        {
+            final int length = Math.min(chunkSize, stream.length - offset);
+            final byte[] readBytes = new byte[length];
+            System.arraycopy(stream, offset, readBytes, 0, length);
+
+            final String buffer = legacyCarry + new String(readBytes, 0, readBytes.length);
+            legacyCarry = "";
+
+            final String[] lines = buffer.split("\\n");
+            if (lines.length == 0)
+            {
+                continue;
+            }
+            for (int i = 0; i < (lines.length - 1); i++)
+            {
+                final String line = StringUtils.trimToEmpty(lines[i]);
+                if (!line.isEmpty())
+                {
+                    blackhole.consume(line);
+                }
+            }
+
+            final String lastLine = StringUtils.trimToEmpty(lines[lines.length - 1]);
+            if (buffer.endsWith("\n"))
+            {
+                if (!lastLine.isEmpty())
+                {
+                    blackhole.consume(lastLine);
+                }
+            }
+            else
+            {
+                legacyCarry = lastLine;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * Frames and classifies a read of typical replies. Run with "-prof gc":
+ * gc.alloc.rate.norm for typed should be ~0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageParserBenchmark
+{
+    private static final String STREAM = "@PONG\r\n@BLINK_LED,START\r\n@SAMPLE,123456789,1023\r\n@BLINK_LED,FINISH\r\n"
+            + "@SAMPLE,123457789,1022\r\n@BAUD,OK,115200\r\n@ERROR,INVALID_COMMAND,*FOO\r\n@SAMPLE,123458789,1021\r\n";
+
+    private byte[] stream;
+    private LineFramer framer;
+    private final Message message = new Message();
+    private Blackhole blackhole;
+    private final LineFramer.RawSink typedSink = this::typedLine;
+    private final Callback<String> stringSink = this::stringLine;
+
+    @Setup
+    public void setup(final Blackhole blackhole)
+    {
+        this.blackhole = blackhole;
+        stream = STREAM.getBytes(StandardCharsets.UTF_8);
+        framer = new LineFramer(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void typed()
+    {
+        framer.feedRaw(stream, 0, stream.length, typedSink);
+    }
+
+    // Decoding each line to a String and scanning it, as the session did before Message
+    @Benchmark
+    public void strings()
+    {
+        framer.feed(stream, 0, stream.length, stringSink);
+    }
+
+    private void typedLine(final byte[] bytes, final int offset, final int length)
+    {
+        message.parse(bytes, offset, length);
+        blackhole.consume(message.getType());
+        blackhole.consume(message.getStatus());
+        if (message.getType() == Message.Type.SAMPLE)
+        {
+            blackhole.consume(message.getLong(1));
+            blackhole.consume(message.getLong(2));
+        }
+    }
+
+    private void stringLine(final String line)
+    {
+        final int delimiter = line.indexOf(',');
+        final String token = delimiter == -1 ? line : line.substring(0, delimiter);
+        blackhole.consume(token);
+        blackhole.consume(line.contains("FINISH"));
+        if (token.equals("@SAMPLE"))
+        {
+            final int second = line.indexOf(',', delimiter + 1);
+            blackhole.consume(Long.parseLong(line.substring(delimiter + 1, second)));
+            blackhole.consume(Long.parseLong(line.substring(second + 1)));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageQueueBenchmark
+{
+    private static final int MAX_BACKLOG = JSCSerialSession.DEFAULT_MESSAGE_CAPACITY / 2;
+
+    private JSCSerialSession session;
+    private MessageRingBuffer messages;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        session = new JSCSerialSession(new FakeTransport());
+        messages = session.getMessages();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.terminate();
+    }
+
+    // Receive thread hand-off to a consumer thread, backlog capped below capacity so nothing is dropped
+    @Benchmark
+    @Group("handoff")
+    public boolean producer()
+    {
+        return messages.size() < MAX_BACKLOG && messages.offer("@PONG");
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public String consumer()
+    {
+        return messages.poll();
+    }
+}
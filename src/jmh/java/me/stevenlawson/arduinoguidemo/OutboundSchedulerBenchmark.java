@@ -0,0 +1,81 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Round trip of a CONTROL lane *PING while another thread keeps 500 BULK
+ * commands outstanding on an emulated 115200 baud board. Unpaced, the bulk
+ * commands are written as soon as they are submitted and the ping queues
+ * behind all of them on the wire; paced, it waits for at most one burst.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class OutboundSchedulerBenchmark
+{
+    private static final int BULK_OUTSTANDING = 500;
+
+    @Param(
+            {
+                "true", "false"
+            })
+    public boolean paced;
+
+    private JSCSerialSession session;
+    private Thread flooder;
+    private volatile boolean flooding = true;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        session = new JSCSerialSession(new ArduinoEmulator("EMU").setBaudRate(115_200));
+        session.getStarted().get();
+
+        final OutboundScheduler scheduler = session.getScheduler();
+        scheduler.setRateLimited(paced);
+        scheduler.getLane(OutboundScheduler.Priority.BULK).setMaxInFlight(0);
+        scheduler.getLane(OutboundScheduler.Priority.BULK).setCoalescing(false);
+        scheduler.getLane(OutboundScheduler.Priority.BULK).setCapacity(BULK_OUTSTANDING);
+
+        final Semaphore outstanding = new Semaphore(BULK_OUTSTANDING);
+        flooder = new Thread(() ->
+        {
+            while (flooding)
+            {
+                try
+                {
+                    outstanding.acquire();
+                }
+                catch (InterruptedException ex)
+                {
+                    return;
+                }
+                session.sendCommandAsync(OutboundScheduler.Priority.BULK, "*STREAM,0\n", 60_000, "@STREAM,OK")
+                        .whenComplete((reply, ex) -> outstanding.release());
+            }
+        }, "OutboundSchedulerBenchmark-flood");
+        flooder.start();
+        Thread.sleep(500);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        flooding = false;
+        flooder.interrupt();
+        flooder.join();
+        System.out.printf("%n%s", session.getScheduler().getReport());
+        session.terminate();
+    }
+
+    @Benchmark
+    public String controlPing() throws Exception
+    {
+        return session.pingAsync(10_000).get();
+    }
+}
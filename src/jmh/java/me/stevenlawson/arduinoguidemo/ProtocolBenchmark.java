@@ -0,0 +1,78 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class ProtocolBenchmark
+{
+    private static final int PIPELINE_DEPTH = 16;
+
+    @Param(
+            {
+                "ascii", "binary"
+            })
+    public String protocol;
+
+    @Param(
+            {
+                "ping", "blink"
+            })
+    public String command;
+
+    private CountingTransport transport;
+    private JSCSerialSession session;
+    private final CompletableFuture<?>[] inFlight = new CompletableFuture<?>[PIPELINE_DEPTH];
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WireBytes
+    {
+        public double bytesOutPerCommand;
+        public double bytesInPerCommand;
+    }
+
+    @Setup
+    public void setup() throws Exception
+    {
+        // 9600 baud link, zero-length blinks so only protocol overhead is measured
+        transport = new CountingTransport(new ArduinoEmulator("EMU").setBaudRate(9600).setTimeScale(0));
+        session = new JSCSerialSession(transport);
+        session.getStarted().get();
+
+        if (protocol.equals("binary") && !session.negotiateBinaryAsync(1_000).get())
+        {
+            throw new IllegalStateException("Binary mode negotiation failed");
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.terminate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public void commands(final WireBytes wireBytes) throws Exception
+    {
+        final long bytesOut = transport.getBytesOut();
+        final long bytesIn = transport.getBytesIn();
+
+        for (int i = 0; i < PIPELINE_DEPTH; i++)
+        {
+            inFlight[i] = command.equals("ping") ? session.pingAsync(10_000) : session.blinkLEDAsync(1, 10_000);
+        }
+        CompletableFuture.allOf(inFlight).get();
+        session.getMessages().clear();
+
+        wireBytes.bytesOutPerCommand = (transport.getBytesOut() - bytesOut) / (double) PIPELINE_DEPTH;
+        wireBytes.bytesInPerCommand = (transport.getBytesIn() - bytesIn) / (double) PIPELINE_DEPTH;
+    }
+}
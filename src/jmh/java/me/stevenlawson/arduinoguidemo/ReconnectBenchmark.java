@@ -0,0 +1,87 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Time for a ConnectionSupervisor to bring an emulated board back:
+ * UNPLUG measures from replugging a cable that was out for UNPLUGGED_MS,
+ * HANG from the moment a board stops answering on a port that stays open,
+ * so it includes detecting the dead link through the heartbeat.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReconnectBenchmark
+{
+    private static final long UNPLUGGED_MS = 1_000;
+
+    public enum Fault
+    {
+        UNPLUG,
+        HANG
+    }
+
+    @Param
+    public Fault fault;
+
+    private ArduinoEmulator emulator;
+    private ConnectionSupervisor supervisor;
+    private volatile CompletableFuture<Boolean> lost;
+    private volatile CompletableFuture<Boolean> recovered;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        emulator = new ArduinoEmulator("EMU").setBaudRate(115_200);
+        supervisor = new ConnectionSupervisor("EMU", () -> new JSCSerialSession(emulator));
+        supervisor.setStateListener(state ->
+        {
+            final CompletableFuture<Boolean> waiting = state == ConnectionSupervisor.State.CONNECTED ? recovered : lost;
+            if (waiting != null)
+            {
+                waiting.complete(true);
+            }
+        });
+        supervisor.start().get();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.out.printf("%n%s", supervisor.getReport());
+        supervisor.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void breakLink() throws Exception
+    {
+        lost = new CompletableFuture<>();
+        recovered = new CompletableFuture<>();
+        if (fault == Fault.UNPLUG)
+        {
+            emulator.unplug();
+            // Left unplugged while the supervisor backs off
+            lost.get(10, TimeUnit.SECONDS);
+            Thread.sleep(UNPLUGGED_MS);
+        }
+    }
+
+    @Benchmark
+    public boolean recover() throws Exception
+    {
+        if (fault == Fault.UNPLUG)
+        {
+            emulator.replug();
+        }
+        else
+        {
+            emulator.hang();
+        }
+        return recovered.get(10, TimeUnit.SECONDS);
+    }
+}
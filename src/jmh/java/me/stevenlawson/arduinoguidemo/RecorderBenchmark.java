@@ -0,0 +1,109 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecorderBenchmark
+{
+    private static final byte[] CHUNK = "@BLINK_LED,FINISH\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final int PINGS = 2_000;
+
+    private Path directory;
+    private SessionRecorder recorder;
+    private List<Path> recording;
+    private int recordedLines;
+
+    private ReplayTransport replayTransport;
+    private JSCSerialSession replaySession;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        directory = Files.createTempDirectory("recorder-benchmark");
+        recorder = new SessionRecorder(directory, "append", 16 * 1024 * 1024, 2);
+
+        // A fragmented 115200 baud session to replay
+        final SessionRecorder sessionRecorder = new SessionRecorder(directory, "source");
+        final ArduinoEmulator emulator = new ArduinoEmulator("EMU").setBaudRate(115_200).setMaxFragmentSize(8).setTimeScale(0);
+        final JSCSerialSession session = new JSCSerialSession(new RecordingTransport(emulator, sessionRecorder));
+        session.getStarted().get();
+        // Pipelined 16 deep, more would overrun the board's 64 byte receive buffer
+        final CompletableFuture<?>[] inFlight = new CompletableFuture<?>[16];
+        for (int i = 0; i < PINGS; i += inFlight.length)
+        {
+            for (int j = 0; j < inFlight.length; j++)
+            {
+                inFlight[j] = j == 0 ? session.blinkLEDAsync(1, 10_000) : session.pingAsync(10_000);
+            }
+            CompletableFuture.allOf(inFlight).get();
+        }
+        session.terminate();
+
+        recording = SessionRecording.listSegments(sessionRecorder.getCurrentSegment());
+        recordedLines = session.getMessages().size();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        System.out.printf("%nReplayed recording: %d inbound chunks, %d lines%n", new ReplayTransport("source", recording).getChunkCount(), recordedLines);
+        recorder.close();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory))
+        {
+            for (Path file : stream)
+            {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    // Hot path cost of recording one received chunk
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void recordChunk()
+    {
+        recorder.recordInbound(CHUNK, CHUNK.length);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupReplay() throws IOException
+    {
+        replayTransport = new ReplayTransport("source", recording).setSpeed(0);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownReplay()
+    {
+        if (replaySession != null)
+        {
+            replaySession.terminate();
+            replaySession = null;
+        }
+    }
+
+    // The whole recording pushed through a session's receive pipeline as fast as it will go
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 20)
+    @Measurement(iterations = 50)
+    public int replay() throws Exception
+    {
+        replaySession = new JSCSerialSession(replayTransport);
+        replayTransport.awaitFinished(60_000);
+        return replaySession.getMessages().size();
+    }
+}
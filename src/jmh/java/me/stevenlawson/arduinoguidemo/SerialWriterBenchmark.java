@@ -0,0 +1,50 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerialWriterBenchmark
+{
+    private static final int BURST = 16;
+
+    @Param(
+            {
+                "IMMEDIATE", "BATCHED", "SIZE_TRIGGERED"
+            })
+    public BufferedSerialWriter.FlushPolicy flushPolicy;
+
+    private BufferedSerialWriter writer;
+
+    @Setup
+    public void setup()
+    {
+        // Stands in for the native write; accepts everything
+        writer = new BufferedSerialWriter((data, length) -> length);
+        writer.setFlushPolicy(flushPolicy, 60_000, 64);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        System.out.println(String.format("%n%s: %.3f native writes per command",
+                flushPolicy, writer.getNativeWriteCount() / (double) writer.getCommandCount()));
+    }
+
+    // A scripted burst of commands followed by the end of the batch window
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public boolean burst()
+    {
+        for (int i = 0; i < BURST; i++)
+        {
+            writer.write("*BLINK_LED,3\n");
+        }
+        return writer.flush();
+    }
+}
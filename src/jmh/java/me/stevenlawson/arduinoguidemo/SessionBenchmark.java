@@ -0,0 +1,81 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark
+{
+    private static final byte[] PONG = "@PONG\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] STRIP_INPUT = "@BLINK_LED,FINISH\r\n@PONG\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private FakeTransport transport;
+    private JSCSerialSession session;
+    private final AtomicBoolean interrupt = new AtomicBoolean(false);
+    private String routedMessage;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        transport = new FakeTransport();
+        session = new JSCSerialSession(transport);
+        session.subscribe("@PONG", message -> routedMessage = message);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        session.terminate();
+    }
+
+    // serialEvent -> framing -> messages queue
+    @Benchmark
+    public Object receiveLine()
+    {
+        transport.inject(PONG, PONG.length);
+        return session.getMessages().poll();
+    }
+
+    // Line arriving on the receive path until the processMessages callback sees it
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    public void processMessagesDispatch(final Blackhole blackhole)
+    {
+        transport.inject(PONG, PONG.length);
+        session.processMessages(interrupt, 1_000, message ->
+        {
+            blackhole.consume(message);
+            interrupt.set(true);
+        });
+    }
+
+    // Line arriving on the receive path until a MessageRouter subscriber sees it
+    @Benchmark
+    public String routerDispatch()
+    {
+        transport.inject(PONG, PONG.length);
+        session.getMessages().poll();
+        return routedMessage;
+    }
+
+    @Benchmark
+    public boolean writeData()
+    {
+        return transport.writeData("*BLINK_LED,3\n");
+    }
+
+    @Benchmark
+    public byte[] stripCharacter()
+    {
+        return JSCSerialSession.stripCharacter('\r', STRIP_INPUT);
+    }
+}
@@ -0,0 +1,62 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class SessionManagerBenchmark
+{
+    @Param(
+            {
+                "1", "8", "32"
+            })
+    public int boardCount;
+
+    private SessionManager manager;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Threads
+    {
+        public long liveThreads;
+    }
+
+    @Setup
+    public void setup() throws Exception
+    {
+        manager = new SessionManager(4);
+
+        final List<CompletableFuture<JSCSerialSession>> opened = new ArrayList<>();
+        for (int i = 0; i < boardCount; i++)
+        {
+            opened.add(manager.open(new ArduinoEmulator("EMU" + i).setBaudRate(115200).setTimeScale(0.01)));
+        }
+        for (CompletableFuture<JSCSerialSession> future : opened)
+        {
+            future.get();
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        manager.close();
+    }
+
+    // Fan-out *PING to every emulated board; thread count should not track boardCount
+    @Benchmark
+    public Map<String, SessionManager.BoardResult<String>> pingAll(final Threads threads) throws Exception
+    {
+        threads.liveThreads = Thread.activeCount();
+        return manager.pingAll(1_000).get();
+    }
+}
@@ -0,0 +1,115 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TelemetryBenchmark
+{
+    private static final int CHART_WIDTH = 800;
+    private static final int BATCH = 100;
+
+    private JSCSerialSession parseSession;
+    private TelemetryStream parseStream;
+    private final long[] times = new long[TelemetryStream.DEFAULT_CAPACITY];
+    private final int[] values = new int[TelemetryStream.DEFAULT_CAPACITY];
+    private final int[] mins = new int[CHART_WIDTH];
+    private final int[] maxs = new int[CHART_WIDTH];
+
+    private JSCSerialSession session;
+    private TelemetryStream stream;
+    private TelemetryChart chart;
+    private Timer repaintTimer;
+    private long ingestStartNanos;
+    private long ingestStartSamples;
+    private long nextTarget;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        parseSession = new JSCSerialSession(new FakeTransport());
+        parseStream = new TelemetryStream(parseSession);
+        for (int i = 0; i < times.length; i++)
+        {
+            times[i] = i * 200L;
+            values[i] = (int) (512 + 400 * Math.sin(i / 1000.0));
+        }
+
+        // 1 Mbaud board streaming at the firmware's maximum rate, drawn by a 30 fps chart
+        session = new JSCSerialSession(new ArduinoEmulator("EMU").setBaudRate(1_000_000));
+        session.getStarted().get();
+        stream = new TelemetryStream(session);
+        stream.start(ArduinoEmulator.MAX_STREAM_RATE, 1_000).get();
+
+        chart = new TelemetryChart(stream.getBuffer(), 5_000);
+        chart.setSize(CHART_WIDTH, 200);
+        chart.start(TelemetryChart.DEFAULT_FPS);
+
+        // Headless, so nothing repaints the chart by itself; paint it on the EDT at the frame rate like Swing would
+        final BufferedImage image = new BufferedImage(CHART_WIDTH, 200, BufferedImage.TYPE_INT_RGB);
+        final Graphics graphics = image.getGraphics();
+        repaintTimer = new Timer(1000 / TelemetryChart.DEFAULT_FPS, event -> chart.paint(graphics));
+        SwingUtilities.invokeAndWait(repaintTimer::start);
+
+        ingestStartNanos = System.nanoTime();
+        ingestStartSamples = stream.getSampleCount();
+        nextTarget = ingestStartSamples;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        final double seconds = (System.nanoTime() - ingestStartNanos) / 1e9;
+        SwingUtilities.invokeAndWait(repaintTimer::stop);
+        chart.stop();
+        stream.stop(1_000).get();
+
+        System.out.println(String.format("%n%.0f samples/s ingested, %d malformed; EDT painting %.2f%% (%.1f frames/s), render thread %.2f%%",
+                (stream.getSampleCount() - ingestStartSamples) / seconds, stream.getMalformedCount(),
+                chart.getPaintNanos() / (seconds * 1e7), chart.getFramesPainted() / seconds,
+                chart.getRenderNanos() / (seconds * 1e7)));
+
+        session.terminate();
+        parseSession.terminate();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void parseSample()
+    {
+        parseStream.accept("@SAMPLE,123456789,1023");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int[] decimateFullBuffer()
+    {
+        MinMaxDecimator.decimate(times, values, times.length, 0, times[times.length - 1] + 1, mins, maxs, CHART_WIDTH);
+        return mins;
+    }
+
+    // Sustained rate at which samples arrive from the emulated board, while the chart is live
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public long emulatorIngest()
+    {
+        nextTarget += BATCH;
+        while (stream.getSampleCount() < nextTarget)
+        {
+            LockSupport.parkNanos(50_000);
+        }
+        return nextTarget;
+    }
+}
@@ -0,0 +1,970 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * In-process stand-in for a board running ArduinoGUIDemo.ino. Bytes written
+ * by the host are paced at the configured baud rate into a 64 byte receive
+ * buffer, parsed exactly like loopSerialIO()/handleCommand(), and replies are
+ * paced back out, optionally fragmented and delayed by random jitter. The
+ * binary framed mode negotiated with *BINARY is emulated as well, and so is
+ * *STREAM, which sends a synthetic 1 Hz sine wave in place of analogRead().
+ *
+ * Blinking does not hold up the board: commands are still answered while
+ * the LED blinks, further blinks queue behind the running one and *CANCEL
+ * drops them all, as in loopBlink().
+ *
+ * *BATCH runs several commands from one line and, in ASCII mode, folds
+ * their replies into one line, as in commandBatch().
+ *
+ * *BAUD switches the board's rate after acknowledging. Bytes sent while the
+ * host and board rates differ, or above setMaxReliableBaudRate(), arrive
+ * as garbage, so failed negotiations can be exercised too.
+ *
+ * All emulated boards share one scheduler thread, so emulator state is only
+ * ever touched from that thread and many boards cost no extra threads.
+ */
+public class ArduinoEmulator implements SerialTransport
+{
+    public static final int SERIAL_RX_BUFFER_SIZE = 64;
+    public static final int SERIAL_TX_BUFFER_SIZE = 64;
+    public static final int MAX_STREAM_RATE = 5000;
+    public static final long BLINK_DELAY_MS = 250;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "ArduinoEmulator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String portName;
+    private int baudRate = 9600;
+    private int maxReliableBaudRate = Integer.MAX_VALUE;
+    private volatile int hostBaudRate = 9600;
+    private long jitterNanos = 0;
+    private int maxFragmentSize = Integer.MAX_VALUE;
+    private double timeScale = 1.0;
+    private long startupDelayMS = 0;
+    private Random random = new Random();
+
+    private volatile boolean open = false;
+    private volatile boolean plugged = true;
+    private volatile boolean hung = false;
+    private volatile DataListener listener = null;
+    private final ByteArrayOutputStream undelivered = new ByteArrayOutputStream();
+    private volatile int generation = 0;
+
+    // Device state, scheduler thread only
+    private final byte[] rxBuffer = new byte[SERIAL_RX_BUFFER_SIZE];
+    private int rxHead = 0;
+    private int rxCount = 0;
+    private final byte[] serialBuffer = new byte[BinaryProtocol.SERIAL_INPUT_BUFFER_LEN];
+    private int serialBufferOffset = 0;
+    private long rxFreeAt = 0;
+    private long txFreeAt = 0;
+    private long lastDeliveryAt = 0;
+    private long busyUntil = 0;
+    private boolean serviceScheduled = false;
+    private boolean binaryMode = false;
+    private boolean frameOverflow = false;
+    private final ArrayDeque<Transfer> rxPending = new ArrayDeque<>();
+    private final ArrayDeque<Transfer> txPending = new ArrayDeque<>();
+    private boolean rxPumpScheduled = false;
+    private boolean txPumpScheduled = false;
+    private long bootNanos = 0;
+    private long streamIntervalNanos = 0;
+    private long lastSampleAt = 0;
+    private boolean streamScheduled = false;
+    private int boardBaudRate = 9600;
+    private int previousBaudRate = 9600;
+    private boolean baudPending = false;
+    private int baudSwitchId = 0;
+    private final ArrayDeque<Integer> blinkQueue = new ArrayDeque<>();
+    private boolean blinkActive = false;
+    private int blinkId = 0;
+    private boolean batchActive = false;
+    // The reply line of the running batch in ASCII mode, otherwise null
+    private StringBuilder batchReply = null;
+    private int batchReplies = 0;
+
+    public ArduinoEmulator(final String portName)
+    {
+        this.portName = portName;
+    }
+
+    // The rate the board starts at, as if the sketch called Serial.begin(baudRate)
+    public ArduinoEmulator setBaudRate(final int baudRate)
+    {
+        this.baudRate = baudRate;
+        this.hostBaudRate = baudRate;
+        return this;
+    }
+
+    // Rates above this corrupt every byte, like a marginal clock or USB-serial chip
+    public ArduinoEmulator setMaxReliableBaudRate(final int maxReliableBaudRate)
+    {
+        this.maxReliableBaudRate = maxReliableBaudRate;
+        return this;
+    }
+
+    public ArduinoEmulator setJitterMS(final double jitterMS)
+    {
+        this.jitterNanos = (long) (jitterMS * 1_000_000L);
+        return this;
+    }
+
+    public ArduinoEmulator setMaxFragmentSize(final int maxFragmentSize)
+    {
+        this.maxFragmentSize = Math.max(1, maxFragmentSize);
+        return this;
+    }
+
+    // Scales firmware timing (blinking, startup), e.g. 0.01 runs a blink 100x faster.
+    public ArduinoEmulator setTimeScale(final double timeScale)
+    {
+        this.timeScale = timeScale;
+        return this;
+    }
+
+    public ArduinoEmulator setStartupDelayMS(final long startupDelayMS)
+    {
+        this.startupDelayMS = startupDelayMS;
+        return this;
+    }
+
+    public ArduinoEmulator setSeed(final long seed)
+    {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    @Override
+    public int getBaudRate()
+    {
+        return hostBaudRate;
+    }
+
+    @Override
+    public boolean switchBaudRate(final int baudRate)
+    {
+        if (!open)
+        {
+            return false;
+        }
+        hostBaudRate = baudRate;
+        return true;
+    }
+
+    @Override
+    public String getPortName()
+    {
+        return portName;
+    }
+
+    @Override
+    public boolean setEnabled(final boolean enabled)
+    {
+        if (enabled)
+        {
+            if (!plugged)
+            {
+                return false;
+            }
+
+            final int gen;
+            synchronized (this)
+            {
+                gen = ++generation;
+                undelivered.reset();
+                open = true;
+                hung = false;
+                hostBaudRate = baudRate;
+            }
+            // Opening the port resets the board, just like the DTR line does on a real Arduino
+            SCHEDULER.execute(() -> reset(gen));
+        }
+        else
+        {
+            synchronized (this)
+            {
+                generation++;
+                open = false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return open;
+    }
+
+    /*
+     * Simulates pulling the USB cable: the port closes, anything in flight
+     * is lost and it cannot be opened again until replug().
+     */
+    public void unplug()
+    {
+        synchronized (this)
+        {
+            generation++;
+            plugged = false;
+            open = false;
+        }
+    }
+
+    public void replug()
+    {
+        plugged = true;
+    }
+
+    /*
+     * Simulates a board that stops responding while the port stays open,
+     * e.g. a crashed sketch. Input is discarded until the port is reopened,
+     * which resets the board.
+     */
+    public void hang()
+    {
+        synchronized (this)
+        {
+            generation++;
+            hung = true;
+        }
+    }
+
+    @Override
+    public int writeBytes(final byte[] data, final int length)
+    {
+        if (!open)
+        {
+            return -1;
+        }
+        if (hung)
+        {
+            return length;
+        }
+        final byte[] copy = Arrays.copyOf(data, length);
+        final int gen = generation;
+        final int rate = hostBaudRate;
+        SCHEDULER.execute(() -> hostWrite(gen, copy, rate));
+        return length;
+    }
+
+    @Override
+    public void setDataListener(final DataListener listener)
+    {
+        final byte[] pending;
+        synchronized (this)
+        {
+            this.listener = listener;
+            pending = undelivered.toByteArray();
+            undelivered.reset();
+        }
+        if (listener != null && pending.length > 0)
+        {
+            listener.dataReceived(pending, pending.length);
+        }
+    }
+
+    private static long byteTimeNanos(final int count, final int rate)
+    {
+        // 8N1 framing: 10 bits on the wire per byte
+        return count * 10L * 1_000_000_000L / rate;
+    }
+
+    private boolean linkReliable(final int senderRate, final int receiverRate)
+    {
+        return senderRate == receiverRate && senderRate <= maxReliableBaudRate;
+    }
+
+    // What a UART makes of bytes sent at the wrong rate; never a line or frame delimiter
+    private static byte[] garble(final byte[] data)
+    {
+        final byte[] garbled = new byte[data.length];
+        for (int i = 0; i < data.length; i++)
+        {
+            garbled[i] = (byte) (0xF0 | (data[i] & 0x0F));
+        }
+        return garbled;
+    }
+
+    private long scaledNanos(final long millis)
+    {
+        return (long) (millis * 1_000_000L * timeScale);
+    }
+
+    private void reset(final int gen)
+    {
+        if (gen != generation)
+        {
+            return;
+        }
+
+        rxHead = 0;
+        rxCount = 0;
+        serialBufferOffset = 0;
+        binaryMode = false;
+        frameOverflow = false;
+        final long now = System.nanoTime();
+        rxFreeAt = now;
+        txFreeAt = now;
+        lastDeliveryAt = now;
+        busyUntil = now + scaledNanos(startupDelayMS);
+        serviceScheduled = false;
+        rxPending.clear();
+        txPending.clear();
+        rxPumpScheduled = false;
+        txPumpScheduled = false;
+        bootNanos = now;
+        streamIntervalNanos = 0;
+        streamScheduled = false;
+        boardBaudRate = baudRate;
+        baudPending = false;
+        baudSwitchId++;
+        blinkQueue.clear();
+        blinkActive = false;
+        blinkId++;
+
+        // setup()
+        println("@STARTED", busyUntil);
+    }
+
+    private void hostWrite(final int gen, final byte[] data, final int rate)
+    {
+        if (gen != generation)
+        {
+            return;
+        }
+
+        rxFreeAt = Math.max(rxFreeAt, System.nanoTime());
+        rxPending.add(new Transfer(linkReliable(rate, boardBaudRate) ? data : garble(data), rxFreeAt, rate));
+        rxFreeAt += byteTimeNanos(data.length, rate);
+        pumpRx(gen);
+    }
+
+    // Moves host bytes into the receive buffer as their transmission completes
+    private void pumpRx(final int gen)
+    {
+        if (gen != generation)
+        {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        Transfer transfer;
+        while ((transfer = rxPending.peek()) != null)
+        {
+            final long arrival = transfer.at + byteTimeNanos(transfer.position + 1, transfer.rate);
+            if (arrival > now)
+            {
+                if (!rxPumpScheduled)
+                {
+                    rxPumpScheduled = true;
+                    SCHEDULER.schedule(() ->
+                    {
+                        rxPumpScheduled = false;
+                        pumpRx(gen);
+                    }, arrival - now, TimeUnit.NANOSECONDS);
+                }
+                break;
+            }
+
+            if (rxCount == rxBuffer.length)
+            {
+                // Catching up after this thread ran late; loop() would have been reading meanwhile unless busy
+                service(gen);
+            }
+
+            // HardwareSerial drops incoming bytes once its ring buffer is full
+            if (rxCount < rxBuffer.length)
+            {
+                rxBuffer[(rxHead + rxCount) % rxBuffer.length] = transfer.data[transfer.position];
+                rxCount++;
+            }
+
+            if (++transfer.position == transfer.data.length)
+            {
+                rxPending.poll();
+            }
+        }
+
+        service(gen);
+    }
+
+    private void service(final int gen)
+    {
+        if (gen != generation)
+        {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        if (now < busyUntil)
+        {
+            if (!serviceScheduled)
+            {
+                serviceScheduled = true;
+                SCHEDULER.schedule(() ->
+                {
+                    serviceScheduled = false;
+                    service(gen);
+                }, busyUntil - now, TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
+
+        // loopSerialIO()
+        while (rxCount > 0 && System.nanoTime() >= busyUntil)
+        {
+            final byte b = rxBuffer[rxHead];
+            rxHead = (rxHead + 1) % rxBuffer.length;
+            rxCount--;
+
+            if (binaryMode)
+            {
+                if (b == 0)
+                {
+                    if (serialBufferOffset > 0 && !frameOverflow)
+                    {
+                        handleFrame(serialBufferOffset);
+                    }
+                    serialBufferOffset = 0;
+                    frameOverflow = false;
+                }
+                else if (serialBufferOffset < BinaryProtocol.SERIAL_INPUT_BUFFER_LEN)
+                {
+                    serialBuffer[serialBufferOffset++] = b;
+                }
+                else
+                {
+                    frameOverflow = true;
+                }
+                continue;
+            }
+
+            serialBuffer[serialBufferOffset] = b;
+            if (b == '\n')
+            {
+                final String buffer = new String(serialBuffer, 0, serialBufferOffset, StandardCharsets.ISO_8859_1);
+                serialBufferOffset = 0;
+                handleCommand(buffer);
+            }
+            else if (serialBufferOffset < (BinaryProtocol.SERIAL_INPUT_BUFFER_LEN - 1))
+            {
+                serialBufferOffset++;
+            }
+        }
+
+        if (rxCount > 0)
+        {
+            service(gen);
+        }
+    }
+
+    private void handleCommand(final String buffer)
+    {
+        if (buffer.isEmpty())
+        {
+            return;
+        }
+
+        if (buffer.charAt(0) != '*')
+        {
+            replyInvalidCommand(buffer);
+            return;
+        }
+
+        final String[] tokens = strtok(buffer);
+        final String command = tokens[0];
+
+        if (command.equals("*PING"))
+        {
+            commandPing();
+        }
+        else if (command.equals("*BLINK_LED"))
+        {
+            if (tokens.length > 1)
+            {
+                commandBlinkLED(atoi(tokens[1]));
+            }
+            else
+            {
+                replyBlinkStatus(BinaryProtocol.BLINK_ERROR, System.nanoTime());
+            }
+        }
+        else if (command.equals("*CANCEL"))
+        {
+            commandCancel();
+        }
+        else if (command.equals("*STREAM"))
+        {
+            commandStream(tokens.length > 1 ? atoi(tokens[1]) : -1);
+        }
+        else if (command.equals("*BAUD") && !batchActive)
+        {
+            if (tokens.length > 1 && tokens[1].equals("CONFIRM"))
+            {
+                commandBaudConfirm();
+            }
+            else
+            {
+                commandBaud(tokens.length > 1 ? atol(tokens[1]) : -1);
+            }
+        }
+        else if (command.equals(BinaryProtocol.NEGOTIATE_COMMAND) && !binaryMode && !batchActive)
+        {
+            println(BinaryProtocol.NEGOTIATE_REPLY, System.nanoTime());
+            binaryMode = true;
+        }
+        else if (command.equals(CommandBatch.COMMAND) && !batchActive)
+        {
+            // The rest of the line, commas included
+            final int comma = buffer.indexOf(',');
+            commandBatch(comma < 0 ? "" : buffer.substring(comma + 1));
+        }
+        else
+        {
+            replyInvalidCommand(command);
+        }
+    }
+
+    private void handleFrame(final int encodedLength)
+    {
+        final int length = BinaryFrameCodec.cobsDecode(serialBuffer, encodedLength);
+        if (length < 3 || BinaryFrameCodec.crc16(serialBuffer, 0, length - 2)
+                != (((serialBuffer[length - 2] & 0xFF) << 8) | (serialBuffer[length - 1] & 0xFF)))
+        {
+            sendFrame(BinaryProtocol.OP_ERROR, System.nanoTime(), (byte) BinaryProtocol.ERROR_CRC);
+            return;
+        }
+
+        final int opcode = serialBuffer[0] & 0xFF;
+        final int payloadLength = length - 3;
+
+        if (opcode == BinaryProtocol.OP_PING)
+        {
+            commandPing();
+        }
+        else if (opcode == BinaryProtocol.OP_BLINK_LED && payloadLength == 2)
+        {
+            commandBlinkLED((short) (((serialBuffer[1] & 0xFF) << 8) | (serialBuffer[2] & 0xFF)));
+        }
+        else if (opcode == BinaryProtocol.OP_TEXT && payloadLength < BinaryProtocol.SERIAL_INPUT_BUFFER_LEN)
+        {
+            handleCommand(new String(serialBuffer, 1, payloadLength, StandardCharsets.ISO_8859_1));
+        }
+        else
+        {
+            sendFrame(BinaryProtocol.OP_ERROR, System.nanoTime(), (byte) BinaryProtocol.ERROR_INVALID_OPCODE, (byte) opcode);
+        }
+    }
+
+    private void commandPing()
+    {
+        if (binaryMode)
+        {
+            sendFrame(BinaryProtocol.OP_PONG, System.nanoTime());
+        }
+        else
+        {
+            println("@PONG", System.nanoTime());
+        }
+    }
+
+    private void commandBlinkLED(final int numBlinks)
+    {
+        if (!blinkActive)
+        {
+            startBlink(numBlinks, System.nanoTime());
+        }
+        else if (blinkQueue.size() < BinaryProtocol.BLINK_QUEUE_LEN)
+        {
+            blinkQueue.add(numBlinks);
+        }
+        else
+        {
+            replyBlinkStatus(BinaryProtocol.BLINK_BUSY, System.nanoTime());
+        }
+    }
+
+    private void commandCancel()
+    {
+        final long now = System.nanoTime();
+        int cancelled = 0;
+        if (blinkActive)
+        {
+            blinkActive = false;
+            blinkId++;
+            replyBlinkStatus(BinaryProtocol.BLINK_CANCELLED, now);
+            cancelled++;
+        }
+        while (blinkQueue.poll() != null)
+        {
+            replyBlinkStatus(BinaryProtocol.BLINK_CANCELLED, now);
+            cancelled++;
+        }
+        replyText("@CANCEL,OK," + cancelled, now);
+    }
+
+    private void startBlink(final int numBlinks, final long at)
+    {
+        replyBlinkStatus(BinaryProtocol.BLINK_START, at);
+        final long duration = scaledNanos(blinkDurationMS(numBlinks));
+        if (duration == 0)
+        {
+            replyBlinkStatus(BinaryProtocol.BLINK_FINISH, at);
+            return;
+        }
+
+        blinkActive = true;
+        final int gen = generation;
+        final int id = ++blinkId;
+        final long finishAt = at + duration;
+        SCHEDULER.schedule(() -> finishBlink(gen, id, finishAt), finishAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    // loopBlink(): the last phase is over, so report it and start the next queued blink
+    private void finishBlink(final int gen, final int id, final long at)
+    {
+        if (gen != generation || id != blinkId || !blinkActive)
+        {
+            return;
+        }
+
+        blinkActive = false;
+        replyBlinkStatus(BinaryProtocol.BLINK_FINISH, at);
+        Integer next;
+        while (!blinkActive && (next = blinkQueue.poll()) != null)
+        {
+            startBlink(next, at);
+        }
+    }
+
+    private void commandStream(final int samplesPerSecond)
+    {
+        final long now = System.nanoTime();
+        if (samplesPerSecond < 0 || samplesPerSecond > MAX_STREAM_RATE)
+        {
+            replyText("@STREAM,ERROR,INVALID_RATE", now);
+            return;
+        }
+
+        streamIntervalNanos = samplesPerSecond == 0 ? 0 : 1_000_000_000L / samplesPerSecond;
+        lastSampleAt = now;
+        replyText("@STREAM,OK", now);
+        loopStream(generation);
+    }
+
+    private void commandBaud(final long rate)
+    {
+        final long now = System.nanoTime();
+        if (!BaudNegotiator.isSupported(rate))
+        {
+            replyText("@BAUD,ERROR,INVALID_RATE", now);
+            return;
+        }
+
+        replyText("@BAUD,OK," + rate, now);
+
+        // Serial.flush() blocks until the acknowledgement is out, then Serial.begin(rate)
+        busyUntil = Math.max(busyUntil, txFreeAt);
+        if (!baudPending)
+        {
+            previousBaudRate = boardBaudRate;
+        }
+        boardBaudRate = (int) rate;
+        baudPending = true;
+
+        final int gen = generation;
+        final int id = ++baudSwitchId;
+        SCHEDULER.schedule(() -> revertBaud(gen, id),
+                busyUntil - now + TimeUnit.MILLISECONDS.toNanos(BaudNegotiator.BAUD_CONFIRM_MS), TimeUnit.NANOSECONDS);
+    }
+
+    private void commandBaudConfirm()
+    {
+        baudPending = false;
+        replyText("@BAUD,CONFIRMED," + boardBaudRate, System.nanoTime());
+    }
+
+    // loopBaud(): no confirmation at the new rate, so the host never followed; go back
+    private void revertBaud(final int gen, final int id)
+    {
+        if (gen != generation || id != baudSwitchId || !baudPending)
+        {
+            return;
+        }
+        boardBaudRate = previousBaudRate;
+        baudPending = false;
+    }
+
+    // Runs the commands in turn; in ASCII mode their replies are folded into one "@BATCH" line, in binary mode each has its own frame
+    private void commandBatch(final String commands)
+    {
+        final String[] batch = Arrays.stream(commands.split(String.valueOf(CommandBatch.SEPARATOR))).filter(command -> !command.isEmpty()).toArray(String[]::new);
+        if (!binaryMode)
+        {
+            batchReply = new StringBuilder("@BATCH,").append(batch.length);
+            batchReplies = 0;
+        }
+
+        batchActive = true;
+        for (String command : batch)
+        {
+            handleCommand(command);
+        }
+        batchActive = false;
+
+        if (batchReply != null)
+        {
+            final String line = batchReply.toString();
+            batchReply = null;
+            println(line, System.nanoTime());
+        }
+        else
+        {
+            replyText("@BATCH," + batch.length, System.nanoTime());
+        }
+    }
+
+    // loopStream(): one sample per interval, but never while Serial.flush() blocks or Serial.print() would
+    private void loopStream(final int gen)
+    {
+        if (gen != generation || streamIntervalNanos == 0)
+        {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        while (true)
+        {
+            final long due = Math.max(lastSampleAt + streamIntervalNanos,
+                    Math.max(busyUntil, txFreeAt - byteTimeNanos(SERIAL_TX_BUFFER_SIZE, boardBaudRate)));
+            if (due > now)
+            {
+                if (!streamScheduled)
+                {
+                    streamScheduled = true;
+                    SCHEDULER.schedule(() ->
+                    {
+                        streamScheduled = false;
+                        loopStream(gen);
+                    }, Math.max(due - now, TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+                }
+                return;
+            }
+
+            lastSampleAt += streamIntervalNanos;
+            if (due - lastSampleAt > streamIntervalNanos)
+            {
+                // Fell behind; skip samples rather than sending a burst
+                lastSampleAt = due;
+            }
+
+            final long micros = ((due - bootNanos) / 1000) & 0xFFFFFFFFL;
+            final double seconds = (due - bootNanos) / 1e9;
+            final int value = (int) Math.max(0, Math.min(1023, 512 + 400 * Math.sin(2 * Math.PI * seconds) + random.nextInt(17) - 8));
+            replyText("@SAMPLE," + micros + "," + value, due);
+        }
+    }
+
+    private void replyBlinkStatus(final int status, final long at)
+    {
+        if (binaryMode)
+        {
+            sendFrame(BinaryProtocol.OP_BLINK_LED_STATUS, at, (byte) status);
+        }
+        else if (status == BinaryProtocol.BLINK_START)
+        {
+            println("@BLINK_LED,START", at);
+        }
+        else if (status == BinaryProtocol.BLINK_FINISH)
+        {
+            println("@BLINK_LED,FINISH", at);
+        }
+        else if (status == BinaryProtocol.BLINK_CANCELLED)
+        {
+            println("@BLINK_LED,CANCELLED", at);
+        }
+        else if (status == BinaryProtocol.BLINK_BUSY)
+        {
+            println("@BLINK_LED,ERROR,BUSY", at);
+        }
+        else
+        {
+            println("@BLINK_LED,ERROR,INVALID_NUM_BLINKS", at);
+        }
+    }
+
+    private void replyInvalidCommand(final String command)
+    {
+        replyText("@ERROR,INVALID_COMMAND," + command, System.nanoTime());
+    }
+
+    private void replyText(final String line, final long at)
+    {
+        if (binaryMode)
+        {
+            final byte[] text = line.getBytes(StandardCharsets.ISO_8859_1);
+            transmit(BinaryFrameCodec.encode(BinaryProtocol.OP_TEXT_REPLY, text, Math.min(text.length, BinaryProtocol.SERIAL_INPUT_BUFFER_LEN)), at);
+        }
+        else
+        {
+            println(line, at);
+        }
+    }
+
+    private void sendFrame(final int opcode, final long at, final byte... payload)
+    {
+        transmit(BinaryFrameCodec.encode(opcode, payload, payload.length), at);
+    }
+
+    public static long blinkDurationMS(final int numBlinks)
+    {
+        return numBlinks <= 0 ? 0 : (2L * numBlinks - 1) * BLINK_DELAY_MS;
+    }
+
+    // strtok(buffer, ",") semantics: empty tokens are skipped
+    private static String[] strtok(final String buffer)
+    {
+        return Arrays.stream(buffer.split(",")).filter(token -> !token.isEmpty()).toArray(String[]::new);
+    }
+
+    private static int atoi(final String str)
+    {
+        // The AVR's int is 16 bits wide
+        return (short) strtol(str);
+    }
+
+    private static long atol(final String str)
+    {
+        // ...and its long 32 bits
+        return (int) strtol(str);
+    }
+
+    private static long strtol(final String str)
+    {
+        int i = 0;
+        while (i < str.length() && Character.isWhitespace(str.charAt(i)))
+        {
+            i++;
+        }
+
+        boolean negative = false;
+        if (i < str.length() && (str.charAt(i) == '-' || str.charAt(i) == '+'))
+        {
+            negative = str.charAt(i) == '-';
+            i++;
+        }
+
+        long value = 0;
+        while (i < str.length() && str.charAt(i) >= '0' && str.charAt(i) <= '9')
+        {
+            value = value * 10 + (str.charAt(i) - '0');
+            i++;
+        }
+        return negative ? -value : value;
+    }
+
+    private void println(final String line, final long at)
+    {
+        if (batchReply != null)
+        {
+            batchReply.append(batchReplies++ == 0 ? ',' : CommandBatch.SEPARATOR).append(line);
+            return;
+        }
+        transmit((line + "\r\n").getBytes(StandardCharsets.ISO_8859_1), at);
+    }
+
+    private void transmit(final byte[] bytes, final long at)
+    {
+        int offset = 0;
+        while (offset < bytes.length)
+        {
+            final int length = Math.min(bytes.length - offset, maxFragmentSize);
+            final byte[] fragment = Arrays.copyOfRange(bytes, offset, offset + length);
+            offset += length;
+
+            txFreeAt = Math.max(txFreeAt, at) + byteTimeNanos(length, boardBaudRate);
+            final long jitter = jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0;
+            lastDeliveryAt = Math.max(lastDeliveryAt, txFreeAt + jitter);
+
+            txPending.add(new Transfer(fragment, lastDeliveryAt, boardBaudRate));
+        }
+        pumpTx(generation);
+    }
+
+    private void pumpTx(final int gen)
+    {
+        if (gen != generation)
+        {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        Transfer transfer;
+        while ((transfer = txPending.peek()) != null)
+        {
+            if (transfer.at > now)
+            {
+                if (!txPumpScheduled)
+                {
+                    txPumpScheduled = true;
+                    SCHEDULER.schedule(() ->
+                    {
+                        txPumpScheduled = false;
+                        pumpTx(gen);
+                    }, transfer.at - now, TimeUnit.NANOSECONDS);
+                }
+                break;
+            }
+
+            txPending.poll();
+            deliver(gen, linkReliable(transfer.rate, hostBaudRate) ? transfer.data : garble(transfer.data));
+        }
+    }
+
+    private void deliver(final int gen, final byte[] fragment)
+    {
+        final DataListener currentListener;
+        synchronized (this)
+        {
+            if (gen != generation)
+            {
+                return;
+            }
+
+            currentListener = listener;
+            if (currentListener == null)
+            {
+                undelivered.write(fragment, 0, fragment.length);
+                return;
+            }
+        }
+        currentListener.dataReceived(fragment, fragment.length);
+    }
+
+    private static class Transfer
+    {
+        private final byte[] data;
+        private final long at;
+        private final int rate;
+        private int position = 0;
+
+        private Transfer(final byte[] data, final long at, final int rate)
+        {
+            this.data = data;
+            this.at = at;
+            this.rate = rate;
+        }
+    }
+}
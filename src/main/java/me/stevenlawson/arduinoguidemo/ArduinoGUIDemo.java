@@ -1,33 +1,153 @@
 package me.stevenlawson.arduinoguidemo;
 
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.swing.*;
 import org.apache.commons.lang3.StringUtils;
 
 public class ArduinoGUIDemo extends javax.swing.JFrame
 {
+    private static final Font CONTROL_FONT = new Font("Tahoma", Font.PLAIN, 18);
+    // Closes the window once it has painted and the startup tasks are done, e.g. to train a CDS archive
+    public static final String EXIT_AFTER_STARTUP_PROPERTY = "arduinoguidemo.exitAfterStartup";
+
+    // Keys for UIUpdateBatcher; a newer update of the same part of the window replaces a pending one
+    private enum UIUpdate
+    {
+        CONNECT_CONTROLS,
+        BLINK_CONTROLS,
+        STREAM_CONTROLS,
+        STREAM_SELECTED,
+        PORT,
+        STATUS,
+        TITLE
+    }
+
     private final AtomicBoolean running = new AtomicBoolean(false);
-    private final ConcurrentLinkedQueue<Runnable> outputQueue = new ConcurrentLinkedQueue<>();
-    private JSCSerialSession session = null;
+    private volatile CommandExecutor commandExecutor = null;
+    private volatile JSCSerialSession session = null;
+    private volatile ConnectionSupervisor supervisor = null;
+    private final TelemetryBuffer telemetryBuffer = new TelemetryBuffer(TelemetryStream.DEFAULT_CAPACITY);
+    private final TelemetryChart telemetryChart = new TelemetryChart(telemetryBuffer, 5_000);
+    private final JToggleButton tglStream = new JToggleButton("Stream");
+    private final JSpinner spnStreamRate = new JSpinner(new SpinnerNumberModel(200, 1, ArduinoEmulator.MAX_STREAM_RATE, 50));
+    private volatile TelemetryStream telemetryStream = null;
+    private final PortDiscovery portDiscovery = new PortDiscovery(9600);
+    private final UIUpdateBatcher ui = new UIUpdateBatcher();
+    private final TrafficConsole trafficConsole = new TrafficConsole(new TrafficLog(TrafficLog.DEFAULT_CAPACITY), CONTROL_FONT);
+    private volatile TrafficLog.Tap trafficTap = null;
+    private final LinkStatusBar linkStatusBar = new LinkStatusBar(CONTROL_FONT);
+    private final CompletableFuture<Void> painted = new CompletableFuture<>();
 
     public ArduinoGUIDemo()
     {
         initComponents();
+        addTelemetryPanel();
     }
 
-    public void setup()
+    // The generated form stays as it is; the telemetry chart, traffic console and link status bar are added below it
+    private void addTelemetryPanel()
     {
-        setTitle(getTitle() + getVersionInfo());
+        tglStream.setFont(CONTROL_FONT);
+        spnStreamRate.setFont(CONTROL_FONT);
+        final JLabel lblStreamRate = new JLabel("samples/s");
+        lblStreamRate.setFont(CONTROL_FONT);
+
+        final JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.add(tglStream);
+        controls.add(spnStreamRate);
+        controls.add(lblStreamRate);
+
+        final JPanel telemetryPanel = new JPanel(new BorderLayout());
+        telemetryPanel.setBorder(BorderFactory.createEmptyBorder(0, 6, 10, 10));
+        telemetryPanel.add(controls, BorderLayout.NORTH);
+        telemetryPanel.add(telemetryChart, BorderLayout.CENTER);
+
+        final JPanel root = new JPanel(new BorderLayout())
+        {
+            @Override
+            public void paint(final Graphics g)
+            {
+                super.paint(g);
+                if (!painted.isDone())
+                {
+                    StartupTimer.mark("window painted");
+                    painted.complete(null);
+                }
+            }
+        };
+        root.add(getContentPane(), BorderLayout.NORTH);
+        final JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, telemetryPanel, trafficConsole);
+        split.setResizeWeight(0.5);
+        root.add(split, BorderLayout.CENTER);
+        root.add(linkStatusBar, BorderLayout.SOUTH);
+        setContentPane(root);
+        pack();
+    }
 
+    /*
+     * Shows the window straight away. The version in the title and the
+     * cached port come from the startup tasks, which main() began before
+     * the window was built, and are filled in as they complete.
+     */
+    public void setup(final StartupTasks startup)
+    {
         setVisible(true);
         setLocationRelativeTo(null);
 
         setConnectControlsEnabled(true);
         setBlinkControlsEnabled(false);
+        setStreamControlsEnabled(false);
+
+        final String title = getTitle();
+        startup.getVersionInfo().thenAccept(versionInfo -> ui.post(UIUpdate.TITLE, () -> setTitle(title + versionInfo)));
+
+        // Offer the port the board was last found on, otherwise let Connect search for it
+        txtPort.setText(PortDiscovery.AUTO_PORT);
+        startup.getPorts().thenAccept(ports ->
+        {
+            final String cachedPort = portDiscovery.getCachedPort(ports);
+            if (cachedPort != null)
+            {
+                ui.post(UIUpdate.PORT, () ->
+                {
+                    // Unless a port was typed in meanwhile
+                    if (PortDiscovery.AUTO_PORT.equals(txtPort.getText()))
+                    {
+                        txtPort.setText(cachedPort);
+                    }
+                });
+            }
+        });
+
+        if (Boolean.getBoolean(EXIT_AFTER_STARTUP_PROPERTY))
+        {
+            CompletableFuture.allOf(painted, startup.getPorts(), startup.getVersionInfo())
+                    .whenComplete((result, ex) -> SwingUtilities.invokeLater(() -> System.exit(0)));
+        }
+
+        telemetryChart.start(TelemetryChart.DEFAULT_FPS);
+        trafficConsole.start();
+        trafficConsole.setStatus("Disconnected");
+        linkStatusBar.start();
+
+        tglStream.addActionListener(event ->
+        {
+            final int rate = tglStream.isSelected() ? (int) spnStreamRate.getValue() : 0;
+            queueCommand(() ->
+            {
+                setStreamRate(rate);
+            });
+        });
 
         btnBlink3.addActionListener(event -> queueCommand(() ->
         {
@@ -47,6 +167,7 @@ public class ArduinoGUIDemo extends javax.swing.JFrame
 
         btnConnect.addActionListener(event ->
         {
+            StartupTimer.mark("Connect pressed");
             final String portName = StringUtils.trimToEmpty(txtPort.getText());
             startSerialThread(portName);
         });
@@ -54,10 +175,16 @@ public class ArduinoGUIDemo extends javax.swing.JFrame
         btnDisconnect.addActionListener(event ->
         {
             running.set(false);
+
+            final CommandExecutor executor = commandExecutor;
+            if (executor != null)
+            {
+                executor.shutdown();
+            }
         });
     }
 
-    private void startSerialThread(final String portName)
+    private void startSerialThread(final String requestedPort)
     {
         if (running.get())
         {
@@ -69,26 +196,54 @@ public class ArduinoGUIDemo extends javax.swing.JFrame
 
         new Thread(() ->
         {
+            String disconnectedStatus = "Disconnected";
+            commandExecutor = new CommandExecutor();
+            final boolean auto = PortDiscovery.isAuto(requestedPort);
+            final String portName = auto ? portDiscovery.discover() : requestedPort;
             try
             {
-                session = new JSCSerialSession(portName, 9600);
+                if (portName == null)
+                {
+                    throw new IOException("No Arduino found. Valid ports: " + StringUtils.join(JSCSerialHandler.getCommPortNames(), ", "));
+                }
+                if (auto)
+                {
+                    ui.post(UIUpdate.PORT, () -> txtPort.setText(portName));
+                }
+                final ConnectionSupervisor connection = new ConnectionSupervisor(portName, () -> ProcessTransport.isProcessPort(portName)
+                        ? new JSCSerialSession(new ProcessTransport(portName, 9600))
+                        : new JSCSerialSession(portName, 9600));
+                connection.setStateListener(state -> connectionStateChanged(connection, state));
+                supervisor = connection;
 
-                final AtomicBoolean interrupt = new AtomicBoolean(false);
-                session.processMessages(interrupt, 5_000, message ->
+                try
+                {
+                    connection.start().get();
+                    running.set(true);
+                }
+                catch (ExecutionException ex)
                 {
-                    if (message.contains("@STARTED"))
+                    if (ex.getCause() instanceof IOException)
                     {
-                        running.set(true);
-                        interrupt.set(true);
+                        throw (IOException) ex.getCause();
                     }
-                });
+                }
+                catch (InterruptedException ex)
+                {
+                    Thread.currentThread().interrupt();
+                }
 
                 if (running.get())
                 {
-                    SwingUtilities.invokeLater(() -> setBlinkControlsEnabled(true));
+                    portDiscovery.remember(portName);
                 }
                 else
                 {
+                    if (auto)
+                    {
+                        // The cached port now belongs to something else; search again next time
+                        portDiscovery.forget(portName);
+                    }
                     System.err.println("Didn't receive initial startup message from Arduino.");
                     SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
                             this,
@@ -98,16 +253,18 @@ public class ArduinoGUIDemo extends javax.swing.JFrame
                     ));
                 }
 
-                while (running.get())
+                if (running.get())
                 {
-                    Runnable cmd;
-                    while ((cmd = outputQueue.poll()) != null)
+                    commandExecutor.run();
+                    if (connection.getDisconnects() > 0)
                     {
-                        cmd.run();
+                        disconnectedStatus = String.format("Disconnected; the link dropped %d times, down %d ms in all (longest %d ms)",
+                                connection.getDisconnects(), connection.getTotalDowntimeMillis(), connection.getMaxDowntimeMillis());
                     }
                 }
 
-                session.terminate();
+                connection.close();
+                supervisor = null;
             }
             catch (IOException ex)
             {
@@ -121,63 +278,169 @@ public class ArduinoGUIDemo extends javax.swing.JFrame
             }
 
             running.set(false);
-
-            SwingUtilities.invokeLater(() ->
-            {
-                setConnectControlsEnabled(true);
-                setBlinkControlsEnabled(false);
-            });
+            commandExecutor.shutdown();
+
+            ui.post(UIUpdate.CONNECT_CONTROLS, () -> setConnectControlsEnabled(true));
+            ui.post(UIUpdate.BLINK_CONTROLS, () -> setBlinkControlsEnabled(false));
+            ui.post(UIUpdate.STREAM_CONTROLS, () -> setStreamControlsEnabled(false));
+            ui.post(UIUpdate.STREAM_SELECTED, () -> tglStream.setSelected(false));
+            final String status = disconnectedStatus;
+            ui.post(UIUpdate.STATUS, () -> trafficConsole.setStatus(status));
+            linkStatusBar.setLinkMetrics(null);
         }).start();
     }
 
-    private void queueCommand(final Runnable runnable)
+    // Runs on the supervisor thread; a reconnect brings a new session, so the subscriptions move with it
+    private void connectionStateChanged(final ConnectionSupervisor connection, final ConnectionSupervisor.State state)
+    {
+        final TelemetryStream previous = telemetryStream;
+        if (previous != null)
+        {
+            previous.close();
+            telemetryStream = null;
+        }
+        final TrafficLog.Tap previousTap = trafficTap;
+        if (previousTap != null)
+        {
+            previousTap.close();
+            trafficTap = null;
+        }
+
+        final boolean connected = state == ConnectionSupervisor.State.CONNECTED;
+        final String status;
+        if (connected)
+        {
+            session = connection.getSession();
+            trafficTap = trafficConsole.getLog().attach(session);
+            telemetryStream = new TelemetryStream(session, telemetryBuffer);
+            linkStatusBar.setLinkMetrics(session.getMetrics().getLink());
+            status = String.format("Connected to %s at %d baud, negotiating...", connection.getPortName(), session.getBaudRate());
+            StartupTimer.mark("connected");
+            // Queued ahead of any command, so nothing else is sent while the rate changes
+            final JSCSerialSession connectedSession = session;
+            queueCommand(() -> negotiateBaudRate(connection, connectedSession));
+        }
+        else if (state == ConnectionSupervisor.State.CLOSED)
+        {
+            linkStatusBar.setLinkMetrics(null);
+            status = "Disconnected";
+        }
+        else
+        {
+            status = String.format("%s %s...", state == ConnectionSupervisor.State.CONNECTING ? "Connecting to" : "Reconnecting to", connection.getPortName());
+        }
+
+        // The controls wait for the negotiation when connected
+        if (!connected)
+        {
+            ui.post(UIUpdate.BLINK_CONTROLS, () -> setBlinkControlsEnabled(false));
+            ui.post(UIUpdate.STREAM_CONTROLS, () -> setStreamControlsEnabled(false));
+            ui.post(UIUpdate.STREAM_SELECTED, () -> tglStream.setSelected(false));
+        }
+        ui.post(UIUpdate.STATUS, () -> trafficConsole.setStatus(status));
+    }
+
+    /*
+     * Every (re)connect resets the board to its boot rate, so this runs each
+     * time, on the command thread rather than the supervisor's, which keeps
+     * watching the port meanwhile. Heartbeats are held off as the link is
+     * garbled while the rate changes.
+     */
+    private void negotiateBaudRate(final ConnectionSupervisor connection, final JSCSerialSession connected)
     {
-        if (session != null)
+        connection.setHeartbeatsHeld(true);
+        try
+        {
+            BaudNegotiator.negotiate(connected, BaudNegotiator.getConfiguredMaxRate(), 2_000);
+        }
+        catch (IOException ex)
+        {
+            // The supervisor notices the dead link and reconnects
+            System.err.println("Baud rate negotiation failed: " + ex.getMessage());
+        }
+        catch (InterruptedException ex)
         {
-            outputQueue.offer(() -> runnable.run());
+            Thread.currentThread().interrupt();
         }
+        finally
+        {
+            connection.setHeartbeatsHeld(false);
+        }
+
+        if (connection.getCurrentState() != ConnectionSupervisor.State.CONNECTED || connection.getSession() != connected)
+        {
+            return;
+        }
+        final String status = String.format("Connected to %s at %d baud", connection.getPortName(), connected.getBaudRate());
+        ui.post(UIUpdate.BLINK_CONTROLS, () -> setBlinkControlsEnabled(true));
+        ui.post(UIUpdate.STREAM_CONTROLS, () -> setStreamControlsEnabled(true));
+        ui.post(UIUpdate.STATUS, () -> trafficConsole.setStatus(status));
+    }
+
+    private boolean isConnected()
+    {
+        final ConnectionSupervisor connection = supervisor;
+        return running.get() && connection != null && connection.getCurrentState() == ConnectionSupervisor.State.CONNECTED;
     }
 
-    private boolean blinkLED(int numBlinks)
+    private void queueCommand(final Runnable runnable)
     {
-        final AtomicBoolean success = new AtomicBoolean(false);
+        final CommandExecutor executor = commandExecutor;
+        if (session != null && executor != null)
+        {
+            executor.submit(runnable);
+        }
+    }
 
-        if (session != null)
+    private void blinkLED(int numBlinks)
+    {
+        final JSCSerialSession currentSession = session;
+        if (currentSession == null)
         {
-            SwingUtilities.invokeLater(() -> setBlinkControlsEnabled(false));
+            return;
+        }
 
-            session.sendCommand(true, String.format("*BLINK_LED,%d\n", numBlinks));
+        ui.post(UIUpdate.BLINK_CONTROLS, () -> setBlinkControlsEnabled(false));
+
+        currentSession.blinkLEDAsync(numBlinks, 10_000).whenComplete((reply, ex) ->
+        {
+            ui.post(UIUpdate.BLINK_CONTROLS, () -> setBlinkControlsEnabled(isConnected()));
 
-            final AtomicBoolean interrupt = new AtomicBoolean(false);
-            session.processMessages(interrupt, 10_000, message ->
+            if (ex != null)
             {
-                if (message.contains("@BLINK_LED,FINISH"))
-                {
-                    success.set(true);
-                    interrupt.set(true);
-                }
-                else if (message.contains("@BLINK_LED,ERROR"))
-                {
-                    success.set(false);
-                    interrupt.set(true);
-                }
-            });
+                System.err.println("An error occured while sending BLINK_LED command: " + ex.getMessage());
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
+                        this,
+                        "An error occured while sending BLINK_LED command.",
+                        "Arduino Error",
+                        JOptionPane.ERROR_MESSAGE
+                ));
+            }
+        });
+    }
 
-            SwingUtilities.invokeLater(() -> setBlinkControlsEnabled(true));
+    private void setStreamRate(final int rate)
+    {
+        final TelemetryStream stream = telemetryStream;
+        if (stream == null)
+        {
+            return;
         }
 
-        if (!success.get())
+        (rate == 0 ? stream.stop(5_000) : stream.start(rate, 5_000)).whenComplete((reply, ex) ->
         {
-            System.err.println("An error occured while sending BLINK_LED command.");
-            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(
-                    this,
-                    "An error occured while sending BLINK_LED command.",
-                    "Arduino Error",
-                    JOptionPane.ERROR_MESSAGE
-            ));
-        }
+            if (ex != null)
+            {
+                System.err.println("An error occured while sending STREAM command: " + ex.getMessage());
+                ui.post(UIUpdate.STREAM_SELECTED, () -> tglStream.setSelected(false));
+            }
+        });
+    }
 
-        return success.get();
+    private void setStreamControlsEnabled(boolean state)
+    {
+        tglStream.setEnabled(state);
+        spnStreamRate.setEnabled(state);
     }
 
     private void setBlinkControlsEnabled(boolean state)
@@ -330,6 +593,14 @@ public class ArduinoGUIDemo extends javax.swing.JFrame
 
     public static void main(String args[])
     {
+        StartupTimer.mark("main");
+        if (GraphicsEnvironment.isHeadless())
+        {
+            System.err.println("No display is available; HeadlessRunner runs command scripts without one.");
+            System.exit(2);
+        }
+        final StartupTasks startup = StartupTasks.start();
+
         try
         {
             for (javax.swing.UIManager.LookAndFeelInfo info : javax.swing.UIManager.getInstalledLookAndFeels())
@@ -345,11 +616,12 @@ public class ArduinoGUIDemo extends javax.swing.JFrame
         {
             ex.printStackTrace();
         }
+        StartupTimer.mark("look and feel installed");
 
         SwingUtilities.invokeLater(() ->
         {
             final ArduinoGUIDemo instance = new ArduinoGUIDemo();
-            instance.setup();
+            instance.setup(startup);
         });
     }
 
@@ -0,0 +1,188 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Moves a freshly opened session off the 9600 baud the sketch boots at.
+ * Candidate rates are tried from the highest down, so a board that handles
+ * the fastest rate is switched in one step, while rates its clock cannot
+ * hit (230400 on a 16 MHz AVR is 3.5% off) are skipped on the way down.
+ * A rate counts only once it has been confirmed and a burst of pipelined
+ * pings has come back intact.
+ */
+public class BaudNegotiator
+{
+    // Must match BAUD_RATES and BAUD_CONFIRM_MS in ArduinoGUIDemo.ino
+    public static final int[] SUPPORTED_RATES = {9600, 19200, 38400, 57600, 115200, 230400, 250000, 500000, 1000000};
+    public static final long BAUD_CONFIRM_MS = 1_000;
+    public static final int VERIFY_PINGS = 16;
+    public static final String MAX_BAUD_PROPERTY = "arduinoguidemo.maxBaud";
+
+    // "*PING\n" out, "@PONG\r\n" back
+    private static final int PING_BYTES_OUT = 6;
+    private static final int PING_BYTES_IN = 7;
+
+    public static boolean isSupported(final long rate)
+    {
+        for (int supported : SUPPORTED_RATES)
+        {
+            if (supported == rate)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // -Darduinoguidemo.maxBaud, 9600 turns negotiation off
+    public static int getConfiguredMaxRate()
+    {
+        return Integer.getInteger(MAX_BAUD_PROPERTY, SUPPORTED_RATES[SUPPORTED_RATES.length - 1]);
+    }
+
+    /*
+     * Switches to the highest supported rate up to maxRate that passes
+     * verification and returns it; the session stays at its current rate
+     * if none does, or if the firmware predates *BAUD.
+     */
+    public static int negotiate(final JSCSerialSession session, final int maxRate, final long timeoutMS) throws IOException, InterruptedException
+    {
+        final int startRate = session.getBaudRate();
+        for (int i = SUPPORTED_RATES.length - 1; i >= 0; i--)
+        {
+            final int rate = SUPPORTED_RATES[i];
+            if (rate > maxRate)
+            {
+                continue;
+            }
+            if (rate <= startRate)
+            {
+                break;
+            }
+
+            try
+            {
+                if (!session.changeBaudRate(rate, timeoutMS))
+                {
+                    continue;
+                }
+            }
+            catch (UnsupportedCommandException ex)
+            {
+                return startRate;
+            }
+            if (verify(session, timeoutMS))
+            {
+                return rate;
+            }
+
+            // Confirmed but lossy under load; back to where we started before trying lower
+            if (!session.changeBaudRate(startRate, timeoutMS))
+            {
+                throw new IOException(String.format("Could not return to %d baud from %d baud.", startRate, rate));
+            }
+        }
+        return session.getBaudRate();
+    }
+
+    // Sends VERIFY_PINGS pings back to back and expects every reply
+    public static boolean verify(final JSCSerialSession session, final long timeoutMS) throws InterruptedException
+    {
+        final CompletableFuture<?>[] pings = new CompletableFuture<?>[VERIFY_PINGS];
+        for (int i = 0; i < pings.length; i++)
+        {
+            pings[i] = session.pingAsync(timeoutMS);
+        }
+        try
+        {
+            CompletableFuture.allOf(pings).get();
+            return true;
+        }
+        catch (ExecutionException ex)
+        {
+            return false;
+        }
+    }
+
+    /*
+     * Keeps depth pings in flight for durationMS at the session's current
+     * rate and reports the effective throughput.
+     */
+    public static Throughput measure(final JSCSerialSession session, final long durationMS, final int depth, final long timeoutMS) throws InterruptedException
+    {
+        final Semaphore inFlight = new Semaphore(depth);
+        final AtomicLong succeeded = new AtomicLong(0);
+        final AtomicLong failed = new AtomicLong(0);
+
+        final Stopwatch sw = new Stopwatch().start();
+        final long durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMS);
+        while (sw.elapsedNanos() < durationNanos)
+        {
+            inFlight.acquire();
+            session.pingAsync(timeoutMS).whenComplete((reply, ex) ->
+            {
+                (ex == null ? succeeded : failed).incrementAndGet();
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(depth);
+        inFlight.release(depth);
+
+        return new Throughput(session.getBaudRate(), succeeded.get(), failed.get(), sw.elapsedNanos());
+    }
+
+    public static class Throughput
+    {
+        private final int baudRate;
+        private final long commands;
+        private final long failures;
+        private final long nanos;
+
+        private Throughput(final int baudRate, final long commands, final long failures, final long nanos)
+        {
+            this.baudRate = baudRate;
+            this.commands = commands;
+            this.failures = failures;
+            this.nanos = nanos;
+        }
+
+        public int getBaudRate()
+        {
+            return baudRate;
+        }
+
+        public double getCommandsPerSecond()
+        {
+            return commands * 1e9 / nanos;
+        }
+
+        // Payload bytes in both directions
+        public double getBytesPerSecond()
+        {
+            return getCommandsPerSecond() * (PING_BYTES_OUT + PING_BYTES_IN);
+        }
+
+        // Share of the board-to-host line (baud / 10 bytes/s) carrying replies
+        public double getEfficiency()
+        {
+            return getCommandsPerSecond() * PING_BYTES_IN / (baudRate / 10.0);
+        }
+
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%8d baud: %9.1f commands/s %10.1f bytes/s  %5.1f%% of line  %d failed",
+                    baudRate, getCommandsPerSecond(), getBytesPerSecond(), getEfficiency() * 100, failures);
+        }
+    }
+}
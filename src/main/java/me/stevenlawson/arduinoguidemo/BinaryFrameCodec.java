@@ -0,0 +1,199 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.Arrays;
+
+/*
+ * Frame layout for the binary protocol mode:
+ *
+ *   COBS( opcode | payload... | CRC-16 high | CRC-16 low ) 0x00
+ *
+ * The CRC is CRC-16/CCITT-FALSE (poly 0x1021, init 0xFFFF) over opcode and
+ * payload. COBS removes every zero byte from the frame so 0x00 can delimit
+ * frames and a receiver can resynchronize after any corruption.
+ */
+public class BinaryFrameCodec
+{
+    public static final int MAX_FRAME_LENGTH = 160;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static
+    {
+        for (int i = 0; i < 256; i++)
+        {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++)
+            {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private final byte[] frame = new byte[MAX_FRAME_LENGTH + 2];
+    private int frameLength = 0;
+    private boolean overflow = false;
+    private long crcErrors = 0;
+    private long framingErrors = 0;
+
+    public static int crc16(final byte[] data, final int offset, final int length)
+    {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++)
+        {
+            crc = ((crc << 8) ^ CRC_TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    public static byte[] encode(final int opcode, final byte[] payload, final int payloadLength)
+    {
+        final byte[] raw = new byte[payloadLength + 3];
+        raw[0] = (byte) opcode;
+        System.arraycopy(payload, 0, raw, 1, payloadLength);
+        final int crc = crc16(raw, 0, payloadLength + 1);
+        raw[payloadLength + 1] = (byte) (crc >> 8);
+        raw[payloadLength + 2] = (byte) crc;
+
+        final byte[] encoded = new byte[raw.length + (raw.length / 254) + 2];
+        final int encodedLength = cobsEncode(raw, raw.length, encoded);
+        encoded[encodedLength] = 0;
+        return Arrays.copyOf(encoded, encodedLength + 1);
+    }
+
+    public static byte[] encode(final int opcode)
+    {
+        return encode(opcode, new byte[0], 0);
+    }
+
+    // Returns the encoded length, excluding the 0x00 delimiter
+    public static int cobsEncode(final byte[] in, final int length, final byte[] out)
+    {
+        int codeIndex = 0;
+        int writeIndex = 1;
+        int code = 1;
+
+        for (int i = 0; i < length; i++)
+        {
+            if (in[i] == 0)
+            {
+                out[codeIndex] = (byte) code;
+                codeIndex = writeIndex++;
+                code = 1;
+            }
+            else
+            {
+                out[writeIndex++] = in[i];
+                if (++code == 0xFF)
+                {
+                    out[codeIndex] = (byte) code;
+                    codeIndex = writeIndex++;
+                    code = 1;
+                }
+            }
+        }
+
+        out[codeIndex] = (byte) code;
+        return writeIndex;
+    }
+
+    // Decodes in place; returns the decoded length or -1 for a malformed frame
+    public static int cobsDecode(final byte[] buffer, final int length)
+    {
+        int readIndex = 0;
+        int writeIndex = 0;
+
+        while (readIndex < length)
+        {
+            final int code = buffer[readIndex++] & 0xFF;
+            if (code == 0 || readIndex + code - 1 > length)
+            {
+                return -1;
+            }
+
+            for (int i = 1; i < code; i++)
+            {
+                buffer[writeIndex++] = buffer[readIndex++];
+            }
+
+            if (code != 0xFF && readIndex < length)
+            {
+                buffer[writeIndex++] = 0;
+            }
+        }
+        return writeIndex;
+    }
+
+    /*
+     * Streaming decoder: collects bytes up to each 0x00 delimiter and passes
+     * every frame whose CRC checks out to the sink as opcode plus payload.
+     * The frame buffer is reused, so the sink must copy anything it keeps.
+     */
+    public void feed(final byte[] data, final int offset, final int length, final FrameSink sink)
+    {
+        for (int i = offset; i < offset + length; i++)
+        {
+            final byte b = data[i];
+            if (b != 0)
+            {
+                if (frameLength < frame.length)
+                {
+                    frame[frameLength++] = b;
+                }
+                else
+                {
+                    overflow = true;
+                }
+                continue;
+            }
+
+            if (frameLength > 0)
+            {
+                decodeFrame(sink);
+            }
+            frameLength = 0;
+            overflow = false;
+        }
+    }
+
+    public void reset()
+    {
+        frameLength = 0;
+        overflow = false;
+    }
+
+    public long getCrcErrors()
+    {
+        return crcErrors;
+    }
+
+    public long getFramingErrors()
+    {
+        return framingErrors;
+    }
+
+    private void decodeFrame(final FrameSink sink)
+    {
+        final int decodedLength = overflow ? -1 : cobsDecode(frame, frameLength);
+        if (decodedLength < 3)
+        {
+            framingErrors++;
+            return;
+        }
+
+        final int crc = ((frame[decodedLength - 2] & 0xFF) << 8) | (frame[decodedLength - 1] & 0xFF);
+        if (crc != crc16(frame, 0, decodedLength - 2))
+        {
+            crcErrors++;
+            return;
+        }
+
+        sink.frameReceived(frame[0] & 0xFF, frame, 1, decodedLength - 3);
+    }
+
+    @FunctionalInterface
+    public interface FrameSink
+    {
+        public abstract void frameReceived(final int opcode, final byte[] payload, final int offset, final int length);
+    }
+}
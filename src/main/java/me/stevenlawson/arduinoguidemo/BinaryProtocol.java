@@ -0,0 +1,135 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Maps the ASCII protocol onto BinaryFrameCodec frames and back, so that
+ * everything above the transport keeps speaking "*CMD,arg" and "@REPLY"
+ * regardless of the negotiated mode. Must match ArduinoGUIDemo.ino.
+ */
+public class BinaryProtocol
+{
+    public static final String NEGOTIATE_COMMAND = "*BINARY";
+    public static final String NEGOTIATE_REPLY = "@BINARY,OK";
+
+    // The sketch's input buffer; a command line, or a frame's payload, must fit it
+    public static final int SERIAL_INPUT_BUFFER_LEN = 150;
+    // Blinks the sketch queues behind the one running; any more are refused with BUSY
+    public static final int BLINK_QUEUE_LEN = 8;
+
+    // Host to board
+    public static final int OP_PING = 0x01;
+    public static final int OP_BLINK_LED = 0x02;
+    public static final int OP_TEXT = 0x7F;
+
+    // Board to host
+    public static final int OP_PONG = 0x81;
+    public static final int OP_BLINK_LED_STATUS = 0x82;
+    public static final int OP_ERROR = 0xFE;
+    public static final int OP_TEXT_REPLY = 0xFF;
+
+    public static final int BLINK_START = 1;
+    public static final int BLINK_FINISH = 2;
+    public static final int BLINK_ERROR = 3;
+    public static final int BLINK_CANCELLED = 4;
+    public static final int BLINK_BUSY = 5;
+
+    public static final int ERROR_CRC = 1;
+    public static final int ERROR_INVALID_OPCODE = 2;
+
+    private static final byte[] PING_FRAME = BinaryFrameCodec.encode(OP_PING);
+
+    /*
+     * Encodes one or more '\n' terminated ASCII commands. Commands without
+     * a dedicated opcode are tunnelled as text frames.
+     */
+    public static byte[] encodeCommands(final String commands)
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int start = 0;
+        while (start < commands.length())
+        {
+            int end = commands.indexOf('\n', start);
+            if (end == -1)
+            {
+                end = commands.length();
+            }
+            final byte[] frame = encodeCommand(commands.substring(start, end));
+            out.write(frame, 0, frame.length);
+            start = end + 1;
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] encodeCommand(final String command)
+    {
+        if (command.equals("*PING"))
+        {
+            return PING_FRAME;
+        }
+
+        if (command.startsWith("*BLINK_LED,"))
+        {
+            final String arg = command.substring("*BLINK_LED,".length());
+            if (!arg.isEmpty() && arg.indexOf(',') == -1)
+            {
+                try
+                {
+                    final int numBlinks = Integer.parseInt(arg.trim());
+                    if (numBlinks >= Short.MIN_VALUE && numBlinks <= Short.MAX_VALUE)
+                    {
+                        return BinaryFrameCodec.encode(OP_BLINK_LED, new byte[]
+                        {
+                            (byte) (numBlinks >> 8), (byte) numBlinks
+                        }, 2);
+                    }
+                }
+                catch (NumberFormatException ex)
+                {
+                }
+            }
+        }
+
+        final byte[] text = command.getBytes(StandardCharsets.UTF_8);
+        return BinaryFrameCodec.encode(OP_TEXT, text, text.length);
+    }
+
+    // Returns the ASCII protocol equivalent of a reply frame, or null if there is none
+    public static String decodeReply(final int opcode, final byte[] payload, final int offset, final int length)
+    {
+        switch (opcode)
+        {
+            case OP_PONG:
+                return "@PONG";
+            case OP_BLINK_LED_STATUS:
+                if (length < 1)
+                {
+                    return null;
+                }
+                switch (payload[offset])
+                {
+                    case BLINK_START:
+                        return "@BLINK_LED,START";
+                    case BLINK_FINISH:
+                        return "@BLINK_LED,FINISH";
+                    case BLINK_CANCELLED:
+                        return "@BLINK_LED,CANCELLED";
+                    case BLINK_BUSY:
+                        return "@BLINK_LED,ERROR,BUSY";
+                    default:
+                        return "@BLINK_LED,ERROR,INVALID_NUM_BLINKS";
+                }
+            case OP_ERROR:
+                if (length >= 2 && payload[offset] == ERROR_INVALID_OPCODE)
+                {
+                    return String.format("@ERROR,INVALID_OPCODE,0x%02X", payload[offset + 1] & 0xFF);
+                }
+                return "@ERROR,CRC";
+            case OP_TEXT_REPLY:
+                return new String(payload, offset, length, StandardCharsets.UTF_8);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Staging buffer in front of a native port write. Commands are encoded
+ * straight into one reusable buffer and, depending on the flush policy,
+ * several of them go out in a single native write. Short writes are
+ * retried with the unwritten remainder, and a write that took nothing
+ * waits a moment for the port's transmit buffer to drain before retrying.
+ */
+public class BufferedSerialWriter
+{
+    public enum FlushPolicy
+    {
+        // One native write per command, as soon as it is queued
+        IMMEDIATE,
+        // Everything queued within the batch window goes out in one write
+        BATCHED,
+        // Written once the threshold is reached, or when the batch window expires
+        SIZE_TRIGGERED
+    }
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_BATCH_WINDOW_MS = 2;
+    private static final int MAX_SHORT_WRITE_RETRIES = 100;
+    private static final long SHORT_WRITE_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "BufferedSerialWriter-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final RawWriter rawWriter;
+    private final byte[] buffer;
+    private final ByteBuffer byteBuffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private FlushPolicy flushPolicy = FlushPolicy.IMMEDIATE;
+    private long batchWindowMS = DEFAULT_BATCH_WINDOW_MS;
+    private int sizeThreshold = 64;
+    private ScheduledFuture<?> scheduledFlush = null;
+    private volatile LinkMetrics linkMetrics = null;
+
+    private final AtomicLong commands = new AtomicLong(0);
+    private final AtomicLong nativeWrites = new AtomicLong(0);
+    private final AtomicLong bytesWritten = new AtomicLong(0);
+    private final AtomicLong shortWrites = new AtomicLong(0);
+    private final AtomicLong failedWrites = new AtomicLong(0);
+
+    public BufferedSerialWriter(final RawWriter rawWriter)
+    {
+        this(rawWriter, DEFAULT_CAPACITY);
+    }
+
+    public BufferedSerialWriter(final RawWriter rawWriter, final int capacity)
+    {
+        this.rawWriter = rawWriter;
+        this.buffer = new byte[capacity];
+        this.byteBuffer = ByteBuffer.wrap(buffer);
+    }
+
+    public synchronized void setFlushPolicy(final FlushPolicy flushPolicy, final long batchWindowMS, final int sizeThreshold)
+    {
+        this.flushPolicy = flushPolicy;
+        this.batchWindowMS = batchWindowMS;
+        this.sizeThreshold = Math.min(sizeThreshold, buffer.length);
+        flush();
+    }
+
+    public void setLinkMetrics(final LinkMetrics linkMetrics)
+    {
+        this.linkMetrics = linkMetrics;
+    }
+
+    public synchronized FlushPolicy getFlushPolicy()
+    {
+        return flushPolicy;
+    }
+
+    public synchronized boolean write(final String data)
+    {
+        final CharBuffer chars = CharBuffer.wrap(data);
+        encoder.reset();
+
+        while (true)
+        {
+            final CoderResult result = encoder.encode(chars, byteBuffer, true);
+            if (result.isOverflow())
+            {
+                if (!flush())
+                {
+                    return false;
+                }
+                continue;
+            }
+            if (result.isError())
+            {
+                return false;
+            }
+            break;
+        }
+        encoder.flush(byteBuffer);
+
+        return queued();
+    }
+
+    public synchronized boolean write(final byte[] data, final int length)
+    {
+        int offset = 0;
+        while (offset < length)
+        {
+            if (!byteBuffer.hasRemaining() && !flush())
+            {
+                return false;
+            }
+            final int chunk = Math.min(byteBuffer.remaining(), length - offset);
+            byteBuffer.put(data, offset, chunk);
+            offset += chunk;
+        }
+
+        return queued();
+    }
+
+    /*
+     * Writes out everything buffered. Returns false if the port rejected the
+     * write, in which case the buffered bytes are discarded.
+     */
+    public synchronized boolean flush()
+    {
+        if (scheduledFlush != null)
+        {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+
+        int length = byteBuffer.position();
+        if (length == 0)
+        {
+            return true;
+        }
+
+        int retries = 0;
+        while (length > 0)
+        {
+            final int written = rawWriter.write(buffer, length);
+            nativeWrites.incrementAndGet();
+
+            if (written < 0 || (written == 0 && ++retries > MAX_SHORT_WRITE_RETRIES))
+            {
+                failedWrites.incrementAndGet();
+                final LinkMetrics metrics = linkMetrics;
+                if (metrics != null)
+                {
+                    metrics.recordFailedPortWrite();
+                }
+                byteBuffer.clear();
+                return false;
+            }
+            if (written == 0)
+            {
+                shortWrites.incrementAndGet();
+                LockSupport.parkNanos(SHORT_WRITE_BACKOFF_NANOS);
+                continue;
+            }
+
+            bytesWritten.addAndGet(written);
+            if (written < length)
+            {
+                // The native write always starts at index 0, so move the remainder to the front
+                shortWrites.incrementAndGet();
+                System.arraycopy(buffer, written, buffer, 0, length - written);
+            }
+            length -= written;
+        }
+
+        byteBuffer.clear();
+        return true;
+    }
+
+    private boolean queued()
+    {
+        commands.incrementAndGet();
+
+        switch (flushPolicy)
+        {
+            case SIZE_TRIGGERED:
+                if (byteBuffer.position() >= sizeThreshold)
+                {
+                    return flush();
+                }
+                scheduleFlush();
+                return true;
+            case BATCHED:
+                scheduleFlush();
+                return true;
+            default:
+                return flush();
+        }
+    }
+
+    private void scheduleFlush()
+    {
+        if (scheduledFlush == null && byteBuffer.position() > 0)
+        {
+            scheduledFlush = FLUSHER.schedule(() ->
+            {
+                synchronized (this)
+                {
+                    scheduledFlush = null;
+                    flush();
+                }
+            }, batchWindowMS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public long getCommandCount()
+    {
+        return commands.get();
+    }
+
+    public long getNativeWriteCount()
+    {
+        return nativeWrites.get();
+    }
+
+    public long getBytesWritten()
+    {
+        return bytesWritten.get();
+    }
+
+    public long getShortWriteCount()
+    {
+        return shortWrites.get();
+    }
+
+    public long getFailedWriteCount()
+    {
+        return failedWrites.get();
+    }
+
+    @FunctionalInterface
+    public interface RawWriter
+    {
+        public abstract int write(final byte[] data, final int length);
+    }
+}
@@ -0,0 +1,235 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.commons.lang3.StringUtils;
+
+/*
+ * Commands sent to the board together with JSCSerialSession.sendBatchAsync()
+ * as "*BATCH,<command>;<command>;..." lines. The board runs them in order
+ * and answers each line with one, "@BATCH,<count>,<reply>;<reply>;...",
+ * holding the replies the commands would have sent on lines of their own,
+ * so a line costs one write and one reply however many commands it holds.
+ * The session unpacks those replies, and each command's future completes
+ * exactly as it would have had the command been sent by itself: a blink's
+ * when it finishes, after the batch's line has been answered.
+ *
+ * A batch too long for the board's input buffer is split over as many
+ * lines as it takes. So is one with more blinks than the board can hold
+ * alongside the BULK lane's, and the session sends a line with blinks
+ * only once the last line's blinks have finished. The board refuses
+ * *BAUD, *BINARY and *BATCH within a batch, so they cannot be added.
+ */
+public class CommandBatch
+{
+    public static final String COMMAND = "*BATCH";
+    public static final String REPLY = "@BATCH";
+    public static final char SEPARATOR = ';';
+    // The sketch's input buffer holds the line; in binary mode it holds the text frame, with an opcode, a CRC and COBS's overhead byte
+    public static final int MAX_LINE_LENGTH = BinaryProtocol.SERIAL_INPUT_BUFFER_LEN - 4;
+    // The board runs one blink and queues BLINK_QUEUE_LEN more; the BULK lane may have one of those
+    public static final int MAX_BLINKS_PER_LINE = BinaryProtocol.BLINK_QUEUE_LEN;
+    private static final String BLINK_COMMAND = "*BLINK_LED";
+
+    private static final List<String> UNBATCHABLE = Arrays.asList(COMMAND, "*BAUD", BinaryProtocol.NEGOTIATE_COMMAND);
+
+    static class Entry
+    {
+        private final String command;
+        private final String token;
+        private final String successReply;
+        private final String[] failureReplies;
+        private final CompletableFuture<String> reply = new CompletableFuture<>();
+
+        private Entry(final String command, final String successReply, final String[] failureReplies)
+        {
+            this.command = command;
+            this.token = StringUtils.substringBefore(command, ",");
+            this.successReply = successReply;
+            this.failureReplies = Arrays.copyOf(failureReplies, failureReplies.length + 1);
+            this.failureReplies[failureReplies.length] = "@ERROR,INVALID_COMMAND," + token;
+        }
+
+        String getToken()
+        {
+            return token;
+        }
+
+        boolean isBlink()
+        {
+            return BLINK_COMMAND.equals(token);
+        }
+
+        String getSuccessReply()
+        {
+            return successReply;
+        }
+
+        String[] getFailureReplies()
+        {
+            return failureReplies;
+        }
+
+        CompletableFuture<String> getReply()
+        {
+            return reply;
+        }
+    }
+
+    // One "*BATCH" line and the entries it carries
+    static class Line
+    {
+        private final String text;
+        private final List<Entry> entries;
+
+        private Line(final String text, final List<Entry> entries)
+        {
+            this.text = text;
+            this.entries = entries;
+        }
+
+        String getText()
+        {
+            return text;
+        }
+
+        List<Entry> getEntries()
+        {
+            return entries;
+        }
+
+        // Completes once every blink on the line has finished, failed or not
+        CompletableFuture<Void> getBlinksDone()
+        {
+            final List<CompletableFuture<?>> blinks = new ArrayList<>();
+            for (Entry entry : entries)
+            {
+                if (entry.isBlink())
+                {
+                    blinks.add(entry.reply.handle((reply, ex) -> null));
+                }
+            }
+            return CompletableFuture.allOf(blinks.toArray(new CompletableFuture<?>[0]));
+        }
+
+        boolean hasBlinks()
+        {
+            for (Entry entry : entries)
+            {
+                if (entry.isBlink())
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public static boolean isBatchable(final String command)
+    {
+        return command.startsWith("*") && command.indexOf(SEPARATOR) < 0 && command.indexOf('\n') < 0
+                && COMMAND.length() + 1 + command.length() <= MAX_LINE_LENGTH
+                && !UNBATCHABLE.contains(StringUtils.substringBefore(command, ","));
+    }
+
+    /*
+     * Adds a command, without a line ending, and returns the future of its
+     * reply, which completes as sendCommandAsync()'s would once the batch
+     * has been sent.
+     */
+    public CompletableFuture<String> add(final String command, final String successReply, final String... failureReplies)
+    {
+        if (!isBatchable(command))
+        {
+            throw new IllegalArgumentException(String.format("'%s' cannot be sent in a batch.", command));
+        }
+        final Entry entry = new Entry(command, successReply, failureReplies);
+        entries.add(entry);
+        return entry.reply;
+    }
+
+    public CompletableFuture<String> ping()
+    {
+        return add("*PING", "@PONG");
+    }
+
+    public CompletableFuture<String> blinkLED(final int numBlinks)
+    {
+        return add(BLINK_COMMAND + "," + numBlinks, "@BLINK_LED,FINISH", JSCSerialSession.BLINK_FAILURE_REPLIES);
+    }
+
+    public CompletableFuture<String> stream(final int samplesPerSecond)
+    {
+        return add("*STREAM," + samplesPerSecond, "@STREAM,OK", "@STREAM,ERROR");
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    List<Entry> getEntries()
+    {
+        return Collections.unmodifiableList(entries);
+    }
+
+    // The entries packed in order into as few lines of at most MAX_LINE_LENGTH, and MAX_BLINKS_PER_LINE blinks, as they fit
+    List<Line> toLines()
+    {
+        final List<Line> lines = new ArrayList<>();
+        final StringBuilder text = new StringBuilder(MAX_LINE_LENGTH);
+        List<Entry> lineEntries = new ArrayList<>();
+        int blinks = 0;
+        for (Entry entry : entries)
+        {
+            if (!lineEntries.isEmpty() && (text.length() + 1 + entry.command.length() > MAX_LINE_LENGTH
+                    || (entry.isBlink() && blinks == MAX_BLINKS_PER_LINE)))
+            {
+                lines.add(new Line(text.toString(), lineEntries));
+                lineEntries = new ArrayList<>();
+                blinks = 0;
+            }
+            if (entry.isBlink())
+            {
+                blinks++;
+            }
+            if (lineEntries.isEmpty())
+            {
+                text.setLength(0);
+                text.append(COMMAND).append(',');
+            }
+            else
+            {
+                text.append(SEPARATOR);
+            }
+            text.append(entry.command);
+            lineEntries.add(entry);
+        }
+        if (!lineEntries.isEmpty())
+        {
+            lines.add(new Line(text.toString(), lineEntries));
+        }
+        return lines;
+    }
+
+    /*
+     * The replies folded into a "@BATCH,<count>,<reply>;<reply>;..." line, in
+     * the order the board sent them; none for the "@BATCH,<count>" that ends
+     * a batch in binary mode, whose replies came in frames of their own.
+     */
+    public static String[] unpackReplies(final String line)
+    {
+        final int countEnd = line.indexOf(',', REPLY.length() + 1);
+        return countEnd < 0 ? new String[0] : StringUtils.split(line.substring(countEnd + 1), SEPARATOR);
+    }
+}
@@ -0,0 +1,129 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CommandExecutor
+{
+    private static final QueuedCommand WAKEUP = new QueuedCommand(() ->
+    {
+    });
+
+    private final LinkedBlockingQueue<QueuedCommand> queue = new LinkedBlockingQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicLong executedCount = new AtomicLong(0);
+    private final AtomicLong totalLatencyNanos = new AtomicLong(0);
+    private final AtomicLong maxLatencyNanos = new AtomicLong(0);
+
+    public boolean submit(final Runnable command)
+    {
+        if (!running.get())
+        {
+            return false;
+        }
+        return queue.offer(new QueuedCommand(command));
+    }
+
+    /*
+     * Executes submitted commands on the calling thread, parking while the
+     * queue is empty, until shutdown() is called.
+     */
+    public void run()
+    {
+        while (running.get())
+        {
+            final QueuedCommand queued;
+            try
+            {
+                queued = queue.take();
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+
+            if (queued == WAKEUP || !running.get())
+            {
+                continue;
+            }
+
+            recordLatency(System.nanoTime() - queued.queuedTime);
+
+            try
+            {
+                queued.command.run();
+            }
+            catch (RuntimeException ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+
+        queue.clear();
+    }
+
+    public void shutdown()
+    {
+        if (running.getAndSet(false))
+        {
+            queue.offer(WAKEUP);
+        }
+    }
+
+    public boolean isRunning()
+    {
+        return running.get();
+    }
+
+    public int getQueueSize()
+    {
+        return queue.size();
+    }
+
+    public long getExecutedCount()
+    {
+        return executedCount.get();
+    }
+
+    public long getAverageLatencyNanos()
+    {
+        final long count = executedCount.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / count;
+    }
+
+    public long getMaxLatencyNanos()
+    {
+        return maxLatencyNanos.get();
+    }
+
+    public String getLatencySummary()
+    {
+        return String.format("%d commands, queue-to-execute latency avg %.3f ms, max %.3f ms",
+                getExecutedCount(),
+                getAverageLatencyNanos() / 1_000_000.0,
+                getMaxLatencyNanos() / 1_000_000.0);
+    }
+
+    private void recordLatency(final long latencyNanos)
+    {
+        executedCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(latencyNanos);
+
+        long max;
+        while (latencyNanos > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latencyNanos))
+        {
+        }
+    }
+
+    private static class QueuedCommand
+    {
+        private final Runnable command;
+        private final long queuedTime = System.nanoTime();
+
+        private QueuedCommand(final Runnable command)
+        {
+            this.command = command;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+
+/*
+ * A command was answered with one of its failure replies, or with
+ * "@ERROR,..." because the board did not recognise it.
+ */
+public class CommandFailedException extends IOException
+{
+    private final String reply;
+    private final Message.Type replyType;
+    private final Message.Status replyStatus;
+
+    public CommandFailedException(final String command, final Message reply, final String replyLine)
+    {
+        super(String.format("Command '%s' failed: %s", command, replyLine));
+        this.reply = replyLine;
+        this.replyType = reply.getType();
+        this.replyStatus = reply.getStatus();
+    }
+
+    public String getReply()
+    {
+        return reply;
+    }
+
+    public Message.Type getReplyType()
+    {
+        return replyType;
+    }
+
+    public Message.Status getReplyStatus()
+    {
+        return replyStatus;
+    }
+}
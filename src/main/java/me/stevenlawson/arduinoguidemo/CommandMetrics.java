@@ -0,0 +1,105 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CommandMetrics implements CommandMetricsMBean
+{
+    private final String command;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong timeouts = new AtomicLong(0);
+    private final AtomicLong errors = new AtomicLong(0);
+
+    public CommandMetrics(final String command)
+    {
+        this.command = command;
+    }
+
+    public void recordSuccess(final long latencyNanos)
+    {
+        latency.record(latencyNanos);
+    }
+
+    public void recordTimeout()
+    {
+        timeouts.incrementAndGet();
+    }
+
+    public void recordError()
+    {
+        errors.incrementAndGet();
+    }
+
+    public LatencyHistogram getLatency()
+    {
+        return latency;
+    }
+
+    @Override
+    public String getCommand()
+    {
+        return command;
+    }
+
+    @Override
+    public long getCount()
+    {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return timeouts.get();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMillis()
+    {
+        return latency.getMeanNanos() / 1_000_000.0;
+    }
+
+    @Override
+    public double getP50Millis()
+    {
+        return latency.getPercentileNanos(50) / 1_000_000.0;
+    }
+
+    @Override
+    public double getP99Millis()
+    {
+        return latency.getPercentileNanos(99) / 1_000_000.0;
+    }
+
+    @Override
+    public double getP999Millis()
+    {
+        return latency.getPercentileNanos(99.9) / 1_000_000.0;
+    }
+
+    @Override
+    public double getMaxMillis()
+    {
+        return latency.getMaxNanos() / 1_000_000.0;
+    }
+
+    @Override
+    public void reset()
+    {
+        latency.reset();
+        timeouts.set(0);
+        errors.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-12s n=%d p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms timeouts=%d errors=%d",
+                command, getCount(), getP50Millis(), getP99Millis(), getP999Millis(), getMaxMillis(), getTimeouts(), getErrors());
+    }
+}
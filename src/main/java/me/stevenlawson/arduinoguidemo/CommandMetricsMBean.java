@@ -0,0 +1,24 @@
+package me.stevenlawson.arduinoguidemo;
+
+public interface CommandMetricsMBean
+{
+    public abstract String getCommand();
+
+    public abstract long getCount();
+
+    public abstract long getTimeouts();
+
+    public abstract long getErrors();
+
+    public abstract double getMeanMillis();
+
+    public abstract double getP50Millis();
+
+    public abstract double getP99Millis();
+
+    public abstract double getP999Millis();
+
+    public abstract double getMaxMillis();
+
+    public abstract void reset();
+}
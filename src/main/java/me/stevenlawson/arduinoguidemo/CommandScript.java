@@ -0,0 +1,189 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import org.apache.commons.lang3.StringUtils;
+
+/*
+ * A parsed command script, one statement per line:
+ *
+ *   *PING              any line starting with '*' is sent to the board
+ *   *BLINK_LED,3
+ *   WAIT 500           waits for every command in flight, then sleeps (ms)
+ *   LOOP 100           repeats the block up to the matching END
+ *   END
+ *
+ * Blank lines and lines starting with '#' are ignored. Inline scripts may
+ * use ';' instead of line breaks.
+ */
+public class CommandScript
+{
+    public enum StepType
+    {
+        COMMAND,
+        WAIT,
+        LOOP
+    }
+
+    public static class Step
+    {
+        private final StepType type;
+        private final String command;
+        private final long count;
+        private final List<Step> body;
+
+        private Step(final StepType type, final String command, final long count, final List<Step> body)
+        {
+            this.type = type;
+            this.command = command;
+            this.count = count;
+            this.body = body;
+        }
+
+        public StepType getType()
+        {
+            return type;
+        }
+
+        public String getCommand()
+        {
+            return command;
+        }
+
+        // Milliseconds for WAIT, iterations for LOOP
+        public long getCount()
+        {
+            return count;
+        }
+
+        public List<Step> getBody()
+        {
+            return body;
+        }
+    }
+
+    private final List<Step> steps;
+
+    private CommandScript(final List<Step> steps)
+    {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    public List<Step> getSteps()
+    {
+        return steps;
+    }
+
+    // Number of commands a full run sends
+    public long getCommandCount()
+    {
+        return count(steps);
+    }
+
+    public static CommandScript parseInline(final String script)
+    {
+        try
+        {
+            return parse(new StringReader(script.replace(';', '\n')));
+        }
+        catch (IOException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public static CommandScript parse(final Reader reader) throws IOException
+    {
+        final Deque<List<Step>> blocks = new ArrayDeque<>();
+        final Deque<Long> loopCounts = new ArrayDeque<>();
+        blocks.push(new ArrayList<>());
+
+        final BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null)
+        {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+            {
+                continue;
+            }
+
+            if (line.startsWith("*"))
+            {
+                blocks.peek().add(new Step(StepType.COMMAND, line, 0, null));
+                continue;
+            }
+
+            final String keyword = StringUtils.substringBefore(line, " ").toUpperCase();
+            final String argument = StringUtils.substringAfter(line, " ").trim();
+            switch (keyword)
+            {
+                case "WAIT":
+                    blocks.peek().add(new Step(StepType.WAIT, null, parseCount(argument, lineNumber), null));
+                    break;
+                case "LOOP":
+                    loopCounts.push(parseCount(argument, lineNumber));
+                    blocks.push(new ArrayList<>());
+                    break;
+                case "END":
+                    if (loopCounts.isEmpty())
+                    {
+                        throw new IllegalArgumentException(String.format("Line %d: END without LOOP", lineNumber));
+                    }
+                    final List<Step> body = blocks.pop();
+                    blocks.peek().add(new Step(StepType.LOOP, null, loopCounts.pop(), Collections.unmodifiableList(body)));
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Line %d: unknown statement '%s'", lineNumber, line));
+            }
+        }
+
+        if (!loopCounts.isEmpty())
+        {
+            throw new IllegalArgumentException("LOOP without END");
+        }
+        return new CommandScript(blocks.pop());
+    }
+
+    private static long parseCount(final String argument, final int lineNumber)
+    {
+        try
+        {
+            final long count = Long.parseLong(argument);
+            if (count >= 0)
+            {
+                return count;
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+        }
+        throw new IllegalArgumentException(String.format("Line %d: expected a non-negative number, got '%s'", lineNumber, argument));
+    }
+
+    private static long count(final List<Step> steps)
+    {
+        long commands = 0;
+        for (Step step : steps)
+        {
+            if (step.type == StepType.COMMAND)
+            {
+                commands++;
+            }
+            else if (step.type == StepType.LOOP)
+            {
+                commands += step.count * count(step.body);
+            }
+        }
+        return commands;
+    }
+}
@@ -0,0 +1,433 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Keeps one board connected. A session that has received nothing for a
+ * heartbeat interval is sent "*PING"; if the port goes away or the ping is
+ * not answered, the session is terminated and a new one is opened, retrying
+ * with exponential backoff capped at MAX_BACKOFF_MS until close().
+ *
+ * Commands in flight when the link is lost fail with an IOException as the
+ * old session terminates, and commands sent before the new session is up
+ * fail immediately because the old session is not ready. Nothing is
+ * replayed: *BLINK_LED is not idempotent, so retrying is left to the caller.
+ *
+ * Downtime and reconnect counters are published as an MBean named
+ * me.stevenlawson.arduinoguidemo:type=Connection,port=<port>
+ */
+public class ConnectionSupervisor implements ConnectionSupervisorMBean, AutoCloseable
+{
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MS = 500;
+    public static final long DEFAULT_HEARTBEAT_TIMEOUT_MS = 500;
+    public static final long MIN_BACKOFF_MS = 50;
+    public static final long MAX_BACKOFF_MS = 500;
+
+    public enum State
+    {
+        CONNECTING,
+        CONNECTED,
+        RECONNECTING,
+        CLOSED
+    }
+
+    @FunctionalInterface
+    public interface SessionFactory
+    {
+        public abstract JSCSerialSession open() throws IOException;
+    }
+
+    private final String portName;
+    private final SessionFactory factory;
+    private final ScheduledExecutorService scheduler;
+    private long heartbeatIntervalMS = DEFAULT_HEARTBEAT_INTERVAL_MS;
+    private long heartbeatTimeoutMS = DEFAULT_HEARTBEAT_TIMEOUT_MS;
+    private long connectTimeoutMS = JSCSerialSession.STARTUP_TIMEOUT_MS;
+    private volatile Callback<State> stateListener = null;
+
+    private volatile State state = State.CONNECTING;
+    private volatile JSCSerialSession session = null;
+    private volatile long downSinceNanos = 0;
+    private volatile boolean heartbeatsHeld = false;
+
+    // Scheduler thread only
+    private ScheduledFuture<?> heartbeatTask = null;
+    private CompletableFuture<String> heartbeat = null;
+    private long backoffMS = MIN_BACKOFF_MS;
+
+    private final AtomicLong disconnects = new AtomicLong(0);
+    private final AtomicLong reconnects = new AtomicLong(0);
+    private final AtomicLong reconnectAttempts = new AtomicLong(0);
+    private final AtomicLong heartbeatsSent = new AtomicLong(0);
+    private final AtomicLong heartbeatFailures = new AtomicLong(0);
+    private final AtomicLong lastDowntimeNanos = new AtomicLong(0);
+    private final AtomicLong maxDowntimeNanos = new AtomicLong(0);
+    private final AtomicLong totalDowntimeNanos = new AtomicLong(0);
+
+    public ConnectionSupervisor(final String portName, final SessionFactory factory)
+    {
+        this.portName = portName;
+        this.factory = factory;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            final Thread thread = new Thread(runnable, "ConnectionSupervisor-" + portName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public ConnectionSupervisor setHeartbeat(final long intervalMS, final long timeoutMS)
+    {
+        this.heartbeatIntervalMS = intervalMS;
+        this.heartbeatTimeoutMS = timeoutMS;
+        return this;
+    }
+
+    public ConnectionSupervisor setConnectTimeoutMS(final long connectTimeoutMS)
+    {
+        this.connectTimeoutMS = connectTimeoutMS;
+        return this;
+    }
+
+    /*
+     * Holds heartbeats off while the link is deliberately garbled or quiet,
+     * e.g. while another thread negotiates the baud rate. A closed port is
+     * still noticed.
+     */
+    public void setHeartbeatsHeld(final boolean heartbeatsHeld)
+    {
+        this.heartbeatsHeld = heartbeatsHeld;
+    }
+
+    // Called on the supervisor thread after every state change
+    public void setStateListener(final Callback<State> stateListener)
+    {
+        this.stateListener = stateListener;
+    }
+
+    /*
+     * Makes the first connection. If that fails the supervisor closes and
+     * the future completes exceptionally, with an IOException if the port
+     * could not be opened or a TimeoutException if the board did not
+     * answer. Once connected, lost links are reconnected until close().
+     */
+    public CompletableFuture<JSCSerialSession> start()
+    {
+        final CompletableFuture<JSCSerialSession> connected = new CompletableFuture<>();
+        scheduler.execute(() ->
+        {
+            try
+            {
+                final JSCSerialSession opened = connect();
+                if (state == State.CLOSED)
+                {
+                    opened.terminate();
+                    throw new IOException(String.format("Supervisor for '%s' was closed.", portName));
+                }
+                register();
+                connected(opened);
+                connected.complete(opened);
+            }
+            catch (IOException | InterruptedException | TimeoutException ex)
+            {
+                close();
+                connected.completeExceptionally(ex);
+            }
+        });
+        return connected;
+    }
+
+    // The current session; while reconnecting, commands sent to it fail immediately
+    public JSCSerialSession getSession()
+    {
+        return session;
+    }
+
+    public String getPortName()
+    {
+        return portName;
+    }
+
+    public State getCurrentState()
+    {
+        return state;
+    }
+
+    @Override
+    public void close()
+    {
+        if (state == State.CLOSED)
+        {
+            return;
+        }
+        setState(State.CLOSED);
+        scheduler.shutdownNow();
+
+        final JSCSerialSession current = session;
+        if (current != null)
+        {
+            current.terminate();
+        }
+        try
+        {
+            SessionMetrics.unregisterMBean(objectName());
+        }
+        catch (JMException ex)
+        {
+        }
+    }
+
+    private JSCSerialSession connect() throws IOException, InterruptedException, TimeoutException
+    {
+        final JSCSerialSession opened = factory.open();
+        boolean answered = false;
+        try
+        {
+            answered = opened.awaitBoard(PortDiscovery.PING_AFTER_MS, connectTimeoutMS);
+        }
+        finally
+        {
+            if (!answered)
+            {
+                opened.terminate();
+            }
+        }
+        if (!answered)
+        {
+            throw new TimeoutException(String.format("No response from the board on '%s'.", portName));
+        }
+        return opened;
+    }
+
+    private void connected(final JSCSerialSession opened)
+    {
+        session = opened;
+        backoffMS = MIN_BACKOFF_MS;
+        heartbeat = null;
+        heartbeatTask = scheduler.scheduleWithFixedDelay(this::checkLink, heartbeatIntervalMS, heartbeatIntervalMS, TimeUnit.MILLISECONDS);
+        setState(State.CONNECTED);
+    }
+
+    private void checkLink()
+    {
+        final JSCSerialSession current = session;
+        if (state != State.CONNECTED || current == null)
+        {
+            return;
+        }
+
+        if (!current.isReady())
+        {
+            linkLost(current, "port closed");
+            return;
+        }
+
+        // A heartbeat that failed has already reported the link lost; another would be counted twice
+        if (heartbeatsHeld || (heartbeat != null && (!heartbeat.isDone() || heartbeat.isCompletedExceptionally())))
+        {
+            return;
+        }
+
+        // The sketch keeps answering while it blinks, so a long blink in flight is no reason to hold off
+        final long idleNanos = System.nanoTime() - current.getLastReceiveNanos();
+        if (idleNanos < TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMS))
+        {
+            return;
+        }
+
+        heartbeatsSent.incrementAndGet();
+        heartbeat = current.pingAsync(heartbeatTimeoutMS);
+        heartbeat.whenComplete((reply, ex) ->
+        {
+            if (ex != null && state == State.CONNECTED && current == session)
+            {
+                heartbeatFailures.incrementAndGet();
+                execute(() -> linkLost(current, "no reply to heartbeat"));
+            }
+        });
+    }
+
+    private void linkLost(final JSCSerialSession lost, final String reason)
+    {
+        if (state != State.CONNECTED || lost != session)
+        {
+            return;
+        }
+
+        downSinceNanos = System.nanoTime();
+        disconnects.incrementAndGet();
+        heartbeatTask.cancel(false);
+        heartbeatTask = null;
+        System.err.println(String.format("Lost connection to '%s' (%s), reconnecting.", portName, reason));
+
+        // Fails every command still waiting on the old link
+        lost.terminate();
+        setState(State.RECONNECTING);
+        schedule(this::reconnect, MIN_BACKOFF_MS);
+    }
+
+    private void reconnect()
+    {
+        if (state != State.RECONNECTING)
+        {
+            return;
+        }
+
+        reconnectAttempts.incrementAndGet();
+        final JSCSerialSession opened;
+        try
+        {
+            opened = connect();
+        }
+        catch (IOException | TimeoutException ex)
+        {
+            backoffMS = Math.min(backoffMS * 2, MAX_BACKOFF_MS);
+            schedule(this::reconnect, backoffMS);
+            return;
+        }
+        catch (InterruptedException ex)
+        {
+            return;
+        }
+
+        if (state != State.RECONNECTING)
+        {
+            // Closed while the board was answering
+            opened.terminate();
+            return;
+        }
+
+        final long downtime = System.nanoTime() - downSinceNanos;
+        downSinceNanos = 0;
+        lastDowntimeNanos.set(downtime);
+        totalDowntimeNanos.addAndGet(downtime);
+        if (downtime > maxDowntimeNanos.get())
+        {
+            maxDowntimeNanos.set(downtime);
+        }
+        reconnects.incrementAndGet();
+        System.err.println(String.format("Reconnected to '%s' after %d ms.", portName, TimeUnit.NANOSECONDS.toMillis(downtime)));
+
+        connected(opened);
+    }
+
+    private void setState(final State newState)
+    {
+        state = newState;
+        final Callback<State> listener = stateListener;
+        if (listener != null)
+        {
+            listener.run(newState);
+        }
+    }
+
+    private void execute(final Runnable task)
+    {
+        if (!scheduler.isShutdown())
+        {
+            scheduler.execute(task);
+        }
+    }
+
+    private void schedule(final Runnable task, final long delayMS)
+    {
+        if (!scheduler.isShutdown())
+        {
+            scheduler.schedule(task, delayMS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void register()
+    {
+        try
+        {
+            SessionMetrics.registerMBean(this, objectName());
+        }
+        catch (JMException ex)
+        {
+            System.err.println("Could not register connection MBean: " + ex.getMessage());
+        }
+    }
+
+    private ObjectName objectName() throws JMException
+    {
+        return new ObjectName(String.format("me.stevenlawson.arduinoguidemo:type=Connection,port=%s", ObjectName.quote(portName)));
+    }
+
+    public String getReport()
+    {
+        return String.format("Connection to %s: %s, %d disconnects, %d reconnects (%d attempts), downtime last %d ms, max %d ms, total %d ms%n",
+                portName, getState(), getDisconnects(), getReconnects(), getReconnectAttempts(),
+                getLastDowntimeMillis(), getMaxDowntimeMillis(), getTotalDowntimeMillis());
+    }
+
+    @Override
+    public String getState()
+    {
+        return state.name();
+    }
+
+    @Override
+    public long getDisconnects()
+    {
+        return disconnects.get();
+    }
+
+    @Override
+    public long getReconnects()
+    {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getReconnectAttempts()
+    {
+        return reconnectAttempts.get();
+    }
+
+    @Override
+    public long getHeartbeatsSent()
+    {
+        return heartbeatsSent.get();
+    }
+
+    @Override
+    public long getHeartbeatFailures()
+    {
+        return heartbeatFailures.get();
+    }
+
+    @Override
+    public long getCurrentDowntimeMillis()
+    {
+        final long since = downSinceNanos;
+        return since == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
+    @Override
+    public long getLastDowntimeMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(lastDowntimeNanos.get());
+    }
+
+    @Override
+    public long getMaxDowntimeMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(maxDowntimeNanos.get());
+    }
+
+    @Override
+    public long getTotalDowntimeMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(totalDowntimeNanos.get());
+    }
+}
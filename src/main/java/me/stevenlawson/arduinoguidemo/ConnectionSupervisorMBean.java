@@ -0,0 +1,24 @@
+package me.stevenlawson.arduinoguidemo;
+
+public interface ConnectionSupervisorMBean
+{
+    public abstract String getState();
+
+    public abstract long getDisconnects();
+
+    public abstract long getReconnects();
+
+    public abstract long getReconnectAttempts();
+
+    public abstract long getHeartbeatsSent();
+
+    public abstract long getHeartbeatFailures();
+
+    public abstract long getCurrentDowntimeMillis();
+
+    public abstract long getLastDowntimeMillis();
+
+    public abstract long getMaxDowntimeMillis();
+
+    public abstract long getTotalDowntimeMillis();
+}
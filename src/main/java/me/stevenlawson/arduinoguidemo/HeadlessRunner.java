@@ -0,0 +1,480 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+
+/*
+ * Command line entry point for running a CommandScript against a board
+ * without the GUI, e.g. from CI:
+ *
+ *   java -Djava.awt.headless=true -cp ArduinoGUIDemo-shaded.jar \
+ *       me.stevenlawson.arduinoguidemo.HeadlessRunner -e "LOOP 1000;*PING;END" COM3
+ *
+ * Commands are pipelined up to the configured depth, so the script runs as
+ * fast as the link and the board allow. Exits with 0 if every command
+ * succeeded, 1 if any failed and 2 on usage or connection errors.
+ *
+ * The port "process:native/arduinoguidemo" runs the sketch built for the
+ * host instead of talking to a board, see ProcessTransport.
+ *
+ * --batch <n> sends runs of up to n consecutive commands as one *BATCH,
+ * see CommandBatch, so each run costs one write and one reply line; the
+ * depth then counts batches in flight. Commands that cannot be batched,
+ * and WAITs, end the current run.
+ *
+ * --metrics-file keeps a file up to date with the link's LinkMetrics
+ * while the script runs, see LinkMetricsExporter.
+ *
+ * --baud-test runs no script; instead it steps through every supported
+ * baud rate up to --max-baud and reports the throughput reached at each.
+ */
+public class HeadlessRunner
+{
+    public static final String EMULATOR_PORT = "emulator";
+
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final long BAUD_TEST_MS = 2_000;
+    private static final long METRICS_EXPORT_MS = 1_000;
+
+    private final JSCSerialSession session;
+    private final int depth;
+    private final long timeoutMS;
+    private final int batchSize;
+    private final Semaphore inFlight;
+    private final AtomicLong succeeded = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private CommandBatch batch = null;
+    private AtomicInteger batchRemaining = null;
+
+    public HeadlessRunner(final JSCSerialSession session, final int depth, final long timeoutMS)
+    {
+        this(session, depth, timeoutMS, 1);
+    }
+
+    public HeadlessRunner(final JSCSerialSession session, final int depth, final long timeoutMS, final int batchSize)
+    {
+        this.session = session;
+        this.depth = depth;
+        this.timeoutMS = timeoutMS;
+        this.batchSize = batchSize;
+        this.inFlight = new Semaphore(depth);
+    }
+
+    public void run(final CommandScript script) throws InterruptedException
+    {
+        run(script.getSteps());
+        flush();
+        drain();
+    }
+
+    private void run(final List<CommandScript.Step> steps) throws InterruptedException
+    {
+        for (CommandScript.Step step : steps)
+        {
+            switch (step.getType())
+            {
+                case COMMAND:
+                    send(step.getCommand());
+                    break;
+                case WAIT:
+                    flush();
+                    drain();
+                    Thread.sleep(step.getCount());
+                    break;
+                case LOOP:
+                    for (long i = 0; i < step.getCount(); i++)
+                    {
+                        run(step.getBody());
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void send(final String command) throws InterruptedException
+    {
+        final String token = StringUtils.substringBefore(command, ",");
+        final String successReply;
+        String[] failureReplies = new String[0];
+        switch (token)
+        {
+            case "*PING":
+                successReply = "@PONG";
+                break;
+            case "*BLINK_LED":
+                successReply = "@BLINK_LED,FINISH";
+                failureReplies = JSCSerialSession.BLINK_FAILURE_REPLIES;
+                break;
+            default:
+                // By convention a command's reply starts with its own name, e.g. *BINARY -> @BINARY,OK
+                successReply = "@" + token.substring(1);
+                break;
+        }
+
+        if (batchSize > 1 && CommandBatch.isBatchable(command))
+        {
+            if (batch == null)
+            {
+                batch = new CommandBatch();
+                batchRemaining = new AtomicInteger(0);
+            }
+            batchRemaining.incrementAndGet();
+            track(command, batch.add(command, successReply, failureReplies), batchRemaining);
+            // A blink is answered once it finishes, so what follows it waits, as it would unbatched at depth 1
+            if (batch.size() >= batchSize || token.equals("*BLINK_LED"))
+            {
+                flush();
+            }
+            return;
+        }
+
+        flush();
+        inFlight.acquire();
+        track(command, session.sendCommandAsync(command + "\n", timeoutMS, successReply, failureReplies), new AtomicInteger(1));
+    }
+
+    // Sends the commands batched so far; the batch holds one permit until the last of them completes
+    private void flush() throws InterruptedException
+    {
+        if (batch == null)
+        {
+            return;
+        }
+        inFlight.acquire();
+        session.sendBatchAsync(batch, timeoutMS);
+        batch = null;
+        batchRemaining = null;
+    }
+
+    // Counts the command's outcome, then releases the permit once remaining, shared by a batch's commands, runs out
+    private void track(final String command, final CompletableFuture<String> future, final AtomicInteger remaining)
+    {
+        future.whenComplete((reply, ex) ->
+        {
+            if (ex == null)
+            {
+                succeeded.incrementAndGet();
+            }
+            else if (failed.incrementAndGet() <= MAX_REPORTED_FAILURES)
+            {
+                System.err.printf("%s failed: %s%n", command, ex.getMessage());
+            }
+            if (remaining.decrementAndGet() == 0)
+            {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void drain() throws InterruptedException
+    {
+        inFlight.acquire(depth);
+        inFlight.release(depth);
+    }
+
+    public long getSucceeded()
+    {
+        return succeeded.get();
+    }
+
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    public static void main(final String[] args)
+    {
+        String portName = null;
+        int baudRate = 9600;
+        String scriptFile = null;
+        String inlineScript = null;
+        int depth = 4;
+        long timeoutMS = 10_000;
+        boolean binary = false;
+        double timeScale = 1.0;
+        long reportMS = 0;
+        int maxBaudRate = 0;
+        boolean baudTest = false;
+        String metricsFile = null;
+        int batchSize = 1;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-b":
+                    case "--baud":
+                        baudRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "-s":
+                    case "--script":
+                        scriptFile = args[++i];
+                        break;
+                    case "-e":
+                    case "--exec":
+                        inlineScript = args[++i];
+                        break;
+                    case "-d":
+                    case "--depth":
+                        depth = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "-t":
+                    case "--timeout":
+                        timeoutMS = Long.parseLong(args[++i]);
+                        break;
+                    case "--binary":
+                        binary = true;
+                        break;
+                    case "--max-baud":
+                        maxBaudRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "--baud-test":
+                        baudTest = true;
+                        break;
+                    case "--metrics-file":
+                        metricsFile = args[++i];
+                        break;
+                    case "--batch":
+                        batchSize = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--time-scale":
+                        timeScale = Double.parseDouble(args[++i]);
+                        break;
+                    case "-r":
+                    case "--report":
+                        reportMS = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("-") || portName != null)
+                        {
+                            throw new IllegalArgumentException("Unexpected argument '" + args[i] + "'");
+                        }
+                        portName = args[i];
+                        break;
+                }
+            }
+
+            if (portName == null || (!baudTest && (scriptFile == null) == (inlineScript == null)))
+            {
+                throw new IllegalArgumentException("A port and exactly one of --script or --exec are required");
+            }
+            if (baudTest && maxBaudRate == 0)
+            {
+                maxBaudRate = BaudNegotiator.SUPPORTED_RATES[BaudNegotiator.SUPPORTED_RATES.length - 1];
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex)
+        {
+            System.err.println(ex instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : ex.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        final CommandScript script;
+        try
+        {
+            if (baudTest)
+            {
+                script = null;
+            }
+            else if (inlineScript != null)
+            {
+                script = CommandScript.parseInline(inlineScript);
+            }
+            else
+            {
+                try (Reader reader = scriptFile.equals("-")
+                        ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                        : new FileReader(scriptFile))
+                {
+                    script = CommandScript.parse(reader);
+                }
+            }
+        }
+        catch (IOException | IllegalArgumentException ex)
+        {
+            System.err.println("Script error: " + ex.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        System.exit(run(portName, baudRate, maxBaudRate, binary, timeScale, depth, batchSize, timeoutMS, reportMS, metricsFile, script));
+    }
+
+    private static int run(final String portName, final int baudRate, final int maxBaudRate, final boolean binary, final double timeScale,
+            final int depth, final int batchSize, final long timeoutMS, final long reportMS, final String metricsFile, final CommandScript script)
+    {
+        final JSCSerialSession session;
+        try
+        {
+            session = openSession(portName, baudRate, timeScale);
+            if (session == null)
+            {
+                return 2;
+            }
+            session.getStarted().get();
+
+            if (script == null)
+            {
+                try
+                {
+                    return baudTest(session, maxBaudRate, depth, timeoutMS);
+                }
+                catch (UnsupportedCommandException ex)
+                {
+                    System.err.println("The firmware does not support *BAUD.");
+                    return 2;
+                }
+                finally
+                {
+                    session.terminate();
+                }
+            }
+
+            if (maxBaudRate > baudRate)
+            {
+                System.out.printf("Negotiated %d baud%n", BaudNegotiator.negotiate(session, maxBaudRate, timeoutMS));
+            }
+
+            if (binary && !session.negotiateBinaryAsync(timeoutMS).get())
+            {
+                System.err.println("Board does not support the binary protocol, continuing in ASCII mode.");
+            }
+        }
+        catch (IOException | ExecutionException ex)
+        {
+            System.err.println("Could not connect to " + portName + ": " + (ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage()));
+            return 2;
+        }
+        catch (InterruptedException ex)
+        {
+            return 2;
+        }
+
+        System.out.printf("Running %d commands on %s at %d baud (%s, depth %d%s)%n",
+                script.getCommandCount(), session.getPortName(), session.getBaudRate(), session.isBinaryMode() ? "binary" : "ASCII", depth,
+                batchSize > 1 ? ", batches of " + batchSize : "");
+
+        if (reportMS > 0)
+        {
+            session.getMetrics().startDump(System.out, reportMS);
+        }
+
+        final LinkMetricsExporter exporter = metricsFile != null ? new LinkMetricsExporter(Paths.get(metricsFile)) : null;
+        if (exporter != null)
+        {
+            exporter.start(session.getMetrics().getLink(), reportMS > 0 ? reportMS : METRICS_EXPORT_MS);
+        }
+
+        final HeadlessRunner runner = new HeadlessRunner(session, depth, timeoutMS, batchSize);
+        final Stopwatch sw = new Stopwatch().start();
+        try
+        {
+            runner.run(script);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        final long elapsedNanos = sw.elapsedNanos();
+
+        final long total = runner.getSucceeded() + runner.getFailed();
+        final double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.printf("%d commands in %.3f s: %.1f commands/s, %d succeeded, %d failed%n",
+                total, seconds, seconds > 0 ? total / seconds : 0.0, runner.getSucceeded(), runner.getFailed());
+        System.out.print(session.getMetrics().getReport());
+        if (exporter != null)
+        {
+            exporter.stop();
+            exporter.exportNow(session.getMetrics().getLink());
+        }
+
+        session.terminate();
+        return runner.getFailed() == 0 ? 0 : 1;
+    }
+
+    /*
+     * Opens a session on a port as named on the command line, or returns
+     * null after reporting that "auto" found no board. Does not wait for
+     * the board to start.
+     */
+    static JSCSerialSession openSession(final String portName, final int baudRate, final double timeScale) throws IOException
+    {
+        if (portName.equalsIgnoreCase(EMULATOR_PORT))
+        {
+            return new JSCSerialSession(new ArduinoEmulator(EMULATOR_PORT).setBaudRate(baudRate).setTimeScale(timeScale));
+        }
+        else if (ProcessTransport.isProcessPort(portName))
+        {
+            return new JSCSerialSession(new ProcessTransport(portName, baudRate));
+        }
+        else if (PortDiscovery.isAuto(portName))
+        {
+            final String discovered = new PortDiscovery(baudRate).discover();
+            if (discovered == null)
+            {
+                System.err.println("No Arduino found. Valid ports: " + StringUtils.join(JSCSerialHandler.getCommPortNames(), ", "));
+                return null;
+            }
+            System.out.println("Found Arduino on " + discovered);
+            return new JSCSerialSession(discovered, baudRate);
+        }
+        return new JSCSerialSession(portName, baudRate);
+    }
+
+    private static int baudTest(final JSCSerialSession session, final int maxBaudRate, final int depth, final long timeoutMS)
+            throws IOException, InterruptedException
+    {
+        System.out.printf("Measuring %s for %d ms per rate, depth %d%n", session.getPortName(), BAUD_TEST_MS, depth);
+        boolean anyFailed = false;
+        for (int rate : BaudNegotiator.SUPPORTED_RATES)
+        {
+            if (rate > maxBaudRate || rate < session.getBaudRate())
+            {
+                continue;
+            }
+            if (!session.changeBaudRate(rate, timeoutMS) || !BaudNegotiator.verify(session, timeoutMS))
+            {
+                System.out.printf("%8d baud: not usable%n", rate);
+                anyFailed = true;
+                continue;
+            }
+            final BaudNegotiator.Throughput throughput = BaudNegotiator.measure(session, BAUD_TEST_MS, depth, timeoutMS);
+            System.out.println(throughput);
+            anyFailed |= throughput.getFailures() > 0;
+        }
+        return anyFailed ? 1 : 0;
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: HeadlessRunner [options] <port | auto | emulator | process:<command>>");
+        System.err.println("  -s, --script <file>    command script, '-' reads standard input");
+        System.err.println("  -e, --exec <script>    inline script, statements separated by ';'");
+        System.err.println("  -b, --baud <rate>      baud rate (default 9600)");
+        System.err.println("  -d, --depth <n>        commands in flight at once (default 4)");
+        System.err.println("  -t, --timeout <ms>     reply timeout per command (default 10000)");
+        System.err.println("  -r, --report <ms>      print interim latency metrics every <ms>");
+        System.err.println("      --batch <n>        send up to <n> consecutive commands per *BATCH line");
+        System.err.println("      --max-baud <rate>  negotiate up to this baud rate after connecting");
+        System.err.println("      --baud-test        report throughput at every rate up to --max-baud instead of running a script");
+        System.err.println("      --metrics-file <f> keep link metrics in <f>, Prometheus format if it ends in .prom");
+        System.err.println("      --binary           negotiate the binary framed protocol first");
+        System.err.println("      --time-scale <x>   emulator only, scales blink and startup delays");
+    }
+}
@@ -1,18 +1,30 @@
 package me.stevenlawson.arduinoguidemo;
 
 import com.fazecast.jSerialComm.SerialPort;
+import com.fazecast.jSerialComm.SerialPortDataListener;
+import com.fazecast.jSerialComm.SerialPortEvent;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 
-public class JSCSerialHandler
+public class JSCSerialHandler implements SerialTransport
 {
+    private static final int READ_BUFFER_SIZE = 1024;
+
     private final SerialPort serialPort;
+    private final String portName;
     private final int baudRate;
+    private volatile int currentBaudRate;
+    private final byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+    private final BufferedSerialWriter writer;
+    private volatile LinkMetrics linkMetrics = null;
 
     public JSCSerialHandler(final String portName, final int baudRate) throws IOException
     {
+        this.portName = portName;
         this.baudRate = baudRate;
+        this.currentBaudRate = baudRate;
 
         final SerialPort _serialPort = SerialPort.getCommPort(portName);
 
@@ -25,6 +37,8 @@ public class JSCSerialHandler
             serialPort = _serialPort;
         }
 
+        writer = new BufferedSerialWriter(this::writePort);
+
         if (serialPort == null)
         {
             throw new IOException(String.format(
@@ -35,6 +49,21 @@ public class JSCSerialHandler
         }
     }
 
+    private int writePort(final byte[] data, final int length)
+    {
+        if (serialPort == null)
+        {
+            return -1;
+        }
+        final int written = serialPort.writeBytes(data, length);
+        final LinkMetrics metrics = linkMetrics;
+        if (metrics != null)
+        {
+            metrics.recordPortWrite();
+        }
+        return written;
+    }
+
     private boolean open()
     {
         if (serialPort == null)
@@ -42,6 +71,8 @@ public class JSCSerialHandler
             return false;
         }
         serialPort.closePort();
+        // Opening resets the board, which always starts at the initial rate
+        currentBaudRate = baudRate;
         serialPort.setComPortParameters(baudRate, 8, SerialPort.ONE_STOP_BIT, SerialPort.NO_PARITY);
         return serialPort.openPort();
     }
@@ -52,9 +83,17 @@ public class JSCSerialHandler
         {
             return false;
         }
+        writer.flush();
         return serialPort.closePort();
     }
 
+    @Override
+    public String getPortName()
+    {
+        return portName;
+    }
+
+    @Override
     public boolean setEnabled(boolean enabled)
     {
         if (enabled)
@@ -67,6 +106,7 @@ public class JSCSerialHandler
         }
     }
 
+    @Override
     public boolean isConnected()
     {
         if (serialPort == null)
@@ -76,14 +116,111 @@ public class JSCSerialHandler
         return serialPort.isOpen();
     }
 
+    @Override
+    public int getBaudRate()
+    {
+        return currentBaudRate;
+    }
+
+    @Override
+    public boolean switchBaudRate(final int baudRate)
+    {
+        if (serialPort == null || !serialPort.isOpen())
+        {
+            return false;
+        }
+        // Anything still buffered was meant for the old rate
+        writer.flush();
+        serialPort.setBaudRate(baudRate);
+        currentBaudRate = baudRate;
+        return true;
+    }
+
+    @Override
     public boolean writeData(String data)
     {
         if (serialPort == null)
         {
             return false;
         }
-        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
-        return serialPort.writeBytes(bytes, bytes.length) != -1;
+        return writer.write(data);
+    }
+
+    @Override
+    public int writeBytes(byte[] data, int length)
+    {
+        if (serialPort == null)
+        {
+            return -1;
+        }
+        return writer.write(data, length) ? length : -1;
+    }
+
+    public void setFlushPolicy(final BufferedSerialWriter.FlushPolicy flushPolicy, final long batchWindowMS, final int sizeThreshold)
+    {
+        writer.setFlushPolicy(flushPolicy, batchWindowMS, sizeThreshold);
+    }
+
+    public BufferedSerialWriter getWriter()
+    {
+        return writer;
+    }
+
+    @Override
+    public void setLinkMetrics(final LinkMetrics linkMetrics)
+    {
+        this.linkMetrics = linkMetrics;
+        writer.setLinkMetrics(linkMetrics);
+    }
+
+    @Override
+    public void setDataListener(final DataListener listener)
+    {
+        if (serialPort == null)
+        {
+            return;
+        }
+
+        serialPort.removeDataListener();
+
+        if (listener == null)
+        {
+            return;
+        }
+
+        serialPort.addDataListener(new SerialPortDataListener()
+        {
+            @Override
+            public int getListeningEvents()
+            {
+                return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+            }
+
+            @Override
+            public void serialEvent(SerialPortEvent event)
+            {
+                if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE)
+                {
+                    return;
+                }
+
+                int bytesAvailable;
+                while ((bytesAvailable = serialPort.bytesAvailable()) > 0)
+                {
+                    final int bytesRead = serialPort.readBytes(readBuffer, Math.min(bytesAvailable, readBuffer.length));
+                    if (bytesRead <= 0)
+                    {
+                        break;
+                    }
+                    final LinkMetrics metrics = linkMetrics;
+                    if (metrics != null)
+                    {
+                        metrics.recordPortRead();
+                    }
+                    listener.dataReceived(readBuffer, bytesRead);
+                }
+            }
+        });
     }
 
     public SerialPort getSerialPort()
@@ -101,4 +238,15 @@ public class JSCSerialHandler
         }
         return names;
     }
+
+    // System port name -> descriptive name, e.g. "COM5" -> "Arduino Uno (COM5)"
+    public static Map<String, String> getCommPortDescriptions()
+    {
+        final Map<String, String> descriptions = new LinkedHashMap<>();
+        for (SerialPort port : SerialPort.getCommPorts())
+        {
+            descriptions.put(port.getSystemPortName(), port.getDescriptivePortName());
+        }
+        return descriptions;
+    }
 }
@@ -1,92 +1,224 @@
 package me.stevenlawson.arduinoguidemo;
 
-import com.fazecast.jSerialComm.*;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.lang3.StringUtils;
 
 public class JSCSerialSession
 {
+    public static final long STARTUP_TIMEOUT_MS = 5_000;
+    public static final int DEFAULT_MESSAGE_CAPACITY = 1024;
+    public static final String[] BLINK_FAILURE_REPLIES = {"@BLINK_LED,ERROR", "@BLINK_LED,CANCELLED"};
+    // Firmware that predates *BATCH
+    private static final String[] BATCH_FAILURE_REPLIES = {"@ERROR,INVALID_COMMAND," + CommandBatch.COMMAND};
+
     private boolean fault = false;
     private final AtomicLong lastRXTXTime = new AtomicLong(0);
-    private final LinkedBlockingQueue<String> messages = new LinkedBlockingQueue<>();
-    private final JSCSerialHandler handler;
-    private String bufferCarry = "";
+    private volatile long lastReceiveNanos = System.nanoTime();
+    private final MessageRingBuffer messages;
+    private final SerialTransport handler;
+    private final LineFramer framer = new LineFramer(StandardCharsets.UTF_8);
+    private final ReplyCorrelator correlator = new ReplyCorrelator();
+    private final OutboundScheduler scheduler;
+    private final MessageRouter router = new MessageRouter();
+    private final MessageRouter outboundRouter = new MessageRouter();
+    private final CompletableFuture<String> started;
+    private final BinaryFrameCodec frameDecoder = new BinaryFrameCodec();
+    private volatile boolean binaryPending = false;
+    private volatile boolean binaryMode = false;
+    private final SessionMetrics metrics;
+    private final LinkMetrics link;
+    private volatile String syncCommand = null;
+    private volatile long syncCommandStart = 0;
+    private final Object batchLock = new Object();
+    // Completes once the last batch line submitted has been answered or has failed
+    private CompletableFuture<Object> lastBatchLine = CompletableFuture.completedFuture(null);
+    private CompletableFuture<Void> lastBatchBlinks = CompletableFuture.completedFuture(null);
+    // Reused for every line; only touched on the receive thread
+    private final Message received = new Message();
+    private final Message batchReply = new Message();
+    private final LineFramer.RawSink lineSink = (bytes, offset, length) ->
+    {
+        received.parse(bytes, offset, length);
+        lineReceived(received, new String(bytes, offset, length, StandardCharsets.UTF_8));
+    };
+    private final BinaryFrameCodec.FrameSink frameSink = (opcode, payload, offset, length) ->
+    {
+        final String line = BinaryProtocol.decodeReply(opcode, payload, offset, length);
+        if (line != null)
+        {
+            lineReceived(received.parse(line), line);
+        }
+    };
 
+    /*
+     * Sessions on a real port record their traffic with a SessionRecorder
+     * unless recording is switched off with -Darduinoguidemo.record=false.
+     * Every session on the port, reconnects included, shares one recorder.
+     */
     public JSCSerialSession(final String portName, final int baudRate) throws IOException
     {
-        handler = new JSCSerialHandler(portName, baudRate);
+        this(recorded(new JSCSerialHandler(portName, baudRate)));
+    }
+
+    public JSCSerialSession(final SerialTransport transport) throws IOException
+    {
+        this(transport, DEFAULT_MESSAGE_CAPACITY, MessageRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    /*
+     * messageCapacity bounds the number of unconsumed lines kept for
+     * processMessages(); it is rounded up to a power of two. Replies are
+     * still correlated and dispatched when the queue overflows.
+     */
+    public JSCSerialSession(final SerialTransport transport, final int messageCapacity, final MessageRingBuffer.OverflowPolicy overflowPolicy) throws IOException
+    {
+        handler = transport;
+        messages = new MessageRingBuffer(messageCapacity, overflowPolicy);
+        metrics = new SessionMetrics(handler.getPortName());
+        link = new LinkMetrics(handler.getPortName(), messages, lastRXTXTime::get);
+        scheduler = new OutboundScheduler(handler::getBaudRate);
 
         if (!handler.setEnabled(true))
         {
-            throw new IOException(String.format("Error connecting to serial port '%s'.", portName));
+            throw new IOException(String.format("Error connecting to serial port '%s'.", handler.getPortName()));
         }
 
         if (!handler.isConnected())
         {
-            throw new IOException(String.format("Error connecting to serial port '%s'.", portName));
+            throw new IOException(String.format("Error connecting to serial port '%s'.", handler.getPortName()));
         }
 
-        final SerialPort serialPort = handler.getSerialPort();
-        serialPort.addDataListener(new SerialPortDataListener()
+        metrics.registerInboundQueue(messages);
+        metrics.registerOutboundLanes(scheduler);
+        metrics.registerLink(link);
+        handler.setLinkMetrics(link);
+
+        // Registered before the listener is attached so the announcement cannot be missed
+        started = correlator.register("@STARTED", STARTUP_TIMEOUT_MS, "@STARTED");
+
+        handler.setDataListener(this::dataReceived);
+    }
+
+    private static SerialTransport recorded(final SerialTransport transport)
+    {
+        final SessionRecorder recorder = SessionRecorder.forPort(transport.getPortName());
+        return recorder == null ? transport : new RecordingTransport(transport, recorder, false);
+    }
+
+    private void lineReceived(final Message message, final String line)
+    {
+        lastRXTXTime.set(System.currentTimeMillis());
+        link.recordLine();
+        if (message.getType() == Message.Type.BATCH)
         {
-            @Override
-            public int getListeningEvents()
+            // Each reply folded into a batch's line is handled as if it had come on its own, ahead of the line itself
+            for (String reply : CommandBatch.unpackReplies(line))
             {
-                return SerialPort.LISTENING_EVENT_DATA_AVAILABLE;
+                replyReceived(batchReply.parse(reply), reply);
             }
+        }
+        replyReceived(message, line);
+    }
+
+    private void replyReceived(final Message message, final String line)
+    {
+        link.recordReply(message);
+        if (binaryPending && message.is(Message.Type.BINARY, Message.Status.OK) && message.getTokenCount() == 2)
+        {
+            binaryMode = true;
+            binaryPending = false;
+        }
+        correlator.accept(message, line);
+        router.dispatch(message, line);
+        messages.offer(line);
+    }
 
-            @Override
-            public void serialEvent(SerialPortEvent event)
+    private void dataReceived(final byte[] data, final int length)
+    {
+        lastReceiveNanos = System.nanoTime();
+        int offset = 0;
+        while (offset < length)
+        {
+            if (binaryMode)
             {
-                if (event.getEventType() != SerialPort.LISTENING_EVENT_DATA_AVAILABLE)
-                {
-                    return;
-                }
+                frameDecoder.feed(data, offset, length - offset, frameSink);
+                break;
+            }
 
-                final int bytesAvailable = serialPort.bytesAvailable();
-                if (bytesAvailable > 0)
-                {
-                    final byte[] readBytes = new byte[bytesAvailable];
-                    serialPort.readBytes(readBytes, bytesAvailable);
-
-                    if (readBytes.length > 0)
-                    {
-                        final String buffer = bufferCarry + new String(readBytes, 0, readBytes.length);
-                        bufferCarry = "";
-
-                        final String[] lines = buffer.split("\\n");
-                        for (int i = 0; i < (lines.length - 1); i++)
-                        {
-                            final String line = StringUtils.trimToEmpty(lines[i]);
-                            if (!line.isEmpty())
-                            {
-                                lastRXTXTime.set(System.currentTimeMillis());
-                                messages.offer(line);
-                            }
-                        }
-
-                        final String lastLine = StringUtils.trimToEmpty(lines[lines.length - 1]);
-                        if (buffer.endsWith("\n"))
-                        {
-                            if (!lastLine.isEmpty())
-                            {
-                                lastRXTXTime.set(System.currentTimeMillis());
-                                messages.offer(lastLine);
-                            }
-                        }
-                        else
-                        {
-                            bufferCarry = lastLine;
-                        }
-                    }
-                }
+            if (!binaryPending)
+            {
+                framer.feedRaw(data, offset, length - offset, lineSink);
+                break;
             }
-        });
+
+            // The board switches to binary right after its acknowledgement line
+            offset += framer.feedLineRaw(data, offset, length - offset, lineSink);
+        }
+        link.recordReceived(length, framer.getCarrySize());
+    }
+
+    /*
+     * Completes when the board announces "@STARTED" after being opened, or
+     * exceptionally if it does not within STARTUP_TIMEOUT_MS.
+     */
+    public CompletableFuture<String> getStarted()
+    {
+        return started;
+    }
+
+    /*
+     * Waits until the board identifies itself: either with the "@STARTED"
+     * that follows the reset on open, or, for boards that do not reset,
+     * with a "@PONG" to a "*PING" sent after pingAfterMS. Returns false if
+     * neither arrives within timeoutMS.
+     */
+    public boolean awaitBoard(final long pingAfterMS, final long timeoutMS) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + timeoutMS;
+        final CompletableFuture<String> answered = new CompletableFuture<>();
+        started.thenAccept(answered::complete);
+
+        try
+        {
+            answered.get(Math.min(pingAfterMS, timeoutMS), TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (TimeoutException | ExecutionException ex)
+        {
+        }
+
+        final long remainingMS = deadline - System.currentTimeMillis();
+        if (remainingMS <= 0)
+        {
+            return false;
+        }
+        pingAsync(remainingMS).thenAccept(answered::complete);
+        try
+        {
+            answered.get(remainingMS, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch (TimeoutException | ExecutionException ex)
+        {
+            return false;
+        }
+    }
+
+    public String getPortName()
+    {
+        return handler.getPortName();
     }
 
     public static byte[] stripCharacter(char c, byte[] in)
@@ -114,17 +246,444 @@ public class JSCSerialSession
             messages.clear();
         }
 
+        if (purge && command != null)
+        {
+            // A purging send starts a synchronous request; processMessages() times its reply
+            syncCommand = StringUtils.substringBefore(command.trim(), ",");
+            syncCommandStart = System.nanoTime();
+        }
+
         lastRXTXTime.set(System.currentTimeMillis());
 
         if (command != null)
         {
-            handler.writeData(command);
+            if (binaryMode)
+            {
+                final byte[] frames = BinaryProtocol.encodeCommands(command);
+                handler.writeBytes(frames, frames.length);
+                link.recordSent(frames.length);
+            }
+            else
+            {
+                handler.writeData(command);
+                // Commands are ASCII, so this is also their length in bytes
+                link.recordSent(command.length());
+            }
+
+            if (outboundRouter.hasSubscribers())
+            {
+                final String line = StringUtils.strip(command, "\r\n");
+                if (!line.isEmpty())
+                {
+                    outboundRouter.dispatch(line);
+                }
+            }
         }
 
         return true;
     }
 
-    public LinkedBlockingQueue<String> getMessages()
+    /*
+     * Sends a command without purging or consuming the message queue. The
+     * future completes with the first reply matching successReply, or
+     * exceptionally on a matching failure reply, a timeout, or termination.
+     * Any number of commands may be in flight at once.
+     */
+    public CompletableFuture<String> sendCommandAsync(final String command, final long timeoutMS, final String successReply, final String... failureReplies)
+    {
+        return sendCommandAsync(OutboundScheduler.Priority.INTERACTIVE, command, timeoutMS, successReply, failureReplies);
+    }
+
+    /*
+     * As above, through the given lane of the session's OutboundScheduler.
+     * The timeout includes any time the command spends queued.
+     */
+    public CompletableFuture<String> sendCommandAsync(final OutboundScheduler.Priority priority, final String command, final long timeoutMS, final String successReply, final String... failureReplies)
+    {
+        return sendCommandAsync(priority, true, command, timeoutMS, successReply, failureReplies);
+    }
+
+    // As above; with coalesce false the command is sent even if an identical one is waiting in a coalescing lane
+    public CompletableFuture<String> sendCommandAsync(final OutboundScheduler.Priority priority, final boolean coalesce, final String command, final long timeoutMS, final String successReply, final String... failureReplies)
+    {
+        return submit(priority, coalesce, false, command, timeoutMS, successReply, failureReplies);
+    }
+
+    private CompletableFuture<String> submit(final OutboundScheduler.Priority priority, final boolean coalesce, final boolean exclusive, final String command,
+            final long timeoutMS, final String successReply, final String... failureReplies)
+    {
+        final String commandToken = StringUtils.substringBefore(command.trim(), ",");
+        final String[] failures = Arrays.copyOf(failureReplies, failureReplies.length + 1);
+        failures[failureReplies.length] = "@ERROR,INVALID_COMMAND," + commandToken;
+
+        final CommandMetrics commandMetrics = metrics.forCommand(commandToken);
+        final long start = System.nanoTime();
+        final OutboundScheduler.Sender sender = remainingMS -> send(command, commandToken, remainingMS, successReply, failures);
+        final int cost = linkCost(command, successReply);
+        final CompletableFuture<String> future = exclusive
+                ? scheduler.submitExclusive(priority, command, successReply, cost, timeoutMS, sender)
+                : scheduler.submit(priority, command, successReply, cost, timeoutMS, coalesce, sender);
+        future.whenComplete((reply, ex) -> record(commandMetrics, start, ex));
+        return future;
+    }
+
+    // Bytes on the busier direction of the link; binary replies are frames about the size of the command's
+    private int linkCost(final String command, final String successReply)
+    {
+        if (binaryMode)
+        {
+            return BinaryProtocol.encodeCommands(command).length;
+        }
+        // Replies end in "\r\n"
+        return Math.max(command.length(), successReply.length() + 2);
+    }
+
+    private CompletableFuture<String> send(final String command, final String commandToken, final long timeoutMS, final String successReply, final String[] failureReplies)
+    {
+        final CompletableFuture<String> future = correlator.register(commandToken, timeoutMS, successReply, failureReplies);
+        if (!sendCommand(false, command))
+        {
+            correlator.remove(future, new IOException(String.format("Serial port '%s' is not ready.", handler.getPortName())));
+        }
+        return future;
+    }
+
+    /*
+     * Sends the batch's commands in as few *BATCH lines as the board's input
+     * buffer allows, through the INTERACTIVE lane. The futures returned by
+     * CommandBatch.add() complete as sendCommandAsync()'s would; this one
+     * completes with their replies, in order, once all have succeeded, or
+     * exceptionally with the first failure. Firmware that predates *BATCH
+     * fails every command with "@ERROR,INVALID_COMMAND,*BATCH".
+     *
+     * Batch lines, of this batch or any other, go one at a time, each once
+     * the last has been answered: while the board writes a long folded reply
+     * it is not reading, and a second full line would overflow its 64 byte
+     * receive buffer. A line with blinks also waits for the last such line's
+     * blinks to finish, so the board's blink queue never overflows and a
+     * BUSY refusal is never taken for another blink's reply. The timeout
+     * applies to each line and its commands from when the line is handed to
+     * the scheduler.
+     */
+    public CompletableFuture<List<String>> sendBatchAsync(final CommandBatch batch, final long timeoutMS)
+    {
+        final long start = System.nanoTime();
+        for (CommandBatch.Entry entry : batch.getEntries())
+        {
+            final CommandMetrics commandMetrics = metrics.forCommand(entry.getToken());
+            entry.getReply().whenComplete((reply, ex) -> record(commandMetrics, start, ex));
+        }
+
+        for (CommandBatch.Line line : batch.toLines())
+        {
+            synchronized (batchLock)
+            {
+                if (line.hasBlinks())
+                {
+                    final CompletableFuture<Void> previousBlinks = lastBatchBlinks;
+                    lastBatchLine = lastBatchLine.thenCompose(previous -> previousBlinks.handle((done, ex) -> null));
+                    lastBatchBlinks = line.getBlinksDone();
+                }
+                lastBatchLine = lastBatchLine.thenCompose(previous -> submitBatchLine(line, timeoutMS).handle((reply, ex) -> null));
+            }
+        }
+
+        final List<CommandBatch.Entry> entries = batch.getEntries();
+        final CompletableFuture<?>[] replies = new CompletableFuture<?>[entries.size()];
+        for (int i = 0; i < replies.length; i++)
+        {
+            replies[i] = entries.get(i).getReply();
+        }
+        return CompletableFuture.allOf(replies).thenApply(done ->
+        {
+            final List<String> lines = new ArrayList<>(entries.size());
+            for (CommandBatch.Entry entry : entries)
+            {
+                lines.add(entry.getReply().join());
+            }
+            return lines;
+        });
+    }
+
+    private CompletableFuture<String> submitBatchLine(final CommandBatch.Line line, final long timeoutMS)
+    {
+        final String command = line.getText() + "\n";
+        final List<CompletableFuture<String>> registered = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<String> future = scheduler.submit(OutboundScheduler.Priority.INTERACTIVE, command, CommandBatch.REPLY, batchCost(line), timeoutMS,
+                remainingMS -> sendBatch(line, command, registered, remainingMS));
+        future.whenComplete((reply, ex) ->
+        {
+            if (ex == null && !registered.isEmpty())
+            {
+                return;
+            }
+            // Never sent, refused, or coalesced with an identical line that got the replies; these commands will not be answered
+            final Throwable cause = ex != null ? ex : new IOException("Coalesced with an identical batch line.");
+            synchronized (registered)
+            {
+                for (CompletableFuture<String> registeredFuture : registered)
+                {
+                    correlator.remove(registeredFuture, cause);
+                }
+            }
+            for (CommandBatch.Entry entry : line.getEntries())
+            {
+                entry.getReply().completeExceptionally(cause);
+            }
+        });
+        return future;
+    }
+
+    // The commands wait for their replies in order ahead of the line's own, as the board sends them
+    private CompletableFuture<String> sendBatch(final CommandBatch.Line line, final String command, final List<CompletableFuture<String>> registered, final long timeoutMS)
+    {
+        for (CommandBatch.Entry entry : line.getEntries())
+        {
+            final CompletableFuture<String> future = correlator.register(entry.getToken(), timeoutMS, entry.getSuccessReply(), entry.getFailureReplies());
+            registered.add(future);
+            future.whenComplete((reply, ex) ->
+            {
+                if (ex == null)
+                {
+                    entry.getReply().complete(reply);
+                }
+                else
+                {
+                    entry.getReply().completeExceptionally(ex);
+                }
+            });
+        }
+        return send(command, CommandBatch.COMMAND, timeoutMS, CommandBatch.REPLY, BATCH_FAILURE_REPLIES);
+    }
+
+    // As linkCost(), with the replies folded into one line
+    private int batchCost(final CommandBatch.Line line)
+    {
+        final String command = line.getText() + "\n";
+        if (binaryMode)
+        {
+            return BinaryProtocol.encodeCommands(command).length;
+        }
+        int replyLength = CommandBatch.REPLY.length() + 6;
+        for (CommandBatch.Entry entry : line.getEntries())
+        {
+            replyLength += entry.getSuccessReply().length() + 1;
+        }
+        return Math.max(command.length(), replyLength);
+    }
+
+    private static void record(final CommandMetrics commandMetrics, final long start, final Throwable ex)
+    {
+        if (ex == null)
+        {
+            commandMetrics.recordSuccess(System.nanoTime() - start);
+        }
+        else if (ex instanceof TimeoutException)
+        {
+            commandMetrics.recordTimeout();
+        }
+        else
+        {
+            commandMetrics.recordError();
+        }
+    }
+
+    public SessionMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public OutboundScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    // Pings go in the CONTROL lane, so heartbeats are answered however busy the link is
+    public CompletableFuture<String> pingAsync(final long timeoutMS)
+    {
+        return sendCommandAsync(OutboundScheduler.Priority.CONTROL, "*PING\n", timeoutMS, "@PONG");
+    }
+
+    /*
+     * Completes once the blink has finished. The board keeps answering other
+     * commands meanwhile. Blinks go in the BULK lane, so one requested while
+     * another runs waits its turn on the host, and a repeat of a blink that
+     * is still waiting shares its reply. A blink stopped by cancelAsync()
+     * fails with "@BLINK_LED,CANCELLED".
+     */
+    public CompletableFuture<String> blinkLEDAsync(final int numBlinks, final long timeoutMS)
+    {
+        return blinkLEDAsync(numBlinks, timeoutMS, true);
+    }
+
+    // As above; with coalesce false every blink is sent and runs, as load tests need
+    public CompletableFuture<String> blinkLEDAsync(final int numBlinks, final long timeoutMS, final boolean coalesce)
+    {
+        return sendCommandAsync(OutboundScheduler.Priority.BULK, coalesce, String.format("*BLINK_LED,%d\n", numBlinks), timeoutMS, "@BLINK_LED,FINISH", BLINK_FAILURE_REPLIES);
+    }
+
+    // Stops the running blink and any queued behind it, on the board or still on the host
+    public CompletableFuture<String> cancelAsync(final long timeoutMS)
+    {
+        scheduler.drop(OutboundScheduler.Priority.BULK, new IOException("Cancelled before it was sent."));
+        return sendCommandAsync(OutboundScheduler.Priority.CONTROL, "*CANCEL\n", timeoutMS, "@CANCEL,OK");
+    }
+
+    /*
+     * Starts streaming "@SAMPLE,<micros>,<value>" lines at the given rate,
+     * or stops streaming when samplesPerSecond is 0. See TelemetryStream.
+     */
+    public CompletableFuture<String> streamAsync(final int samplesPerSecond, final long timeoutMS)
+    {
+        return sendCommandAsync(String.format("*STREAM,%d\n", samplesPerSecond), timeoutMS, "@STREAM,OK", "@STREAM,ERROR");
+    }
+
+    /*
+     * Asks the board to switch to the binary framed protocol. Completes with
+     * false, leaving the session in ASCII mode, if the firmware does not
+     * support it. No lane sends anything from when "*BINARY" is written until
+     * the board's acknowledgement or the timeout, so no command reaches the
+     * board in the wrong protocol.
+     */
+    public CompletableFuture<Boolean> negotiateBinaryAsync(final long timeoutMS)
+    {
+        if (binaryMode)
+        {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        binaryPending = true;
+        return submit(OutboundScheduler.Priority.CONTROL, false, true, BinaryProtocol.NEGOTIATE_COMMAND + "\n", timeoutMS, BinaryProtocol.NEGOTIATE_REPLY).handle((reply, ex) ->
+        {
+            binaryPending = false;
+            return ex == null;
+        });
+    }
+
+    /*
+     * Acknowledge-then-switch: the board answers "*BAUD,<rate>" at the old
+     * rate and switches, then the host follows and sends "*BAUD,CONFIRM" at
+     * the new rate. A board that hears no confirmation within
+     * BaudNegotiator.BAUD_CONFIRM_MS switches back on its own, and so does
+     * the host. Returns false, with both ends back on the old rate, if the
+     * rate was refused or could not be confirmed; throws IOException if the
+     * board cannot be reached at the old rate afterwards either, and
+     * UnsupportedCommandException if its firmware predates *BAUD. ASCII
+     * mode only.
+     */
+    public boolean changeBaudRate(final int baudRate, final long timeoutMS) throws IOException, InterruptedException
+    {
+        if (binaryMode || binaryPending)
+        {
+            throw new IllegalStateException("Baud rates are negotiated before switching to binary mode.");
+        }
+
+        final int previousRate = handler.getBaudRate();
+        if (baudRate == previousRate)
+        {
+            return true;
+        }
+
+        try
+        {
+            sendCommandAsync(OutboundScheduler.Priority.CONTROL, String.format("*BAUD,%d\n", baudRate), timeoutMS, "@BAUD,OK", "@BAUD,ERROR").get();
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof UnsupportedCommandException)
+            {
+                throw (UnsupportedCommandException) ex.getCause();
+            }
+            if (!(ex.getCause() instanceof TimeoutException))
+            {
+                // Refused; nothing changed
+                return false;
+            }
+            // The acknowledgement may have been lost after the board switched, so recover as below
+        }
+
+        if (handler.switchBaudRate(baudRate))
+        {
+            try
+            {
+                // The leading newline ends any partial line the board assembled from noise during the switch
+                sendCommandAsync(OutboundScheduler.Priority.CONTROL, "\n*BAUD,CONFIRM\n", Math.min(timeoutMS, BaudNegotiator.BAUD_CONFIRM_MS / 2), "@BAUD,CONFIRMED").get();
+                return true;
+            }
+            catch (ExecutionException ex)
+            {
+            }
+        }
+
+        handler.switchBaudRate(previousRate);
+        Thread.sleep(BaudNegotiator.BAUD_CONFIRM_MS);
+        if (!resync(timeoutMS))
+        {
+            throw new IOException(String.format("Lost the board on '%s' while changing to %d baud.", handler.getPortName(), baudRate));
+        }
+        return false;
+    }
+
+    // Pings until the board answers cleanly; the first replies after a rate mismatch may be garbled
+    private boolean resync(final long timeoutMS) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + timeoutMS;
+        while (System.currentTimeMillis() < deadline)
+        {
+            handler.writeData("\n");
+            try
+            {
+                pingAsync(Math.max(1, Math.min(250, deadline - System.currentTimeMillis()))).get();
+                return true;
+            }
+            catch (ExecutionException ex)
+            {
+            }
+        }
+        return false;
+    }
+
+    public int getBaudRate()
+    {
+        return handler.getBaudRate();
+    }
+
+    public boolean isBinaryMode()
+    {
+        return binaryMode;
+    }
+
+    public int getPendingCommandCount()
+    {
+        return correlator.getPendingCount();
+    }
+
+    public MessageRouter.Subscription subscribe(final String token, final Callback<String> handler)
+    {
+        return router.subscribe(token, handler);
+    }
+
+    /*
+     * The handler gets the receive thread's reused Message, valid only
+     * until it returns.
+     */
+    public MessageRouter.Subscription subscribe(final Message.Type type, final Callback<Message> handler)
+    {
+        return router.subscribe(type, handler);
+    }
+
+    public MessageRouter.Subscription subscribeAll(final Callback<String> handler)
+    {
+        return router.subscribeAll(handler);
+    }
+
+    // Sees every command as it is written, on the sending thread
+    public MessageRouter.Subscription subscribeOutbound(final Callback<String> handler)
+    {
+        return outboundRouter.subscribeAll(handler);
+    }
+
+    public MessageRingBuffer getMessages()
     {
         return messages;
     }
@@ -133,39 +692,72 @@ public class JSCSerialSession
     {
         interrupt.set(false);
         final Stopwatch sw = new Stopwatch().start();
-        while ((!interrupt.get()) && (sw.elapsed() < timeoutMS))
+        final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMS);
+        long remainingNanos;
+        while ((!interrupt.get()) && ((remainingNanos = timeoutNanos - sw.elapsedNanos()) > 0))
         {
             String msg = null;
             try
             {
-                msg = messages.poll(100, TimeUnit.MILLISECONDS);
+                msg = messages.poll(remainingNanos, TimeUnit.NANOSECONDS);
             }
             catch (InterruptedException ex)
             {
+                Thread.currentThread().interrupt();
+                return;
             }
             if (msg != null && callback != null)
             {
                 callback.run(msg);
             }
         }
+
+        final String command = syncCommand;
+        if (command != null)
+        {
+            syncCommand = null;
+            if (interrupt.get())
+            {
+                metrics.forCommand(command).recordSuccess(System.nanoTime() - syncCommandStart);
+            }
+            else
+            {
+                metrics.forCommand(command).recordTimeout();
+            }
+        }
+    }
+
+    // System.nanoTime() of the last bytes received from the board
+    public long getLastReceiveNanos()
+    {
+        return lastReceiveNanos;
     }
 
     public void waitForRXTXIdle(long setpointMS)
     {
-        while ((System.currentTimeMillis() - lastRXTXTime.get()) < setpointMS)
+        long remainingMS;
+        while ((remainingMS = setpointMS - (System.currentTimeMillis() - lastRXTXTime.get())) > 0)
         {
+            // Sleep exactly until the link would become idle, then re-check in case traffic moved it
             try
             {
-                Thread.sleep(100);
+                Thread.sleep(remainingMS);
             }
             catch (InterruptedException ex)
             {
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
 
     public boolean terminate()
     {
+        metrics.close();
+        final IOException terminated = new IOException(String.format("Session on '%s' terminated.", handler.getPortName()));
+        scheduler.close(terminated);
+        correlator.failAll(terminated);
+
         if (!isReady())
         {
             return false;
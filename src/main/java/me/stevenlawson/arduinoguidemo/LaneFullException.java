@@ -0,0 +1,23 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+
+/*
+ * A command was not sent because its lane of the OutboundScheduler already
+ * held as many commands as it may.
+ */
+public class LaneFullException extends IOException
+{
+    private final OutboundScheduler.Priority priority;
+
+    public LaneFullException(final OutboundScheduler.Priority priority, final String command)
+    {
+        super(String.format("The %s lane is full; '%s' was not sent.", priority, command.trim()));
+        this.priority = priority;
+    }
+
+    public OutboundScheduler.Priority getPriority()
+    {
+        return priority;
+    }
+}
@@ -0,0 +1,170 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+public class LineFramer
+{
+    public static final int DEFAULT_MAX_LINE_LENGTH = 4096;
+
+    /*
+     * Receives each trimmed line as a range of a buffer the framer may
+     * reuse as soon as line() returns.
+     */
+    public interface RawSink
+    {
+        void line(byte[] bytes, int offset, int length);
+    }
+
+    private final Charset charset;
+    private final int maxLineLength;
+    private byte[] carry;
+    private int carryLength = 0;
+
+    public LineFramer(final Charset charset)
+    {
+        this(charset, 256, DEFAULT_MAX_LINE_LENGTH);
+    }
+
+    public LineFramer(final Charset charset, final int initialCapacity, final int maxLineLength)
+    {
+        this.charset = charset;
+        this.maxLineLength = maxLineLength;
+        this.carry = new byte[Math.max(16, Math.min(initialCapacity, maxLineLength))];
+    }
+
+    /*
+     * Scans the new bytes for '\n' and passes every complete, trimmed,
+     * non-empty line to the sink. Incomplete trailing bytes are kept as raw
+     * bytes, so a multi-byte character split across reads is only decoded
+     * once the whole line has arrived.
+     */
+    public void feed(final byte[] data, final int offset, final int length, final Callback<String> sink)
+    {
+        scan(data, offset, length, null, sink);
+    }
+
+    // Like feed(), but hands over undecoded bytes, so framing a line allocates nothing
+    public void feedRaw(final byte[] data, final int offset, final int length, final RawSink sink)
+    {
+        scan(data, offset, length, sink, null);
+    }
+
+    private void scan(final byte[] data, final int offset, final int length, final RawSink rawSink, final Callback<String> sink)
+    {
+        int lineStart = offset;
+        final int end = offset + length;
+
+        for (int i = offset; i < end; i++)
+        {
+            if (data[i] != '\n')
+            {
+                continue;
+            }
+
+            if (carryLength == 0)
+            {
+                // Truncated like a line that spans reads, so the result does not depend on how the bytes arrived
+                emit(data, lineStart, Math.min(i, lineStart + maxLineLength), rawSink, sink);
+            }
+            else
+            {
+                appendCarry(data, lineStart, i - lineStart);
+                emit(carry, 0, carryLength, rawSink, sink);
+                carryLength = 0;
+            }
+
+            lineStart = i + 1;
+        }
+
+        if (lineStart < end)
+        {
+            appendCarry(data, lineStart, end - lineStart);
+        }
+    }
+
+    /*
+     * Like feed(), but stops after the first complete line and returns the
+     * number of bytes consumed. Lets a caller switch protocols on a line
+     * boundary in the middle of a read.
+     */
+    public int feedLine(final byte[] data, final int offset, final int length, final Callback<String> sink)
+    {
+        return scanLine(data, offset, length, null, sink);
+    }
+
+    public int feedLineRaw(final byte[] data, final int offset, final int length, final RawSink sink)
+    {
+        return scanLine(data, offset, length, sink, null);
+    }
+
+    private int scanLine(final byte[] data, final int offset, final int length, final RawSink rawSink, final Callback<String> sink)
+    {
+        final int end = offset + length;
+        for (int i = offset; i < end; i++)
+        {
+            if (data[i] == '\n')
+            {
+                scan(data, offset, i - offset + 1, rawSink, sink);
+                return i - offset + 1;
+            }
+        }
+
+        scan(data, offset, length, rawSink, sink);
+        return length;
+    }
+
+    public int getCarrySize()
+    {
+        return carryLength;
+    }
+
+    public void reset()
+    {
+        carryLength = 0;
+    }
+
+    private void emit(final byte[] bytes, int start, int end, final RawSink rawSink, final Callback<String> sink)
+    {
+        // Same semantics as String.trim(): in UTF-8 every char <= ' ' is a single byte <= 0x20.
+        while (start < end && (bytes[start] & 0xFF) <= ' ')
+        {
+            start++;
+        }
+        while (end > start && (bytes[end - 1] & 0xFF) <= ' ')
+        {
+            end--;
+        }
+
+        if (start >= end)
+        {
+            return;
+        }
+        if (rawSink != null)
+        {
+            rawSink.line(bytes, start, end - start);
+        }
+        else
+        {
+            sink.run(new String(bytes, start, end - start, charset));
+        }
+    }
+
+    private void appendCarry(final byte[] data, final int offset, int length)
+    {
+        // Over-long lines are truncated rather than allowed to grow the carry without bound.
+        length = Math.min(length, maxLineLength - carryLength);
+        if (length <= 0)
+        {
+            return;
+        }
+
+        if (carryLength + length > carry.length)
+        {
+            carry = Arrays.copyOf(carry, Math.min(maxLineLength, Math.max(carry.length * 2, carryLength + length)));
+        }
+
+        System.arraycopy(data, offset, carry, carryLength, length);
+        carryLength += length;
+    }
+}
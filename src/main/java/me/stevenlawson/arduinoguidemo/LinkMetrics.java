@@ -0,0 +1,336 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/*
+ * Health of the link itself, as opposed to the command round trips of
+ * SessionMetrics: bytes and lines in each direction, the receive framer's
+ * partial line, the inbound queue, how long the link has been quiet and
+ * the errors the board replied with. Published as an MBean named
+ * me.stevenlawson.arduinoguidemo:type=Link,port=<port>
+ *
+ * The session and, on a real port, JSCSerialHandler feed it from the
+ * receive callback, so recording is an atomic add or a volatile write and
+ * never locks or allocates. Rates are the difference between two
+ * snapshots, which each reader takes at its own cadence.
+ */
+public class LinkMetrics implements LinkMetricsMBean
+{
+    private final String portName;
+    private final MessageRingBuffer inboundQueue;
+    private final LongSupplier lastRXTXTime;
+
+    private final AtomicLong bytesReceived = new AtomicLong(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private final AtomicLong linesReceived = new AtomicLong(0);
+    private final AtomicLong commandsSent = new AtomicLong(0);
+    private final AtomicLong portReads = new AtomicLong(0);
+    private final AtomicLong portWrites = new AtomicLong(0);
+    private final AtomicLong failedPortWrites = new AtomicLong(0);
+    private final AtomicLong errorReplies = new AtomicLong(0);
+    private final AtomicLong invalidCommands = new AtomicLong(0);
+    private volatile int carrySize = 0;
+    private volatile int highestCarrySize = 0;
+
+    // lastRXTXTime gives the System.currentTimeMillis() of the last traffic in either direction
+    public LinkMetrics(final String portName, final MessageRingBuffer inboundQueue, final LongSupplier lastRXTXTime)
+    {
+        this.portName = portName;
+        this.inboundQueue = inboundQueue;
+        this.lastRXTXTime = lastRXTXTime;
+    }
+
+    public String getPortName()
+    {
+        return portName;
+    }
+
+    void recordReceived(final int bytes, final int carry)
+    {
+        bytesReceived.addAndGet(bytes);
+        carrySize = carry;
+        if (carry > highestCarrySize)
+        {
+            highestCarrySize = carry;
+        }
+    }
+
+    // Once per line or frame off the wire, however many replies a @BATCH line holds
+    void recordLine()
+    {
+        linesReceived.incrementAndGet();
+    }
+
+    void recordReply(final Message message)
+    {
+        if (message.getType() == Message.Type.ERROR)
+        {
+            errorReplies.incrementAndGet();
+            if (message.getStatus() == Message.Status.INVALID_COMMAND)
+            {
+                invalidCommands.incrementAndGet();
+            }
+        }
+    }
+
+    void recordSent(final int bytes)
+    {
+        commandsSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    // One read from the native port, as opposed to the bytes the session was handed
+    void recordPortRead()
+    {
+        portReads.incrementAndGet();
+    }
+
+    void recordPortWrite()
+    {
+        portWrites.incrementAndGet();
+    }
+
+    // Bytes the writer gave up on, after an error or after retrying short writes; not every short write
+    void recordFailedPortWrite()
+    {
+        failedPortWrites.incrementAndGet();
+    }
+
+    @Override
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getLinesReceived()
+    {
+        return linesReceived.get();
+    }
+
+    @Override
+    public long getCommandsSent()
+    {
+        return commandsSent.get();
+    }
+
+    @Override
+    public long getPortReadCount()
+    {
+        return portReads.get();
+    }
+
+    @Override
+    public long getPortWriteCount()
+    {
+        return portWrites.get();
+    }
+
+    @Override
+    public long getFailedPortWriteCount()
+    {
+        return failedPortWrites.get();
+    }
+
+    @Override
+    public long getErrorReplyCount()
+    {
+        return errorReplies.get();
+    }
+
+    @Override
+    public long getInvalidCommandCount()
+    {
+        return invalidCommands.get();
+    }
+
+    @Override
+    public int getCarrySize()
+    {
+        return carrySize;
+    }
+
+    @Override
+    public int getHighestCarrySize()
+    {
+        return highestCarrySize;
+    }
+
+    @Override
+    public int getInboundQueueDepth()
+    {
+        return inboundQueue.getDepth();
+    }
+
+    @Override
+    public long getIdleMillis()
+    {
+        final long last = lastRXTXTime.getAsLong();
+        return last == 0 ? -1 : Math.max(0, System.currentTimeMillis() - last);
+    }
+
+    public Snapshot snapshot()
+    {
+        return new Snapshot(this);
+    }
+
+    @Override
+    public String toString()
+    {
+        return snapshot().toString();
+    }
+
+    /*
+     * The counters and gauges at one instant. Rates between two snapshots
+     * come from the since() overloads.
+     */
+    public static class Snapshot
+    {
+        private final String portName;
+        private final long nanos = System.nanoTime();
+        private final long bytesReceived;
+        private final long bytesSent;
+        private final long linesReceived;
+        private final long commandsSent;
+        private final long portReads;
+        private final long portWrites;
+        private final long failedPortWrites;
+        private final long errorReplies;
+        private final long invalidCommands;
+        private final int carrySize;
+        private final int highestCarrySize;
+        private final int inboundQueueDepth;
+        private final long idleMillis;
+
+        private Snapshot(final LinkMetrics metrics)
+        {
+            portName = metrics.portName;
+            bytesReceived = metrics.getBytesReceived();
+            bytesSent = metrics.getBytesSent();
+            linesReceived = metrics.getLinesReceived();
+            commandsSent = metrics.getCommandsSent();
+            portReads = metrics.getPortReadCount();
+            portWrites = metrics.getPortWriteCount();
+            failedPortWrites = metrics.getFailedPortWriteCount();
+            errorReplies = metrics.getErrorReplyCount();
+            invalidCommands = metrics.getInvalidCommandCount();
+            carrySize = metrics.getCarrySize();
+            highestCarrySize = metrics.getHighestCarrySize();
+            inboundQueueDepth = metrics.getInboundQueueDepth();
+            idleMillis = metrics.getIdleMillis();
+        }
+
+        public String getPortName()
+        {
+            return portName;
+        }
+
+        public long getBytesReceived()
+        {
+            return bytesReceived;
+        }
+
+        public long getBytesSent()
+        {
+            return bytesSent;
+        }
+
+        public long getLinesReceived()
+        {
+            return linesReceived;
+        }
+
+        public long getCommandsSent()
+        {
+            return commandsSent;
+        }
+
+        public long getPortReadCount()
+        {
+            return portReads;
+        }
+
+        public long getPortWriteCount()
+        {
+            return portWrites;
+        }
+
+        public long getFailedPortWriteCount()
+        {
+            return failedPortWrites;
+        }
+
+        public long getErrorReplyCount()
+        {
+            return errorReplies;
+        }
+
+        public long getInvalidCommandCount()
+        {
+            return invalidCommands;
+        }
+
+        public int getCarrySize()
+        {
+            return carrySize;
+        }
+
+        public int getHighestCarrySize()
+        {
+            return highestCarrySize;
+        }
+
+        public int getInboundQueueDepth()
+        {
+            return inboundQueueDepth;
+        }
+
+        // -1 before any traffic
+        public long getIdleMillis()
+        {
+            return idleMillis;
+        }
+
+        public double getBytesReceivedPerSecond(final Snapshot since)
+        {
+            return perSecond(bytesReceived - since.bytesReceived, since);
+        }
+
+        public double getBytesSentPerSecond(final Snapshot since)
+        {
+            return perSecond(bytesSent - since.bytesSent, since);
+        }
+
+        public double getLinesReceivedPerSecond(final Snapshot since)
+        {
+            return perSecond(linesReceived - since.linesReceived, since);
+        }
+
+        public double getCommandsSentPerSecond(final Snapshot since)
+        {
+            return perSecond(commandsSent - since.commandsSent, since);
+        }
+
+        private double perSecond(final long delta, final Snapshot since)
+        {
+            final long elapsedNanos = nanos - since.nanos;
+            return elapsedNanos <= 0 ? 0.0 : delta * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("link in=%dB/%d lines out=%dB/%d commands reads=%d writes=%d failed-writes=%d errors=%d invalid=%d carry=%d high=%d queue=%d idle=%dms",
+                    bytesReceived, linesReceived, bytesSent, commandsSent, portReads, portWrites, failedPortWrites,
+                    errorReplies, invalidCommands, carrySize, highestCarrySize, inboundQueueDepth, idleMillis);
+        }
+    }
+}
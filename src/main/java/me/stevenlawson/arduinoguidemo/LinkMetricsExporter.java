@@ -0,0 +1,166 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rewrites a file with a session's LinkMetrics at a fixed period, for
+ * headless runs. A file ending in ".prom" is written in the Prometheus
+ * text format, with counters for the totals, so it can be picked up by
+ * node_exporter's textfile collector; anything else gets one line of
+ * "name value" pairs per metric, including rates over the last period.
+ *
+ * Each write goes to a temporary file that is then moved over the old
+ * one, so a reader never sees a half-written file.
+ */
+public class LinkMetricsExporter
+{
+    private static final ScheduledExecutorService EXPORTER = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "LinkMetricsExporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path file;
+    private final boolean prometheus;
+    private ScheduledFuture<?> export = null;
+    // Only touched on the exporter thread
+    private LinkMetrics.Snapshot previous = null;
+
+    public LinkMetricsExporter(final Path file)
+    {
+        this.file = file;
+        this.prometheus = file.getFileName().toString().endsWith(".prom");
+    }
+
+    public synchronized void start(final LinkMetrics metrics, final long periodMS)
+    {
+        stop();
+        export = EXPORTER.scheduleAtFixedRate(() -> export(metrics), 0, periodMS, TimeUnit.MILLISECONDS);
+    }
+
+    // Stops exporting, leaving the last file in place
+    public synchronized void stop()
+    {
+        if (export != null)
+        {
+            export.cancel(false);
+            export = null;
+        }
+    }
+
+    // Writes the file once more, e.g. with the final figures after stop()
+    public void exportNow(final LinkMetrics metrics)
+    {
+        try
+        {
+            EXPORTER.submit(() -> export(metrics)).get();
+        }
+        catch (Exception ex)
+        {
+            System.err.println("Could not export link metrics: " + ex.getMessage());
+        }
+    }
+
+    private void export(final LinkMetrics metrics)
+    {
+        final LinkMetrics.Snapshot snapshot = metrics.snapshot();
+        final String text = prometheus ? formatPrometheus(snapshot) : formatText(snapshot, previous);
+        previous = snapshot;
+        try
+        {
+            final Path directory = file.toAbsolutePath().getParent();
+            final Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try
+            {
+                Files.write(temporary, text.getBytes(StandardCharsets.UTF_8));
+                try
+                {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                catch (AtomicMoveNotSupportedException ex)
+                {
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            finally
+            {
+                Files.deleteIfExists(temporary);
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Could not write link metrics to " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private static String formatText(final LinkMetrics.Snapshot snapshot, final LinkMetrics.Snapshot previous)
+    {
+        final StringBuilder text = new StringBuilder();
+        text.append("port ").append(snapshot.getPortName()).append('\n');
+        line(text, "bytes_received", snapshot.getBytesReceived());
+        line(text, "bytes_sent", snapshot.getBytesSent());
+        line(text, "lines_received", snapshot.getLinesReceived());
+        line(text, "commands_sent", snapshot.getCommandsSent());
+        if (previous != null)
+        {
+            text.append(String.format(Locale.ROOT, "bytes_received_per_second %.1f%n", snapshot.getBytesReceivedPerSecond(previous)));
+            text.append(String.format(Locale.ROOT, "bytes_sent_per_second %.1f%n", snapshot.getBytesSentPerSecond(previous)));
+            text.append(String.format(Locale.ROOT, "lines_received_per_second %.1f%n", snapshot.getLinesReceivedPerSecond(previous)));
+            text.append(String.format(Locale.ROOT, "commands_sent_per_second %.1f%n", snapshot.getCommandsSentPerSecond(previous)));
+        }
+        line(text, "port_reads", snapshot.getPortReadCount());
+        line(text, "port_writes", snapshot.getPortWriteCount());
+        line(text, "failed_port_writes", snapshot.getFailedPortWriteCount());
+        line(text, "error_replies", snapshot.getErrorReplyCount());
+        line(text, "invalid_command_replies", snapshot.getInvalidCommandCount());
+        line(text, "carry_bytes", snapshot.getCarrySize());
+        line(text, "highest_carry_bytes", snapshot.getHighestCarrySize());
+        line(text, "inbound_queue_depth", snapshot.getInboundQueueDepth());
+        line(text, "idle_ms", snapshot.getIdleMillis());
+        return text.toString();
+    }
+
+    private static void line(final StringBuilder text, final String name, final long value)
+    {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String formatPrometheus(final LinkMetrics.Snapshot snapshot)
+    {
+        final String labels = "{port=\"" + snapshot.getPortName().replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+        final StringBuilder text = new StringBuilder();
+        metric(text, labels, "received_bytes_total", "counter", "Bytes received from the board.", snapshot.getBytesReceived());
+        metric(text, labels, "sent_bytes_total", "counter", "Bytes of commands written to the board.", snapshot.getBytesSent());
+        metric(text, labels, "received_lines_total", "counter", "Lines or decoded frames received from the board, a @BATCH line counting once.", snapshot.getLinesReceived());
+        metric(text, labels, "sent_commands_total", "counter", "Commands written to the board.", snapshot.getCommandsSent());
+        metric(text, labels, "port_reads_total", "counter", "Reads from the native serial port.", snapshot.getPortReadCount());
+        metric(text, labels, "port_writes_total", "counter", "Writes to the native serial port.", snapshot.getPortWriteCount());
+        metric(text, labels, "failed_port_writes_total", "counter", "Flushes to the native serial port that failed, after any short writes were retried.", snapshot.getFailedPortWriteCount());
+        metric(text, labels, "error_replies_total", "counter", "@ERROR replies from the board.", snapshot.getErrorReplyCount());
+        metric(text, labels, "invalid_command_replies_total", "counter", "@ERROR,INVALID_COMMAND replies from the board.", snapshot.getInvalidCommandCount());
+        metric(text, labels, "carry_bytes", "gauge", "Bytes of the partial line waiting for its end.", snapshot.getCarrySize());
+        metric(text, labels, "highest_carry_bytes", "gauge", "Largest partial line seen.", snapshot.getHighestCarrySize());
+        metric(text, labels, "inbound_queue_depth", "gauge", "Received lines not yet consumed.", snapshot.getInboundQueueDepth());
+        metric(text, labels, "idle_milliseconds", "gauge", "Time since the last traffic in either direction, -1 before any.", snapshot.getIdleMillis());
+        return text.toString();
+    }
+
+    private static void metric(final StringBuilder text, final String labels, final String name, final String type, final String help, final long value)
+    {
+        final String fullName = "arduinoguidemo_link_" + name;
+        text.append("# HELP ").append(fullName).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(fullName).append(' ').append(type).append('\n');
+        text.append(fullName).append(labels).append(' ').append(value).append('\n');
+    }
+}
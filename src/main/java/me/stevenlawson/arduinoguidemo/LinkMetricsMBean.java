@@ -0,0 +1,30 @@
+package me.stevenlawson.arduinoguidemo;
+
+public interface LinkMetricsMBean
+{
+    public abstract long getBytesReceived();
+
+    public abstract long getBytesSent();
+
+    public abstract long getLinesReceived();
+
+    public abstract long getCommandsSent();
+
+    public abstract long getPortReadCount();
+
+    public abstract long getPortWriteCount();
+
+    public abstract long getFailedPortWriteCount();
+
+    public abstract long getErrorReplyCount();
+
+    public abstract long getInvalidCommandCount();
+
+    public abstract int getCarrySize();
+
+    public abstract int getHighestCarrySize();
+
+    public abstract int getInboundQueueDepth();
+
+    public abstract long getIdleMillis();
+}
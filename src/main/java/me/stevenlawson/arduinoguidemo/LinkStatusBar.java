@@ -0,0 +1,86 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.awt.BorderLayout;
+import java.awt.Font;
+import javax.swing.BorderFactory;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+/*
+ * One line along the bottom of the window with the current session's
+ * LinkMetrics: throughput each way, lines per second, the partial line,
+ * the inbound queue, how long the link has been idle and the board's
+ * invalid-command replies. It refreshes on a Swing timer at a fixed
+ * cadence, however much traffic there is, and only reads the metrics.
+ */
+public class LinkStatusBar extends JPanel
+{
+    public static final int DEFAULT_REFRESH_MS = 1000;
+
+    private final JLabel lblLink = new JLabel(" ");
+    private final Timer refreshTimer;
+    private volatile LinkMetrics metrics = null;
+    // Only touched on the EDT
+    private LinkMetrics previousMetrics = null;
+    private LinkMetrics.Snapshot previous = null;
+
+    public LinkStatusBar(final Font font)
+    {
+        super(new BorderLayout());
+        lblLink.setFont(new Font(Font.MONOSPACED, Font.PLAIN, font.getSize() - 4));
+        setBorder(BorderFactory.createEmptyBorder(2, 10, 4, 10));
+        add(lblLink, BorderLayout.CENTER);
+
+        refreshTimer = new Timer(DEFAULT_REFRESH_MS, event -> refresh());
+        refreshTimer.setCoalesce(true);
+    }
+
+    // The metrics of the connected session, or null while there is none
+    public void setLinkMetrics(final LinkMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public void start()
+    {
+        refresh();
+        refreshTimer.start();
+    }
+
+    public void stop()
+    {
+        refreshTimer.stop();
+    }
+
+    private void refresh()
+    {
+        final LinkMetrics current = metrics;
+        if (current == null)
+        {
+            previousMetrics = null;
+            lblLink.setText("Link: not connected");
+            return;
+        }
+
+        final LinkMetrics.Snapshot snapshot = current.snapshot();
+        if (current != previousMetrics)
+        {
+            // A new session; rates need two snapshots of the same one
+            previousMetrics = current;
+            previous = snapshot;
+        }
+
+        final long idleMillis = snapshot.getIdleMillis();
+        lblLink.setText(String.format("In %s  Out %s  %.0f lines/s  Carry %d B  Queue %d  Idle %s  Invalid %d",
+                formatRate(snapshot.getBytesReceivedPerSecond(previous)), formatRate(snapshot.getBytesSentPerSecond(previous)),
+                snapshot.getLinesReceivedPerSecond(previous), snapshot.getCarrySize(), snapshot.getInboundQueueDepth(),
+                idleMillis < 0 ? "-" : String.format("%.1f s", idleMillis / 1000.0), snapshot.getInvalidCommandCount()));
+        previous = snapshot;
+    }
+
+    private static String formatRate(final double bytesPerSecond)
+    {
+        return bytesPerSecond < 1000 ? String.format("%.0f B/s", bytesPerSecond) : String.format("%.1f kB/s", bytesPerSecond / 1000);
+    }
+}
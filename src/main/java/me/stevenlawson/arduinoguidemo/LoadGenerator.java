@@ -0,0 +1,709 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Soak test: drives a board with a fixed mix of *PING and *BLINK_LED
+ * commands at a fixed rate for a long time and reports, every interval,
+ * the reply latency percentiles, the heap, garbage collection and thread
+ * counts, so slow leaks and latency drift show up as trends:
+ *
+ *   java -cp ArduinoGUIDemo-shaded.jar me.stevenlawson.arduinoguidemo.LoadGenerator \
+ *       --rate 100 --mix 95:5 --duration 3600 emulator
+ *
+ * or from the build with mvn -Psoak compile exec:exec -Dsoak.args="...".
+ *
+ * The load is open-loop: command i is due at start + i / rate whether or
+ * not earlier replies have arrived, and its latency is measured from when
+ * it was due rather than from when it was actually sent. A stalled link
+ * or a GC pause therefore shows up in the percentiles of every command it
+ * delayed, instead of holding back the commands that would have measured
+ * it (coordinated omission). How far the generator itself fell behind is
+ * reported separately as its lag.
+ *
+ * Blinks are sent with coalescing off, so every blink started is a blink
+ * the board runs; none shares the reply of an identical one still queued.
+ * Commands the host's lane or the board's blink queue turned away are
+ * counted as dropped rather than failed, and any commands the scheduler
+ * merged regardless are reported as merged.
+ *
+ * Besides the ports HeadlessRunner accepts, the sketch built for the host
+ * can serve a pseudo-terminal (native/arduinoguidemo -p), which exercises
+ * the real serial stack; it does not reset on open, see awaitBoard().
+ * Exits with 0 if every command succeeded, 1 if any failed or was dropped and 2 on usage
+ * or connection errors.
+ */
+public class LoadGenerator
+{
+    private static final int MAX_REPORTED_FAILURES = 10;
+    private static final double[] PERCENTILES =
+    {
+        50, 90, 99, 99.9
+    };
+
+    private static volatile boolean interrupted = false;
+
+    private final JSCSerialSession session;
+    private final double rate;
+    private final int pingWeight;
+    private final int blinkWeight;
+    private final int blinks;
+    private final long timeoutMS;
+
+    private final Kind ping = new Kind("PING");
+    private final Kind blink = new Kind("BLINK_LED");
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> intervalLag = new AtomicReference<>(new LatencyHistogram());
+    private final AtomicInteger outstanding = new AtomicInteger(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final long coalescedAtStart;
+    private volatile boolean running = true;
+
+    public LoadGenerator(final JSCSerialSession session, final double rate, final int pingWeight, final int blinkWeight, final int blinks, final long timeoutMS)
+    {
+        this.session = session;
+        this.rate = rate;
+        this.pingWeight = pingWeight;
+        this.blinkWeight = blinkWeight;
+        this.blinks = blinks;
+        this.timeoutMS = timeoutMS;
+        this.coalescedAtStart = coalescedCount();
+    }
+
+    /*
+     * Starts commands on schedule until durationNanos have passed (0 for no
+     * limit) or stop() is called, then waits up to the reply timeout for
+     * the outstanding ones.
+     */
+    public void run(final long durationNanos) throws InterruptedException
+    {
+        final double periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        final int totalWeight = pingWeight + blinkWeight;
+        final long startNanos = System.nanoTime();
+
+        for (long i = 0; running; i++)
+        {
+            final long dueNanos = startNanos + (long) (i * periodNanos);
+            if (durationNanos > 0 && dueNanos - startNanos >= durationNanos)
+            {
+                break;
+            }
+
+            long waitNanos;
+            while ((waitNanos = dueNanos - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(waitNanos);
+                if (Thread.interrupted())
+                {
+                    throw new InterruptedException();
+                }
+            }
+            final long lagNanos = System.nanoTime() - dueNanos;
+            lag.record(lagNanos);
+            intervalLag.get().record(lagNanos);
+
+            // Spreads the blinks evenly through the pings, e.g. every 20th command for 95:5
+            final boolean isBlink = (i * blinkWeight) % totalWeight < blinkWeight;
+            start(isBlink ? blink : ping, dueNanos);
+        }
+
+        final long deadline = System.currentTimeMillis() + timeoutMS;
+        while (outstanding.get() > 0 && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+    }
+
+    public void stop()
+    {
+        running = false;
+    }
+
+    private void start(final Kind kind, final long dueNanos)
+    {
+        outstanding.incrementAndGet();
+        final CompletableFuture<String> future = kind == blink
+                ? session.blinkLEDAsync(blinks, timeoutMS, false)
+                : session.pingAsync(timeoutMS);
+        future.whenComplete((reply, ex) ->
+        {
+            if (ex == null)
+            {
+                kind.succeeded(System.nanoTime() - dueNanos);
+            }
+            else if (isDropped(ex.getCause() != null ? ex.getCause() : ex))
+            {
+                kind.dropped();
+                dropped.incrementAndGet();
+            }
+            else
+            {
+                kind.failed();
+                if (failures.incrementAndGet() <= MAX_REPORTED_FAILURES)
+                {
+                    System.err.printf("%s failed: %s%n", kind.name, (ex.getCause() != null ? ex.getCause() : ex).getMessage());
+                }
+            }
+            outstanding.decrementAndGet();
+        });
+    }
+
+    // Turned away by a full lane on the host or a full blink queue on the board
+    private static boolean isDropped(final Throwable cause)
+    {
+        return cause instanceof LaneFullException
+                || (cause instanceof CommandFailedException && ((CommandFailedException) cause).getReply().endsWith(",BUSY"));
+    }
+
+    private long coalescedCount()
+    {
+        long coalesced = 0;
+        for (OutboundScheduler.Priority priority : OutboundScheduler.Priority.values())
+        {
+            coalesced += session.getScheduler().getLane(priority).getCoalescedCount();
+        }
+        return coalesced;
+    }
+
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    // Commands that shared another's reply instead of being sent; none should
+    public long getMerged()
+    {
+        return coalescedCount() - coalescedAtStart;
+    }
+
+    public long getSucceeded()
+    {
+        return ping.total.getCount() + blink.total.getCount();
+    }
+
+    /*
+     * Prints one interval's report and, if csv is not null, appends its
+     * rows. Called from the reporting thread while the load runs.
+     */
+    private void report(final long elapsedNanos, final long intervalNanos, final Resources resources, final PrintWriter csv)
+    {
+        final Kind.Interval pings = ping.nextInterval();
+        final Kind.Interval blinkLEDs = blink.nextInterval();
+        final Resources.Interval used = resources.nextInterval();
+        final LatencyHistogram lagged = intervalLag.getAndSet(new LatencyHistogram());
+        final long seconds = TimeUnit.NANOSECONDS.toSeconds(elapsedNanos);
+        final long count = pings.count + blinkLEDs.count;
+
+        System.out.printf("[%6d s] %d done (%.1f/s), %d failed, %d dropped, %d outstanding, generator lag p99 %.3f ms%n",
+                seconds, count, count / (intervalNanos / 1e9), pings.failed + blinkLEDs.failed, pings.dropped + blinkLEDs.dropped, outstanding.get(),
+                lagged.getPercentileNanos(99) / 1e6);
+        System.out.println(pings);
+        System.out.println(blinkLEDs);
+        System.out.println(used);
+
+        if (csv != null)
+        {
+            pings.writeCsv(csv, seconds, used);
+            blinkLEDs.writeCsv(csv, seconds, used);
+            csv.flush();
+        }
+    }
+
+    private void printSummary(final long elapsedNanos, final Resources resources)
+    {
+        final double seconds = elapsedNanos / 1e9;
+        final long count = ping.total.getCount() + blink.total.getCount();
+        System.out.printf("%nSummary: %d succeeded in %.1f s (%.1f/s, target %.1f/s), %d failed, %d dropped, %d merged, generator lag p99 %.3f ms max %.3f ms%n",
+                count, seconds, count / seconds, rate, failures.get(), dropped.get(), getMerged(),
+                lag.getPercentileNanos(99) / 1e6, lag.getMaxNanos() / 1e6);
+        System.out.println(Kind.format(ping.name, ping.total.getCount(), ping.totalFailed.get(), ping.totalDropped.get(), ping.total));
+        System.out.println(Kind.format(blink.name, blink.total.getCount(), blink.totalFailed.get(), blink.totalDropped.get(), blink.total));
+        System.out.println(resources.getSummary());
+        System.out.print(session.getMetrics().getReport());
+    }
+
+    /*
+     * Latencies of one command, both for the current reporting interval
+     * and since the start.
+     */
+    private static class Kind
+    {
+        private final String name;
+        private final AtomicReference<LatencyHistogram> interval = new AtomicReference<>(new LatencyHistogram());
+        private final AtomicLong intervalFailed = new AtomicLong(0);
+        private final LatencyHistogram total = new LatencyHistogram();
+        private final AtomicLong totalFailed = new AtomicLong(0);
+        private final AtomicLong intervalDropped = new AtomicLong(0);
+        private final AtomicLong totalDropped = new AtomicLong(0);
+
+        private Kind(final String name)
+        {
+            this.name = name;
+        }
+
+        private void succeeded(final long latencyNanos)
+        {
+            interval.get().record(latencyNanos);
+            total.record(latencyNanos);
+        }
+
+        private void failed()
+        {
+            intervalFailed.incrementAndGet();
+            totalFailed.incrementAndGet();
+        }
+
+        private void dropped()
+        {
+            intervalDropped.incrementAndGet();
+            totalDropped.incrementAndGet();
+        }
+
+        private Interval nextInterval()
+        {
+            final LatencyHistogram ended = interval.getAndSet(new LatencyHistogram());
+            return new Interval(name, ended, intervalFailed.getAndSet(0), intervalDropped.getAndSet(0));
+        }
+
+        private static String format(final String name, final long count, final long failed, final long dropped, final LatencyHistogram latency)
+        {
+            final StringBuilder line = new StringBuilder(String.format("  %-9s n=%-7d failed=%-4d dropped=%-4d", name, count, failed, dropped));
+            for (double percentile : PERCENTILES)
+            {
+                line.append(String.format(" p%s=%.3f", formatPercentile(percentile), latency.getPercentileNanos(percentile) / 1e6));
+            }
+            return line.append(String.format(" max=%.3f ms", latency.getMaxNanos() / 1e6)).toString();
+        }
+
+        private static class Interval
+        {
+            private final String name;
+            private final LatencyHistogram latency;
+            private final long count;
+            private final long failed;
+            private final long dropped;
+
+            private Interval(final String name, final LatencyHistogram latency, final long failed, final long dropped)
+            {
+                this.name = name;
+                this.latency = latency;
+                this.count = latency.getCount();
+                this.failed = failed;
+                this.dropped = dropped;
+            }
+
+            private void writeCsv(final PrintWriter csv, final long seconds, final Resources.Interval used)
+            {
+                csv.printf("%d,%s,%d,%d,%d", seconds, name, count, failed, dropped);
+                for (double percentile : PERCENTILES)
+                {
+                    csv.printf(",%.3f", latency.getPercentileNanos(percentile) / 1e6);
+                }
+                csv.printf(",%.3f,%s%n", latency.getMaxNanos() / 1e6, used.toCsv());
+            }
+
+            @Override
+            public String toString()
+            {
+                return format(name, count, failed, dropped, latency);
+            }
+        }
+    }
+
+    private static String formatPercentile(final double percentile)
+    {
+        return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    /*
+     * Heap, garbage collection and thread counts of this JVM, as deltas per
+     * interval where that is what matters.
+     */
+    private static class Resources
+    {
+        static final String CSV_HEADER = "heap_used_mb,heap_committed_mb,gc_count,gc_ms,threads,peak_threads";
+
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final MemoryUsage startHeap = heap();
+        private final int startThreads = threads.getThreadCount();
+        private long lastGCCount;
+        private long lastGCMillis;
+        private long maxHeapUsed = startHeap.getUsed();
+
+        private Resources()
+        {
+            lastGCCount = gcCount();
+            lastGCMillis = gcMillis();
+            threads.resetPeakThreadCount();
+        }
+
+        private static MemoryUsage heap()
+        {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        }
+
+        private static long gcCount()
+        {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                count += Math.max(0, gc.getCollectionCount());
+            }
+            return count;
+        }
+
+        private static long gcMillis()
+        {
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            return millis;
+        }
+
+        private Interval nextInterval()
+        {
+            final MemoryUsage heap = heap();
+            final long count = gcCount();
+            final long millis = gcMillis();
+            final Interval interval = new Interval(heap, count - lastGCCount, millis - lastGCMillis,
+                    threads.getThreadCount(), threads.getPeakThreadCount());
+            lastGCCount = count;
+            lastGCMillis = millis;
+            maxHeapUsed = Math.max(maxHeapUsed, heap.getUsed());
+            threads.resetPeakThreadCount();
+            return interval;
+        }
+
+        private String getSummary()
+        {
+            final MemoryUsage heap = heap();
+            return String.format("  heap used %.1f MB at start, %.1f MB at end, %.1f MB max sampled; %d collections in %d ms; threads %d at start, %d at end",
+                    megabytes(startHeap.getUsed()), megabytes(heap.getUsed()), megabytes(Math.max(maxHeapUsed, heap.getUsed())),
+                    gcCount(), gcMillis(), startThreads, threads.getThreadCount());
+        }
+
+        private static double megabytes(final long bytes)
+        {
+            return bytes / (1024.0 * 1024.0);
+        }
+
+        private static class Interval
+        {
+            private final MemoryUsage heap;
+            private final long gcCount;
+            private final long gcMillis;
+            private final int threadCount;
+            private final int peakThreadCount;
+
+            private Interval(final MemoryUsage heap, final long gcCount, final long gcMillis, final int threadCount, final int peakThreadCount)
+            {
+                this.heap = heap;
+                this.gcCount = gcCount;
+                this.gcMillis = gcMillis;
+                this.threadCount = threadCount;
+                this.peakThreadCount = peakThreadCount;
+            }
+
+            private String toCsv()
+            {
+                return String.format("%.1f,%.1f,%d,%d,%d,%d", megabytes(heap.getUsed()), megabytes(heap.getCommitted()),
+                        gcCount, gcMillis, threadCount, peakThreadCount);
+            }
+
+            @Override
+            public String toString()
+            {
+                return String.format("  heap %.1f/%.1f MB, %d collections in %d ms, threads %d (peak %d)",
+                        megabytes(heap.getUsed()), megabytes(heap.getCommitted()), gcCount, gcMillis, threadCount, peakThreadCount);
+            }
+        }
+    }
+
+    public static void main(final String[] args)
+    {
+        String portName = null;
+        int baudRate = 9600;
+        int maxBaudRate = 0;
+        boolean binary = false;
+        double timeScale = 1.0;
+        double rate = 50;
+        int pingWeight = 95;
+        int blinkWeight = 5;
+        int blinks = 1;
+        long durationSeconds = 60;
+        long intervalSeconds = 10;
+        long timeoutMS = 10_000;
+        String csvFile = null;
+        String metricsFile = null;
+
+        try
+        {
+            for (int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "-b":
+                    case "--baud":
+                        baudRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "-t":
+                    case "--timeout":
+                        timeoutMS = Long.parseLong(args[++i]);
+                        break;
+                    case "--rate":
+                        rate = Double.parseDouble(args[++i]);
+                        if (!(rate > 0))
+                        {
+                            throw new IllegalArgumentException("--rate must be positive");
+                        }
+                        break;
+                    case "--mix":
+                        final String[] weights = args[++i].split(":");
+                        if (weights.length != 2)
+                        {
+                            throw new IllegalArgumentException("--mix takes <ping>:<blink>, e.g. 95:5");
+                        }
+                        pingWeight = Integer.parseInt(weights[0]);
+                        blinkWeight = Integer.parseInt(weights[1]);
+                        if (pingWeight < 0 || blinkWeight < 0 || pingWeight + blinkWeight == 0)
+                        {
+                            throw new IllegalArgumentException("--mix weights must not be negative or both 0");
+                        }
+                        break;
+                    case "--blinks":
+                        blinks = Math.max(1, Integer.parseInt(args[++i]));
+                        break;
+                    case "--duration":
+                        durationSeconds = Math.max(0, Long.parseLong(args[++i]));
+                        break;
+                    case "--interval":
+                        intervalSeconds = Math.max(1, Long.parseLong(args[++i]));
+                        break;
+                    case "--csv":
+                        csvFile = args[++i];
+                        break;
+                    case "--metrics-file":
+                        metricsFile = args[++i];
+                        break;
+                    case "--binary":
+                        binary = true;
+                        break;
+                    case "--max-baud":
+                        maxBaudRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "--time-scale":
+                        timeScale = Double.parseDouble(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("-") || portName != null)
+                        {
+                            throw new IllegalArgumentException("Unexpected argument '" + args[i] + "'");
+                        }
+                        portName = args[i];
+                        break;
+                }
+            }
+
+            if (portName == null)
+            {
+                throw new IllegalArgumentException("A port is required");
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex)
+        {
+            System.err.println(ex instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : ex.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        final int status = run(portName, baudRate, maxBaudRate, binary, timeScale, rate, pingWeight, blinkWeight, blinks,
+                durationSeconds, intervalSeconds, timeoutMS, csvFile, metricsFile);
+        if (!interrupted)
+        {
+            // Exiting from within the shutdown hook's wait would deadlock
+            System.exit(status);
+        }
+    }
+
+    private static int run(final String portName, final int baudRate, final int maxBaudRate, final boolean binary, final double timeScale,
+            final double rate, final int pingWeight, final int blinkWeight, final int blinks,
+            final long durationSeconds, final long intervalSeconds, final long timeoutMS, final String csvFile, final String metricsFile)
+    {
+        final JSCSerialSession session;
+        try
+        {
+            session = HeadlessRunner.openSession(portName, baudRate, timeScale);
+            if (session == null)
+            {
+                return 2;
+            }
+            if (!session.awaitBoard(JSCSerialSession.STARTUP_TIMEOUT_MS / 2, JSCSerialSession.STARTUP_TIMEOUT_MS))
+            {
+                System.err.println("Could not connect to " + portName + ": the board did not answer.");
+                session.terminate();
+                return 2;
+            }
+
+            if (maxBaudRate > baudRate)
+            {
+                System.out.printf("Negotiated %d baud%n", BaudNegotiator.negotiate(session, maxBaudRate, timeoutMS));
+            }
+
+            if (binary && !session.negotiateBinaryAsync(timeoutMS).get())
+            {
+                System.err.println("Board does not support the binary protocol, continuing in ASCII mode.");
+            }
+        }
+        catch (IOException | ExecutionException ex)
+        {
+            System.err.println("Could not connect to " + portName + ": " + (ex.getCause() != null ? ex.getCause().getMessage() : ex.getMessage()));
+            return 2;
+        }
+        catch (InterruptedException ex)
+        {
+            return 2;
+        }
+
+        PrintWriter csv = null;
+        if (csvFile != null)
+        {
+            try
+            {
+                csv = new PrintWriter(new FileWriter(csvFile));
+                csv.print("elapsed_s,command,count,failed,dropped");
+                for (double percentile : PERCENTILES)
+                {
+                    csv.print(",p" + formatPercentile(percentile).replace('.', '_') + "_ms");
+                }
+                csv.println(",max_ms," + Resources.CSV_HEADER);
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Could not create " + csvFile + ": " + ex.getMessage());
+                session.terminate();
+                return 2;
+            }
+        }
+
+        System.out.printf("Sending %.1f commands/s (*PING:*BLINK_LED,%d %d:%d) to %s at %d baud (%s) for %s%n",
+                rate, blinks, pingWeight, blinkWeight, session.getPortName(), session.getBaudRate(),
+                session.isBinaryMode() ? "binary" : "ASCII",
+                durationSeconds > 0 ? durationSeconds + " s" : "ever, Ctrl+C stops");
+
+        final LinkMetricsExporter exporter = metricsFile != null ? new LinkMetricsExporter(Paths.get(metricsFile)) : null;
+        if (exporter != null)
+        {
+            exporter.start(session.getMetrics().getLink(), TimeUnit.SECONDS.toMillis(intervalSeconds));
+        }
+
+        final LoadGenerator generator = new LoadGenerator(session, rate, pingWeight, blinkWeight, blinks, timeoutMS);
+        final Resources resources = new Resources();
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(intervalSeconds);
+        final long startNanos = System.nanoTime();
+        final PrintWriter intervalCsv = csv;
+        final Thread reporter = new Thread(() ->
+        {
+            long next = startNanos + intervalNanos;
+            while (true)
+            {
+                final long waitNanos = next - System.nanoTime();
+                if (waitNanos > 0)
+                {
+                    LockSupport.parkNanos(waitNanos);
+                    if (Thread.interrupted())
+                    {
+                        return;
+                    }
+                    continue;
+                }
+                generator.report(next - startNanos, intervalNanos, resources, intervalCsv);
+                next += intervalNanos;
+            }
+        }, "LoadGenerator-report");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        final Thread main = Thread.currentThread();
+        final Thread shutdownHook = new Thread(() ->
+        {
+            interrupted = true;
+            generator.stop();
+            try
+            {
+                main.join(timeoutMS + 5_000);
+            }
+            catch (InterruptedException ex)
+            {
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        try
+        {
+            generator.run(TimeUnit.SECONDS.toNanos(durationSeconds));
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        reporter.interrupt();
+
+        generator.printSummary(elapsedNanos, resources);
+        if (csv != null)
+        {
+            csv.close();
+        }
+        if (exporter != null)
+        {
+            exporter.stop();
+            exporter.exportNow(session.getMetrics().getLink());
+        }
+        session.terminate();
+        if (!interrupted)
+        {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        return generator.getFailures() == 0 && generator.getDropped() == 0 ? 0 : 1;
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: LoadGenerator [options] <port | auto | emulator | process:<command>>");
+        System.err.println("  -b, --baud <rate>       baud rate (default 9600)");
+        System.err.println("  -t, --timeout <ms>      reply timeout per command (default 10000)");
+        System.err.println("      --rate <n>          commands started per second (default 50)");
+        System.err.println("      --mix <ping:blink>  relative weights of *PING and *BLINK_LED (default 95:5)");
+        System.err.println("      --blinks <n>        blinks per *BLINK_LED (default 1)");
+        System.err.println("      --duration <s>      seconds to run, 0 until interrupted (default 60)");
+        System.err.println("      --interval <s>      seconds between reports (default 10)");
+        System.err.println("      --csv <file>        also write every interval's figures to a CSV file");
+        System.err.println("      --metrics-file <f>  keep link metrics in <f>, Prometheus format if it ends in .prom");
+        System.err.println("      --max-baud <rate>   negotiate up to this baud rate after connecting");
+        System.err.println("      --binary            negotiate the binary framed protocol first");
+        System.err.println("      --time-scale <x>    emulator only, scales blink and startup delays");
+    }
+}
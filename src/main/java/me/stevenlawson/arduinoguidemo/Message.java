@@ -0,0 +1,389 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * A line from the board, tokenized once on ',' into a typed view:
+ * "@BLINK_LED,FINISH" is Type.BLINK_LED with Status.FINISH, and
+ * "@SAMPLE,123456,512" is Type.SAMPLE with numeric arguments 123456 and
+ * 512. Types, statuses and numbers are read straight from the bytes, so
+ * nothing is cut into substrings.
+ *
+ * Messages are flyweights: parse() overwrites the instance in place and
+ * only grows its buffer for a longer line than it has seen, so parsing
+ * allocates nothing in steady state. A message handed to a callback is
+ * only valid until the callback returns; use toString() or copy() to keep
+ * it. Not thread-safe.
+ */
+public class Message
+{
+    public static final int MAX_TOKENS = 8;
+
+    public enum Type
+    {
+        STARTED("@STARTED"),
+        PONG("@PONG"),
+        BLINK_LED("@BLINK_LED"),
+        STREAM("@STREAM"),
+        SAMPLE("@SAMPLE"),
+        BAUD("@BAUD"),
+        BINARY("@BINARY"),
+        CANCEL("@CANCEL"),
+        BATCH("@BATCH"),
+        ERROR("@ERROR"),
+        UNKNOWN(null);
+
+        private final String token;
+        private final byte[] tokenBytes;
+        private final int hash;
+
+        private Type(final String token)
+        {
+            this.token = token;
+            this.tokenBytes = token == null ? null : token.getBytes(StandardCharsets.US_ASCII);
+            this.hash = hash(tokenBytes);
+        }
+
+        // The leading token, e.g. "@PONG"; null for UNKNOWN
+        public String getToken()
+        {
+            return token;
+        }
+    }
+
+    // The second token of replies that have one
+    public enum Status
+    {
+        NONE(null),
+        START("START"),
+        FINISH("FINISH"),
+        CANCELLED("CANCELLED"),
+        OK("OK"),
+        CONFIRMED("CONFIRMED"),
+        ERROR("ERROR"),
+        INVALID_COMMAND("INVALID_COMMAND"),
+        INVALID_OPCODE("INVALID_OPCODE"),
+        CRC("CRC"),
+        OTHER(null);
+
+        private final byte[] wordBytes;
+        private final int hash;
+
+        private Status(final String word)
+        {
+            this.wordBytes = word == null ? null : word.getBytes(StandardCharsets.US_ASCII);
+            this.hash = hash(wordBytes);
+        }
+    }
+
+    // Matches the hash tokenize() computes, to skip most byte comparisons
+    private static int hash(final byte[] bytes)
+    {
+        int hash = 0;
+        if (bytes != null)
+        {
+            for (byte b : bytes)
+            {
+                hash = 31 * hash + b;
+            }
+        }
+        return hash;
+    }
+
+    // Open-addressed by hash, so a lookup is usually one probe and one token comparison
+    private static class Lookup
+    {
+        private static final Type[] TYPES = new Type[32];
+        private static final Status[] STATUSES = new Status[32];
+
+        static
+        {
+            for (Type type : Type.values())
+            {
+                if (type.tokenBytes != null)
+                {
+                    int slot = type.hash & (TYPES.length - 1);
+                    while (TYPES[slot] != null)
+                    {
+                        slot = (slot + 1) & (TYPES.length - 1);
+                    }
+                    TYPES[slot] = type;
+                }
+            }
+            for (Status status : Status.values())
+            {
+                if (status.wordBytes != null)
+                {
+                    int slot = status.hash & (STATUSES.length - 1);
+                    while (STATUSES[slot] != null)
+                    {
+                        slot = (slot + 1) & (STATUSES.length - 1);
+                    }
+                    STATUSES[slot] = status;
+                }
+            }
+        }
+    }
+
+    private byte[] text = new byte[64];
+    private int length = 0;
+    private int tokenCount = 0;
+    private final int[] tokenStarts = new int[MAX_TOKENS];
+    private final int[] tokenEnds = new int[MAX_TOKENS];
+    private final long[] numbers = new long[MAX_TOKENS];
+    private final boolean[] numeric = new boolean[MAX_TOKENS];
+    private Type type = Type.UNKNOWN;
+    private Status status = Status.NONE;
+
+    /*
+     * Tokenizes bytes [offset, offset + length). A line with more than
+     * MAX_TOKENS tokens keeps the rest, commas included, in the last one.
+     */
+    public Message parse(final byte[] data, final int offset, final int length)
+    {
+        if (length > text.length)
+        {
+            text = Arrays.copyOf(text, Math.max(length, text.length * 2));
+        }
+        System.arraycopy(data, offset, text, 0, length);
+        this.length = length;
+        tokenize();
+        return this;
+    }
+
+    // Same for a line that is already a String, e.g. a decoded binary reply; non-Latin-1 characters become '?'
+    public Message parse(final CharSequence line)
+    {
+        final int lineLength = line.length();
+        if (lineLength > text.length)
+        {
+            text = Arrays.copyOf(text, Math.max(lineLength, text.length * 2));
+        }
+        for (int i = 0; i < lineLength; i++)
+        {
+            final char c = line.charAt(i);
+            text[i] = c <= 0xFF ? (byte) c : (byte) '?';
+        }
+        this.length = lineLength;
+        tokenize();
+        return this;
+    }
+
+    // A new message parsed from line, for keeping as a pattern
+    public static Message of(final CharSequence line)
+    {
+        return new Message().parse(line);
+    }
+
+    public Message copy()
+    {
+        return new Message().parse(text, 0, length);
+    }
+
+    private void tokenize()
+    {
+        final byte[] text = this.text;
+        final int length = this.length;
+        int hash0 = 0;
+        int hash1 = 0;
+        int start = 0;
+        tokenCount = 0;
+        while (true)
+        {
+            int end = start;
+            if (tokenCount < 2)
+            {
+                int hash = 0;
+                while (end < length && text[end] != ',')
+                {
+                    hash = 31 * hash + text[end++];
+                }
+                if (tokenCount == 0)
+                {
+                    hash0 = hash;
+                }
+                else
+                {
+                    hash1 = hash;
+                }
+            }
+            else if (tokenCount < MAX_TOKENS - 1)
+            {
+                while (end < length && text[end] != ',')
+                {
+                    end++;
+                }
+            }
+            else
+            {
+                end = length;
+            }
+
+            tokenStarts[tokenCount] = start;
+            tokenEnds[tokenCount] = end;
+            scanNumber(tokenCount);
+            tokenCount++;
+            if (end == length)
+            {
+                break;
+            }
+            start = end + 1;
+        }
+
+        type = Type.UNKNOWN;
+        final Type[] types = Lookup.TYPES;
+        for (int slot = hash0 & (types.length - 1); types[slot] != null; slot = (slot + 1) & (types.length - 1))
+        {
+            final Type candidate = types[slot];
+            if (candidate.hash == hash0 && tokenEquals(0, candidate.tokenBytes))
+            {
+                type = candidate;
+                break;
+            }
+        }
+
+        status = Status.NONE;
+        if (tokenCount > 1 && !numeric[1] && tokenEnds[1] > tokenStarts[1])
+        {
+            status = Status.OTHER;
+            final Status[] statuses = Lookup.STATUSES;
+            for (int slot = hash1 & (statuses.length - 1); statuses[slot] != null; slot = (slot + 1) & (statuses.length - 1))
+            {
+                final Status candidate = statuses[slot];
+                if (candidate.hash == hash1 && tokenEquals(1, candidate.wordBytes))
+                {
+                    status = candidate;
+                    break;
+                }
+            }
+        }
+    }
+
+    // An optional '-' followed by 1 to 18 digits, so the value cannot overflow
+    private void scanNumber(final int token)
+    {
+        int i = tokenStarts[token];
+        final int end = tokenEnds[token];
+        final boolean negative = i < end && text[i] == '-';
+        if (negative)
+        {
+            i++;
+        }
+
+        numeric[token] = false;
+        numbers[token] = 0;
+        if (i == end || end - i > 18)
+        {
+            return;
+        }
+
+        long value = 0;
+        for (; i < end; i++)
+        {
+            final int digit = text[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return;
+            }
+            value = value * 10 + digit;
+        }
+        numeric[token] = true;
+        numbers[token] = negative ? -value : value;
+    }
+
+    private boolean tokenEquals(final int token, final byte[] expected)
+    {
+        final int start = tokenStarts[token];
+        final int tokenLength = tokenEnds[token] - start;
+        if (tokenLength != expected.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < tokenLength; i++)
+        {
+            if (text[start + i] != expected[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    public boolean is(final Type type, final Status status)
+    {
+        return this.type == type && this.status == status;
+    }
+
+    // Including the leading type token
+    public int getTokenCount()
+    {
+        return tokenCount;
+    }
+
+    public boolean isNumber(final int token)
+    {
+        return token < tokenCount && numeric[token];
+    }
+
+    // The token's value if isNumber(token), otherwise 0
+    public long getLong(final int token)
+    {
+        return token < tokenCount ? numbers[token] : 0;
+    }
+
+    // Allocates; for display and error messages
+    public String getToken(final int token)
+    {
+        return token < tokenCount
+                ? new String(text, tokenStarts[token], tokenEnds[token] - tokenStarts[token], StandardCharsets.ISO_8859_1)
+                : null;
+    }
+
+    /*
+     * True if this message consists of the pattern's tokens, optionally
+     * followed by more: "@BAUD,OK,115200" matches "@BAUD,OK" but
+     * "@BAUD,OKAY" does not.
+     */
+    public boolean matches(final Message pattern)
+    {
+        if (pattern.type != type || pattern.tokenCount > tokenCount)
+        {
+            return false;
+        }
+        for (int token = type == Type.UNKNOWN ? 0 : 1; token < pattern.tokenCount; token++)
+        {
+            final int start = tokenStarts[token];
+            final int patternStart = pattern.tokenStarts[token];
+            final int tokenLength = tokenEnds[token] - start;
+            if (tokenLength != pattern.tokenEnds[token] - patternStart)
+            {
+                return false;
+            }
+            for (int i = 0; i < tokenLength; i++)
+            {
+                if (text[start + i] != pattern.text[patternStart + i])
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(text, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
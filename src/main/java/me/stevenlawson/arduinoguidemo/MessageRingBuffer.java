@@ -0,0 +1,293 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Bounded, preallocated queue of inbound lines. There is exactly one
+ * producer (the receive path); any number of consumers may poll. The
+ * common paths are lock-free: the lock is only taken to park and wake
+ * threads that are actually waiting.
+ */
+public class MessageRingBuffer implements MessageRingBufferMBean
+{
+    public enum OverflowPolicy
+    {
+        // The producer waits for space; the receive thread stalls and the OS buffer absorbs the rest
+        BLOCK,
+        // The oldest queued line is discarded to make room
+        DROP_OLDEST,
+        // The incoming line is discarded
+        DROP_NEWEST
+    }
+
+    private static final long BLOCK_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final AtomicReferenceArray<String> slots;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+    private volatile OverflowPolicy overflowPolicy;
+
+    private final AtomicLong highWaterMark = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong offered = new AtomicLong(0);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger consumersWaiting = new AtomicInteger(0);
+    private final AtomicInteger producersWaiting = new AtomicInteger(0);
+
+    public MessageRingBuffer(final int requestedCapacity, final OverflowPolicy overflowPolicy)
+    {
+        int size = 1;
+        while (size < requestedCapacity)
+        {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /*
+     * Producer side, single thread only. Returns false if the line was
+     * dropped (DROP_NEWEST) or the producer was interrupted while blocked.
+     */
+    public boolean offer(final String message)
+    {
+        offered.incrementAndGet();
+
+        while (true)
+        {
+            final long t = tail.get();
+            final long h = head.get();
+
+            if (t - h < capacity)
+            {
+                slots.set((int) (t & mask), message);
+                tail.set(t + 1);
+
+                final long depth = t + 1 - h;
+                if (depth > highWaterMark.get())
+                {
+                    highWaterMark.set(depth);
+                }
+
+                if (consumersWaiting.get() > 0)
+                {
+                    signal(notEmpty);
+                }
+                return true;
+            }
+
+            switch (overflowPolicy)
+            {
+                case DROP_NEWEST:
+                    dropped.incrementAndGet();
+                    return false;
+                case DROP_OLDEST:
+                    if (head.compareAndSet(h, h + 1))
+                    {
+                        dropped.incrementAndGet();
+                    }
+                    break;
+                default:
+                    if (!awaitSpace())
+                    {
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                    break;
+            }
+        }
+    }
+
+    public String poll()
+    {
+        while (true)
+        {
+            final long h = head.get();
+            if (h >= tail.get())
+            {
+                return null;
+            }
+
+            final String message = slots.get((int) (h & mask));
+            if (head.compareAndSet(h, h + 1))
+            {
+                if (producersWaiting.get() > 0)
+                {
+                    signal(notFull);
+                }
+                return message;
+            }
+        }
+    }
+
+    public String poll(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        String message = poll();
+        if (message != null)
+        {
+            return message;
+        }
+
+        long remainingNanos = unit.toNanos(timeout);
+        while (remainingNanos > 0)
+        {
+            lock.lockInterruptibly();
+            consumersWaiting.incrementAndGet();
+            try
+            {
+                if (isEmpty())
+                {
+                    remainingNanos = notEmpty.awaitNanos(remainingNanos);
+                }
+            }
+            finally
+            {
+                consumersWaiting.decrementAndGet();
+                lock.unlock();
+            }
+
+            message = poll();
+            if (message != null)
+            {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    public void clear()
+    {
+        long h;
+        while ((h = head.get()) < tail.get())
+        {
+            head.compareAndSet(h, tail.get());
+        }
+        if (producersWaiting.get() > 0)
+        {
+            signal(notFull);
+        }
+    }
+
+    public boolean contains(final String message)
+    {
+        final long t = tail.get();
+        for (long i = head.get(); i < t; i++)
+        {
+            if (message.equals(slots.get((int) (i & mask))))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty()
+    {
+        return head.get() >= tail.get();
+    }
+
+    public int size()
+    {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public void setOverflowPolicy(final OverflowPolicy overflowPolicy)
+    {
+        this.overflowPolicy = overflowPolicy;
+        if (producersWaiting.get() > 0)
+        {
+            signal(notFull);
+        }
+    }
+
+    @Override
+    public String getOverflowPolicy()
+    {
+        return overflowPolicy.name();
+    }
+
+    @Override
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    @Override
+    public int getDepth()
+    {
+        return size();
+    }
+
+    @Override
+    public long getHighWaterMark()
+    {
+        return highWaterMark.get();
+    }
+
+    @Override
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    @Override
+    public long getOfferedCount()
+    {
+        return offered.get();
+    }
+
+    @Override
+    public void resetHighWaterMark()
+    {
+        highWaterMark.set(size());
+    }
+
+    private boolean awaitSpace()
+    {
+        lock.lock();
+        producersWaiting.incrementAndGet();
+        try
+        {
+            if (tail.get() - head.get() >= capacity && overflowPolicy == OverflowPolicy.BLOCK)
+            {
+                notFull.awaitNanos(BLOCK_RECHECK_NANOS);
+            }
+            return true;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            producersWaiting.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    private void signal(final Condition condition)
+    {
+        lock.lock();
+        try
+        {
+            condition.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
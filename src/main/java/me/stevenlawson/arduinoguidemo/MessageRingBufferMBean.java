@@ -0,0 +1,18 @@
+package me.stevenlawson.arduinoguidemo;
+
+public interface MessageRingBufferMBean
+{
+    public abstract String getOverflowPolicy();
+
+    public abstract int getCapacity();
+
+    public abstract int getDepth();
+
+    public abstract long getHighWaterMark();
+
+    public abstract long getDroppedCount();
+
+    public abstract long getOfferedCount();
+
+    public abstract void resetHighWaterMark();
+}
@@ -0,0 +1,142 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Pushes each framed line to the handlers subscribed to its leading token
+ * (the text before the first ',', e.g. "@BLINK_LED") and to every
+ * catch-all handler. Typed handlers receive the parsed Message instead of
+ * the line, and are only valid until they return. Handlers run on the
+ * thread that dispatches the line, normally the serial receive thread, so
+ * they must not block.
+ */
+public class MessageRouter
+{
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<Callback<String>>> handlersByToken = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Callback<String>> catchAllHandlers = new CopyOnWriteArrayList<>();
+    private final List<CopyOnWriteArrayList<Callback<Message>>> handlersByType = new ArrayList<>();
+
+    public MessageRouter()
+    {
+        for (int i = 0; i < Message.Type.values().length; i++)
+        {
+            handlersByType.add(new CopyOnWriteArrayList<>());
+        }
+    }
+
+    public Subscription subscribe(final String token, final Callback<String> handler)
+    {
+        final CopyOnWriteArrayList<Callback<String>> handlers = handlersByToken.computeIfAbsent(token, key -> new CopyOnWriteArrayList<>());
+        handlers.add(handler);
+        return new Subscription(handlers, handler);
+    }
+
+    public Subscription subscribe(final Message.Type type, final Callback<Message> handler)
+    {
+        final CopyOnWriteArrayList<Callback<Message>> handlers = handlersByType.get(type.ordinal());
+        handlers.add(handler);
+        return new Subscription(handlers, handler);
+    }
+
+    public Subscription subscribeAll(final Callback<String> handler)
+    {
+        catchAllHandlers.add(handler);
+        return new Subscription(catchAllHandlers, handler);
+    }
+
+    public boolean hasSubscribers()
+    {
+        if (!handlersByToken.isEmpty() || !catchAllHandlers.isEmpty())
+        {
+            return true;
+        }
+        for (List<Callback<Message>> handlers : handlersByType)
+        {
+            if (!handlers.isEmpty())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void dispatch(final String line)
+    {
+        dispatchLine(handlersByToken.isEmpty() ? null : leadingToken(line), line);
+    }
+
+    /*
+     * Dispatches a line that has already been parsed into message. Known
+     * message types are routed without cutting the token out of the line.
+     */
+    public void dispatch(final Message message, final String line)
+    {
+        for (Callback<Message> handler : handlersByType.get(message.getType().ordinal()))
+        {
+            run(handler, message);
+        }
+
+        String token = null;
+        if (!handlersByToken.isEmpty())
+        {
+            token = message.getType() != Message.Type.UNKNOWN ? message.getType().getToken() : leadingToken(line);
+        }
+        dispatchLine(token, line);
+    }
+
+    private void dispatchLine(final String token, final String line)
+    {
+        final List<Callback<String>> handlers = token == null ? null : handlersByToken.get(token);
+        if (handlers != null)
+        {
+            for (Callback<String> handler : handlers)
+            {
+                run(handler, line);
+            }
+        }
+
+        for (Callback<String> handler : catchAllHandlers)
+        {
+            run(handler, line);
+        }
+    }
+
+    private static String leadingToken(final String line)
+    {
+        final int delimiter = line.indexOf(',');
+        return delimiter == -1 ? line : line.substring(0, delimiter);
+    }
+
+    private static <T> void run(final Callback<T> handler, final T value)
+    {
+        try
+        {
+            handler.run(value);
+        }
+        catch (RuntimeException ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    public static class Subscription implements AutoCloseable
+    {
+        private final List<?> handlers;
+        private final Object handler;
+
+        private Subscription(final List<?> handlers, final Object handler)
+        {
+            this.handlers = handlers;
+            this.handler = handler;
+        }
+
+        @Override
+        public void close()
+        {
+            handlers.remove(handler);
+        }
+    }
+}
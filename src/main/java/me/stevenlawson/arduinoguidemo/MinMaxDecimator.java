@@ -0,0 +1,57 @@
+package me.stevenlawson.arduinoguidemo;
+
+/*
+ * Reduces a run of samples to one (min, max) pair per output column, so a
+ * chart draws a bounded number of line segments however many samples fall
+ * into its window, without losing spikes the way plain subsampling would.
+ */
+public class MinMaxDecimator
+{
+    public static final int EMPTY = Integer.MIN_VALUE;
+
+    /*
+     * Columns split [startTime, endTime) evenly; samples outside it are
+     * ignored. Columns with no samples get EMPTY in both arrays. Times must
+     * be ascending.
+     */
+    public static void decimate(final long[] times, final int[] values, final int count,
+            final long startTime, final long endTime, final int[] mins, final int[] maxs, final int columns)
+    {
+        for (int column = 0; column < columns; column++)
+        {
+            mins[column] = EMPTY;
+            maxs[column] = EMPTY;
+        }
+
+        final long span = endTime - startTime;
+        if (span <= 0 || columns <= 0)
+        {
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            final long offset = times[i] - startTime;
+            if (offset < 0 || offset >= span)
+            {
+                continue;
+            }
+
+            final int column = (int) (offset * columns / span);
+            final int value = values[i];
+            if (mins[column] == EMPTY)
+            {
+                mins[column] = value;
+                maxs[column] = value;
+            }
+            else if (value < mins[column])
+            {
+                mins[column] = value;
+            }
+            else if (value > maxs[column])
+            {
+                maxs[column] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * One priority lane of an OutboundScheduler: the commands waiting to be
+ * written, the lane's limits, and its counters. Published as an MBean named
+ * me.stevenlawson.arduinoguidemo:type=OutboundLane,port=<port>,lane=<priority>
+ *
+ * The queue and in-flight count are guarded by the owning scheduler; the
+ * settings and counters may be read from any thread.
+ */
+public class OutboundLane implements OutboundLaneMBean
+{
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final OutboundScheduler.Priority priority;
+    final ArrayDeque<OutboundScheduler.Entry> queue = new ArrayDeque<>();
+    int inFlight = 0;
+
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile int maxInFlight = 0;
+    private volatile boolean coalescing = false;
+
+    private volatile int depth = 0;
+    private volatile int highWaterMark = 0;
+    private volatile int inFlightSnapshot = 0;
+    private final AtomicLong submitted = new AtomicLong(0);
+    private final AtomicLong sent = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong rejected = new AtomicLong(0);
+    private final AtomicLong expired = new AtomicLong(0);
+    private final LatencyHistogram wait = new LatencyHistogram();
+
+    OutboundLane(final OutboundScheduler.Priority priority)
+    {
+        this.priority = priority;
+    }
+
+    // Commands beyond this many waiting are rejected
+    public void setCapacity(final int capacity)
+    {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    // Commands of this lane awaiting their reply at once; 0 for no limit
+    public void setMaxInFlight(final int maxInFlight)
+    {
+        this.maxInFlight = Math.max(0, maxInFlight);
+    }
+
+    // Whether a command identical to one still waiting shares its reply instead of being sent again
+    public void setCoalescing(final boolean coalescing)
+    {
+        this.coalescing = coalescing;
+    }
+
+    boolean canSend()
+    {
+        return !queue.isEmpty() && (maxInFlight == 0 || inFlight < maxInFlight);
+    }
+
+    void queueChanged()
+    {
+        depth = queue.size();
+        inFlightSnapshot = inFlight;
+        if (depth > highWaterMark)
+        {
+            highWaterMark = depth;
+        }
+    }
+
+    void recordSubmitted()
+    {
+        submitted.incrementAndGet();
+    }
+
+    void recordSent(final long waitNanos)
+    {
+        sent.incrementAndGet();
+        wait.record(waitNanos);
+    }
+
+    void recordCoalesced()
+    {
+        coalesced.incrementAndGet();
+    }
+
+    void recordRejected()
+    {
+        rejected.incrementAndGet();
+    }
+
+    void recordExpired()
+    {
+        expired.incrementAndGet();
+    }
+
+    // Time from submission until the command was written
+    public LatencyHistogram getWait()
+    {
+        return wait;
+    }
+
+    @Override
+    public String getPriority()
+    {
+        return priority.name();
+    }
+
+    @Override
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    @Override
+    public int getMaxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    @Override
+    public boolean isCoalescing()
+    {
+        return coalescing;
+    }
+
+    @Override
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    @Override
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        return inFlightSnapshot;
+    }
+
+    @Override
+    public long getSubmittedCount()
+    {
+        return submitted.get();
+    }
+
+    @Override
+    public long getSentCount()
+    {
+        return sent.get();
+    }
+
+    @Override
+    public long getCoalescedCount()
+    {
+        return coalesced.get();
+    }
+
+    @Override
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    @Override
+    public long getExpiredCount()
+    {
+        return expired.get();
+    }
+
+    @Override
+    public double getMeanWaitMillis()
+    {
+        return wait.getMeanNanos() / 1_000_000.0;
+    }
+
+    @Override
+    public double getP99WaitMillis()
+    {
+        return wait.getPercentileNanos(99) / 1_000_000.0;
+    }
+
+    @Override
+    public double getMaxWaitMillis()
+    {
+        return wait.getMaxNanos() / 1_000_000.0;
+    }
+
+    @Override
+    public void resetHighWaterMark()
+    {
+        highWaterMark = depth;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%-11s lane depth=%d high=%d in-flight=%d sent=%d coalesced=%d rejected=%d expired=%d wait p99=%.3fms max=%.3fms",
+                priority, getDepth(), getHighWaterMark(), getInFlight(), getSentCount(), getCoalescedCount(),
+                getRejectedCount(), getExpiredCount(), getP99WaitMillis(), getMaxWaitMillis());
+    }
+}
@@ -0,0 +1,36 @@
+package me.stevenlawson.arduinoguidemo;
+
+public interface OutboundLaneMBean
+{
+    public abstract String getPriority();
+
+    public abstract int getCapacity();
+
+    public abstract int getMaxInFlight();
+
+    public abstract boolean isCoalescing();
+
+    public abstract int getDepth();
+
+    public abstract int getHighWaterMark();
+
+    public abstract int getInFlight();
+
+    public abstract long getSubmittedCount();
+
+    public abstract long getSentCount();
+
+    public abstract long getCoalescedCount();
+
+    public abstract long getRejectedCount();
+
+    public abstract long getExpiredCount();
+
+    public abstract double getMeanWaitMillis();
+
+    public abstract double getP99WaitMillis();
+
+    public abstract double getMaxWaitMillis();
+
+    public abstract void resetHighWaterMark();
+}
@@ -0,0 +1,449 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/*
+ * Decides when each command of a session goes on the wire. Commands wait
+ * in one of three lanes and the highest-priority lane with something to
+ * send always goes first, so a heartbeat or cancel overtakes any number of
+ * queued blinks: it waits for at most the command already being written.
+ *
+ * Writes are paced by a token bucket of bytes, refilled at the link's
+ * capacity (a start and stop bit per byte, so baud / 10 bytes per second)
+ * and holding at most DEFAULT_BURST_BYTES, the size of the Arduino's
+ * hardware receive buffer. The link is full duplex, so the caller charges
+ * a command for the longer of itself and its expected reply: otherwise
+ * replies longer than their commands back up on the board, where a ping's
+ * reply would queue behind them. Commands that cannot be written yet stay in
+ * their lane, where priority still applies, instead of piling up in the
+ * transport where it cannot. Transports without a line rate are not paced.
+ *
+ * A lane may cap how many of its commands await a reply at once, and may
+ * coalesce a command with an identical one still waiting: both callers
+ * then get the same reply. By default the BULK lane does both, with one
+ * command in flight, so repeated clicks on a blink button run one blink
+ * after the current one rather than queueing them all.
+ *
+ * An exclusive command, one that changes how the board reads whatever
+ * follows it, pauses every lane from when it is written until its reply or
+ * timeout.
+ */
+public class OutboundScheduler
+{
+    public static final int DEFAULT_BURST_BYTES = 64;
+
+    public enum Priority
+    {
+        // Heartbeats, cancellation and link negotiation
+        CONTROL,
+        // Ordinary requests that expect a prompt reply
+        INTERACTIVE,
+        // Long-running user actions such as blinks
+        BULK
+    }
+
+    // Writes the command and returns the future of its reply; called with at most remainingMS left of the caller's timeout
+    @FunctionalInterface
+    public interface Sender
+    {
+        public abstract CompletableFuture<String> send(final long remainingMS);
+    }
+
+    private static final ScheduledExecutorService DRAINER = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "OutboundScheduler-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final IntSupplier baudRate;
+    private final OutboundLane[] lanes;
+    private final AtomicLong throttled = new AtomicLong(0);
+    private volatile boolean rateLimited = true;
+    private volatile int burstBytes = DEFAULT_BURST_BYTES;
+    // Held while writing, so commands go out in the order they were picked without holding this
+    private final Object sendLock = new Object();
+
+    // Guarded by this
+    private double tokens = DEFAULT_BURST_BYTES;
+    private long refilledNanos = System.nanoTime();
+    private long drainAtNanos = Long.MAX_VALUE;
+    private boolean closed = false;
+    private Entry exclusive = null;
+
+    public OutboundScheduler(final IntSupplier baudRate)
+    {
+        this.baudRate = baudRate;
+        this.lanes = new OutboundLane[Priority.values().length];
+        for (Priority priority : Priority.values())
+        {
+            lanes[priority.ordinal()] = new OutboundLane(priority);
+        }
+        getLane(Priority.BULK).setMaxInFlight(1);
+        getLane(Priority.BULK).setCoalescing(true);
+    }
+
+    public OutboundLane getLane(final Priority priority)
+    {
+        return lanes[priority.ordinal()];
+    }
+
+    public void setRateLimited(final boolean rateLimited)
+    {
+        this.rateLimited = rateLimited;
+        drainLater(0);
+    }
+
+    public void setBurstBytes(final int burstBytes)
+    {
+        this.burstBytes = Math.max(1, burstBytes);
+    }
+
+    // Commands that had to wait for the token bucket
+    public long getThrottledCount()
+    {
+        return throttled.get();
+    }
+
+    /*
+     * Queues a command and returns the future of its reply. costBytes is
+     * what the command and its reply occupy the busier direction of the
+     * link. The timeout covers the time spent queued; a command still
+     * queued when it runs out fails with a TimeoutException without being
+     * sent, and one that finds its lane full fails with a LaneFullException.
+     */
+    public CompletableFuture<String> submit(final Priority priority, final String command, final String successReply, final int costBytes, final long timeoutMS, final Sender sender)
+    {
+        return submit(priority, command, successReply, costBytes, timeoutMS, true, sender);
+    }
+
+    // As above; a command that may not coalesce is always sent, even in a coalescing lane
+    public CompletableFuture<String> submit(final Priority priority, final String command, final String successReply, final int costBytes, final long timeoutMS, final boolean coalesce, final Sender sender)
+    {
+        return submit(priority, command, successReply, costBytes, timeoutMS, coalesce, false, sender);
+    }
+
+    // As submit(), but nothing else is written between this command and its reply or timeout
+    public CompletableFuture<String> submitExclusive(final Priority priority, final String command, final String successReply, final int costBytes, final long timeoutMS, final Sender sender)
+    {
+        return submit(priority, command, successReply, costBytes, timeoutMS, false, true, sender);
+    }
+
+    private CompletableFuture<String> submit(final Priority priority, final String command, final String successReply, final int costBytes, final long timeoutMS,
+            final boolean coalesce, final boolean exclusive, final Sender sender)
+    {
+        final OutboundLane lane = getLane(priority);
+        lane.recordSubmitted();
+
+        final Entry entry;
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return failed(new IOException("The session is closed."));
+            }
+
+            if (coalesce && lane.isCoalescing())
+            {
+                for (Entry waiting : lane.queue)
+                {
+                    if (waiting.command.equals(command) && waiting.successReply.equals(successReply))
+                    {
+                        lane.recordCoalesced();
+                        return waiting.future.thenApply(reply -> reply);
+                    }
+                }
+            }
+
+            if (lane.queue.size() >= lane.getCapacity())
+            {
+                lane.recordRejected();
+                return failed(new LaneFullException(priority, command));
+            }
+
+            entry = new Entry(lane, command, successReply, costBytes, timeoutMS, exclusive, sender);
+            lane.queue.add(entry);
+            lane.queueChanged();
+        }
+
+        drain();
+        synchronized (this)
+        {
+            if (!entry.sent)
+            {
+                DRAINER.schedule(() -> expire(entry), timeoutMS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return entry.future;
+    }
+
+    public int getDepth()
+    {
+        int depth = 0;
+        for (OutboundLane lane : lanes)
+        {
+            depth += lane.getDepth();
+        }
+        return depth;
+    }
+
+    // Fails the commands waiting in one lane and returns how many there were
+    public int drop(final Priority priority, final Throwable cause)
+    {
+        final List<Entry> dropped = new ArrayList<>();
+        synchronized (this)
+        {
+            dropQueued(getLane(priority), dropped);
+        }
+        return fail(dropped, cause);
+    }
+
+    // Fails every queued command; commands already sent are left to the correlator
+    public void close(final Throwable cause)
+    {
+        final List<Entry> dropped = new ArrayList<>();
+        synchronized (this)
+        {
+            closed = true;
+            for (OutboundLane lane : lanes)
+            {
+                dropQueued(lane, dropped);
+            }
+        }
+        fail(dropped, cause);
+    }
+
+    private static void dropQueued(final OutboundLane lane, final List<Entry> dropped)
+    {
+        dropped.addAll(lane.queue);
+        lane.queue.clear();
+        lane.queueChanged();
+    }
+
+    private static int fail(final List<Entry> dropped, final Throwable cause)
+    {
+        for (Entry entry : dropped)
+        {
+            entry.future.completeExceptionally(cause);
+        }
+        return dropped.size();
+    }
+
+    /*
+     * Sends as much as priority, in-flight limits and the token bucket allow.
+     * Each command is picked under the scheduler's lock but written outside
+     * it, so replies arriving on the receive thread never wait for a write.
+     */
+    private void drain()
+    {
+        synchronized (sendLock)
+        {
+            Entry entry;
+            while ((entry = pickNext()) != null)
+            {
+                send(entry);
+            }
+        }
+    }
+
+    // The next command to write, taken out of its lane and charged to the bucket, or null if none may go yet
+    private synchronized Entry pickNext()
+    {
+        if (closed || exclusive != null)
+        {
+            return null;
+        }
+
+        OutboundLane next = null;
+        for (OutboundLane lane : lanes)
+        {
+            if (lane.canSend())
+            {
+                next = lane;
+                break;
+            }
+        }
+        if (next == null)
+        {
+            return null;
+        }
+
+        final Entry entry = next.queue.peek();
+        final int rate = rateLimited ? baudRate.getAsInt() / 10 : 0;
+        if (rate > 0)
+        {
+            final long now = System.nanoTime();
+            final int burst = burstBytes;
+            tokens = Math.min(burst, tokens + (now - refilledNanos) * rate / 1e9);
+            refilledNanos = now;
+
+            final int cost = Math.min(burst, entry.cost);
+            if (tokens < cost)
+            {
+                if (!entry.throttled)
+                {
+                    entry.throttled = true;
+                    throttled.incrementAndGet();
+                }
+                drainLater((long) Math.ceil((cost - tokens) * 1e9 / rate));
+                return null;
+            }
+            tokens -= cost;
+        }
+
+        next.queue.poll();
+        entry.sent = true;
+        if (entry.exclusive)
+        {
+            exclusive = entry;
+        }
+        next.inFlight++;
+        next.queueChanged();
+        return entry;
+    }
+
+    private void send(final Entry entry)
+    {
+        final long waitNanos = System.nanoTime() - entry.queuedNanos;
+        entry.lane.recordSent(waitNanos);
+
+        final long remainingMS = entry.timeoutMS - TimeUnit.NANOSECONDS.toMillis(waitNanos);
+        CompletableFuture<String> reply;
+        try
+        {
+            reply = entry.sender.send(Math.max(1, remainingMS));
+        }
+        catch (RuntimeException ex)
+        {
+            reply = failed(ex);
+        }
+
+        reply.whenComplete((line, ex) ->
+        {
+            if (Thread.holdsLock(sendLock))
+            {
+                // Failed while being sent; callers' callbacks must not run under the lock
+                DRAINER.execute(() -> replied(entry, line, ex));
+            }
+            else
+            {
+                replied(entry, line, ex);
+            }
+        });
+    }
+
+    private void replied(final Entry entry, final String line, final Throwable ex)
+    {
+        final boolean resumed;
+        synchronized (this)
+        {
+            entry.lane.inFlight--;
+            entry.lane.queueChanged();
+            resumed = exclusive == entry;
+            if (resumed)
+            {
+                exclusive = null;
+            }
+        }
+        if (ex == null)
+        {
+            entry.future.complete(line);
+        }
+        else
+        {
+            entry.future.completeExceptionally(ex);
+        }
+        if (resumed || entry.lane.getDepth() > 0)
+        {
+            drainLater(0);
+        }
+    }
+
+    // Replies complete on the receive thread, which must not write, so the next send runs on the drain thread
+    private synchronized void drainLater(final long delayNanos)
+    {
+        final long at = System.nanoTime() + delayNanos;
+        if (at >= drainAtNanos)
+        {
+            return;
+        }
+        drainAtNanos = at;
+        DRAINER.schedule(() ->
+        {
+            synchronized (this)
+            {
+                drainAtNanos = Long.MAX_VALUE;
+            }
+            drain();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void expire(final Entry entry)
+    {
+        synchronized (this)
+        {
+            if (!entry.lane.queue.remove(entry))
+            {
+                return;
+            }
+            entry.lane.queueChanged();
+        }
+        entry.lane.recordExpired();
+        entry.future.completeExceptionally(new TimeoutException(String.format(
+                "'%s' was still queued after %d ms.", entry.command.trim(), entry.timeoutMS)));
+    }
+
+    private static CompletableFuture<String> failed(final Throwable cause)
+    {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    public String getReport()
+    {
+        final StringBuilder report = new StringBuilder();
+        for (OutboundLane lane : lanes)
+        {
+            report.append("  ").append(lane).append(System.lineSeparator());
+        }
+        report.append(String.format("  throttled=%d%n", getThrottledCount()));
+        return report.toString();
+    }
+
+    static class Entry
+    {
+        private final OutboundLane lane;
+        private final String command;
+        private final String successReply;
+        private final long timeoutMS;
+        private final int cost;
+        private final boolean exclusive;
+        private final Sender sender;
+        private final long queuedNanos = System.nanoTime();
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        // Guarded by the scheduler
+        private boolean sent = false;
+        private boolean throttled = false;
+
+        private Entry(final OutboundLane lane, final String command, final String successReply, final int cost, final long timeoutMS, final boolean exclusive, final Sender sender)
+        {
+            this.lane = lane;
+            this.command = command;
+            this.successReply = successReply;
+            this.timeoutMS = timeoutMS;
+            this.cost = cost;
+            this.exclusive = exclusive;
+            this.sender = sender;
+        }
+    }
+}
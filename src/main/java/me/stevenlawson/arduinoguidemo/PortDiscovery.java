@@ -0,0 +1,310 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/*
+ * Finds the port a board running this sketch is attached to. Every port is
+ * probed at the same time on its own thread: the probe opens the port and
+ * waits for the "@STARTED" announcement that follows the reset on open, or
+ * sends "*PING" and waits for "@PONG" if the board does not reset. Silent
+ * or busy ports simply time out, so discovery takes about one probe
+ * timeout however many devices are attached.
+ *
+ * The last port a board answered on is remembered together with its
+ * descriptive name. If that port is still present under the same name,
+ * discover() returns it without probing anything.
+ */
+public class PortDiscovery
+{
+    public static final long DEFAULT_PROBE_TIMEOUT_MS = 2_500;
+    public static final long PING_AFTER_MS = 500;
+    public static final String AUTO_PORT = "AUTO";
+
+    private static final String LAST_PORT_KEY = "lastPort";
+    private static final String PORT_KEY_PREFIX = "port.";
+
+    @FunctionalInterface
+    public interface TransportFactory
+    {
+        public abstract SerialTransport open(final String portName) throws IOException;
+    }
+
+    private final Supplier<Map<String, String>> enumerator;
+    private final TransportFactory transportFactory;
+    private final Path cacheFile;
+    private long probeTimeoutMS = DEFAULT_PROBE_TIMEOUT_MS;
+
+    /*
+     * Probes are not recorded; only the session opened afterwards is.
+     */
+    public PortDiscovery(final int baudRate)
+    {
+        this(JSCSerialHandler::getCommPortDescriptions,
+                portName -> new JSCSerialHandler(portName, baudRate),
+                Paths.get(System.getProperty("user.home"), ".arduinoguidemo", "ports.properties"));
+    }
+
+    public PortDiscovery(final Supplier<Map<String, String>> enumerator, final TransportFactory transportFactory, final Path cacheFile)
+    {
+        this.enumerator = enumerator;
+        this.transportFactory = transportFactory;
+        this.cacheFile = cacheFile;
+    }
+
+    public PortDiscovery setProbeTimeoutMS(final long probeTimeoutMS)
+    {
+        this.probeTimeoutMS = probeTimeoutMS;
+        return this;
+    }
+
+    public static boolean isAuto(final String portName)
+    {
+        return portName == null || portName.trim().isEmpty() || portName.trim().equalsIgnoreCase(AUTO_PORT);
+    }
+
+    /*
+     * Returns the port of a responding board, or null if none answered.
+     * The cached port is used as is if it is still attached; call forget()
+     * if connecting to it fails so the next call probes again.
+     */
+    public String discover()
+    {
+        final Map<String, String> ports = enumerator.get();
+
+        final String cached = getCachedPort(ports);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        final String found = probeFirst(ports.keySet());
+        if (found != null)
+        {
+            remember(found, ports.get(found));
+        }
+        return found;
+    }
+
+    /*
+     * Returns the last port a board answered on, or null if it is no longer
+     * attached or now belongs to a different device.
+     */
+    public String getCachedPort()
+    {
+        return getCachedPort(enumerator.get());
+    }
+
+    // As above, with the ports already enumerated, e.g. by StartupTasks
+    public String getCachedPort(final Map<String, String> ports)
+    {
+        final Properties cache = loadCache();
+        final String lastPort = cache.getProperty(LAST_PORT_KEY);
+        if (lastPort == null || !ports.containsKey(lastPort))
+        {
+            return null;
+        }
+        return ports.get(lastPort).equals(cache.getProperty(PORT_KEY_PREFIX + lastPort)) ? lastPort : null;
+    }
+
+    // Records a port that a board was successfully opened on
+    public void remember(final String portName)
+    {
+        remember(portName, enumerator.get().get(portName));
+    }
+
+    private synchronized void remember(final String portName, final String description)
+    {
+        if (description == null)
+        {
+            return;
+        }
+        final Properties cache = loadCache();
+        cache.setProperty(LAST_PORT_KEY, portName);
+        cache.setProperty(PORT_KEY_PREFIX + portName, description);
+        storeCache(cache);
+    }
+
+    public synchronized void forget(final String portName)
+    {
+        final Properties cache = loadCache();
+        if (portName.equals(cache.getProperty(LAST_PORT_KEY)))
+        {
+            cache.remove(LAST_PORT_KEY);
+        }
+        cache.remove(PORT_KEY_PREFIX + portName);
+        storeCache(cache);
+    }
+
+    /*
+     * Probes every port in parallel and returns the first one a board
+     * answers on without waiting for the rest to time out.
+     */
+    public String probeFirst(final Collection<String> portNames)
+    {
+        if (portNames.isEmpty())
+        {
+            return null;
+        }
+
+        final ExecutorService executor = newProbeExecutor(portNames.size());
+        try
+        {
+            final ExecutorCompletionService<String> completion = new ExecutorCompletionService<>(executor);
+            for (String portName : portNames)
+            {
+                completion.submit(() -> probe(portName) ? portName : null);
+            }
+
+            for (int i = 0; i < portNames.size(); i++)
+            {
+                final String portName = getQuietly(completion.take());
+                if (portName != null)
+                {
+                    return portName;
+                }
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            // Interrupts the probes still waiting; each closes its own port
+            executor.shutdownNow();
+        }
+        return null;
+    }
+
+    /*
+     * Opens the port, waits for the board to identify itself and closes the
+     * port again. Returns false on any error or timeout. Only a LineFramer
+     * listens, so a probe costs no scheduler, correlator or MBeans.
+     */
+    public boolean probe(final String portName)
+    {
+        final SerialTransport transport;
+        try
+        {
+            transport = transportFactory.open(portName);
+        }
+        catch (IOException ex)
+        {
+            // Missing, busy or not a serial device at all
+            return false;
+        }
+
+        final CountDownLatch answered = new CountDownLatch(1);
+        final LineFramer framer = new LineFramer(StandardCharsets.UTF_8);
+        try
+        {
+            if (!transport.setEnabled(true) || !transport.isConnected())
+            {
+                return false;
+            }
+            transport.setDataListener((data, length) -> framer.feed(data, 0, length, line ->
+            {
+                if (line.equals("@STARTED") || line.equals("@PONG"))
+                {
+                    answered.countDown();
+                }
+            }));
+
+            if (answered.await(Math.min(PING_AFTER_MS, probeTimeoutMS), TimeUnit.MILLISECONDS))
+            {
+                return true;
+            }
+            // No reset on open, or the announcement was missed
+            return transport.writeData("*PING\n") && answered.await(Math.max(0, probeTimeoutMS - PING_AFTER_MS), TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            transport.setDataListener(null);
+            transport.setEnabled(false);
+        }
+    }
+
+    private static ExecutorService newProbeExecutor(final int ports)
+    {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(ports, runnable ->
+        {
+            final Thread thread = new Thread(runnable, "PortDiscovery-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static <T> T getQuietly(final Future<T> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException ex)
+        {
+            return null;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Properties loadCache()
+    {
+        final Properties cache = new Properties();
+        if (Files.isRegularFile(cacheFile))
+        {
+            try (InputStream in = Files.newInputStream(cacheFile))
+            {
+                cache.load(in);
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Could not read port cache: " + ex.getMessage());
+            }
+        }
+        return cache;
+    }
+
+    private void storeCache(final Properties cache)
+    {
+        try
+        {
+            Files.createDirectories(cacheFile.getParent());
+            try (OutputStream out = Files.newOutputStream(cacheFile))
+            {
+                cache.store(out, "Last known Arduino ports");
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Could not write port cache: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Talks to the sketch built for the host (see native/Makefile) over the
+ * standard input and output of a child process, e.g. the port name
+ *
+ *   process:native/arduinoguidemo
+ *
+ * Enabling starts a fresh process, which plays the part of the reset on
+ * open; disabling closes its input, which ends it. There is no line to
+ * clock, so baud rate switches always succeed and change nothing.
+ */
+public class ProcessTransport implements SerialTransport
+{
+    public static final String PORT_PREFIX = "process:";
+
+    private static final int READ_BUFFER_SIZE = 1024;
+    private static final long EXIT_TIMEOUT_MS = 1_000;
+
+    private final String portName;
+    private final List<String> command;
+    private final int baudRate;
+    private volatile int currentBaudRate;
+
+    private volatile Process process = null;
+    private volatile OutputStream processInput = null;
+    private volatile DataListener listener = null;
+    private final ByteArrayOutputStream undelivered = new ByteArrayOutputStream();
+
+    public ProcessTransport(final String portName, final int baudRate) throws IOException
+    {
+        if (!isProcessPort(portName) || portName.substring(PORT_PREFIX.length()).trim().isEmpty())
+        {
+            throw new IOException(String.format("Port '%s' does not name a command, e.g. %snative/arduinoguidemo", portName, PORT_PREFIX));
+        }
+        this.portName = portName;
+        this.command = Arrays.asList(portName.substring(PORT_PREFIX.length()).trim().split("\\s+"));
+        this.baudRate = baudRate;
+        this.currentBaudRate = baudRate;
+    }
+
+    public static boolean isProcessPort(final String portName)
+    {
+        return portName != null && portName.startsWith(PORT_PREFIX);
+    }
+
+    @Override
+    public String getPortName()
+    {
+        return portName;
+    }
+
+    @Override
+    public boolean setEnabled(final boolean enabled)
+    {
+        stop();
+        if (!enabled)
+        {
+            return true;
+        }
+
+        final Process started;
+        try
+        {
+            started = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        }
+        catch (IOException ex)
+        {
+            System.err.println(String.format("Could not start '%s': %s", String.join(" ", command), ex.getMessage()));
+            return false;
+        }
+
+        synchronized (this)
+        {
+            undelivered.reset();
+            process = started;
+            processInput = started.getOutputStream();
+            currentBaudRate = baudRate;
+        }
+
+        final Thread reader = new Thread(() -> readOutput(started), "ProcessTransport-" + command.get(0));
+        reader.setDaemon(true);
+        reader.start();
+        return true;
+    }
+
+    private void stop()
+    {
+        final Process running;
+        synchronized (this)
+        {
+            running = process;
+            process = null;
+            processInput = null;
+        }
+        if (running == null)
+        {
+            return;
+        }
+
+        try
+        {
+            // The sketch exits when its Serial input reaches end of file
+            running.getOutputStream().close();
+            if (!running.waitFor(EXIT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            {
+                running.destroyForcibly();
+            }
+        }
+        catch (IOException ex)
+        {
+            running.destroyForcibly();
+        }
+        catch (InterruptedException ex)
+        {
+            running.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readOutput(final Process source)
+    {
+        final byte[] buffer = new byte[READ_BUFFER_SIZE];
+        try (InputStream in = source.getInputStream())
+        {
+            int count;
+            while ((count = in.read(buffer)) != -1)
+            {
+                final DataListener currentListener;
+                synchronized (this)
+                {
+                    if (process != source)
+                    {
+                        return;
+                    }
+                    currentListener = listener;
+                    if (currentListener == null)
+                    {
+                        undelivered.write(buffer, 0, count);
+                        continue;
+                    }
+                }
+                currentListener.dataReceived(buffer, count);
+            }
+        }
+        catch (IOException ex)
+        {
+            // Closed by stop()
+        }
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        final Process current = process;
+        return current != null && current.isAlive();
+    }
+
+    @Override
+    public int writeBytes(final byte[] data, final int length)
+    {
+        final OutputStream out = processInput;
+        if (out == null)
+        {
+            return -1;
+        }
+        try
+        {
+            out.write(data, 0, length);
+            out.flush();
+            return length;
+        }
+        catch (IOException ex)
+        {
+            return -1;
+        }
+    }
+
+    @Override
+    public void setDataListener(final DataListener listener)
+    {
+        final byte[] pending;
+        synchronized (this)
+        {
+            this.listener = listener;
+            pending = undelivered.toByteArray();
+            undelivered.reset();
+        }
+        if (listener != null && pending.length > 0)
+        {
+            listener.dataReceived(pending, pending.length);
+        }
+    }
+
+    @Override
+    public int getBaudRate()
+    {
+        return currentBaudRate;
+    }
+
+    @Override
+    public boolean switchBaudRate(final int baudRate)
+    {
+        if (!isConnected())
+        {
+            return false;
+        }
+        currentBaudRate = baudRate;
+        return true;
+    }
+}
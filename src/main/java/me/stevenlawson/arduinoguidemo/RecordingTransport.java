@@ -0,0 +1,105 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Passes everything through to another transport, recording reads and
+ * writes on the way. An owned recorder is closed when the port is disabled
+ * or fails to open; a shared one, from SessionRecorder.forPort(), is left
+ * open for the next session on the port.
+ */
+public class RecordingTransport implements SerialTransport
+{
+    private final SerialTransport transport;
+    private final SessionRecorder recorder;
+    private final boolean ownsRecorder;
+
+    public RecordingTransport(final SerialTransport transport, final SessionRecorder recorder)
+    {
+        this(transport, recorder, true);
+    }
+
+    public RecordingTransport(final SerialTransport transport, final SessionRecorder recorder, final boolean ownsRecorder)
+    {
+        this.transport = transport;
+        this.recorder = recorder;
+        this.ownsRecorder = ownsRecorder;
+    }
+
+    public SessionRecorder getRecorder()
+    {
+        return recorder;
+    }
+
+    public SerialTransport getTransport()
+    {
+        return transport;
+    }
+
+    @Override
+    public String getPortName()
+    {
+        return transport.getPortName();
+    }
+
+    @Override
+    public boolean setEnabled(final boolean enabled)
+    {
+        final boolean result = transport.setEnabled(enabled);
+        if (ownsRecorder && (!enabled || !result))
+        {
+            recorder.close();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return transport.isConnected();
+    }
+
+    // Passed on whole so the transport's own encoding and buffering are used
+    @Override
+    public boolean writeData(final String data)
+    {
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        recorder.recordOutbound(bytes, bytes.length);
+        return transport.writeData(data);
+    }
+
+    @Override
+    public int writeBytes(final byte[] data, final int length)
+    {
+        recorder.recordOutbound(data, length);
+        return transport.writeBytes(data, length);
+    }
+
+    @Override
+    public int getBaudRate()
+    {
+        return transport.getBaudRate();
+    }
+
+    @Override
+    public boolean switchBaudRate(final int baudRate)
+    {
+        return transport.switchBaudRate(baudRate);
+    }
+
+    @Override
+    public void setLinkMetrics(final LinkMetrics linkMetrics)
+    {
+        transport.setLinkMetrics(linkMetrics);
+    }
+
+    @Override
+    public void setDataListener(final DataListener listener)
+    {
+        transport.setDataListener(listener == null ? null : (data, length) ->
+        {
+            recorder.recordInbound(data, length);
+            listener.dataReceived(data, length);
+        });
+    }
+}
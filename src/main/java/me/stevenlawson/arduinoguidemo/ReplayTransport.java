@@ -0,0 +1,200 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Plays the inbound side of a SessionRecording back into whatever listens
+ * on it, with the recorded chunking and ordering, at the recorded pace
+ * scaled by speed (2.0 plays twice as fast, 0 as fast as possible).
+ * Writes are accepted and discarded. With looping enabled it doubles as a
+ * load source for the receive pipeline.
+ */
+public class ReplayTransport implements SerialTransport
+{
+    private final String portName;
+    private final long[] times;
+    private final byte[][] chunks;
+    private double speed = 1.0;
+    private boolean loop = false;
+
+    private volatile boolean open = false;
+    private volatile DataListener listener = null;
+    private Thread player = null;
+    private volatile CountDownLatch finished = new CountDownLatch(1);
+    private final AtomicLong chunksReplayed = new AtomicLong(0);
+    private final AtomicLong bytesReplayed = new AtomicLong(0);
+    private final AtomicLong bytesDiscarded = new AtomicLong(0);
+
+    public ReplayTransport(final Path recording) throws IOException
+    {
+        this(recording.getFileName().toString(), SessionRecording.listSegments(recording));
+    }
+
+    public ReplayTransport(final String portName, final List<Path> segments) throws IOException
+    {
+        final List<Long> timeList = new ArrayList<>();
+        final List<byte[]> chunkList = new ArrayList<>();
+        SessionRecording.read(segments, (nanos, direction, data, length) ->
+        {
+            if (direction == SessionRecorder.INBOUND)
+            {
+                timeList.add(nanos);
+                chunkList.add(Arrays.copyOf(data, length));
+            }
+        });
+
+        this.portName = "replay:" + portName;
+        this.chunks = chunkList.toArray(new byte[chunkList.size()][]);
+        this.times = new long[timeList.size()];
+        for (int i = 0; i < times.length; i++)
+        {
+            times[i] = timeList.get(i);
+        }
+    }
+
+    public ReplayTransport setSpeed(final double speed)
+    {
+        this.speed = speed;
+        return this;
+    }
+
+    public ReplayTransport setLoop(final boolean loop)
+    {
+        this.loop = loop;
+        return this;
+    }
+
+    public int getChunkCount()
+    {
+        return chunks.length;
+    }
+
+    public long getChunksReplayed()
+    {
+        return chunksReplayed.get();
+    }
+
+    public long getBytesReplayed()
+    {
+        return bytesReplayed.get();
+    }
+
+    public long getBytesDiscarded()
+    {
+        return bytesDiscarded.get();
+    }
+
+    // Waits until every chunk has been played once (or for good, when looping) or the port is closed.
+    public boolean awaitFinished(final long timeoutMS) throws InterruptedException
+    {
+        return finished.await(timeoutMS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String getPortName()
+    {
+        return portName;
+    }
+
+    @Override
+    public synchronized boolean setEnabled(final boolean enabled)
+    {
+        open = enabled;
+        if (enabled)
+        {
+            finished = new CountDownLatch(1);
+            start();
+        }
+        else if (player != null)
+        {
+            player.interrupt();
+            player = null;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return open;
+    }
+
+    @Override
+    public int writeBytes(final byte[] data, final int length)
+    {
+        if (!open)
+        {
+            return -1;
+        }
+        bytesDiscarded.addAndGet(length);
+        return length;
+    }
+
+    @Override
+    public synchronized void setDataListener(final DataListener listener)
+    {
+        this.listener = listener;
+        start();
+    }
+
+    private void start()
+    {
+        if (!open || listener == null || player != null)
+        {
+            return;
+        }
+
+        player = new Thread(this::play, "ReplayTransport-" + portName);
+        player.setDaemon(true);
+        player.start();
+    }
+
+    private void play()
+    {
+        try
+        {
+            do
+            {
+                final long startNanos = System.nanoTime();
+                final long firstTime = times.length > 0 ? times[0] : 0;
+                for (int i = 0; i < chunks.length && open; i++)
+                {
+                    if (speed > 0)
+                    {
+                        final long due = startNanos + (long) ((times[i] - firstTime) / speed);
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0)
+                        {
+                            LockSupport.parkNanos(wait);
+                            if (Thread.interrupted())
+                            {
+                                return;
+                            }
+                        }
+                    }
+
+                    final DataListener current = listener;
+                    if (current != null)
+                    {
+                        current.dataReceived(chunks[i], chunks[i].length);
+                        chunksReplayed.incrementAndGet();
+                        bytesReplayed.addAndGet(chunks[i].length);
+                    }
+                }
+            }
+            while (loop && open && chunks.length > 0);
+        }
+        finally
+        {
+            finished.countDown();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Matches inbound reply lines to in-flight commands. The board answers
+ * commands of one kind in the order it receives them, though a blink
+ * finishes after later pings have been answered, so a reply is handed to
+ * the oldest pending command that is waiting for it. Lines that no pending
+ * command is waiting for are left alone.
+ */
+public class ReplyCorrelator
+{
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "ReplyCorrelator-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<PendingCommand> pending = new ArrayList<>();
+
+    public CompletableFuture<String> register(final String command, final long timeoutMS, final String successReply, final String... failureReplies)
+    {
+        final PendingCommand pendingCommand = new PendingCommand(command, successReply, failureReplies);
+
+        synchronized (pending)
+        {
+            pending.add(pendingCommand);
+        }
+
+        pendingCommand.timeout = TIMEOUTS.schedule(() ->
+        {
+            if (remove(pendingCommand))
+            {
+                pendingCommand.future.completeExceptionally(new TimeoutException(String.format(
+                        "No reply to '%s' within %d ms.", command, timeoutMS)));
+            }
+        }, timeoutMS, TimeUnit.MILLISECONDS);
+
+        return pendingCommand.future;
+    }
+
+    public boolean remove(final CompletableFuture<String> future, final Throwable cause)
+    {
+        PendingCommand match = null;
+        synchronized (pending)
+        {
+            for (Iterator<PendingCommand> it = pending.iterator(); it.hasNext();)
+            {
+                final PendingCommand pendingCommand = it.next();
+                if (pendingCommand.future == future)
+                {
+                    it.remove();
+                    match = pendingCommand;
+                    break;
+                }
+            }
+        }
+
+        if (match == null)
+        {
+            return false;
+        }
+
+        if (match.timeout != null)
+        {
+            match.timeout.cancel(false);
+        }
+        return match.future.completeExceptionally(cause);
+    }
+
+    /*
+     * Returns true if the line completed a pending command.
+     */
+    public boolean accept(final String line)
+    {
+        return accept(Message.of(line), line);
+    }
+
+    // As above for a line already parsed into message, which is not retained
+    public boolean accept(final Message message, final String line)
+    {
+        PendingCommand match = null;
+        boolean success = false;
+
+        synchronized (pending)
+        {
+            for (Iterator<PendingCommand> it = pending.iterator(); it.hasNext();)
+            {
+                final PendingCommand pendingCommand = it.next();
+                if (message.matches(pendingCommand.successReply))
+                {
+                    success = true;
+                }
+                else if (!pendingCommand.matchesFailure(message))
+                {
+                    continue;
+                }
+                it.remove();
+                match = pendingCommand;
+                break;
+            }
+        }
+
+        if (match == null)
+        {
+            return false;
+        }
+
+        if (match.timeout != null)
+        {
+            match.timeout.cancel(false);
+        }
+
+        if (success)
+        {
+            match.future.complete(line);
+        }
+        else
+        {
+            match.future.completeExceptionally(message.getStatus() == Message.Status.INVALID_COMMAND
+                    ? new UnsupportedCommandException(match.command, message, line)
+                    : new CommandFailedException(match.command, message, line));
+        }
+        return true;
+    }
+
+    public void failAll(final Throwable cause)
+    {
+        final List<PendingCommand> failed;
+        synchronized (pending)
+        {
+            failed = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (PendingCommand pendingCommand : failed)
+        {
+            if (pendingCommand.timeout != null)
+            {
+                pendingCommand.timeout.cancel(false);
+            }
+            pendingCommand.future.completeExceptionally(cause);
+        }
+    }
+
+    public int getPendingCount()
+    {
+        synchronized (pending)
+        {
+            return pending.size();
+        }
+    }
+
+    // A reply matches when it equals the expected reply or continues it with further ',' separated tokens.
+    public static boolean matches(final String line, final String reply)
+    {
+        return Message.of(line).matches(Message.of(reply));
+    }
+
+    private boolean remove(final PendingCommand pendingCommand)
+    {
+        synchronized (pending)
+        {
+            return pending.remove(pendingCommand);
+        }
+    }
+
+    private static class PendingCommand
+    {
+        private final String command;
+        private final Message successReply;
+        private final Message[] failureReplies;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout = null;
+
+        private PendingCommand(final String command, final String successReply, final String[] failureReplies)
+        {
+            this.command = command;
+            this.successReply = Message.of(successReply);
+            this.failureReplies = new Message[failureReplies.length];
+            for (int i = 0; i < failureReplies.length; i++)
+            {
+                this.failureReplies[i] = Message.of(failureReplies[i]);
+            }
+        }
+
+        private boolean matchesFailure(final Message message)
+        {
+            for (Message failureReply : failureReplies)
+            {
+                if (message.matches(failureReply))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.nio.charset.StandardCharsets;
+
+public interface SerialTransport
+{
+    public abstract String getPortName();
+
+    public abstract boolean setEnabled(final boolean enabled);
+
+    public abstract boolean isConnected();
+
+    public default boolean writeData(final String data)
+    {
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return writeBytes(bytes, bytes.length) != -1;
+    }
+
+    public abstract int writeBytes(final byte[] data, final int length);
+
+    public abstract void setDataListener(final DataListener listener);
+
+    // Current line rate, or 0 if the transport has none
+    public default int getBaudRate()
+    {
+        return 0;
+    }
+
+    /*
+     * Changes the line rate of the open port without closing it, which
+     * would reset the board. Returns false if the transport cannot.
+     */
+    public default boolean switchBaudRate(final int baudRate)
+    {
+        return false;
+    }
+
+    // Lets a transport with a native port count its own reads and writes
+    public default void setLinkMetrics(final LinkMetrics linkMetrics)
+    {
+    }
+
+    @FunctionalInterface
+    public interface DataListener
+    {
+        public abstract void dataReceived(final byte[] data, final int length);
+    }
+}
@@ -0,0 +1,263 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/*
+ * Opens and supervises many boards at once. All work runs on one bounded,
+ * shared pool: nothing blocks while waiting for a board, since replies are
+ * delivered through each session's ReplyCorrelator, so the thread count
+ * does not grow with the number of boards. Commands for a single board run
+ * strictly one after another; commands for different boards run in
+ * parallel.
+ */
+public class SessionManager implements AutoCloseable
+{
+    public static final long SUPERVISE_INTERVAL_MS = 1_000;
+
+    private final ScheduledThreadPoolExecutor pool;
+    private final ConcurrentHashMap<String, Board> boards = new ConcurrentHashMap<>();
+
+    public SessionManager()
+    {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public SessionManager(final int poolSize)
+    {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        pool = new ScheduledThreadPoolExecutor(poolSize, runnable ->
+        {
+            final Thread thread = new Thread(runnable, "SessionManager-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        pool.scheduleWithFixedDelay(this::supervise, SUPERVISE_INTERVAL_MS, SUPERVISE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<JSCSerialSession> open(final String portName, final int baudRate)
+    {
+        return CompletableFuture.supplyAsync(() ->
+        {
+            try
+            {
+                return new JSCSerialHandler(portName, baudRate);
+            }
+            catch (IOException ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        }, pool).thenCompose(this::open);
+    }
+
+    /*
+     * Completes once the board has announced "@STARTED".
+     */
+    public CompletableFuture<JSCSerialSession> open(final SerialTransport transport)
+    {
+        final String portName = transport.getPortName();
+
+        return CompletableFuture.supplyAsync(() ->
+        {
+            if (boards.containsKey(portName))
+            {
+                throw new IllegalStateException(String.format("Port '%s' is already open.", portName));
+            }
+
+            try
+            {
+                return new JSCSerialSession(transport);
+            }
+            catch (IOException ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        }, pool).thenCompose(session -> session.getStarted().handle((started, ex) ->
+        {
+            if (ex != null)
+            {
+                session.terminate();
+                throw new RuntimeException(String.format("No startup message from '%s'.", portName), ex);
+            }
+
+            if (boards.putIfAbsent(portName, new Board(session)) != null)
+            {
+                session.terminate();
+                throw new IllegalStateException(String.format("Port '%s' is already open.", portName));
+            }
+            return session;
+        }));
+    }
+
+    /*
+     * Queues a command for one board. It starts once every command
+     * previously queued for that board has completed.
+     */
+    public <T> CompletableFuture<T> submit(final String portName, final Function<JSCSerialSession, CompletableFuture<T>> command)
+    {
+        final Board board = boards.get(portName);
+        if (board == null)
+        {
+            final CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException(String.format("Port '%s' is not open.", portName)));
+            return failed;
+        }
+        return board.enqueue(command);
+    }
+
+    /*
+     * Queues the command on every open board; the result holds each board's
+     * outcome and completes once all boards have finished.
+     */
+    public <T> CompletableFuture<Map<String, BoardResult<T>>> broadcast(final Function<JSCSerialSession, CompletableFuture<T>> command)
+    {
+        final List<String> portNames = new ArrayList<>(boards.keySet());
+        final List<CompletableFuture<BoardResult<T>>> results = new ArrayList<>(portNames.size());
+
+        for (String portName : portNames)
+        {
+            results.add(submit(portName, command).handle((value, ex) -> new BoardResult<>(portName, value, ex)));
+        }
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).thenApply(done ->
+        {
+            final Map<String, BoardResult<T>> aggregated = new TreeMap<>();
+            for (CompletableFuture<BoardResult<T>> result : results)
+            {
+                final BoardResult<T> boardResult = result.join();
+                aggregated.put(boardResult.getPortName(), boardResult);
+            }
+            return aggregated;
+        });
+    }
+
+    public CompletableFuture<Map<String, BoardResult<String>>> pingAll(final long timeoutMS)
+    {
+        return broadcast(session -> session.pingAsync(timeoutMS));
+    }
+
+    public CompletableFuture<Map<String, BoardResult<String>>> blinkAll(final int numBlinks, final long timeoutMS)
+    {
+        return broadcast(session -> session.blinkLEDAsync(numBlinks, timeoutMS));
+    }
+
+    public JSCSerialSession getSession(final String portName)
+    {
+        final Board board = boards.get(portName);
+        return board == null ? null : board.session;
+    }
+
+    public Set<String> getPortNames()
+    {
+        return new TreeSet<>(boards.keySet());
+    }
+
+    public int getBoardCount()
+    {
+        return boards.size();
+    }
+
+    public void close(final String portName)
+    {
+        final Board board = boards.remove(portName);
+        if (board != null)
+        {
+            board.session.terminate();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        for (String portName : getPortNames())
+        {
+            close(portName);
+        }
+        pool.shutdownNow();
+    }
+
+    // Drops boards whose port has gone away so their pending commands fail instead of hanging.
+    private void supervise()
+    {
+        for (Map.Entry<String, Board> entry : boards.entrySet())
+        {
+            if (!entry.getValue().session.isReady())
+            {
+                System.err.println(String.format("Lost connection to '%s'.", entry.getKey()));
+                close(entry.getKey());
+            }
+        }
+    }
+
+    private class Board
+    {
+        private final JSCSerialSession session;
+        private CompletableFuture<?> tail = CompletableFuture.completedFuture(null);
+
+        private Board(final JSCSerialSession session)
+        {
+            this.session = session;
+        }
+
+        private synchronized <T> CompletableFuture<T> enqueue(final Function<JSCSerialSession, CompletableFuture<T>> command)
+        {
+            final CompletableFuture<T> result = tail
+                    .handle((value, ex) -> null)
+                    .thenComposeAsync(ignored -> command.apply(session), pool);
+            tail = result;
+            return result;
+        }
+    }
+
+    public static class BoardResult<T>
+    {
+        private final String portName;
+        private final T value;
+        private final Throwable error;
+
+        private BoardResult(final String portName, final T value, final Throwable error)
+        {
+            this.portName = portName;
+            this.value = value;
+            this.error = error;
+        }
+
+        public String getPortName()
+        {
+            return portName;
+        }
+
+        public T getValue()
+        {
+            return value;
+        }
+
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        public boolean isSuccess()
+        {
+            return error == null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return isSuccess() ? String.valueOf(value) : "ERROR: " + error.getMessage();
+        }
+    }
+}
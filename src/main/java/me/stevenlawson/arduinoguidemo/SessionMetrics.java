@@ -0,0 +1,291 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*
+ * Per-command round-trip metrics for one session. Each command type gets
+ * its own CommandMetrics, published as an MBean named
+ * me.stevenlawson.arduinoguidemo:type=CommandMetrics,port=<port>,command=<command>
+ * The session's inbound queue counters are published alongside as
+ * me.stevenlawson.arduinoguidemo:type=InboundQueue,port=<port>
+ * its outbound lanes as OutboundLane MBeans, and its LinkMetrics as
+ * me.stevenlawson.arduinoguidemo:type=Link,port=<port>
+ */
+public class SessionMetrics
+{
+    private static final ScheduledExecutorService DUMPER = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "SessionMetrics-dump");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String portName;
+    private final ConcurrentHashMap<String, CommandMetrics> metrics = new ConcurrentHashMap<>();
+    private volatile boolean jmxEnabled = true;
+    private ScheduledFuture<?> dump = null;
+    private MessageRingBuffer inboundQueue = null;
+    private OutboundScheduler outbound = null;
+    private LinkMetrics link = null;
+
+    public SessionMetrics(final String portName)
+    {
+        this.portName = portName;
+    }
+
+    public CommandMetrics forCommand(final String command)
+    {
+        final CommandMetrics existing = metrics.get(command);
+        if (existing != null)
+        {
+            return existing;
+        }
+
+        return metrics.computeIfAbsent(command, key ->
+        {
+            final CommandMetrics created = new CommandMetrics(key);
+            if (jmxEnabled)
+            {
+                register(created);
+            }
+            return created;
+        });
+    }
+
+    public void registerInboundQueue(final MessageRingBuffer queue)
+    {
+        inboundQueue = queue;
+        if (jmxEnabled)
+        {
+            try
+            {
+                registerMBean(queue, inboundQueueName());
+            }
+            catch (JMException ex)
+            {
+                System.err.println("Could not register inbound queue MBean: " + ex.getMessage());
+            }
+        }
+    }
+
+    public void registerOutboundLanes(final OutboundScheduler scheduler)
+    {
+        outbound = scheduler;
+        if (jmxEnabled)
+        {
+            for (OutboundScheduler.Priority priority : OutboundScheduler.Priority.values())
+            {
+                try
+                {
+                    registerMBean(scheduler.getLane(priority), outboundLaneName(priority));
+                }
+                catch (JMException ex)
+                {
+                    System.err.println("Could not register outbound lane MBean: " + ex.getMessage());
+                }
+            }
+        }
+    }
+
+    public void registerLink(final LinkMetrics linkMetrics)
+    {
+        link = linkMetrics;
+        if (jmxEnabled)
+        {
+            try
+            {
+                registerMBean(linkMetrics, linkName());
+            }
+            catch (JMException ex)
+            {
+                System.err.println("Could not register link MBean: " + ex.getMessage());
+            }
+        }
+    }
+
+    // Null until the session has registered it
+    public LinkMetrics getLink()
+    {
+        return link;
+    }
+
+    public Map<String, CommandMetrics> getAll()
+    {
+        return new TreeMap<>(metrics);
+    }
+
+    public void setJmxEnabled(final boolean jmxEnabled)
+    {
+        this.jmxEnabled = jmxEnabled;
+    }
+
+    public String getReport()
+    {
+        final StringBuilder report = new StringBuilder(String.format("Command latency on %s:%n", portName));
+        for (CommandMetrics commandMetrics : getAll().values())
+        {
+            report.append("  ").append(commandMetrics).append(System.lineSeparator());
+        }
+        if (inboundQueue != null)
+        {
+            report.append(String.format("  inbound queue depth=%d/%d high=%d dropped=%d (%s)%n",
+                    inboundQueue.getDepth(), inboundQueue.getCapacity(), inboundQueue.getHighWaterMark(),
+                    inboundQueue.getDroppedCount(), inboundQueue.getOverflowPolicy()));
+        }
+        if (outbound != null)
+        {
+            report.append(outbound.getReport());
+        }
+        if (link != null)
+        {
+            report.append("  ").append(link).append(System.lineSeparator());
+        }
+        return report.toString();
+    }
+
+    public synchronized void startDump(final PrintStream out, final long periodMS)
+    {
+        stopDump();
+        dump = DUMPER.scheduleAtFixedRate(() -> out.print(getReport()), periodMS, periodMS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopDump()
+    {
+        if (dump != null)
+        {
+            dump.cancel(false);
+            dump = null;
+        }
+    }
+
+    public void close()
+    {
+        stopDump();
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String command : metrics.keySet())
+        {
+            try
+            {
+                final ObjectName name = objectName(command);
+                if (server.isRegistered(name))
+                {
+                    server.unregisterMBean(name);
+                }
+            }
+            catch (JMException ex)
+            {
+            }
+        }
+
+        if (inboundQueue != null)
+        {
+            try
+            {
+                final ObjectName name = inboundQueueName();
+                if (server.isRegistered(name))
+                {
+                    server.unregisterMBean(name);
+                }
+            }
+            catch (JMException ex)
+            {
+            }
+        }
+
+        if (outbound != null)
+        {
+            for (OutboundScheduler.Priority priority : OutboundScheduler.Priority.values())
+            {
+                try
+                {
+                    unregisterMBean(outboundLaneName(priority));
+                }
+                catch (JMException ex)
+                {
+                }
+            }
+        }
+
+        if (link != null)
+        {
+            try
+            {
+                unregisterMBean(linkName());
+            }
+            catch (JMException ex)
+            {
+            }
+        }
+    }
+
+    private void register(final CommandMetrics commandMetrics)
+    {
+        try
+        {
+            registerMBean(commandMetrics, objectName(commandMetrics.getCommand()));
+        }
+        catch (JMException ex)
+        {
+            System.err.println("Could not register command metrics MBean: " + ex.getMessage());
+        }
+    }
+
+    static void registerMBean(final Object mbean, final ObjectName name) throws JMException
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name))
+        {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+    }
+
+    static void unregisterMBean(final ObjectName name)
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            if (server.isRegistered(name))
+            {
+                server.unregisterMBean(name);
+            }
+        }
+        catch (JMException ex)
+        {
+        }
+    }
+
+    private ObjectName inboundQueueName() throws JMException
+    {
+        return new ObjectName(String.format("me.stevenlawson.arduinoguidemo:type=InboundQueue,port=%s", ObjectName.quote(portName)));
+    }
+
+    private ObjectName outboundLaneName(final OutboundScheduler.Priority priority) throws JMException
+    {
+        return new ObjectName(String.format("me.stevenlawson.arduinoguidemo:type=OutboundLane,port=%s,lane=%s",
+                ObjectName.quote(portName), priority));
+    }
+
+    private ObjectName linkName() throws JMException
+    {
+        return new ObjectName(String.format("me.stevenlawson.arduinoguidemo:type=Link,port=%s", ObjectName.quote(portName)));
+    }
+
+    private ObjectName objectName(final String command) throws JMException
+    {
+        return new ObjectName(String.format("me.stevenlawson.arduinoguidemo:type=CommandMetrics,port=%s,command=%s",
+                ObjectName.quote(portName), ObjectName.quote(command)));
+    }
+}
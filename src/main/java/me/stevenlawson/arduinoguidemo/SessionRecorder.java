@@ -0,0 +1,397 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Appends raw serial traffic to memory-mapped log segments. Each record is
+ * [nanos since start: 8][direction: 1][length: 4][bytes], so recording a
+ * read or write is a bounds check and a few puts into the page cache; no
+ * system call is made until a segment fills up and the next one is mapped.
+ *
+ * Segments are named <name>-<start time>-<index>.rec and only the newest
+ * maxSegments of a recorder are kept. forPort() hands every session on a
+ * port the same recorder for the life of the process, however often it
+ * reconnects, and before starting one prunes the oldest segments in the
+ * directory down to DEFAULT_MAX_DIRECTORY_SEGMENTS, so always-on recording
+ * uses bounded disk space across launches too. A segment is unmapped
+ * before it is deleted, as Windows refuses to delete a mapped file; one
+ * that cannot be deleted yet is tried again at the next rotation.
+ * See SessionRecording for the reader.
+ */
+public class SessionRecorder implements AutoCloseable
+{
+    public static final int MAGIC = 0x41474452; // "AGDR"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_HEADER_SIZE = 13;
+
+    // Direction byte; 0 marks the unwritten (zero filled) end of a segment
+    public static final byte END = 0;
+    public static final byte INBOUND = 1;
+    public static final byte OUTBOUND = 2;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+    public static final int DEFAULT_MAX_DIRECTORY_SEGMENTS = 4 * DEFAULT_MAX_SEGMENTS;
+    public static final String SEGMENT_SUFFIX = ".rec";
+
+    public static final String RECORD_PROPERTY = "arduinoguidemo.record";
+    public static final String RECORD_DIR_PROPERTY = "arduinoguidemo.recordDir";
+
+    // forPort()'s recorders by directory and port, closed when the process exits
+    private static final Map<String, SessionRecorder> SHARED = new HashMap<>();
+    private static boolean shutdownHookAdded = false;
+
+    private final Path directory;
+    private final String baseName;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final ArrayDeque<Path> segments = new ArrayDeque<>();
+    private FileChannel channel = null;
+    private MappedByteBuffer buffer = null;
+    private int segmentIndex = 0;
+    private long records = 0;
+    private long droppedRecords = 0;
+    private boolean closed = false;
+
+    public SessionRecorder(final Path directory, final String name) throws IOException
+    {
+        this(directory, name, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    public SessionRecorder(final Path directory, final String name, final int segmentSize, final int maxSegments) throws IOException
+    {
+        this.directory = directory;
+        this.baseName = name.replaceAll("[^A-Za-z0-9_.-]", "_") + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(startMillis));
+        this.segmentSize = Math.max(segmentSize, HEADER_SIZE + RECORD_HEADER_SIZE + 256);
+        this.maxSegments = Math.max(1, maxSegments);
+
+        Files.createDirectories(directory);
+        openSegment();
+    }
+
+    /*
+     * Returns the recorder for sessions on the given port, or null if
+     * recording has been switched off with -Darduinoguidemo.record=false.
+     * Segments go to -Darduinoguidemo.recordDir, by default
+     * ~/.arduinoguidemo/recordings. The recorder is shared by every session
+     * on the port and stays open until the process exits, so callers must
+     * not close it.
+     */
+    public static SessionRecorder forPort(final String portName)
+    {
+        if (!Boolean.parseBoolean(System.getProperty(RECORD_PROPERTY, "true")))
+        {
+            return null;
+        }
+
+        final String dir = System.getProperty(RECORD_DIR_PROPERTY);
+        final Path directory = dir != null
+                ? Paths.get(dir)
+                : Paths.get(System.getProperty("user.home"), ".arduinoguidemo", "recordings");
+        final String key = directory.toAbsolutePath() + "|" + portName;
+        synchronized (SHARED)
+        {
+            final SessionRecorder shared = SHARED.get(key);
+            if (shared != null && !shared.isClosed())
+            {
+                return shared;
+            }
+
+            try
+            {
+                prune(directory, DEFAULT_MAX_DIRECTORY_SEGMENTS - DEFAULT_MAX_SEGMENTS);
+                final SessionRecorder recorder = new SessionRecorder(directory, portName);
+                SHARED.put(key, recorder);
+                if (!shutdownHookAdded)
+                {
+                    shutdownHookAdded = true;
+                    Runtime.getRuntime().addShutdownHook(new Thread(SessionRecorder::closeShared, "SessionRecorder-close"));
+                }
+                return recorder;
+            }
+            catch (IOException ex)
+            {
+                System.err.println("Could not start session recorder: " + ex.getMessage());
+                return null;
+            }
+        }
+    }
+
+    private static void closeShared()
+    {
+        synchronized (SHARED)
+        {
+            for (SessionRecorder recorder : SHARED.values())
+            {
+                recorder.close();
+            }
+            SHARED.clear();
+        }
+    }
+
+    /*
+     * Deletes the oldest segments in the directory, by modification time,
+     * until at most keep are left; segments of open recorders are never
+     * deleted. Returns the number deleted.
+     */
+    public static int prune(final Path directory, final int keep) throws IOException
+    {
+        if (!Files.isDirectory(directory))
+        {
+            return 0;
+        }
+
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX))
+        {
+            for (Path file : stream)
+            {
+                files.add(file);
+            }
+        }
+
+        final Map<Path, Long> modified = new HashMap<>();
+        for (Path file : files)
+        {
+            modified.put(file, Files.getLastModifiedTime(file).toMillis());
+        }
+        files.sort((a, b) -> Long.compare(modified.get(a), modified.get(b)));
+
+        final List<Path> open = new ArrayList<>();
+        synchronized (SHARED)
+        {
+            for (SessionRecorder recorder : SHARED.values())
+            {
+                open.addAll(recorder.getSegments());
+            }
+        }
+
+        int deleted = 0;
+        for (int i = 0; i < files.size() - keep; i++)
+        {
+            final Path file = files.get(i);
+            if (open.contains(file))
+            {
+                continue;
+            }
+            try
+            {
+                Files.deleteIfExists(file);
+                deleted++;
+            }
+            catch (IOException ex)
+            {
+                // In use, e.g. by another instance on Windows
+            }
+        }
+        return deleted;
+    }
+
+    public synchronized void record(final byte direction, final byte[] data, final int offset, final int length)
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        final int size = RECORD_HEADER_SIZE + length;
+        if (buffer.remaining() < size)
+        {
+            if (size > segmentSize - HEADER_SIZE || !rotate())
+            {
+                droppedRecords++;
+                return;
+            }
+        }
+
+        final int position = buffer.position();
+        buffer.putLong(position, System.nanoTime() - startNanos);
+        buffer.putInt(position + 9, length);
+        buffer.position(position + RECORD_HEADER_SIZE);
+        buffer.put(data, offset, length);
+        // The direction byte goes in last; until then the reader sees END here
+        buffer.put(position + 8, direction);
+        records++;
+    }
+
+    public void recordInbound(final byte[] data, final int length)
+    {
+        record(INBOUND, data, 0, length);
+    }
+
+    public void recordOutbound(final byte[] data, final int length)
+    {
+        record(OUTBOUND, data, 0, length);
+    }
+
+    public synchronized long getRecordCount()
+    {
+        return records;
+    }
+
+    public synchronized long getDroppedRecordCount()
+    {
+        return droppedRecords;
+    }
+
+    public synchronized Path getCurrentSegment()
+    {
+        return segments.peekLast();
+    }
+
+    // Segments written and not yet deleted, oldest first
+    public synchronized List<Path> getSegments()
+    {
+        return new ArrayList<>(segments);
+    }
+
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    public String getBaseName()
+    {
+        return baseName;
+    }
+
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        closeSegment();
+    }
+
+    private boolean rotate()
+    {
+        closeSegment();
+        segmentIndex++;
+        try
+        {
+            openSegment();
+            return true;
+        }
+        catch (IOException ex)
+        {
+            System.err.println("Session recorder stopped: " + ex.getMessage());
+            closed = true;
+            return false;
+        }
+    }
+
+    private void openSegment() throws IOException
+    {
+        final Path path = directory.resolve(String.format("%s-%04d%s", baseName, segmentIndex, SEGMENT_SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(segmentIndex);
+        buffer.putInt(0);
+        buffer.putLong(startMillis);
+
+        segments.addLast(path);
+        while (segments.size() > maxSegments)
+        {
+            try
+            {
+                Files.deleteIfExists(segments.peekFirst());
+                segments.removeFirst();
+            }
+            catch (IOException ex)
+            {
+                // Kept, and tried again at the next rotation
+                break;
+            }
+        }
+    }
+
+    private void closeSegment()
+    {
+        // Not forced here; the page cache survives a crash of the process, and syncing would stall the caller
+        if (buffer != null)
+        {
+            unmap(buffer);
+            buffer = null;
+        }
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ex)
+            {
+            }
+            channel = null;
+        }
+    }
+
+    /*
+     * Releases a mapping now rather than when the buffer is collected, so
+     * its file can be deleted on Windows. The buffer must not be used again.
+     * Falls back to leaving it to the collector where neither the Java 9+
+     * nor the Java 8 internal API is reachable.
+     */
+    private static void unmap(final MappedByteBuffer mapped)
+    {
+        try
+        {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), mapped);
+            return;
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+            // Java 8
+        }
+
+        try
+        {
+            final Method cleanerMethod = mapped.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(mapped);
+            if (cleaner != null)
+            {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException ex)
+        {
+        }
+    }
+}
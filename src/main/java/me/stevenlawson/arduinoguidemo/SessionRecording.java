@@ -0,0 +1,206 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/*
+ * Reads segments written by SessionRecorder. Run as a main class to dump a
+ * recording as text:
+ *
+ *   java -cp ... me.stevenlawson.arduinoguidemo.SessionRecording <segment or directory>
+ */
+public class SessionRecording
+{
+    @FunctionalInterface
+    public interface RecordVisitor
+    {
+        // data is reused between calls, copy it to keep it
+        public abstract void record(final long nanos, final byte direction, final byte[] data, final int length);
+    }
+
+    public static long getStartMillis(final Path segment) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ))
+        {
+            final ByteBuffer header = ByteBuffer.allocate(SessionRecorder.HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            checkHeader(segment, header);
+            return header.getLong(16);
+        }
+    }
+
+    public static void read(final List<Path> segments, final RecordVisitor visitor) throws IOException
+    {
+        for (Path segment : segments)
+        {
+            read(segment, visitor);
+        }
+    }
+
+    public static void read(final Path segment, final RecordVisitor visitor) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ))
+        {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            checkHeader(segment, buffer);
+
+            byte[] data = new byte[256];
+            int position = SessionRecorder.HEADER_SIZE;
+            while (position + SessionRecorder.RECORD_HEADER_SIZE <= buffer.limit())
+            {
+                final byte direction = buffer.get(position + 8);
+                if (direction == SessionRecorder.END)
+                {
+                    break;
+                }
+
+                final long nanos = buffer.getLong(position);
+                final int length = buffer.getInt(position + 9);
+                final int start = position + SessionRecorder.RECORD_HEADER_SIZE;
+                if (length < 0 || start + length > buffer.limit())
+                {
+                    throw new IOException(String.format("Corrupt record at offset %d in '%s'.", position, segment));
+                }
+
+                if (length > data.length)
+                {
+                    data = new byte[Math.max(length, data.length * 2)];
+                }
+                buffer.position(start);
+                buffer.get(data, 0, length);
+                visitor.record(nanos, direction, data, length);
+
+                position = start + length;
+            }
+        }
+    }
+
+    /*
+     * Returns every segment of the recording that the given segment belongs
+     * to, in order. For a directory, returns the segments of the most recent
+     * recording in it.
+     */
+    public static List<Path> listSegments(final Path path) throws IOException
+    {
+        final Path directory;
+        final String baseName;
+        if (Files.isDirectory(path))
+        {
+            directory = path;
+            Path newest = null;
+            for (Path segment : list(directory, ""))
+            {
+                if (newest == null || Files.getLastModifiedTime(segment).compareTo(Files.getLastModifiedTime(newest)) > 0)
+                {
+                    newest = segment;
+                }
+            }
+            if (newest == null)
+            {
+                return Collections.emptyList();
+            }
+            baseName = baseNameOf(newest);
+        }
+        else
+        {
+            directory = path.toAbsolutePath().getParent();
+            baseName = baseNameOf(path);
+        }
+        return list(directory, baseName + "-");
+    }
+
+    public static void main(final String[] args) throws IOException
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: SessionRecording <segment file or directory>");
+            System.exit(1);
+        }
+
+        final List<Path> segments = listSegments(Paths.get(args[0]));
+        if (segments.isEmpty())
+        {
+            System.err.println("No recording found at " + args[0]);
+            System.exit(1);
+        }
+
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        System.out.printf("Recording started %s, %d segment(s)%n", format.format(new Date(getStartMillis(segments.get(0)))), segments.size());
+        read(segments, (nanos, direction, data, length) -> System.out.printf("%14.6f ms %s %s%n",
+                nanos / 1_000_000.0,
+                direction == SessionRecorder.INBOUND ? "RX" : "TX",
+                escape(data, length)));
+    }
+
+    private static String escape(final byte[] data, final int length)
+    {
+        final StringBuilder text = new StringBuilder(length + 8);
+        for (int i = 0; i < length; i++)
+        {
+            final int b = data[i] & 0xFF;
+            if (b == '\n')
+            {
+                text.append("\\n");
+            }
+            else if (b == '\r')
+            {
+                text.append("\\r");
+            }
+            else if (b < 0x20 || b >= 0x7F || b == '\\')
+            {
+                text.append(String.format("\\x%02X", b));
+            }
+            else
+            {
+                text.append((char) b);
+            }
+        }
+        return text.toString();
+    }
+
+    private static List<Path> list(final Path directory, final String prefix) throws IOException
+    {
+        final List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.rec"))
+        {
+            for (Path entry : stream)
+            {
+                if (entry.getFileName().toString().startsWith(prefix))
+                {
+                    segments.add(entry);
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static String baseNameOf(final Path segment)
+    {
+        // <name>-<yyyyMMdd>-<HHmmss>-<index>.rec
+        final String fileName = segment.getFileName().toString();
+        return fileName.substring(0, fileName.lastIndexOf('-'));
+    }
+
+    private static void checkHeader(final Path segment, final ByteBuffer buffer) throws IOException
+    {
+        if (buffer.limit() < SessionRecorder.HEADER_SIZE
+                || buffer.getInt(0) != SessionRecorder.MAGIC
+                || buffer.getInt(4) != SessionRecorder.VERSION)
+        {
+            throw new IOException(String.format("'%s' is not a session recording.", segment));
+        }
+    }
+}
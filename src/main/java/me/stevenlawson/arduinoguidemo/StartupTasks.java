@@ -0,0 +1,72 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/*
+ * The slow parts of starting the GUI that the window does not need in
+ * order to paint: loading jSerialComm's native library and enumerating
+ * the ports, which the cached port lookup needs, and reading the version
+ * for the title. start() runs each on its own daemon thread as the very
+ * first thing in main(), so they overlap one another and Swing's own
+ * startup; the window fills their results in as they complete. By the
+ * time Connect is pressed the native library is normally loaded, which
+ * takes it off the time to connect too.
+ */
+public class StartupTasks
+{
+    private final CompletableFuture<Map<String, String>> ports;
+    private final CompletableFuture<String> versionInfo;
+
+    private StartupTasks()
+    {
+        ports = background("StartupTasks-ports", () ->
+        {
+            final Map<String, String> descriptions = JSCSerialHandler.getCommPortDescriptions();
+            StartupTimer.mark("ports enumerated");
+            return descriptions;
+        });
+        versionInfo = background("StartupTasks-version", () ->
+        {
+            final String version = ArduinoGUIDemo.getVersionInfo();
+            StartupTimer.mark("version read");
+            return version;
+        });
+    }
+
+    public static StartupTasks start()
+    {
+        return new StartupTasks();
+    }
+
+    // System port name -> descriptive name, as JSCSerialHandler.getCommPortDescriptions()
+    public CompletableFuture<Map<String, String>> getPorts()
+    {
+        return ports;
+    }
+
+    public CompletableFuture<String> getVersionInfo()
+    {
+        return versionInfo;
+    }
+
+    private static <T> CompletableFuture<T> background(final String name, final Supplier<T> task)
+    {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Thread thread = new Thread(() ->
+        {
+            try
+            {
+                future.complete(task.get());
+            }
+            catch (Throwable ex)
+            {
+                future.completeExceptionally(ex);
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+}
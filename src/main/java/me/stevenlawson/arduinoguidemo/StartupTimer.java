@@ -0,0 +1,38 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Startup milestones such as the first paint of the window and the first
+ * connection, printed with the time since the JVM started when run with
+ * -Darduinoguidemo.startupTrace=true:
+ *
+ *   [startup]    512 ms  window painted
+ *
+ * Each milestone is printed the first time it is reached only. The JVM's
+ * start time is looked up only when tracing, as the management classes
+ * would otherwise add to the startup being measured.
+ */
+public class StartupTimer
+{
+    public static final String TRACE_PROPERTY = "arduinoguidemo.startupTrace";
+
+    private static final boolean ENABLED = Boolean.getBoolean(TRACE_PROPERTY);
+    private static final long JVM_START_MILLIS = ENABLED ? ManagementFactory.getRuntimeMXBean().getStartTime() : 0;
+    private static final Set<String> REACHED = ConcurrentHashMap.newKeySet();
+
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    public static void mark(final String milestone)
+    {
+        if (ENABLED && REACHED.add(milestone))
+        {
+            System.out.printf("[startup] %6d ms  %s%n", System.currentTimeMillis() - JVM_START_MILLIS, milestone);
+        }
+    }
+}
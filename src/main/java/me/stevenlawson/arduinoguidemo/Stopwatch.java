@@ -6,12 +6,17 @@ public class Stopwatch
 
     public Stopwatch start()
     {
-        start = System.currentTimeMillis();
+        start = System.nanoTime();
         return this;
     }
 
     public long elapsed()
     {
-        return System.currentTimeMillis() - start;
+        return (System.nanoTime() - start) / 1_000_000L;
+    }
+
+    public long elapsedNanos()
+    {
+        return System.nanoTime() - start;
     }
 }
@@ -0,0 +1,78 @@
+package me.stevenlawson.arduinoguidemo;
+
+/*
+ * Fixed-size ring of (timestamp, value) samples held in primitive arrays.
+ * One thread appends; any thread may copy out a range. The write counter
+ * is published after the sample, and a reader re-checks it after copying,
+ * so samples overwritten during the copy are detected and discarded.
+ */
+public class TelemetryBuffer
+{
+    private final long[] times;
+    private final int[] values;
+    private final int mask;
+    private volatile long written = 0;
+
+    public TelemetryBuffer(final int requestedCapacity)
+    {
+        int size = 16;
+        while (size < requestedCapacity)
+        {
+            size <<= 1;
+        }
+        this.times = new long[size];
+        this.values = new int[size];
+        this.mask = size - 1;
+    }
+
+    // Single writer only
+    public void append(final long time, final int value)
+    {
+        final long sequence = written;
+        final int index = (int) (sequence & mask);
+        times[index] = time;
+        values[index] = value;
+        written = sequence + 1;
+    }
+
+    public int getCapacity()
+    {
+        return times.length;
+    }
+
+    // Total number of samples ever appended; the newest sample has sequence getWriteCount() - 1
+    public long getWriteCount()
+    {
+        return written;
+    }
+
+    /*
+     * Copies the newest samples, at most timesOut.length of them, oldest
+     * first. Returns the number copied.
+     */
+    public int copyLatest(final long[] timesOut, final int[] valuesOut)
+    {
+        final long end = written;
+        final long start = Math.max(0, end - Math.min(timesOut.length, times.length));
+
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++)
+        {
+            final int index = (int) (sequence & mask);
+            timesOut[count] = times[index];
+            valuesOut[count] = values[index];
+            count++;
+        }
+
+        // Anything the writer lapped while we were copying is stale, including the slot it may be writing now
+        final long overwritten = written - times.length + 1;
+        if (overwritten > start)
+        {
+            final int stale = (int) Math.min(count, overwritten - start);
+            System.arraycopy(timesOut, stale, timesOut, 0, count - stale);
+            System.arraycopy(valuesOut, stale, valuesOut, 0, count - stale);
+            count -= stale;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,231 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+/*
+ * Scrolling chart of the newest windowMicros of a TelemetryBuffer. Copying
+ * and min/max decimation happen on a background render thread at a capped
+ * frame rate; the EDT only receives the finished per-column ranges and
+ * draws at most one vertical line per pixel column. A new frame is not
+ * handed over while the previous one is still waiting for the EDT, so a
+ * busy EDT sees fewer frames instead of a growing backlog.
+ */
+public class TelemetryChart extends JComponent
+{
+    public static final int DEFAULT_FPS = 30;
+
+    private static final ScheduledExecutorService RENDERER = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "TelemetryChart-render");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final TelemetryBuffer buffer;
+    private final long windowMicros;
+    private volatile int minValue = 0;
+    private volatile int maxValue = 1023;
+
+    // Render thread only
+    private final long[] times;
+    private final int[] values;
+    private long lastWriteCount = 0;
+    private long lastRenderNanos = 0;
+    private int lastColumns = 0;
+    private double samplesPerSecond = 0;
+
+    private final AtomicBoolean framePending = new AtomicBoolean(false);
+    private Frame frame = null;
+    private ScheduledFuture<?> renderTask = null;
+
+    private final AtomicLong framesRendered = new AtomicLong(0);
+    private final AtomicLong framesSkipped = new AtomicLong(0);
+    private final AtomicLong framesPainted = new AtomicLong(0);
+    private final AtomicLong renderNanos = new AtomicLong(0);
+    private final AtomicLong paintNanos = new AtomicLong(0);
+
+    public TelemetryChart(final TelemetryBuffer buffer, final long windowMS)
+    {
+        this.buffer = buffer;
+        this.windowMicros = windowMS * 1000;
+        this.times = new long[buffer.getCapacity()];
+        this.values = new int[buffer.getCapacity()];
+        setPreferredSize(new Dimension(480, 160));
+        setOpaque(true);
+    }
+
+    public void setValueRange(final int minValue, final int maxValue)
+    {
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+    }
+
+    public synchronized void start(final int fps)
+    {
+        stop();
+        final long periodNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, fps);
+        renderTask = RENDERER.scheduleAtFixedRate(this::render, 0, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized void stop()
+    {
+        if (renderTask != null)
+        {
+            renderTask.cancel(false);
+            renderTask = null;
+        }
+    }
+
+    private void render()
+    {
+        final int columns = getWidth();
+        if (columns <= 0)
+        {
+            return;
+        }
+
+        if (framePending.get())
+        {
+            framesSkipped.incrementAndGet();
+            return;
+        }
+
+        final long start = System.nanoTime();
+
+        final long writeCount = buffer.getWriteCount();
+        final double previousRate = samplesPerSecond;
+        if (lastRenderNanos != 0)
+        {
+            samplesPerSecond = (writeCount - lastWriteCount) * 1e9 / (start - lastRenderNanos);
+        }
+        final boolean idle = writeCount == lastWriteCount && columns == lastColumns && previousRate == 0;
+        lastWriteCount = writeCount;
+        lastRenderNanos = start;
+        lastColumns = columns;
+        if (idle)
+        {
+            // Nothing new to show, leave the EDT alone
+            return;
+        }
+
+        final int count = buffer.copyLatest(times, values);
+        final long endTime = count > 0 ? times[count - 1] + 1 : 0;
+        final Frame next = new Frame(columns, samplesPerSecond);
+        MinMaxDecimator.decimate(times, values, count, endTime - windowMicros, endTime, next.mins, next.maxs, columns);
+
+        renderNanos.addAndGet(System.nanoTime() - start);
+        framesRendered.incrementAndGet();
+
+        framePending.set(true);
+        SwingUtilities.invokeLater(() ->
+        {
+            frame = next;
+            framePending.set(false);
+            repaint();
+        });
+    }
+
+    @Override
+    protected void paintComponent(final Graphics g)
+    {
+        final long start = System.nanoTime();
+
+        final int width = getWidth();
+        final int height = getHeight();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+
+        final Frame current = frame;
+        if (current != null)
+        {
+            final int low = minValue;
+            final double scale = (height - 1) / (double) Math.max(1, maxValue - low);
+
+            g.setColor(Color.GREEN);
+            int previousMin = MinMaxDecimator.EMPTY;
+            int previousMax = MinMaxDecimator.EMPTY;
+            for (int x = 0; x < current.columns && x < width; x++)
+            {
+                int min = current.mins[x];
+                int max = current.maxs[x];
+                if (min == MinMaxDecimator.EMPTY)
+                {
+                    previousMin = MinMaxDecimator.EMPTY;
+                    continue;
+                }
+
+                final int nextMin = min;
+                final int nextMax = max;
+                if (previousMin != MinMaxDecimator.EMPTY)
+                {
+                    // Stretch towards the previous column so the trace stays connected
+                    min = Math.min(min, previousMax);
+                    max = Math.max(max, previousMin);
+                }
+                g.drawLine(x, height - 1 - (int) ((min - low) * scale), x, height - 1 - (int) ((max - low) * scale));
+
+                previousMin = nextMin;
+                previousMax = nextMax;
+            }
+
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawString(String.format("%.0f samples/s", current.samplesPerSecond), 4, 14);
+        }
+
+        paintNanos.addAndGet(System.nanoTime() - start);
+        framesPainted.incrementAndGet();
+    }
+
+    public long getFramesRendered()
+    {
+        return framesRendered.get();
+    }
+
+    public long getFramesSkipped()
+    {
+        return framesSkipped.get();
+    }
+
+    public long getFramesPainted()
+    {
+        return framesPainted.get();
+    }
+
+    // Time spent copying and decimating, off the EDT
+    public long getRenderNanos()
+    {
+        return renderNanos.get();
+    }
+
+    // Time spent in paintComponent() on the EDT
+    public long getPaintNanos()
+    {
+        return paintNanos.get();
+    }
+
+    private static class Frame
+    {
+        private final int columns;
+        private final int[] mins;
+        private final int[] maxs;
+        private final double samplesPerSecond;
+
+        private Frame(final int columns, final double samplesPerSecond)
+        {
+            this.columns = columns;
+            this.mins = new int[columns];
+            this.maxs = new int[columns];
+            this.samplesPerSecond = samplesPerSecond;
+        }
+    }
+}
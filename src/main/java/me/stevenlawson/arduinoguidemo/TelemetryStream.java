@@ -0,0 +1,94 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Collects the "@SAMPLE,<micros>,<value>" lines a board sends after
+ * "*STREAM,<rate>" into a TelemetryBuffer. Samples arrive already parsed
+ * on the receive thread; the board's 32-bit micros() is unwrapped into a
+ * continuous 64-bit timestamp.
+ */
+public class TelemetryStream implements AutoCloseable
+{
+    public static final String SAMPLE_TOKEN = "@SAMPLE";
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final JSCSerialSession session;
+    private final TelemetryBuffer buffer;
+    private final MessageRouter.Subscription subscription;
+    private final Message scratch = new Message();
+    private long lastRawMicros = -1;
+    private long micros = 0;
+    private volatile long malformed = 0;
+
+    public TelemetryStream(final JSCSerialSession session)
+    {
+        this(session, new TelemetryBuffer(DEFAULT_CAPACITY));
+    }
+
+    public TelemetryStream(final JSCSerialSession session, final TelemetryBuffer buffer)
+    {
+        this.session = session;
+        this.buffer = buffer;
+        this.subscription = session.subscribe(Message.Type.SAMPLE, this::accept);
+    }
+
+    public CompletableFuture<String> start(final int samplesPerSecond, final long timeoutMS)
+    {
+        return session.streamAsync(samplesPerSecond, timeoutMS);
+    }
+
+    public CompletableFuture<String> stop(final long timeoutMS)
+    {
+        return session.streamAsync(0, timeoutMS);
+    }
+
+    public TelemetryBuffer getBuffer()
+    {
+        return buffer;
+    }
+
+    public long getSampleCount()
+    {
+        return buffer.getWriteCount();
+    }
+
+    public long getMalformedCount()
+    {
+        return malformed;
+    }
+
+    // For lines that did not come through the session, e.g. from a recording
+    public void accept(final String line)
+    {
+        accept(scratch.parse(line));
+    }
+
+    public void accept(final Message sample)
+    {
+        if (sample.getType() != Message.Type.SAMPLE || sample.getTokenCount() != 3
+                || !sample.isNumber(1) || !sample.isNumber(2))
+        {
+            malformed++;
+            return;
+        }
+
+        final long rawMicros = sample.getLong(1);
+        final long value = sample.getLong(2);
+        if (rawMicros < 0 || value < 0 || value > Integer.MAX_VALUE)
+        {
+            malformed++;
+            return;
+        }
+
+        micros = lastRawMicros < 0 ? rawMicros : micros + ((rawMicros - lastRawMicros) & 0xFFFFFFFFL);
+        lastRawMicros = rawMicros;
+        buffer.append(micros, (int) value);
+    }
+
+    @Override
+    public void close()
+    {
+        subscription.close();
+    }
+}
@@ -0,0 +1,169 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import javax.swing.AbstractListModel;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+
+/*
+ * Live view of a TrafficLog. The list model is a window onto the log's
+ * ring rather than a copy, and every row has the same prototype size, so
+ * JList only lays out and paints the rows on screen: memory and repaint
+ * time stay constant however many lines have gone by.
+ *
+ * The model catches up with the log on a Swing timer at a capped frame
+ * rate. Swing coalesces timer events, so a flood of inbound lines never
+ * queues more than one refresh on the EDT.
+ */
+public class TrafficConsole extends JPanel
+{
+    public static final int DEFAULT_FPS = 20;
+
+    private static final String PROTOTYPE_ROW = "00:00:00.000 < @ERROR,INVALID_COMMAND,*XXXXXXXXXXXXXXXXXXXXXXXX";
+
+    private final TrafficLog log;
+    private final TrafficListModel model;
+    private final JList<String> list;
+    private final JCheckBox chkFollow = new JCheckBox("Follow", true);
+    private final JLabel lblStatus = new JLabel(" ");
+    private final Timer refreshTimer;
+
+    public TrafficConsole(final TrafficLog log, final Font font)
+    {
+        super(new BorderLayout());
+        this.log = log;
+        this.model = new TrafficListModel(log);
+        this.list = new JList<>(model);
+
+        list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, font.getSize() - 4));
+        list.setPrototypeCellValue(PROTOTYPE_ROW);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(8);
+
+        final JButton btnClear = new JButton("Clear");
+        btnClear.addActionListener(event -> model.clear());
+        chkFollow.setFont(font);
+        btnClear.setFont(font);
+        lblStatus.setFont(font);
+
+        final JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.add(chkFollow);
+        controls.add(btnClear);
+        controls.add(lblStatus);
+
+        setBorder(BorderFactory.createEmptyBorder(0, 6, 10, 10));
+        add(controls, BorderLayout.NORTH);
+        add(new JScrollPane(list), BorderLayout.CENTER);
+
+        refreshTimer = new Timer(1000 / DEFAULT_FPS, event -> refresh());
+        refreshTimer.setCoalesce(true);
+    }
+
+    public TrafficLog getLog()
+    {
+        return log;
+    }
+
+    public void start()
+    {
+        refreshTimer.start();
+    }
+
+    public void stop()
+    {
+        refreshTimer.stop();
+    }
+
+    // EDT only
+    public void setStatus(final String status)
+    {
+        lblStatus.setText(status);
+    }
+
+    // EDT only, normally from the refresh timer
+    void refresh()
+    {
+        if (model.refresh() && chkFollow.isSelected() && model.getSize() > 0)
+        {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+
+    /*
+     * Rows [0, getSize()) are log sequences [first, end). Both bounds only
+     * move on the EDT, in refresh() and clear().
+     */
+    private static class TrafficListModel extends AbstractListModel<String>
+    {
+        private final TrafficLog log;
+        private long first = 0;
+        private long end = 0;
+
+        private TrafficListModel(final TrafficLog log)
+        {
+            this.log = log;
+        }
+
+        @Override
+        public int getSize()
+        {
+            return (int) (end - first);
+        }
+
+        @Override
+        public String getElementAt(final int index)
+        {
+            final String row = log.format(first + index);
+            // Lapped by the writer since the last refresh; the next one removes the row
+            return row != null ? row : "";
+        }
+
+        private boolean refresh()
+        {
+            final long newEnd = log.getWriteCount();
+            if (newEnd == end)
+            {
+                return false;
+            }
+
+            // One slot short of the capacity, the one the writer may be filling
+            final long newFirst = Math.max(first, newEnd - log.getCapacity() + 1);
+            final int removed = (int) Math.min(newFirst - first, getSize());
+            if (removed > 0)
+            {
+                first += removed;
+                fireIntervalRemoved(this, 0, removed - 1);
+            }
+            if (first < newFirst)
+            {
+                // Everything shown was overwritten
+                first = newFirst;
+                end = newFirst;
+            }
+
+            final int added = (int) (newEnd - end);
+            end = newEnd;
+            fireIntervalAdded(this, getSize() - added, getSize() - 1);
+            return true;
+        }
+
+        private void clear()
+        {
+            final int size = getSize();
+            first = end;
+            if (size > 0)
+            {
+                fireIntervalRemoved(this, 0, size - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/*
+ * Fixed-capacity ring of the lines sent to and received from a board, the
+ * backing store of TrafficConsole. The oldest lines are overwritten, so a
+ * session left running for hours costs the same memory as a short one.
+ *
+ * Lines are appended from the receive thread and any sending thread.
+ * Readers address lines by sequence number without locking; the write
+ * counter is re-checked after reading, like TelemetryBuffer, and a line
+ * overwritten in the meantime reads as null.
+ */
+public class TrafficLog
+{
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    public enum Direction
+    {
+        SENT,
+        RECEIVED
+    }
+
+    private final String[] lines;
+    private final long[] times;
+    private final Direction[] directions;
+    private final int mask;
+    private volatile long written = 0;
+
+    public TrafficLog(final int requestedCapacity)
+    {
+        int size = 16;
+        while (size < requestedCapacity)
+        {
+            size <<= 1;
+        }
+        this.lines = new String[size];
+        this.times = new long[size];
+        this.directions = new Direction[size];
+        this.mask = size - 1;
+    }
+
+    public synchronized void append(final Direction direction, final String line)
+    {
+        final long sequence = written;
+        final int index = (int) (sequence & mask);
+        lines[index] = line;
+        times[index] = System.currentTimeMillis();
+        directions[index] = direction;
+        written = sequence + 1;
+    }
+
+    public int getCapacity()
+    {
+        return lines.length;
+    }
+
+    // Total number of lines ever appended; the newest line has sequence getWriteCount() - 1
+    public long getWriteCount()
+    {
+        return written;
+    }
+
+    public String getLine(final long sequence)
+    {
+        final String line = lines[(int) (sequence & mask)];
+        return isAvailable(sequence) ? line : null;
+    }
+
+    // "12:34:56.789 > *PING" or "12:34:56.801 < @PONG", or null if overwritten
+    public String format(final long sequence)
+    {
+        final int index = (int) (sequence & mask);
+        final String line = lines[index];
+        final long time = times[index];
+        final Direction direction = directions[index];
+        if (!isAvailable(sequence))
+        {
+            return null;
+        }
+        return TIME_FORMAT.format(Instant.ofEpochMilli(time)) + (direction == Direction.SENT ? " > " : " < ") + line;
+    }
+
+    // Excludes the slot the writer may be filling right now
+    private boolean isAvailable(final long sequence)
+    {
+        final long end = written;
+        return sequence < end && sequence > end - lines.length;
+    }
+
+    /*
+     * Logs everything the session sends and receives until the returned
+     * tap is closed.
+     */
+    public Tap attach(final JSCSerialSession session)
+    {
+        return new Tap(session.subscribeOutbound(line -> append(Direction.SENT, line)),
+                session.subscribeAll(line -> append(Direction.RECEIVED, line)));
+    }
+
+    public static class Tap implements AutoCloseable
+    {
+        private final MessageRouter.Subscription outbound;
+        private final MessageRouter.Subscription inbound;
+
+        private Tap(final MessageRouter.Subscription outbound, final MessageRouter.Subscription inbound)
+        {
+            this.outbound = outbound;
+            this.inbound = inbound;
+        }
+
+        @Override
+        public void close()
+        {
+            outbound.close();
+            inbound.close();
+        }
+    }
+}
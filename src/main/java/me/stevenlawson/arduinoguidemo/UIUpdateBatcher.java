@@ -0,0 +1,127 @@
+package me.stevenlawson.arduinoguidemo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.SwingUtilities;
+
+/*
+ * Collapses UI updates posted from worker threads into at most one EDT
+ * pass per frame. Updates are keyed, and posting replaces any pending
+ * update with the same key, so a burst of enable/disable flips costs a
+ * single event and only the final state is applied. At most one pass is
+ * ever queued on the EDT, however fast updates arrive.
+ */
+public class UIUpdateBatcher
+{
+    public static final int DEFAULT_FPS = 30;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        final Thread thread = new Thread(runnable, "UIUpdateBatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long frameNanos;
+    private final Runnable pass = this::pass;
+
+    // Guarded by this
+    private final Map<Object, Runnable> pending = new LinkedHashMap<>();
+    private boolean scheduled = false;
+    private long lastPassNanos = 0;
+
+    private final AtomicLong posted = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong passes = new AtomicLong(0);
+
+    public UIUpdateBatcher()
+    {
+        this(DEFAULT_FPS);
+    }
+
+    public UIUpdateBatcher(final int fps)
+    {
+        this.frameNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, fps);
+    }
+
+    /*
+     * Runs update on the EDT in the next pass, unless another update with
+     * an equal key is posted first. Updates run in the order they were
+     * last posted.
+     */
+    public void post(final Object key, final Runnable update)
+    {
+        posted.incrementAndGet();
+        final long delayNanos;
+        synchronized (this)
+        {
+            if (pending.remove(key) != null)
+            {
+                coalesced.incrementAndGet();
+            }
+            pending.put(key, update);
+            if (scheduled)
+            {
+                return;
+            }
+            scheduled = true;
+            delayNanos = lastPassNanos + frameNanos - System.nanoTime();
+        }
+
+        if (delayNanos <= 0)
+        {
+            SwingUtilities.invokeLater(pass);
+        }
+        else
+        {
+            TIMER.schedule(() -> SwingUtilities.invokeLater(pass), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void pass()
+    {
+        final List<Runnable> updates;
+        synchronized (this)
+        {
+            updates = new ArrayList<>(pending.values());
+            pending.clear();
+            scheduled = false;
+            lastPassNanos = System.nanoTime();
+        }
+
+        passes.incrementAndGet();
+        for (Runnable update : updates)
+        {
+            try
+            {
+                update.run();
+            }
+            catch (RuntimeException ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    public long getPosted()
+    {
+        return posted.get();
+    }
+
+    // Updates dropped because a newer one with the same key replaced them
+    public long getCoalesced()
+    {
+        return coalesced.get();
+    }
+
+    public long getPasses()
+    {
+        return passes.get();
+    }
+}
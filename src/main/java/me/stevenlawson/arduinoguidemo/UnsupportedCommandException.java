@@ -0,0 +1,13 @@
+package me.stevenlawson.arduinoguidemo;
+
+/*
+ * A command was answered with "@ERROR,INVALID_COMMAND,...": the firmware on
+ * the board predates it.
+ */
+public class UnsupportedCommandException extends CommandFailedException
+{
+    public UnsupportedCommandException(final String command, final Message reply, final String replyLine)
+    {
+        super(command, reply, replyLine);
+    }
+}
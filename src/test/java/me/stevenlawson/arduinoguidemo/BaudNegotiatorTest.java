@@ -0,0 +1,90 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+public class BaudNegotiatorTest
+{
+    private static final long TIMEOUT_MS = 2_000;
+
+    private JSCSerialSession session;
+
+    // Firmware from before *BAUD, which answers it like any unknown command
+    private static class OldFirmware extends ArduinoEmulator
+    {
+        private volatile DataListener listener;
+
+        OldFirmware()
+        {
+            super(HeadlessRunner.EMULATOR_PORT);
+        }
+
+        @Override
+        public void setDataListener(final DataListener listener)
+        {
+            this.listener = listener;
+            super.setDataListener(listener);
+        }
+
+        @Override
+        public int writeBytes(final byte[] data, final int length)
+        {
+            if (new String(data, 0, length, StandardCharsets.UTF_8).startsWith("*BAUD,"))
+            {
+                final byte[] reply = "@ERROR,INVALID_COMMAND,*BAUD\r\n".getBytes(StandardCharsets.UTF_8);
+                CompletableFuture.runAsync(() -> listener.dataReceived(reply, reply.length));
+                return length;
+            }
+            return super.writeBytes(data, length);
+        }
+    }
+
+    private JSCSerialSession open(final ArduinoEmulator emulator) throws Exception
+    {
+        session = new JSCSerialSession(emulator.setTimeScale(0.01));
+        session.getStarted().get();
+        return session;
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (session != null)
+        {
+            session.terminate();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void negotiatesTheHighestRateUpToTheLimit() throws Exception
+    {
+        open(new ArduinoEmulator(HeadlessRunner.EMULATOR_PORT));
+        assertEquals(115200, BaudNegotiator.negotiate(session, 115200, TIMEOUT_MS));
+        assertEquals(115200, session.getBaudRate());
+    }
+
+    @Test(timeout = 30000)
+    public void oldFirmwareStaysAtItsRate() throws Exception
+    {
+        open(new OldFirmware());
+        try
+        {
+            session.changeBaudRate(115200, TIMEOUT_MS);
+            fail("*BAUD was accepted");
+        }
+        catch (UnsupportedCommandException ex)
+        {
+            assertEquals("@ERROR,INVALID_COMMAND,*BAUD", ex.getReply());
+        }
+
+        assertEquals(9600, BaudNegotiator.negotiate(session, 115200, TIMEOUT_MS));
+        assertEquals(9600, session.getBaudRate());
+        // Still answering at the old rate
+        assertEquals("@PONG", session.pingAsync(TIMEOUT_MS).get());
+    }
+}
@@ -0,0 +1,74 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.Test;
+
+public class BinaryNegotiationTest
+{
+    private static final long TIMEOUT_MS = 5_000;
+
+    private JSCSerialSession session;
+
+    @After
+    public void tearDown()
+    {
+        if (session != null)
+        {
+            session.terminate();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void trafficOnOtherLanesWaitsForTheSwitch() throws Exception
+    {
+        // Writes as they reach the board; ASCII until the switch, frames after
+        final List<String> written = Collections.synchronizedList(new ArrayList<>());
+        final ArduinoEmulator emulator = new ArduinoEmulator(HeadlessRunner.EMULATOR_PORT)
+        {
+            @Override
+            public int writeBytes(final byte[] data, final int length)
+            {
+                written.add(new String(data, 0, length, StandardCharsets.ISO_8859_1));
+                return super.writeBytes(data, length);
+            }
+        };
+        session = new JSCSerialSession(emulator.setBaudRate(115200).setTimeScale(0.01));
+        session.getStarted().get();
+
+        final List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            replies.add(session.sendCommandAsync("*PING\n", TIMEOUT_MS, "@PONG"));
+        }
+        final CompletableFuture<Boolean> negotiated = session.negotiateBinaryAsync(TIMEOUT_MS);
+        for (int i = 0; i < 20; i++)
+        {
+            replies.add(session.sendCommandAsync("*PING\n", TIMEOUT_MS, "@PONG"));
+            replies.add(session.blinkLEDAsync(1, TIMEOUT_MS, false));
+        }
+
+        assertTrue(negotiated.get());
+        assertTrue(session.isBinaryMode());
+        for (CompletableFuture<String> reply : replies)
+        {
+            reply.get();
+        }
+
+        // Nothing went out in ASCII after *BINARY
+        final int negotiation = written.indexOf(BinaryProtocol.NEGOTIATE_COMMAND + "\n");
+        assertTrue(negotiation >= 0);
+        for (String write : written.subList(negotiation + 1, written.size()))
+        {
+            assertTrue("sent after *BINARY: " + write.trim(), !write.startsWith("*"));
+        }
+        assertEquals("@PONG", session.pingAsync(TIMEOUT_MS).get());
+    }
+}
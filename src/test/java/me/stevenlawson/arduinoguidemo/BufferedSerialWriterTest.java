@@ -0,0 +1,80 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class BufferedSerialWriterTest
+{
+    private static LinkMetrics linkMetrics()
+    {
+        return new LinkMetrics("WRITER", new MessageRingBuffer(16, MessageRingBuffer.OverflowPolicy.DROP_OLDEST), () -> 0);
+    }
+
+    @Test
+    public void shortWritesAreRetriedAndNotCountedAsFailed()
+    {
+        // Takes nothing twice, then at most five bytes at a time
+        final ByteArrayOutputStream port = new ByteArrayOutputStream();
+        final int[] calls = {0};
+        final BufferedSerialWriter writer = new BufferedSerialWriter((data, length) ->
+        {
+            if (calls[0]++ < 2)
+            {
+                return 0;
+            }
+            final int written = Math.min(length, 5);
+            port.write(data, 0, written);
+            return written;
+        });
+        final LinkMetrics metrics = linkMetrics();
+        writer.setLinkMetrics(metrics);
+
+        assertTrue(writer.write("*BLINK_LED,3\n"));
+        assertEquals("*BLINK_LED,3\n", new String(port.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(0, writer.getFailedWriteCount());
+        assertEquals(0, metrics.getFailedPortWriteCount());
+        assertTrue(writer.getShortWriteCount() > 0);
+    }
+
+    @Test(timeout = 10000)
+    public void aPortThatTakesNothingFailsOnceAfterBackingOff()
+    {
+        final BufferedSerialWriter writer = new BufferedSerialWriter((data, length) -> 0);
+        final LinkMetrics metrics = linkMetrics();
+        writer.setLinkMetrics(metrics);
+
+        final long start = System.nanoTime();
+        assertFalse(writer.write("*PING\n"));
+        // A hundred retries a millisecond apart, rather than a spin
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, writer.getFailedWriteCount());
+        assertEquals(1, metrics.getFailedPortWriteCount());
+
+        // The failed bytes were discarded, so the next write starts clean
+        assertFalse(writer.write("*PING\n"));
+        assertEquals(2, metrics.getFailedPortWriteCount());
+    }
+
+    @Test
+    public void anErrorFailsAtOnce()
+    {
+        final int[] calls = {0};
+        final BufferedSerialWriter writer = new BufferedSerialWriter((data, length) ->
+        {
+            calls[0]++;
+            return -1;
+        });
+        final LinkMetrics metrics = linkMetrics();
+        writer.setLinkMetrics(metrics);
+
+        assertFalse(writer.write("*PING\n"));
+        assertEquals(1, calls[0]);
+        assertEquals(1, metrics.getFailedPortWriteCount());
+    }
+}
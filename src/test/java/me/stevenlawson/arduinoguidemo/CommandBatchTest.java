@@ -0,0 +1,147 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Test;
+
+public class CommandBatchTest
+{
+    private static final long TIMEOUT_MS = 5_000;
+
+    private JSCSerialSession session;
+
+    @After
+    public void tearDown()
+    {
+        if (session != null)
+        {
+            session.terminate();
+        }
+    }
+
+    @Test
+    public void linesFitTheBoardsInputBuffer()
+    {
+        final CommandBatch batch = new CommandBatch();
+        for (int i = 0; i < 40; i++)
+        {
+            batch.blinkLED(i);
+        }
+        final List<CommandBatch.Line> lines = batch.toLines();
+        assertTrue(lines.size() > 1);
+
+        int entries = 0;
+        for (CommandBatch.Line line : lines)
+        {
+            assertTrue(line.getText().startsWith(CommandBatch.COMMAND + ","));
+            // With its '\n' the line still fits, as the sketch keeps the last byte for its terminator
+            assertTrue(line.getText().length() + 1 < BinaryProtocol.SERIAL_INPUT_BUFFER_LEN);
+            entries += line.getEntries().size();
+        }
+        assertEquals(batch.size(), entries);
+    }
+
+    @Test
+    public void blinksAreSplitBelowTheBoardsQueueDepth()
+    {
+        final CommandBatch batch = new CommandBatch();
+        for (int i = 0; i < 20; i++)
+        {
+            batch.blinkLED(1);
+            batch.ping();
+        }
+        final List<CommandBatch.Line> lines = batch.toLines();
+        for (CommandBatch.Line line : lines)
+        {
+            int blinks = 0;
+            for (CommandBatch.Entry entry : line.getEntries())
+            {
+                if (entry.isBlink())
+                {
+                    blinks++;
+                }
+            }
+            assertTrue(blinks <= CommandBatch.MAX_BLINKS_PER_LINE);
+        }
+        assertEquals(3, lines.size());
+    }
+
+    @Test(timeout = 30000)
+    public void moreBlinksThanTheBoardQueuesAllRunAndFinish() throws Exception
+    {
+        session = new JSCSerialSession(new ArduinoEmulator(HeadlessRunner.EMULATOR_PORT).setTimeScale(0.01));
+        session.getStarted().get();
+
+        // One blink in the BULK lane, alongside a batch that would overflow the board's queue in one line
+        final CompletableFuture<String> laneBlink = session.blinkLEDAsync(1, TIMEOUT_MS, false);
+        final CommandBatch batch = new CommandBatch();
+        final List<CompletableFuture<String>> blinks = new ArrayList<>();
+        for (int i = 0; i < 2 * BinaryProtocol.BLINK_QUEUE_LEN + 3; i++)
+        {
+            blinks.add(batch.blinkLED(1));
+        }
+        final List<String> replies = session.sendBatchAsync(batch, TIMEOUT_MS).get();
+
+        assertEquals(blinks.size(), replies.size());
+        for (String reply : replies)
+        {
+            assertEquals("@BLINK_LED,FINISH", reply);
+        }
+        assertEquals("@BLINK_LED,FINISH", laneBlink.get());
+        assertEquals(0, session.getMetrics().forCommand("*BLINK_LED").getErrors());
+    }
+
+    @Test
+    public void unbatchableCommands()
+    {
+        assertTrue(CommandBatch.isBatchable("*PING"));
+        assertFalse(CommandBatch.isBatchable("*BAUD,9600"));
+        assertFalse(CommandBatch.isBatchable(BinaryProtocol.NEGOTIATE_COMMAND));
+        assertFalse(CommandBatch.isBatchable("*PING;*PING"));
+        assertFalse(CommandBatch.isBatchable("*" + new String(new char[CommandBatch.MAX_LINE_LENGTH]).replace('\0', 'X')));
+        assertArrayEquals(new String[] {"@PONG", "@ERROR,INVALID_COMMAND,*NOPE"}, CommandBatch.unpackReplies("@BATCH,2,@PONG;@ERROR,INVALID_COMMAND,*NOPE"));
+        assertEquals(0, CommandBatch.unpackReplies("@BATCH,2").length);
+    }
+
+    @Test(timeout = 30000)
+    public void aBatchLineIsCountedOnce() throws Exception
+    {
+        session = new JSCSerialSession(new ArduinoEmulator(HeadlessRunner.EMULATOR_PORT).setTimeScale(0.01));
+        session.getStarted().get();
+        final LinkMetrics link = session.getMetrics().getLink();
+        assertEquals("@PONG", session.pingAsync(TIMEOUT_MS).get());
+        final long lines = link.getLinesReceived();
+        final long errors = link.getErrorReplyCount();
+
+        final CommandBatch batch = new CommandBatch();
+        final CompletableFuture<String> first = batch.ping();
+        final CompletableFuture<String> invalid = batch.add("*NOPE", "@NOPE");
+        final CompletableFuture<String> last = batch.ping();
+        final CompletableFuture<List<String>> replies = session.sendBatchAsync(batch, TIMEOUT_MS);
+
+        assertEquals("@PONG", first.get());
+        assertEquals("@PONG", last.get());
+        try
+        {
+            invalid.get();
+            assertTrue("*NOPE succeeded", false);
+        }
+        catch (ExecutionException ex)
+        {
+            assertTrue(ex.getCause() instanceof UnsupportedCommandException);
+        }
+        assertTrue(replies.isCompletedExceptionally());
+
+        // One line on the wire, though the session handled three replies, one of them an error
+        assertEquals(lines + 1, link.getLinesReceived());
+        assertEquals(errors + 1, link.getErrorReplyCount());
+    }
+}
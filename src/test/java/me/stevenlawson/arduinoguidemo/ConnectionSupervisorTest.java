@@ -0,0 +1,125 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionSupervisorTest
+{
+    private static final long HEARTBEAT_MS = 100;
+    private static final long STATE_TIMEOUT_MS = 5_000;
+
+    private final BlockingQueue<ConnectionSupervisor.State> states = new LinkedBlockingQueue<>();
+    private ArduinoEmulator emulator;
+    private ConnectionSupervisor supervisor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        emulator = new ArduinoEmulator(HeadlessRunner.EMULATOR_PORT).setTimeScale(0.01);
+        supervisor = new ConnectionSupervisor(emulator.getPortName(), () -> new JSCSerialSession(emulator))
+                .setHeartbeat(HEARTBEAT_MS, HEARTBEAT_MS);
+        supervisor.setStateListener(states::add);
+        supervisor.start().get(STATE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertEquals(ConnectionSupervisor.State.CONNECTED, nextState());
+    }
+
+    @After
+    public void tearDown()
+    {
+        supervisor.close();
+    }
+
+    private ConnectionSupervisor.State nextState() throws InterruptedException
+    {
+        final ConnectionSupervisor.State state = states.poll(STATE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (state == null)
+        {
+            fail("No state change within " + STATE_TIMEOUT_MS + " ms; still " + supervisor.getCurrentState());
+        }
+        return state;
+    }
+
+    @Test(timeout = 30000)
+    public void pulledPortDisconnectsFailsPendingCommandsAndReconnects() throws Exception
+    {
+        final JSCSerialSession first = supervisor.getSession();
+        // Runs for about 20 s at this time scale, far longer than the test
+        final CompletableFuture<String> blink = first.blinkLEDAsync(1000, 60_000);
+        Thread.sleep(HEARTBEAT_MS);
+
+        emulator.unplug();
+        assertEquals(ConnectionSupervisor.State.RECONNECTING, nextState());
+        try
+        {
+            blink.get(1, TimeUnit.SECONDS);
+            fail("The blink survived the pulled cable");
+        }
+        catch (ExecutionException ex)
+        {
+            assertTrue(String.valueOf(ex.getCause()), ex.getCause() instanceof IOException);
+        }
+        assertEquals(1, supervisor.getDisconnects());
+
+        // Stays down while unplugged, retrying with backoff
+        Thread.sleep(3 * ConnectionSupervisor.MAX_BACKOFF_MS);
+        assertEquals(ConnectionSupervisor.State.RECONNECTING, supervisor.getCurrentState());
+        assertTrue(supervisor.getReconnectAttempts() >= 2);
+
+        final long replugged = System.nanoTime();
+        emulator.replug();
+        assertEquals(ConnectionSupervisor.State.CONNECTED, nextState());
+        final long reconnectMS = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - replugged);
+        // One backoff period, then the board's announcement after the reset on open
+        assertTrue("reconnected after " + reconnectMS + " ms", reconnectMS < ConnectionSupervisor.MAX_BACKOFF_MS + PortDiscovery.PING_AFTER_MS + 500);
+
+        assertEquals(1, supervisor.getReconnects());
+        assertTrue(supervisor.getSession() != first);
+        assertEquals("@PONG", supervisor.getSession().pingAsync(1_000).get());
+    }
+
+    @Test(timeout = 30000)
+    public void hungBoardFailsItsHeartbeatAndIsReset() throws Exception
+    {
+        emulator.hang();
+        assertEquals(ConnectionSupervisor.State.RECONNECTING, nextState());
+        assertEquals(1, supervisor.getHeartbeatFailures());
+        // Reopening the port resets the board, which clears the hang
+        assertEquals(ConnectionSupervisor.State.CONNECTED, nextState());
+        assertEquals("@PONG", supervisor.getSession().pingAsync(1_000).get());
+    }
+
+    @Test(timeout = 30000)
+    public void heldHeartbeatsKeepAQuietLinkUp() throws Exception
+    {
+        final JSCSerialSession session = supervisor.getSession();
+        supervisor.setHeartbeatsHeld(true);
+        emulator.hang();
+        Thread.sleep(10 * HEARTBEAT_MS);
+        assertEquals(ConnectionSupervisor.State.CONNECTED, supervisor.getCurrentState());
+        assertSame(session, supervisor.getSession());
+
+        supervisor.setHeartbeatsHeld(false);
+        assertEquals(ConnectionSupervisor.State.RECONNECTING, nextState());
+    }
+
+    @Test(timeout = 30000)
+    public void closeEndsTheSession() throws Exception
+    {
+        final JSCSerialSession session = supervisor.getSession();
+        supervisor.close();
+        assertEquals(ConnectionSupervisor.State.CLOSED, nextState());
+        assertTrue(!session.isReady());
+    }
+}
@@ -0,0 +1,283 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+public class LineFramerTest
+{
+    private static final String STREAM = "@STARTED\r\n@PONG\r\n\r\n  @BLINK_LED,START \r\n@SAMPLE,1234,512\r\n@ERROR,INVALID_COMMAND,*é\r\n";
+    private static final List<String> LINES = Arrays.asList("@STARTED", "@PONG", "@BLINK_LED,START", "@SAMPLE,1234,512", "@ERROR,INVALID_COMMAND,*é");
+
+    // Feeds the bytes in reads of the given sizes, repeating the last size, through both sinks
+    private static List<String> frame(final LineFramer framer, final byte[] bytes, final int... readSizes)
+    {
+        final List<String> lines = new ArrayList<>();
+        int offset = 0;
+        int read = 0;
+        while (offset < bytes.length)
+        {
+            final int length = Math.min(readSizes[Math.min(read++, readSizes.length - 1)], bytes.length - offset);
+            framer.feed(bytes, offset, length, lines::add);
+            offset += length;
+        }
+        return lines;
+    }
+
+    private static List<String> frameRaw(final LineFramer framer, final byte[] bytes, final int readSize)
+    {
+        final List<String> lines = new ArrayList<>();
+        for (int offset = 0; offset < bytes.length; offset += readSize)
+        {
+            framer.feedRaw(bytes, offset, Math.min(readSize, bytes.length - offset),
+                    (line, lineOffset, length) -> lines.add(new String(line, lineOffset, length, StandardCharsets.UTF_8)));
+        }
+        return lines;
+    }
+
+    private static byte[] bytes(final String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * The receive path LineFramer replaced, as it was: decode each read, split
+     * on '\n', trim, and carry the unterminated rest. The one change is the
+     * -1 limit, without which a read of nothing but '\n' threw
+     * ArrayIndexOutOfBoundsException; it gives the same lines otherwise.
+     */
+    private static List<String> legacyFrame(final byte[] bytes, final int[] readSizes)
+    {
+        final List<String> messages = new ArrayList<>();
+        String bufferCarry = "";
+        int offset = 0;
+        int read = 0;
+        while (offset < bytes.length)
+        {
+            final int length = Math.min(readSizes[Math.min(read++, readSizes.length - 1)], bytes.length - offset);
+            final String buffer = bufferCarry + new String(bytes, offset, length, StandardCharsets.US_ASCII);
+            offset += length;
+            bufferCarry = "";
+
+            final String[] lines = buffer.split("\\n", -1);
+            for (int i = 0; i < (lines.length - 1); i++)
+            {
+                final String line = StringUtils.trimToEmpty(lines[i]);
+                if (!line.isEmpty())
+                {
+                    messages.add(line);
+                }
+            }
+
+            final String lastLine = StringUtils.trimToEmpty(lines[lines.length - 1]);
+            if (buffer.endsWith("\n"))
+            {
+                if (!lastLine.isEmpty())
+                {
+                    messages.add(lastLine);
+                }
+            }
+            else
+            {
+                bufferCarry = lastLine;
+            }
+        }
+        return messages;
+    }
+
+    /*
+     * ASCII replies the way a board sends them: CRLF or bare LF, blank lines,
+     * and spaces or tabs around a line but never within one, since the old
+     * path trimmed its carry and so dropped whitespace at a read boundary.
+     * Every so often a line longer than the framers under test allow.
+     */
+    private static String replyStream(final Random random, final int lineCount)
+    {
+        final String[] replies = {"@STARTED", "@PONG", "@BLINK_LED,START", "@BLINK_LED,FINISH", "@SAMPLE,1234,512", "@ERROR,INVALID_COMMAND,*NOPE", "@BATCH,2,@PONG;@PONG"};
+        final String[] padding = {"", "", " ", "  ", "\t", " \t"};
+        final StringBuilder stream = new StringBuilder();
+        for (int i = 0; i < lineCount; i++)
+        {
+            switch (random.nextInt(8))
+            {
+                case 0:
+                    stream.append(padding[random.nextInt(padding.length)]);
+                    break;
+                case 1:
+                    stream.append(StringUtils.repeat("@SAMPLE,1234,512;", 1 + random.nextInt(10)));
+                    break;
+                default:
+                    stream.append(padding[random.nextInt(padding.length)])
+                            .append(replies[random.nextInt(replies.length)])
+                            .append(padding[random.nextInt(padding.length)]);
+                    break;
+            }
+            stream.append(random.nextBoolean() ? "\r\n" : "\n");
+        }
+        return stream.toString();
+    }
+
+    // Each line cut to its first maxLineLength bytes, line end aside, as LineFramer truncates it
+    private static byte[] truncateLines(final byte[] bytes, final int maxLineLength)
+    {
+        final StringBuilder truncated = new StringBuilder();
+        for (String line : new String(bytes, StandardCharsets.US_ASCII).split("\\n", -1))
+        {
+            truncated.append(line, 0, Math.min(line.length(), maxLineLength)).append('\n');
+        }
+        return bytes(truncated.substring(0, truncated.length() - 1));
+    }
+
+    @Test
+    public void manyLinesInOneRead()
+    {
+        final LineFramer framer = new LineFramer(StandardCharsets.UTF_8);
+        assertEquals(LINES, frame(framer, bytes(STREAM), Integer.MAX_VALUE));
+        assertEquals(0, framer.getCarrySize());
+    }
+
+    @Test
+    public void singleByteReads()
+    {
+        assertEquals(LINES, frame(new LineFramer(StandardCharsets.UTF_8), bytes(STREAM), 1));
+        assertEquals(LINES, frameRaw(new LineFramer(StandardCharsets.UTF_8), bytes(STREAM), 1));
+    }
+
+    @Test
+    public void everySplitPoint()
+    {
+        final byte[] stream = bytes(STREAM);
+        for (int split = 1; split < stream.length; split++)
+        {
+            assertEquals("split at " + split, LINES, frame(new LineFramer(StandardCharsets.UTF_8), stream, split, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void randomFragmentation()
+    {
+        final byte[] stream = bytes(STREAM);
+        final Random random = new Random(1);
+        for (int run = 0; run < 1000; run++)
+        {
+            final int[] readSizes = new int[stream.length];
+            for (int i = 0; i < readSizes.length; i++)
+            {
+                readSizes[i] = 1 + random.nextInt(12);
+            }
+            assertEquals(LINES, frame(new LineFramer(StandardCharsets.UTF_8), stream, readSizes));
+        }
+    }
+
+    @Test
+    public void crAndLfInSeparateReads()
+    {
+        final LineFramer framer = new LineFramer(StandardCharsets.UTF_8);
+        final List<String> lines = new ArrayList<>();
+        framer.feed(bytes("@PONG\r"), 0, 6, lines::add);
+        assertTrue(lines.isEmpty());
+        assertEquals(6, framer.getCarrySize());
+        framer.feed(bytes("\n@PO"), 0, 4, lines::add);
+        assertEquals(Arrays.asList("@PONG"), lines);
+        assertEquals(3, framer.getCarrySize());
+    }
+
+    @Test
+    public void multiByteCharacterSplitAcrossReads()
+    {
+        final byte[] line = bytes("*é\n");
+        // The two bytes of 'é' arrive in different reads
+        assertEquals(Arrays.asList("*é"), frame(new LineFramer(StandardCharsets.UTF_8), line, 2, 1));
+    }
+
+    @Test
+    public void overLongLinesAreTruncatedHoweverTheyArrive()
+    {
+        final int maxLineLength = 16;
+        final StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 40; i++)
+        {
+            longLine.append((char) ('a' + i % 26));
+        }
+        final byte[] stream = bytes(longLine + "\n@PONG\n");
+        final List<String> expected = Arrays.asList(longLine.substring(0, maxLineLength), "@PONG");
+
+        assertEquals(expected, frame(new LineFramer(StandardCharsets.UTF_8, 16, maxLineLength), stream, Integer.MAX_VALUE));
+        assertEquals(expected, frame(new LineFramer(StandardCharsets.UTF_8, 16, maxLineLength), stream, 1));
+        for (int split = 1; split < stream.length; split++)
+        {
+            assertEquals("split at " + split, expected, frame(new LineFramer(StandardCharsets.UTF_8, 16, maxLineLength), stream, split, Integer.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void carryIsBoundedWithoutALineEnd()
+    {
+        final LineFramer framer = new LineFramer(StandardCharsets.UTF_8, 16, 32);
+        final byte[] noise = new byte[1000];
+        Arrays.fill(noise, (byte) 'x');
+        framer.feed(noise, 0, noise.length, line ->
+        {
+        });
+        assertEquals(32, framer.getCarrySize());
+    }
+
+    @Test
+    public void feedLineStopsAfterTheFirstLine()
+    {
+        final LineFramer framer = new LineFramer(StandardCharsets.UTF_8);
+        final List<String> lines = new ArrayList<>();
+        final byte[] data = bytes("@BIN");
+        assertEquals(4, framer.feedLine(data, 0, data.length, lines::add));
+
+        final byte[] rest = bytes("ARY,OK\r\n\u0001\u0002\u0000");
+        final int consumed = framer.feedLine(rest, 0, rest.length, lines::add);
+        assertEquals(8, consumed);
+        assertEquals(Arrays.asList("@BINARY,OK"), lines);
+        assertEquals(0, framer.getCarrySize());
+    }
+
+    @Test
+    public void sameLinesAsTheStringPath()
+    {
+        final Random random = new Random(7);
+        for (int run = 0; run < 500; run++)
+        {
+            final byte[] stream = bytes(replyStream(random, 1 + random.nextInt(40)));
+            final int[] readSizes = new int[stream.length];
+            for (int i = 0; i < readSizes.length; i++)
+            {
+                // Mostly small reads, so lines and line ends are split every way, with an occasional large one
+                readSizes[i] = random.nextInt(10) == 0 ? 64 + random.nextInt(256) : 1 + random.nextInt(8);
+            }
+
+            final String context = "run " + run + ": " + StringUtils.abbreviate(new String(stream, StandardCharsets.US_ASCII), 200);
+            final List<String> expected = legacyFrame(stream, readSizes);
+            assertEquals(context, expected, frame(new LineFramer(StandardCharsets.UTF_8), stream, readSizes));
+            assertEquals(context, expected, frame(new LineFramer(StandardCharsets.UTF_8, 16, LineFramer.DEFAULT_MAX_LINE_LENGTH), stream, readSizes));
+
+            // Over-long lines are where the two part: the framer truncates them, as the old path would the same lines cut short
+            final int maxLineLength = 24;
+            assertEquals(context, legacyFrame(truncateLines(stream, maxLineLength), readSizes),
+                    frame(new LineFramer(StandardCharsets.UTF_8, 16, maxLineLength), stream, readSizes));
+        }
+    }
+
+    @Test
+    public void sameLinesAsTheStringPathForEveryReadSize()
+    {
+        final byte[] stream = bytes(replyStream(new Random(3), 30));
+        for (int readSize = 1; readSize <= stream.length; readSize++)
+        {
+            assertEquals("read size " + readSize, legacyFrame(stream, new int[] {readSize}),
+                    frame(new LineFramer(StandardCharsets.UTF_8), stream, readSize));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkMetricsExporterTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong lastRXTXTime = new AtomicLong(0);
+    private final MessageRingBuffer inbound = new MessageRingBuffer(16, MessageRingBuffer.OverflowPolicy.DROP_OLDEST);
+
+    // Traffic as the session and the handler record it: a ping, a @BATCH line holding two replies, one an error
+    private LinkMetrics linkMetrics(final String portName)
+    {
+        final LinkMetrics metrics = new LinkMetrics(portName, inbound, lastRXTXTime::get);
+        metrics.recordSent(6);
+        metrics.recordPortWrite();
+        metrics.recordReceived(7, 0);
+        metrics.recordPortRead();
+        metrics.recordLine();
+        metrics.recordReply(Message.of("@PONG"));
+        metrics.recordReceived(40, 3);
+        metrics.recordLine();
+        metrics.recordReply(Message.of("@PONG"));
+        metrics.recordReply(Message.of("@ERROR,INVALID_COMMAND,*NOPE"));
+        metrics.recordFailedPortWrite();
+        inbound.offer("@PONG");
+        return metrics;
+    }
+
+    private static String read(final Path file) throws IOException
+    {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void prometheusCountersAndGauges() throws IOException
+    {
+        final Path file = folder.getRoot().toPath().resolve("link.prom");
+        new LinkMetricsExporter(file).exportNow(linkMetrics("COM\"3"));
+
+        final String text = read(file);
+        final String labels = "{port=\"COM\\\"3\"}";
+        assertTrue(text, text.contains("# TYPE arduinoguidemo_link_received_lines_total counter\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_received_lines_total" + labels + " 2\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_received_bytes_total" + labels + " 47\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_port_writes_total" + labels + " 1\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_failed_port_writes_total" + labels + " 1\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_error_replies_total" + labels + " 1\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_invalid_command_replies_total" + labels + " 1\n"));
+        assertTrue(text, text.contains("# TYPE arduinoguidemo_link_carry_bytes gauge\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_highest_carry_bytes" + labels + " 3\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_inbound_queue_depth" + labels + " 1\n"));
+        assertTrue(text, text.contains("arduinoguidemo_link_idle_milliseconds" + labels + " -1\n"));
+    }
+
+    @Test
+    public void textGainsRatesFromTheSecondExport() throws IOException
+    {
+        final Path file = folder.getRoot().toPath().resolve("link.txt");
+        final LinkMetricsExporter exporter = new LinkMetricsExporter(file);
+        final LinkMetrics metrics = linkMetrics("COM3");
+
+        exporter.exportNow(metrics);
+        String text = read(file);
+        assertTrue(text, text.startsWith("port COM3\n"));
+        assertTrue(text, text.contains("lines_received 2\n"));
+        assertFalse(text, text.contains("per_second"));
+
+        lastRXTXTime.set(System.currentTimeMillis());
+        exporter.exportNow(metrics);
+        text = read(file);
+        assertTrue(text, text.contains("lines_received_per_second "));
+        assertFalse(text, text.contains("idle_ms -1"));
+
+        // The temporary files were moved over the export, not left behind
+        assertEquals(1, folder.getRoot().list().length);
+    }
+}
@@ -0,0 +1,63 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadGeneratorTest
+{
+    private static final long TIMEOUT_MS = 10_000;
+
+    private JSCSerialSession session;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        // A blink of 4 takes 175 ms here, longer than the 50 ms between blinks below, so they back up in the BULK lane
+        session = new JSCSerialSession(new ArduinoEmulator(HeadlessRunner.EMULATOR_PORT).setBaudRate(115200).setTimeScale(0.1));
+        assertTrue(session.awaitBoard(JSCSerialSession.STARTUP_TIMEOUT_MS / 2, JSCSerialSession.STARTUP_TIMEOUT_MS));
+    }
+
+    @After
+    public void tearDown()
+    {
+        session.terminate();
+    }
+
+    private long bulkSent()
+    {
+        return session.getScheduler().getLane(OutboundScheduler.Priority.BULK).getSentCount();
+    }
+
+    @Test(timeout = 30000)
+    public void everyBlinkIsSentAndNoneMerged() throws Exception
+    {
+        final long sentBefore = bulkSent();
+        final LoadGenerator generator = new LoadGenerator(session, 40, 1, 1, 4, TIMEOUT_MS);
+        generator.run(TimeUnit.SECONDS.toNanos(1));
+
+        // Open-loop: all 40 due commands were started, 20 of them blinks, however slowly the blinks finished
+        assertEquals(40, generator.getSucceeded());
+        assertEquals(0, generator.getFailures());
+        assertEquals(0, generator.getDropped());
+        assertEquals(0, generator.getMerged());
+        assertEquals(20, bulkSent() - sentBefore);
+    }
+
+    @Test(timeout = 30000)
+    public void commandsTurnedAwayAreDroppedNotFailed() throws Exception
+    {
+        session.getScheduler().getLane(OutboundScheduler.Priority.BULK).setCapacity(1);
+        final LoadGenerator generator = new LoadGenerator(session, 40, 1, 1, 4, TIMEOUT_MS);
+        generator.run(TimeUnit.SECONDS.toNanos(1));
+
+        assertTrue("dropped " + generator.getDropped(), generator.getDropped() > 0);
+        assertEquals(0, generator.getFailures());
+        assertEquals(0, generator.getMerged());
+        assertEquals(40, generator.getSucceeded() + generator.getDropped());
+    }
+}
@@ -0,0 +1,156 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class MessageRingBufferTest
+{
+    // Long enough that a consumer or producer that was never woken fails the test's timeout
+    private static final long WAIT_SECONDS = 60;
+
+    @Test
+    public void dropOldestKeepsTheNewestLines()
+    {
+        final MessageRingBuffer queue = new MessageRingBuffer(3, MessageRingBuffer.OverflowPolicy.DROP_OLDEST);
+        assertEquals(4, queue.getCapacity());
+        for (int i = 0; i < 10; i++)
+        {
+            assertTrue(queue.offer("@SAMPLE," + i));
+        }
+
+        assertEquals(4, queue.getDepth());
+        assertEquals(4, queue.getHighWaterMark());
+        assertEquals(10, queue.getOfferedCount());
+        assertEquals(6, queue.getDroppedCount());
+        for (int i = 6; i < 10; i++)
+        {
+            assertEquals("@SAMPLE," + i, queue.poll());
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void dropNewestRefusesTheIncomingLine()
+    {
+        final MessageRingBuffer queue = new MessageRingBuffer(2, MessageRingBuffer.OverflowPolicy.DROP_NEWEST);
+        assertTrue(queue.offer("@PONG,1"));
+        assertTrue(queue.offer("@PONG,2"));
+        assertFalse(queue.offer("@PONG,3"));
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("@PONG,1", queue.poll());
+        assertEquals("@PONG,2", queue.poll());
+    }
+
+    @Test(timeout = 30000)
+    public void aWaitingConsumerIsWokenByTheNextLine() throws Exception
+    {
+        final MessageRingBuffer queue = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy.DROP_OLDEST);
+        final CompletableFuture<String> polled = CompletableFuture.supplyAsync(() ->
+        {
+            try
+            {
+                return queue.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ex)
+            {
+                return null;
+            }
+        });
+
+        // Let the consumer park before the line arrives
+        Thread.sleep(100);
+        assertFalse(polled.isDone());
+        queue.offer("@PONG");
+        assertEquals("@PONG", polled.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 30000)
+    public void pollTimesOutWhenNothingArrives() throws Exception
+    {
+        final MessageRingBuffer queue = new MessageRingBuffer(4, MessageRingBuffer.OverflowPolicy.DROP_OLDEST);
+        final long start = System.nanoTime();
+        assertNull(queue.poll(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test(timeout = 30000)
+    public void aBlockedProducerIsWokenByAPoll() throws Exception
+    {
+        final MessageRingBuffer queue = new MessageRingBuffer(2, MessageRingBuffer.OverflowPolicy.BLOCK);
+        queue.offer("@PONG,1");
+        queue.offer("@PONG,2");
+        final CompletableFuture<Boolean> offered = CompletableFuture.supplyAsync(() -> queue.offer("@PONG,3"));
+
+        Thread.sleep(100);
+        assertFalse(offered.isDone());
+        assertEquals("@PONG,1", queue.poll());
+        assertTrue(offered.get(10, TimeUnit.SECONDS));
+        assertEquals("@PONG,2", queue.poll());
+        assertEquals("@PONG,3", queue.poll());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test(timeout = 60000)
+    public void dropOldestUnderConcurrentConsumers() throws Exception
+    {
+        final int lines = 200_000;
+        final MessageRingBuffer queue = new MessageRingBuffer(64, MessageRingBuffer.OverflowPolicy.DROP_OLDEST);
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        final AtomicLong received = new AtomicLong(0);
+
+        // Each consumer must see the lines in the order they were offered, none twice
+        final List<CompletableFuture<Boolean>> consumers = new ArrayList<>();
+        for (int c = 0; c < 2; c++)
+        {
+            consumers.add(CompletableFuture.supplyAsync(() ->
+            {
+                long last = -1;
+                try
+                {
+                    while (producing.get() || !queue.isEmpty())
+                    {
+                        final String line = queue.poll(10, TimeUnit.MILLISECONDS);
+                        if (line != null)
+                        {
+                            final long value = Long.parseLong(line);
+                            if (value <= last)
+                            {
+                                return false;
+                            }
+                            last = value;
+                            received.incrementAndGet();
+                        }
+                    }
+                }
+                catch (InterruptedException ex)
+                {
+                    return false;
+                }
+                return true;
+            }));
+        }
+
+        for (int i = 0; i < lines; i++)
+        {
+            queue.offer(Integer.toString(i));
+        }
+        producing.set(false);
+
+        for (CompletableFuture<Boolean> consumer : consumers)
+        {
+            assertTrue(consumer.get());
+        }
+        assertEquals(lines, queue.getOfferedCount());
+        assertEquals(lines, received.get() + queue.getDroppedCount());
+    }
+}
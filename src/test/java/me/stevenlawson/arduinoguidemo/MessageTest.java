@@ -0,0 +1,158 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class MessageTest
+{
+    private static boolean matches(final String line, final String pattern)
+    {
+        return Message.of(line).matches(Message.of(pattern));
+    }
+
+    @Test
+    public void matchesWholeTokensOnly()
+    {
+        assertTrue(matches("@BAUD,OK", "@BAUD,OK"));
+        assertTrue(matches("@BAUD,OK,115200", "@BAUD,OK"));
+        assertFalse(matches("@BAUD,OKAY", "@BAUD,OK"));
+        assertFalse(matches("@BAUD,O", "@BAUD,OK"));
+        assertFalse(matches("@BAUDRATE,OK", "@BAUD,OK"));
+
+        assertTrue(matches("@BLINK_LED,ERROR,BUSY", "@BLINK_LED,ERROR"));
+        assertTrue(matches("@BLINK_LED,ERROR,BUSY", "@BLINK_LED"));
+        assertFalse(matches("@BLINK_LED,ERROR", "@BLINK_LED,ERROR,BUSY"));
+        assertFalse(matches("@BLINK_LED,FINISH", "@BLINK_LED,ERROR"));
+
+        // A substring anywhere used to be enough
+        assertFalse(matches("@ERROR,INVALID_COMMAND,*PONG", "@PONG"));
+        assertFalse(matches("@STREAM,ERROR", "@ERROR"));
+    }
+
+    @Test
+    public void typesAndStatuses()
+    {
+        final Message message = Message.of("@BLINK_LED,FINISH");
+        assertEquals(Message.Type.BLINK_LED, message.getType());
+        assertEquals(Message.Status.FINISH, message.getStatus());
+        assertTrue(message.is(Message.Type.BLINK_LED, Message.Status.FINISH));
+
+        assertEquals(Message.Status.NONE, Message.of("@PONG").getStatus());
+        assertEquals(Message.Status.NONE, Message.of("@SAMPLE,123456,512").getStatus());
+        assertEquals(Message.Status.NONE, Message.of("@BLINK_LED,").getStatus());
+        assertEquals(Message.Status.OTHER, Message.of("@BAUD,MAYBE").getStatus());
+        assertEquals(Message.Status.INVALID_COMMAND, Message.of("@ERROR,INVALID_COMMAND,*NOPE").getStatus());
+
+        // "Nj" has the same hash as "OK", so the lookup has to compare the bytes
+        assertEquals("Nj".hashCode(), "OK".hashCode());
+        assertEquals(Message.Status.OTHER, Message.of("@BAUD,Nj").getStatus());
+    }
+
+    @Test
+    public void unknownReplyTypes()
+    {
+        for (String line : new String[] {"@FOO,OK", "PONG", "@pong", "@PONGS", "", ","})
+        {
+            assertEquals(line, Message.Type.UNKNOWN, Message.of(line).getType());
+        }
+
+        // Unknown types still match token by token, their leading token included
+        assertTrue(matches("@FOO,OK,1", "@FOO,OK"));
+        assertFalse(matches("@FOOD,OK", "@FOO,OK"));
+        assertFalse(matches("@FOO,OK", "@BAR,OK"));
+        assertFalse(matches("@FOO,OK", "@PONG"));
+    }
+
+    @Test
+    public void numericArguments()
+    {
+        final Message message = Message.of("@SAMPLE,123456,-512,0,-,12a,+5,");
+        assertEquals(Message.MAX_TOKENS, message.getTokenCount());
+        assertTrue(message.isNumber(1));
+        assertEquals(123456, message.getLong(1));
+        assertTrue(message.isNumber(2));
+        assertEquals(-512, message.getLong(2));
+        assertTrue(message.isNumber(3));
+        assertEquals(0, message.getLong(3));
+        assertFalse(message.isNumber(4));
+        assertFalse(message.isNumber(5));
+        assertEquals(0, message.getLong(5));
+        assertFalse(message.isNumber(6));
+        assertFalse(message.isNumber(7));
+        assertFalse(message.isNumber(0));
+        assertFalse(message.isNumber(42));
+        assertEquals(0, message.getLong(42));
+
+        // 18 digits always fit in a long; 19 might not, so they are not a number
+        final Message overflow = Message.of("@SAMPLE,999999999999999999,9999999999999999999,-999999999999999999");
+        assertTrue(overflow.isNumber(1));
+        assertEquals(999999999999999999L, overflow.getLong(1));
+        assertFalse(overflow.isNumber(2));
+        assertEquals(0, overflow.getLong(2));
+        assertTrue(overflow.isNumber(3));
+        assertEquals(-999999999999999999L, overflow.getLong(3));
+    }
+
+    @Test
+    public void tokensBeyondTheCapStayInTheLastOne()
+    {
+        final Message message = Message.of("@BATCH,9,@PONG;@PONG,a,b,c,d,e,f,g,h");
+        assertEquals(Message.MAX_TOKENS, message.getTokenCount());
+        assertEquals("@BATCH", message.getToken(0));
+        assertEquals("@PONG;@PONG", message.getToken(2));
+        assertEquals("e,f,g,h", message.getToken(Message.MAX_TOKENS - 1));
+        assertNull(message.getToken(Message.MAX_TOKENS));
+
+        // Exactly at the cap, the last token is a token like any other
+        final Message atCap = Message.of("@SAMPLE,1,2,3,4,5,6,7");
+        assertEquals(Message.MAX_TOKENS, atCap.getTokenCount());
+        assertTrue(atCap.isNumber(Message.MAX_TOKENS - 1));
+        assertEquals(7, atCap.getLong(Message.MAX_TOKENS - 1));
+        assertFalse(Message.of("@SAMPLE,1,2,3,4,5,6,7,8").isNumber(Message.MAX_TOKENS - 1));
+    }
+
+    @Test
+    public void oneMessageParsedAgainAndAgain()
+    {
+        final Message message = new Message();
+        final byte[] longLine = "@SAMPLE,1,2,3,4,5,6,7,8,9,10,11,12,13,14,15,16,17,18,19,20,21,22,23,24,25,26,27,28,29,30".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(Message.Type.SAMPLE, message.parse(longLine, 0, longLine.length).getType());
+        assertEquals(Message.MAX_TOKENS, message.getTokenCount());
+
+        // Nothing of the longer line carries over into a shorter one
+        assertEquals(Message.Type.PONG, message.parse("@PONG").getType());
+        assertEquals(1, message.getTokenCount());
+        assertEquals(Message.Status.NONE, message.getStatus());
+        assertFalse(message.isNumber(1));
+        assertEquals("@PONG", message.toString());
+
+        final Message kept = message.parse("@BAUD,OK,115200").copy();
+        assertEquals(Message.Status.OK, message.getStatus());
+        assertEquals(115200, message.getLong(2));
+
+        // A range in the middle of a larger buffer, as the receive path hands it over
+        final byte[] buffer = "xx@BLINK_LED,CANCELLED\r\nyy".getBytes(StandardCharsets.US_ASCII);
+        message.parse(buffer, 2, "@BLINK_LED,CANCELLED".length());
+        assertTrue(message.is(Message.Type.BLINK_LED, Message.Status.CANCELLED));
+        assertEquals(2, message.getTokenCount());
+
+        // The copy kept its own bytes
+        assertEquals("@BAUD,OK,115200", kept.toString());
+        assertTrue(kept.matches(Message.of("@BAUD,OK")));
+        assertFalse(message.matches(Message.of("@BAUD,OK")));
+    }
+
+    @Test
+    public void charactersOutsideLatin1()
+    {
+        final Message message = Message.of("@ERROR,INVALID_COMMAND,*€");
+        assertEquals(Message.Status.INVALID_COMMAND, message.getStatus());
+        assertEquals("*?", message.getToken(2));
+        assertEquals("*é", Message.of("@ERROR,INVALID_COMMAND,*é").getToken(2));
+    }
+}
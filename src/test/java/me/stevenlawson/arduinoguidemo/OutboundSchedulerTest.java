@@ -0,0 +1,85 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class OutboundSchedulerTest
+{
+    @Test(timeout = 10000)
+    public void repliesDoNotWaitForABlockedWrite() throws Exception
+    {
+        final OutboundScheduler scheduler = new OutboundScheduler(() -> 0);
+        final CompletableFuture<String> firstReply = new CompletableFuture<>();
+        final CompletableFuture<String> first = scheduler.submit(OutboundScheduler.Priority.INTERACTIVE, "*PING\n", "@PONG", 6, 5000,
+                remainingMS -> firstReply);
+
+        // The second command's write blocks, as a native write to a stalled port would
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread writer = new Thread(() -> scheduler.submit(OutboundScheduler.Priority.INTERACTIVE, "*PING\n", "@PONG", 6, 5000, remainingMS ->
+        {
+            writing.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException ex)
+            {
+            }
+            return CompletableFuture.completedFuture("@PONG");
+        }));
+        writer.start();
+        writing.await();
+
+        try
+        {
+            firstReply.complete("@PONG");
+            assertEquals("@PONG", first.get(2, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            release.countDown();
+            writer.join();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void higherPrioritiesAreWrittenFirst() throws Exception
+    {
+        final OutboundScheduler scheduler = new OutboundScheduler(() -> 0);
+        final List<String> written = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<String> blocker = new CompletableFuture<>();
+
+        // Fills BULK's single in-flight slot, so the next blink waits in its lane
+        scheduler.submit(OutboundScheduler.Priority.BULK, "*BLINK_LED,1\n", "@BLINK_LED,FINISH", 13, 5000, remainingMS ->
+        {
+            written.add("blink1");
+            return blocker;
+        });
+        final CompletableFuture<String> blink = scheduler.submit(OutboundScheduler.Priority.BULK, "*BLINK_LED,2\n", "@BLINK_LED,FINISH", 13, 5000, remainingMS ->
+        {
+            written.add("blink2");
+            return CompletableFuture.completedFuture("@BLINK_LED,FINISH");
+        });
+        final CompletableFuture<String> ping = scheduler.submit(OutboundScheduler.Priority.CONTROL, "*PING\n", "@PONG", 6, 5000, remainingMS ->
+        {
+            written.add("ping");
+            return CompletableFuture.completedFuture("@PONG");
+        });
+
+        assertEquals("@PONG", ping.get(2, TimeUnit.SECONDS));
+        assertFalse(blink.isDone());
+        blocker.complete("@BLINK_LED,FINISH");
+        assertEquals("@BLINK_LED,FINISH", blink.get(2, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("blink1", "ping", "blink2"), written);
+    }
+}
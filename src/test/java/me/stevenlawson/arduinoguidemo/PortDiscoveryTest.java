@@ -0,0 +1,117 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PortDiscoveryTest
+{
+    private static final long PROBE_TIMEOUT_MS = 1_000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, String> ports = new LinkedHashMap<>();
+    private final List<String> opened = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> closed = Collections.synchronizedList(new ArrayList<>());
+
+    // Opens an emulated board on BOARD, a port that never answers on SILENT and fails on anything else
+    private SerialTransport open(final String portName) throws IOException
+    {
+        opened.add(portName);
+        if (portName.equals("BOARD"))
+        {
+            return new ArduinoEmulator(portName).setTimeScale(0.01);
+        }
+        if (!portName.equals("SILENT"))
+        {
+            throw new IOException("No such port");
+        }
+        return new SerialTransport()
+        {
+            @Override
+            public String getPortName()
+            {
+                return portName;
+            }
+
+            @Override
+            public boolean setEnabled(final boolean enabled)
+            {
+                if (!enabled)
+                {
+                    closed.add(portName);
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isConnected()
+            {
+                return true;
+            }
+
+            @Override
+            public int writeBytes(final byte[] data, final int length)
+            {
+                return length;
+            }
+
+            @Override
+            public void setDataListener(final DataListener listener)
+            {
+            }
+        };
+    }
+
+    private PortDiscovery discovery()
+    {
+        final Path cacheFile = folder.getRoot().toPath().resolve("ports.properties");
+        return new PortDiscovery(() -> ports, this::open, cacheFile).setProbeTimeoutMS(PROBE_TIMEOUT_MS);
+    }
+
+    @Test
+    public void probeAnswersOnlyForABoard() throws IOException
+    {
+        final PortDiscovery discovery = discovery();
+        assertTrue(discovery.probe("BOARD"));
+        assertFalse(discovery.probe("SILENT"));
+        assertFalse(discovery.probe("MISSING"));
+        // The silent port is closed again after its probe times out
+        assertEquals(Collections.singletonList("SILENT"), closed);
+    }
+
+    @Test(timeout = 10000)
+    public void discoverFindsTheBoardAndRemembersIt() throws IOException
+    {
+        ports.put("SILENT", "USB serial");
+        ports.put("MISSING", "Bluetooth");
+        ports.put("BOARD", "Arduino Uno");
+        final PortDiscovery discovery = discovery();
+
+        final long start = System.currentTimeMillis();
+        assertEquals("BOARD", discovery.discover());
+        // The board answered without waiting for the silent port's timeout
+        assertTrue(System.currentTimeMillis() - start < PROBE_TIMEOUT_MS);
+
+        opened.clear();
+        assertEquals("BOARD", discovery.discover());
+        assertTrue("the cached port is used without probing", opened.isEmpty());
+
+        // A different device on the cached port is probed again
+        ports.put("BOARD", "Something else");
+        assertNull(discovery.getCachedPort());
+    }
+}
@@ -0,0 +1,107 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+public class SessionManagerTest
+{
+    private static final int POOL_SIZE = 4;
+    private static final int ROUNDS = 50;
+    private static final long TIMEOUT_MS = 5_000;
+    private static final long IDLE_MS = 1_000;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static class Usage
+    {
+        private int threads;
+        private long cpuNanosPerPing;
+        private long idleCpuNanos;
+    }
+
+    // CPU time of every live thread; threads that have ended since the last call are not counted, which only makes the figures lower
+    private static long cpuNanos()
+    {
+        long total = 0;
+        for (long id : THREADS.getAllThreadIds())
+        {
+            final long nanos = THREADS.getThreadCpuTime(id);
+            if (nanos > 0)
+            {
+                total += nanos;
+            }
+        }
+        return total;
+    }
+
+    private static Usage measure(final int boardCount) throws Exception
+    {
+        final Usage usage = new Usage();
+        try (SessionManager manager = new SessionManager(POOL_SIZE))
+        {
+            final List<CompletableFuture<JSCSerialSession>> opened = new ArrayList<>();
+            for (int i = 0; i < boardCount; i++)
+            {
+                opened.add(manager.open(new ArduinoEmulator("MANAGED" + i).setBaudRate(115200).setTimeScale(0.01)));
+            }
+            for (CompletableFuture<JSCSerialSession> future : opened)
+            {
+                future.get();
+            }
+            assertEquals(boardCount, manager.getBoardCount());
+
+            // Warm up, so the JIT's work is not charged to the first board count measured
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                manager.pingAll(TIMEOUT_MS).get();
+            }
+
+            final long start = cpuNanos();
+            for (int round = 0; round < ROUNDS; round++)
+            {
+                final Map<String, SessionManager.BoardResult<String>> results = manager.pingAll(TIMEOUT_MS).get();
+                assertEquals(boardCount, results.size());
+                for (SessionManager.BoardResult<String> result : results.values())
+                {
+                    assertTrue(result.toString(), result.isSuccess());
+                }
+            }
+            usage.cpuNanosPerPing = (cpuNanos() - start) / ((long) ROUNDS * boardCount);
+            usage.threads = THREADS.getThreadCount();
+
+            final long idleStart = cpuNanos();
+            Thread.sleep(IDLE_MS);
+            usage.idleCpuNanos = cpuNanos() - idleStart;
+        }
+        return usage;
+    }
+
+    @Test(timeout = 120000)
+    public void threadsAndCpuStayFlatAsBoardsAreAdded() throws Exception
+    {
+        assumeTrue(THREADS.isThreadCpuTimeSupported());
+        THREADS.setThreadCpuTimeEnabled(true);
+
+        final Usage one = measure(1);
+        final Usage many = measure(32);
+
+        // The pool's threads, at most, on top of what a single board needed
+        assertTrue(String.format("%d threads for 32 boards, %d for one", many.threads, one.threads),
+                many.threads <= one.threads + POOL_SIZE);
+        // Fanning out costs no more per board than a lone ping; a thread per board would show here
+        assertTrue(String.format("%d ns per ping for 32 boards, %d for one", many.cpuNanosPerPing, one.cpuNanosPerPing),
+                many.cpuNanosPerPing <= 3 * one.cpuNanosPerPing);
+        // Idle boards cost nothing: no polling or spinning while nothing is sent
+        assertTrue(String.format("%d ns idle CPU for 32 boards", many.idleCpuNanos),
+                many.idleCpuNanos < IDLE_MS * 1_000_000 / 10);
+    }
+}
@@ -0,0 +1,145 @@
+package me.stevenlawson.arduinoguidemo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionRecorderTest
+{
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void setUp()
+    {
+        directory = folder.getRoot().toPath();
+        System.setProperty(SessionRecorder.RECORD_DIR_PROPERTY, directory.toString());
+    }
+
+    @After
+    public void tearDown()
+    {
+        System.clearProperty(SessionRecorder.RECORD_DIR_PROPERTY);
+    }
+
+    private List<Path> segmentFiles() throws IOException
+    {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SessionRecorder.SEGMENT_SUFFIX))
+        {
+            for (Path file : stream)
+            {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @Test
+    public void rotationKeepsTheNewestSegments() throws IOException
+    {
+        try (SessionRecorder recorder = new SessionRecorder(directory, "rotate", SEGMENT_SIZE, 3))
+        {
+            final byte[] chunk = new byte[1000];
+            for (int i = 0; i < 40; i++)
+            {
+                recorder.recordInbound(chunk, chunk.length);
+            }
+            assertEquals(40, recorder.getRecordCount());
+            assertEquals(3, recorder.getSegments().size());
+            assertEquals(3, segmentFiles().size());
+            assertEquals(recorder.getCurrentSegment(), recorder.getSegments().get(2));
+        }
+    }
+
+    @Test
+    public void forPortSharesOneRecorderAcrossSessions() throws IOException
+    {
+        final SessionRecorder first = SessionRecorder.forPort("SHARED1");
+        final SessionRecorder second = SessionRecorder.forPort("SHARED1");
+        assertSame(first, second);
+        assertFalse(first == SessionRecorder.forPort("SHARED2"));
+
+        // Disabling a session's port leaves the shared recorder to the next session
+        final RecordingTransport transport = new RecordingTransport(new ArduinoEmulator("SHARED1"), first, false);
+        transport.setEnabled(true);
+        transport.setEnabled(false);
+        assertFalse(first.isClosed());
+    }
+
+    @Test
+    public void pruneDeletesTheOldestFilesButNotOpenSegments() throws IOException
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            final Path file = Files.createFile(directory.resolve(String.format("old-%02d%s", i, SessionRecorder.SEGMENT_SUFFIX)));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(1000000L * (i + 1)));
+        }
+        final Path unrelated = Files.createFile(directory.resolve("notes.txt"));
+        final SessionRecorder open = SessionRecorder.forPort("PRUNE");
+        Files.setLastModifiedTime(open.getCurrentSegment(), FileTime.fromMillis(0));
+
+        assertEquals(7, SessionRecorder.prune(directory, 3));
+        final List<Path> left = segmentFiles();
+        assertEquals(4, left.size());
+        assertTrue(left.contains(open.getCurrentSegment()));
+        assertTrue(left.contains(directory.resolve("old-09" + SessionRecorder.SEGMENT_SUFFIX)));
+        assertFalse(left.contains(directory.resolve("old-06" + SessionRecorder.SEGMENT_SUFFIX)));
+        assertTrue(Files.exists(unrelated));
+    }
+
+    @Test
+    public void writeDataIsRecordedAndPassedOnWhole() throws IOException
+    {
+        final List<String> written = new ArrayList<>();
+        final ArduinoEmulator emulator = new ArduinoEmulator("WRITE")
+        {
+            @Override
+            public boolean writeData(final String data)
+            {
+                written.add(data);
+                return true;
+            }
+        };
+
+        final SessionRecorder recorder = new SessionRecorder(directory, "write", SEGMENT_SIZE, 2);
+        try
+        {
+            final RecordingTransport transport = new RecordingTransport(emulator, recorder);
+            assertTrue(transport.writeData("*PING\n"));
+        }
+        finally
+        {
+            recorder.close();
+        }
+
+        // Read back once closed, when the segment holds everything that was recorded
+        final List<byte[]> recorded = new ArrayList<>();
+        SessionRecording.read(recorder.getCurrentSegment(), (nanos, direction, data, length) ->
+                recorded.add(Arrays.copyOf(data, length)));
+        assertEquals(1, recorded.size());
+        assertArrayEquals("*PING\n".getBytes(StandardCharsets.UTF_8), recorded.get(0));
+        assertEquals(1, written.size());
+    }
+}